@@ -0,0 +1,98 @@
+package org.wyona.security.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.wyona.security.core.api.Policy;
+import org.wyona.security.impl.PolicyManagerImplVersion2;
+import org.wyona.security.impl.util.PolicyAggregator;
+
+/**
+ * Benchmark of getPolicy(path, true), which aggregates the policies of all ancestors (see {@link org.wyona.security.impl.util.PolicyAggregator})
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AggregatePolicyBenchmark {
+
+    /**
+     * Depth of requested path, whereas every level has its own policy
+     */
+    @Param({"2", "8", "32"})
+    public int depth;
+
+    /**
+     * Number of group entries per policy
+     */
+    @Param({"1", "50"})
+    public int groups;
+
+    private PoliciesRepositoryBuilder builder;
+    private PolicyManagerImplVersion2 policyManager;
+    private String path;
+
+    /**
+     *
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        builder = new PoliciesRepositoryBuilder();
+        for (int i = 0; i <= depth; i++) {
+            String levelPath = PoliciesRepositoryBuilder.getPath(i);
+            builder.addCollection(levelPath);
+            builder.addPolicy(levelPath, PoliciesRepositoryBuilder.createPolicy(i % 2 == 0 ? "view" : "write", PoliciesRepositoryBuilder.createGroupIDs("group-" + i + "-", groups), true));
+        }
+        policyManager = new PolicyManagerImplVersion2(builder.build());
+        policyManager.setPolicyMapReloadInterval(0);
+        path = PoliciesRepositoryBuilder.getPath(depth);
+    }
+
+    /**
+     *
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        policyManager.shutdown();
+        builder.delete();
+    }
+
+    /**
+     * Get copy of memoized aggregated policy
+     */
+    @Benchmark
+    public Policy getAggregatedPolicy() throws Exception {
+        return policyManager.getPolicy(path, true);
+    }
+
+    /**
+     * Get memoized aggregated policy without copying it
+     */
+    @Benchmark
+    public Policy getAggregatedPolicyReadOnly() throws Exception {
+        return policyManager.getAggregatedPolicyReadOnly(path);
+    }
+
+    /**
+     * Aggregate policies of all ancestors without memoizing them
+     */
+    @Benchmark
+    public Policy aggregatePolicyUncached() throws Exception {
+        return PolicyAggregator.aggregatePolicy(path, policyManager);
+    }
+}
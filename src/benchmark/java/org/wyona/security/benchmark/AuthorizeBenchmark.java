@@ -0,0 +1,136 @@
+package org.wyona.security.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.wyona.security.core.api.Identity;
+import org.wyona.security.core.api.Usecase;
+import org.wyona.security.impl.PolicyManagerImplVersion2;
+
+/**
+ * Benchmark of authorize() for varying path depth, policy density, number of groups of the identity and size of the policy map.
+ * Every policy below the root denies a few groups of which the identity is not a member, such that the whole ancestor walk is evaluated and the root policy grants access by the last group of the identity.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AuthorizeBenchmark {
+
+    /**
+     * Depth of requested path
+     */
+    @Param({"2", "8", "32"})
+    public int depth;
+
+    /**
+     * Fraction of levels which have their own policy
+     */
+    @Param({"0.25", "1.0"})
+    public double policyDensity;
+
+    /**
+     * Number of groups of the identity
+     */
+    @Param({"1", "50", "200"})
+    public int groups;
+
+    /**
+     * Number of policy map matchers, none of which matches
+     */
+    @Param({"0", "100"})
+    public int policyMapSize;
+
+    private PoliciesRepositoryBuilder builder;
+    private PolicyManagerImplVersion2 policyManager;
+    private String path;
+    private Identity identity;
+    private Usecase view;
+    private Usecase delete;
+
+    /**
+     *
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        builder = new PoliciesRepositoryBuilder();
+        String[] memberGroups = PoliciesRepositoryBuilder.createGroupIDs("member-", groups);
+        builder.addPolicy("/", PoliciesRepositoryBuilder.createPolicy("view", new String[] {memberGroups[groups - 1]}, true));
+
+        int step = Math.max(1, (int) Math.round(1 / policyDensity));
+        for (int i = 1; i <= depth; i++) {
+            String levelPath = PoliciesRepositoryBuilder.getPath(i);
+            builder.addCollection(levelPath);
+            if (i % step == 0) {
+                builder.addPolicy(levelPath, PoliciesRepositoryBuilder.createPolicy("view", PoliciesRepositoryBuilder.createGroupIDs("other-" + i + "-", 10), false));
+            }
+        }
+
+        if (policyMapSize > 0) {
+            StringBuilder policyMap = new StringBuilder("<?xml version=\"1.0\"?>\n<policy-map>\n");
+            for (int i = 0; i < policyMapSize; i++) {
+                policyMap.append("  <matcher pattern=\"/section-").append(i).append("/*.html\" path=\"/.policy\"/>\n");
+            }
+            policyMap.append("</policy-map>\n");
+            builder.addFile("/policy-map.xml", policyMap.toString());
+        }
+
+        policyManager = new PolicyManagerImplVersion2(builder.build());
+        policyManager.setPolicyMapReloadInterval(0);
+        path = PoliciesRepositoryBuilder.getPath(depth) + "/index.html";
+        identity = new Identity("alice", memberGroups, "alice");
+        view = new Usecase("view");
+        delete = new Usecase("delete");
+        if (!policyManager.authorize(path, identity, view)) {
+            throw new IllegalStateException("Benchmark repository is not set up correctly: " + path);
+        }
+    }
+
+    /**
+     *
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        policyManager.shutdown();
+        builder.delete();
+    }
+
+    /**
+     * Access granted by the root policy after walking all ancestors
+     */
+    @Benchmark
+    public boolean authorizeGranted() throws Exception {
+        return policyManager.authorize(path, identity, view);
+    }
+
+    /**
+     * Access denied, because no policy contains the usecase
+     */
+    @Benchmark
+    public boolean authorizeUnknownUsecase() throws Exception {
+        return policyManager.authorize(path, identity, delete);
+    }
+
+    /**
+     * All usecases at once
+     */
+    @Benchmark
+    public String[] getPermittedUsecases() throws Exception {
+        return policyManager.getPermittedUsecases(path, null, identity);
+    }
+}
@@ -0,0 +1,142 @@
+package org.wyona.security.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.wyona.yarep.core.Repository;
+import org.wyona.yarep.core.RepositoryFactory;
+
+/**
+ * Generates a policies repository inside a temporary directory, such that benchmarks can vary the depth and density of policies, the number of groups and the size of the policy map.
+ */
+public class PoliciesRepositoryBuilder {
+
+    private final File dir;
+    private final File contentDir;
+
+    /**
+     *
+     */
+    public PoliciesRepositoryBuilder() throws IOException {
+        dir = File.createTempFile("policies-benchmark", "");
+        dir.delete();
+        contentDir = new File(dir, "content");
+        contentDir.mkdirs();
+        write(new File(dir, "repository.xml"), "<?xml version=\"1.0\"?>\n" +
+            "<repository class=\"org.wyona.yarep.impl.repo.vfs.VirtualFileSystemRepository\">\n" +
+            "  <name>Benchmark policies</name>\n" +
+            "  <content src=\"content\"/>\n" +
+            "  <meta src=\"yarep-meta\"/>\n" +
+            "</repository>\n");
+    }
+
+    /**
+     * Add policy
+     * @param path Path to which policy applies, e.g. "/l0/l1"
+     * @param xml Policy XML
+     */
+    public PoliciesRepositoryBuilder addPolicy(String path, String xml) throws IOException {
+        return addFile((path.equals("/") ? "/" : path) + ".policy", xml);
+    }
+
+    /**
+     * Add file, e.g. policy map
+     * @param path Path of file, e.g. "/policy-map.xml"
+     */
+    public PoliciesRepositoryBuilder addFile(String path, String content) throws IOException {
+        File file = new File(contentDir, path.substring(1));
+        file.getParentFile().mkdirs();
+        write(file, content);
+        return this;
+    }
+
+    /**
+     * Create collection without policy
+     * @param path Path of collection, e.g. "/l0/l1"
+     */
+    public PoliciesRepositoryBuilder addCollection(String path) {
+        new File(contentDir, path.substring(1)).mkdirs();
+        return this;
+    }
+
+    /**
+     * Open repository
+     */
+    public Repository build() throws Exception {
+        return new RepositoryFactory().newRepository("policies-benchmark", new File(dir, "repository.xml"));
+    }
+
+    /**
+     * Delete temporary directory
+     */
+    public void delete() {
+        delete(dir);
+    }
+
+    /**
+     *
+     */
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (int i = 0; i < children.length; i++) {
+                delete(children[i]);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     *
+     */
+    private static void write(File file, String content) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Get path of a particular depth, e.g. "/l0/l1/l2"
+     */
+    public static String getPath(int depth) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            sb.append("/l").append(i);
+        }
+        return sb.length() > 0 ? sb.toString() : "/";
+    }
+
+    /**
+     * Create policy XML with one usecase
+     * @param usecase Usecase ID
+     * @param groupIDs Groups, which all get the same permission
+     * @param permission Permission of groups
+     */
+    public static String createPolicy(String usecase, String[] groupIDs, boolean permission) {
+        StringBuilder sb = new StringBuilder("<?xml version=\"1.0\"?>\n<policy xmlns=\"http://www.wyona.org/security/1.0\">\n");
+        sb.append("  <usecase id=\"").append(usecase).append("\">\n");
+        for (int i = 0; i < groupIDs.length; i++) {
+            sb.append("    <group id=\"").append(groupIDs[i]).append("\" permission=\"").append(permission).append("\"/>\n");
+        }
+        sb.append("  </usecase>\n</policy>\n");
+        return sb.toString();
+    }
+
+    /**
+     * Create group IDs
+     * @param prefix Prefix of group IDs, e.g. "member-"
+     * @param count Number of groups
+     */
+    public static String[] createGroupIDs(String prefix, int count) {
+        String[] groupIDs = new String[count];
+        for (int i = 0; i < count; i++) {
+            groupIDs[i] = prefix + i;
+        }
+        return groupIDs;
+    }
+}
@@ -0,0 +1,103 @@
+package org.wyona.security.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.wyona.security.core.GroupPolicy;
+import org.wyona.security.core.UsecasePolicy;
+import org.wyona.security.core.api.Identity;
+import org.wyona.security.core.api.Policy;
+import org.wyona.security.core.api.Usecase;
+import org.wyona.security.impl.PolicyManagerImplVersion2;
+
+/**
+ * Benchmark of setPolicy() followed by getPolicy() and authorize() of the same path, i.e. a round-trip through the repository including invalidation of cached policies and decisions
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(1)
+@State(Scope.Benchmark)
+public class SetPolicyBenchmark {
+
+    /**
+     * Depth of path whose policy is set
+     */
+    @Param({"2", "8"})
+    public int depth;
+
+    /**
+     * Number of group entries per usecase
+     */
+    @Param({"1", "50"})
+    public int groups;
+
+    private PoliciesRepositoryBuilder builder;
+    private PolicyManagerImplVersion2 policyManager;
+    private String path;
+    private Policy policy;
+    private Identity identity;
+    private Usecase view;
+
+    /**
+     *
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        builder = new PoliciesRepositoryBuilder();
+        builder.addPolicy("/", PoliciesRepositoryBuilder.createPolicy("view", new String[] {"admin"}, true));
+        for (int i = 1; i <= depth; i++) {
+            builder.addCollection(PoliciesRepositoryBuilder.getPath(i));
+        }
+        policyManager = new PolicyManagerImplVersion2(builder.build());
+        policyManager.setPolicyMapReloadInterval(0);
+        path = PoliciesRepositoryBuilder.getPath(depth);
+
+        policy = policyManager.createEmptyPolicy();
+        String[] usecases = {"view", "open", "write", "delete"};
+        for (int i = 0; i < usecases.length; i++) {
+            UsecasePolicy usecasePolicy = new UsecasePolicy(usecases[i]);
+            for (int k = 0; k < groups; k++) {
+                usecasePolicy.addGroupPolicy(new GroupPolicy("group-" + k, true));
+            }
+            policy.addUsecasePolicy(usecasePolicy);
+        }
+        identity = new Identity("alice", new String[] {"group-0"}, "alice");
+        view = new Usecase("view");
+    }
+
+    /**
+     *
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        policyManager.shutdown();
+        builder.delete();
+    }
+
+    /**
+     *
+     */
+    @Benchmark
+    public boolean setPolicyRoundTrip() throws Exception {
+        policyManager.setPolicy(path, policy);
+        Policy read = policyManager.getPolicy(path, false);
+        return read != null && policyManager.authorize(path, identity, view);
+    }
+}
@@ -0,0 +1,190 @@
+package org.wyona.security.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Subtrees of a root path which a particular identity is authorized or not authorized to access (see {@link org.wyona.security.core.api.PolicyManager#getAccessibleSubtrees(String, org.wyona.security.core.api.Identity, org.wyona.security.core.api.Usecase)}),
+ * such that the entries of a content listing, a sitemap or search results can be filtered by prefix checks instead of authorizing every entry.
+ * Every subtree consists of a path and all its descendants, whereas a nested subtree overrides the decision of the subtree containing it. Subtrees which would not change the decision of the subtree containing them are not added, hence the subtrees are maximal.
+ */
+public class AccessibleSubtrees {
+
+    private final String rootPath;
+    private final String usecase;
+    private final List<Subtree> subtrees = new ArrayList<Subtree>();
+
+    /**
+     * @param rootPath Root path, e.g. "/hello"
+     * @param usecase Name of usecase
+     * @param granted Decision of root path, which applies to all descendants which are not contained by a nested subtree
+     */
+    public AccessibleSubtrees(String rootPath, String usecase, boolean granted) {
+        this.rootPath = normalize(rootPath);
+        this.usecase = usecase;
+        subtrees.add(new Subtree(this.rootPath, granted));
+    }
+
+    /**
+     * Add subtree, whereas subtrees have to be added such that ancestors are added before their descendants, e.g. ordered by path
+     * @param path Path of subtree, e.g. "/hello/world"
+     * @param granted Decision of path, which applies to all descendants which are not contained by a nested subtree
+     * @return True if the subtree has been added and false if it would not change the decision of the subtree containing it
+     * @throws IllegalArgumentException If path is not contained by the root path
+     */
+    public boolean add(String path, boolean granted) {
+        String normalizedPath = normalize(path);
+        Subtree enclosing = getSubtree(normalizedPath);
+        if (enclosing == null) {
+            throw new IllegalArgumentException("Path '" + path + "' is not contained by root path '" + rootPath + "'");
+        }
+        if (enclosing.isGranted() == granted) {
+            return false;
+        }
+        subtrees.add(new Subtree(normalizedPath, granted));
+        return true;
+    }
+
+    /**
+     * Check whether a path is accessible, whereby the nearest subtree containing the path decides
+     * @param path Path, e.g. "/hello/world/index.html"
+     * @return True if accessible and false otherwise or if the path is not contained by the root path
+     */
+    public boolean isGranted(String path) {
+        Subtree subtree = getSubtree(normalize(path));
+        return subtree != null && subtree.isGranted();
+    }
+
+    /**
+     * Get nearest subtree containing a path
+     * @param path Normalized path
+     * @return Subtree or null if the path is not contained by the root path
+     */
+    private Subtree getSubtree(String path) {
+        // INFO: All subtrees containing the path are ancestors of each other and descendants have been added after their ancestors
+        for (int i = subtrees.size() - 1; i >= 0; i--) {
+            if (contains(subtrees.get(i).getPath(), path)) {
+                return subtrees.get(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get root path
+     */
+    public String getRootPath() {
+        return rootPath;
+    }
+
+    /**
+     * Get name of usecase
+     */
+    public String getUsecase() {
+        return usecase;
+    }
+
+    /**
+     * Get all subtrees, starting with the root path, whereas ancestors are listed before their descendants
+     */
+    public List<Subtree> getSubtrees() {
+        return Collections.unmodifiableList(subtrees);
+    }
+
+    /**
+     * Get paths of all accessible subtrees
+     */
+    public List<String> getGrantedSubtrees() {
+        return getSubtrees(true);
+    }
+
+    /**
+     * Get paths of all subtrees which are not accessible
+     */
+    public List<String> getDeniedSubtrees() {
+        return getSubtrees(false);
+    }
+
+    /**
+     * Get paths of all subtrees with a particular decision
+     */
+    private List<String> getSubtrees(boolean granted) {
+        List<String> paths = new ArrayList<String>();
+        for (int i = 0; i < subtrees.size(); i++) {
+            if (subtrees.get(i).isGranted() == granted) {
+                paths.add(subtrees.get(i).getPath());
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * Check whether a subtree contains a path, whereby only complete path segments match, e.g. "/hello" contains "/hello" and "/hello/world.html", but not "/hello-world.html"
+     * @param subtree Path of subtree without trailing slash (except ROOT)
+     * @param path Path without trailing slash (except ROOT)
+     */
+    public static boolean contains(String subtree, String path) {
+        if (!path.startsWith(subtree)) {
+            return false;
+        }
+        return path.length() == subtree.length() || subtree.equals("/") || path.charAt(subtree.length()) == '/';
+    }
+
+    /**
+     * Remove trailing slash (except ROOT)
+     */
+    private static String normalize(String path) {
+        if (path.length() > 1 && path.endsWith("/")) {
+            return path.substring(0, path.length() - 1);
+        }
+        return path;
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Usecase '").append(usecase).append("' below '").append(rootPath).append("':");
+        for (int i = 0; i < subtrees.size(); i++) {
+            sb.append(System.getProperty("line.separator")).append("  ").append(subtrees.get(i));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Path and all its descendants, which are not contained by a nested subtree
+     */
+    public static class Subtree {
+
+        private final String path;
+        private final boolean granted;
+
+        private Subtree(String path, boolean granted) {
+            this.path = path;
+            this.granted = granted;
+        }
+
+        /**
+         * Get path of subtree, e.g. "/hello/world"
+         */
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * Check whether this subtree is accessible
+         */
+        public boolean isGranted() {
+            return granted;
+        }
+
+        /**
+         * @see java.lang.Object#toString()
+         */
+        public String toString() {
+            return path + ": " + (granted ? "granted" : "denied");
+        }
+    }
+}
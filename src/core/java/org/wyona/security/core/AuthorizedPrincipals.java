@@ -0,0 +1,285 @@
+package org.wyona.security.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.wyona.security.core.api.AccessManagementException;
+import org.wyona.security.core.api.Group;
+import org.wyona.security.core.api.GroupManager;
+import org.wyona.security.core.api.Item;
+import org.wyona.security.core.api.User;
+
+/**
+ * Users, groups and world which are authorized or not authorized to execute a usecase on a path (see {@link org.wyona.security.core.api.PolicyManager#getAuthorizedPrincipals(String, org.wyona.security.core.api.Usecase)}), e.g. in order to review who can access a path.
+ * The entries of the usecase are collected during one walk through the ancestor policies, starting with the policy of the path, until a policy decides for everyone (because of a world entry or because inheritance is disabled).
+ * Decisions are resolved like authorization requests, whereas the nearest policy with a matching entry decides and the entry with the lowest position wins within one policy.
+ * Entries of IP ranges and hosts are not collected, because they depend on the client address of a request.
+ */
+public class AuthorizedPrincipals {
+
+    private final String path;
+    private final String usecase;
+    private final List<Level> levels = new ArrayList<Level>();
+
+    /**
+     * @param path Requested path
+     * @param usecase Name of requested usecase
+     */
+    public AuthorizedPrincipals(String path, String usecase) {
+        this.path = path;
+        this.usecase = usecase;
+    }
+
+    /**
+     * Add policy which is checked next
+     * @param policyPath Path of policy node, e.g. "/hello.policy"
+     * @param useInheritedPolicies Flag whether the policy inherits from its parent policy, otherwise everyone who is not matched by an entry is denied
+     */
+    public void addLevel(String policyPath, boolean useInheritedPolicies) {
+        levels.add(new Level(policyPath, useInheritedPolicies));
+    }
+
+    /**
+     * Add entry of the requested usecase to the policy which has been added last
+     * @param type Type of principal, either {@link DecisionTrace#WORLD}, {@link DecisionTrace#USER} or {@link DecisionTrace#GROUP}
+     * @param id ID of user or group, or null for world
+     * @param position Position of entry within policy, whereas the entry with the lowest position wins
+     * @param granted Permission of entry
+     */
+    public void addEntry(String type, String id, int position, boolean granted) {
+        if (levels.isEmpty()) {
+            throw new IllegalStateException("No policy has been added yet");
+        }
+        Level level = levels.get(levels.size() - 1);
+        Entry entry = new Entry(type, id, position, granted);
+        int i = level.entries.size();
+        while (i > 0 && level.entries.get(i - 1).position > position) {
+            i--;
+        }
+        level.entries.add(i, entry);
+    }
+
+    /**
+     * Check whether a user, who is member of particular groups, is authorized
+     * @param userID User ID or null for world
+     * @param groupIDs IDs of the groups of the user (including parent groups) or null
+     */
+    public boolean isGranted(String userID, Collection<String> groupIDs) {
+        for (int i = 0; i < levels.size(); i++) {
+            Level level = levels.get(i);
+            for (int k = 0; k < level.entries.size(); k++) {
+                Entry entry = level.entries.get(k);
+                if (entry.matches(userID, groupIDs)) {
+                    return entry.granted;
+                }
+            }
+            if (!level.useInheritedPolicies) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check whether world (and hence every user who is not matched by another entry) is authorized
+     */
+    public boolean isWorldGranted() {
+        return isGranted(null, null);
+    }
+
+    /**
+     * Get users who are authorized by an entry of their own, independent of their groups
+     */
+    public Set<String> getGrantedUsers() {
+        return getPrincipals(DecisionTrace.USER, true);
+    }
+
+    /**
+     * Get users who are denied by an entry of their own, independent of their groups
+     */
+    public Set<String> getDeniedUsers() {
+        return getPrincipals(DecisionTrace.USER, false);
+    }
+
+    /**
+     * Get groups whose members are authorized, unless an entry of a member or of another group of a member with a lower position denies access
+     */
+    public Set<String> getGrantedGroups() {
+        return getPrincipals(DecisionTrace.GROUP, true);
+    }
+
+    /**
+     * Get groups whose members are denied, unless an entry of a member or of another group of a member with a lower position grants access
+     */
+    public Set<String> getDeniedGroups() {
+        return getPrincipals(DecisionTrace.GROUP, false);
+    }
+
+    /**
+     * Get users or groups which are mentioned by an entry and whose effective decision (if matched by nothing else than world) is a particular permission
+     */
+    private Set<String> getPrincipals(String type, boolean granted) {
+        Set<String> principals = new LinkedHashSet<String>();
+        for (String id : getIDs(type)) {
+            boolean decision = type.equals(DecisionTrace.USER) ? isGranted(id, null) : isGranted(null, Collections.singleton(id));
+            if (decision == granted) {
+                principals.add(id);
+            }
+        }
+        return principals;
+    }
+
+    /**
+     * Get IDs of all users or groups which are mentioned by an entry, ordered from the nearest policy
+     */
+    private Set<String> getIDs(String type) {
+        Set<String> ids = new LinkedHashSet<String>();
+        for (int i = 0; i < levels.size(); i++) {
+            for (Entry entry : levels.get(i).entries) {
+                if (entry.type.equals(type)) {
+                    ids.add(entry.id);
+                }
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Expand the groups which are mentioned by an entry to their members (including the members of sub-groups) and resolve the effective decision of every user who is mentioned by an entry or member of such a group
+     * @param groupManager Group manager of the identities which are referenced by the policies
+     * @return Decisions by user ID, whereas users who are not contained get the decision of world (see {@link #isWorldGranted()})
+     */
+    public Map<String, Boolean> getEffectiveUsers(GroupManager groupManager) throws AccessManagementException {
+        // INFO: Only groups which are mentioned by an entry matter, hence the membership of every user is resolved relative to these groups
+        Map<String, Set<String>> groupsOfUsers = new LinkedHashMap<String, Set<String>>();
+        for (String userID : getIDs(DecisionTrace.USER)) {
+            groupsOfUsers.put(userID, new HashSet<String>());
+        }
+        for (String groupID : getIDs(DecisionTrace.GROUP)) {
+            if (groupManager.existsGroup(groupID)) {
+                addMembers(groupManager.getGroup(groupID), groupID, groupsOfUsers, new HashSet<String>());
+            }
+        }
+
+        Map<String, Boolean> users = new LinkedHashMap<String, Boolean>();
+        for (Map.Entry<String, Set<String>> user : groupsOfUsers.entrySet()) {
+            users.put(user.getKey(), Boolean.valueOf(isGranted(user.getKey(), user.getValue())));
+        }
+        return users;
+    }
+
+    /**
+     * Add the users of a group and of its sub-groups as members of a group which is mentioned by an entry
+     * @param visited IDs of groups which have been expanded already, such that cycles of the group graph terminate
+     */
+    private static void addMembers(Group group, String groupID, Map<String, Set<String>> groupsOfUsers, Set<String> visited) throws AccessManagementException {
+        if (!visited.add(group.getID())) {
+            return;
+        }
+        Item[] members = group.getMembers();
+        if (members == null) {
+            return;
+        }
+        for (int i = 0; i < members.length; i++) {
+            if (members[i] instanceof User) {
+                Set<String> groups = groupsOfUsers.get(members[i].getID());
+                if (groups == null) {
+                    groups = new HashSet<String>();
+                    groupsOfUsers.put(members[i].getID(), groups);
+                }
+                groups.add(groupID);
+            } else if (members[i] instanceof Group) {
+                addMembers((Group) members[i], groupID, groupsOfUsers, visited);
+            }
+        }
+    }
+
+    /**
+     * Get requested path
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Get name of requested usecase
+     */
+    public String getUsecase() {
+        return usecase;
+    }
+
+    /**
+     * Get paths of the checked policy nodes, starting with the nearest policy
+     */
+    public List<String> getPolicyPaths() {
+        List<String> policyPaths = new ArrayList<String>();
+        for (int i = 0; i < levels.size(); i++) {
+            policyPaths.add(levels.get(i).policyPath);
+        }
+        return policyPaths;
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Usecase '").append(usecase).append("' on '").append(path).append("': world ").append(isWorldGranted() ? "granted" : "denied");
+        sb.append(", granted users ").append(getGrantedUsers()).append(", denied users ").append(getDeniedUsers());
+        sb.append(", granted groups ").append(getGrantedGroups()).append(", denied groups ").append(getDeniedGroups());
+        return sb.toString();
+    }
+
+    /**
+     * Entries of one policy
+     */
+    private static class Level {
+
+        private final String policyPath;
+        private final boolean useInheritedPolicies;
+        private final List<Entry> entries = new ArrayList<Entry>();
+
+        private Level(String policyPath, boolean useInheritedPolicies) {
+            this.policyPath = policyPath;
+            this.useInheritedPolicies = useInheritedPolicies;
+        }
+    }
+
+    /**
+     * Entry of a principal
+     */
+    private static class Entry {
+
+        private final String type;
+        private final String id;
+        private final int position;
+        private final boolean granted;
+
+        private Entry(String type, String id, int position, boolean granted) {
+            this.type = type;
+            this.id = id;
+            this.position = position;
+            this.granted = granted;
+        }
+
+        /**
+         * Check whether this entry matches a user
+         */
+        boolean matches(String userID, Collection<String> groupIDs) {
+            if (type.equals(DecisionTrace.WORLD)) {
+                return true;
+            }
+            if (type.equals(DecisionTrace.USER)) {
+                return id.equals(userID);
+            }
+            return type.equals(DecisionTrace.GROUP) && groupIDs != null && groupIDs.contains(id);
+        }
+    }
+}
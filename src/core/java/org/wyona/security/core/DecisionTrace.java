@@ -0,0 +1,237 @@
+package org.wyona.security.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Structured trace of one authorization decision (see {@link org.wyona.security.core.api.PolicyManager#explain(String, String, org.wyona.security.core.api.Identity, org.wyona.security.core.api.Usecase)}),
+ * which lists every policy level which has been checked, the principal entry which matched and the reason why the walk through the ancestor policies stopped.
+ */
+public class DecisionTrace {
+
+    /**
+     * Policy does not decide, hence the parent policy is checked
+     */
+    public static final int INHERIT = 0;
+    /**
+     * Policy grants access
+     */
+    public static final int GRANTED = 1;
+    /**
+     * Policy denies access
+     */
+    public static final int DENIED = 2;
+
+    public static final String WORLD = "world";
+    public static final String USER = "user";
+    public static final String GROUP = "group";
+    public static final String IPRANGE = "iprange";
+    public static final String HOST = "host";
+
+    private final String path;
+    private final String usecase;
+    private final List<Level> levels = new ArrayList<Level>();
+    private boolean granted;
+    private String reason;
+
+    /**
+     * @param path Requested path
+     * @param usecase Name of requested usecase
+     */
+    public DecisionTrace(String path, String usecase) {
+        this.path = path;
+        this.usecase = usecase;
+    }
+
+    /**
+     * Add policy level which is checked next
+     * @param path Path of level
+     * @param policyPath Path of policy node
+     * @param policyExists Flag whether policy node exists
+     */
+    public void addLevel(String path, String policyPath, boolean policyExists) {
+        levels.add(new Level(path, policyPath, policyExists));
+    }
+
+    /**
+     * Set decision of the policy level which has been added last
+     * @param decision GRANTED, DENIED or INHERIT
+     * @param principalType Type of matching principal (WORLD, USER or GROUP) or null if no principal matched
+     * @param principalId ID of matching user or group, otherwise null
+     * @param reason Explanation of decision, e.g. "Policy inheritance disabled"
+     */
+    public void setDecision(int decision, String principalType, String principalId, String reason) {
+        if (levels.isEmpty()) {
+            throw new IllegalStateException("No policy level has been added yet");
+        }
+        Level level = levels.get(levels.size() - 1);
+        level.decision = decision;
+        level.principalType = principalType;
+        level.principalId = principalId;
+        level.reason = reason;
+    }
+
+    /**
+     * Set overall result
+     * @param granted Overall decision
+     * @param reason Explanation why the walk through the ancestor policies stopped
+     */
+    public void setResult(boolean granted, String reason) {
+        this.granted = granted;
+        this.reason = reason;
+    }
+
+    /**
+     * Get requested path
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Get name of requested usecase
+     */
+    public String getUsecase() {
+        return usecase;
+    }
+
+    /**
+     * Get checked policy levels, starting with the requested path
+     */
+    public List<Level> getLevels() {
+        return Collections.unmodifiableList(levels);
+    }
+
+    /**
+     * Get policy level which decided
+     * @return Deciding level or null if no policy decided and hence access has been denied by default
+     */
+    public Level getDecidingLevel() {
+        for (int i = 0; i < levels.size(); i++) {
+            if (levels.get(i).getDecision() != INHERIT) {
+                return levels.get(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get overall decision
+     */
+    public boolean isGranted() {
+        return granted;
+    }
+
+    /**
+     * Get explanation why the walk through the ancestor policies stopped
+     */
+    public String getReason() {
+        return reason;
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Usecase '").append(usecase).append("' on '").append(path).append("': ").append(granted ? "granted" : "denied");
+        sb.append(" (").append(reason).append(")");
+        for (int i = 0; i < levels.size(); i++) {
+            sb.append(System.getProperty("line.separator")).append("  ").append(levels.get(i));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * One checked policy level
+     */
+    public static class Level {
+
+        private final String path;
+        private final String policyPath;
+        private final boolean policyExists;
+        private int decision = INHERIT;
+        private String principalType;
+        private String principalId;
+        private String reason;
+
+        private Level(String path, String policyPath, boolean policyExists) {
+            this.path = path;
+            this.policyPath = policyPath;
+            this.policyExists = policyExists;
+        }
+
+        /**
+         * Get path of level
+         */
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * Get path of policy node, e.g. "/hello/world.html.policy"
+         */
+        public String getPolicyPath() {
+            return policyPath;
+        }
+
+        /**
+         * Check whether policy node exists
+         */
+        public boolean policyExists() {
+            return policyExists;
+        }
+
+        /**
+         * Get decision of this level, either GRANTED, DENIED or INHERIT
+         */
+        public int getDecision() {
+            return decision;
+        }
+
+        /**
+         * Get type of matching principal (WORLD, USER or GROUP)
+         * @return Type or null if no principal matched
+         */
+        public String getPrincipalType() {
+            return principalType;
+        }
+
+        /**
+         * Get ID of matching user or group
+         * @return ID or null if no user or group matched
+         */
+        public String getPrincipalId() {
+            return principalId;
+        }
+
+        /**
+         * Get explanation of decision
+         */
+        public String getReason() {
+            return reason;
+        }
+
+        /**
+         * @see java.lang.Object#toString()
+         */
+        public String toString() {
+            StringBuilder sb = new StringBuilder(path).append(" -> ").append(policyPath);
+            if (!policyExists) {
+                return sb.append(": no policy").toString();
+            }
+            sb.append(": ").append(decision == GRANTED ? "granted" : decision == DENIED ? "denied" : "inherit");
+            if (principalType != null) {
+                sb.append(" by ").append(principalType);
+                if (principalId != null) {
+                    sb.append(" '").append(principalId).append("'");
+                }
+            }
+            if (reason != null) {
+                sb.append(" (").append(reason).append(")");
+            }
+            return sb.toString();
+        }
+    }
+}
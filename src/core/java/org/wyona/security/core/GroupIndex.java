@@ -0,0 +1,89 @@
+package org.wyona.security.core;
+
+import java.util.BitSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Global index of group IDs, which assigns every group ID a dense integer index, such that group memberships can be kept as bit sets and compared by bit operations instead of string comparisons.
+ * Only groups which are referenced by policies are indexed (see {@link #intern(String)}), whereas the groups of identities are only looked up (see {@link #toBitSet(String[])}), hence the index does not grow with the number of users and groups of the identity managers.
+ * Please note that indexes are only valid within the current JVM and hence must not be persisted or serialized.
+ */
+public final class GroupIndex {
+
+    /**
+     * Maximum number of indexed groups
+     */
+    public static final int MAX_SIZE = 1 << 20;
+
+    private static final ConcurrentMap<String, Integer> indexes = new ConcurrentHashMap<String, Integer>();
+    private static volatile int size = 0;
+
+    /**
+     *
+     */
+    private GroupIndex() {
+    }
+
+    /**
+     * Get index of a group which is referenced by a policy, whereby a group which is not indexed yet gets the next free index
+     * @param groupID Group ID
+     * @throws IllegalStateException If the maximum number of indexed groups has been reached
+     */
+    public static int intern(String groupID) {
+        Integer index = indexes.get(groupID);
+        if (index != null) {
+            return index.intValue();
+        }
+        synchronized (GroupIndex.class) {
+            index = indexes.get(groupID);
+            if (index == null) {
+                if (size >= MAX_SIZE) {
+                    throw new IllegalStateException("Maximum number of indexed groups reached (" + MAX_SIZE + "), hence group '" + groupID + "' cannot be indexed");
+                }
+                index = new Integer(size);
+                indexes.put(groupID, index);
+                // INFO: The size is incremented after the group has been added, such that a bit set which has been resolved before the size changed can be detected (see #size())
+                size++;
+            }
+            return index.intValue();
+        }
+    }
+
+    /**
+     * Get index of a group
+     * @param groupID Group ID
+     * @return Index or -1 if group is not indexed
+     */
+    public static int getIndex(String groupID) {
+        Integer index = indexes.get(groupID);
+        return index != null ? index.intValue() : -1;
+    }
+
+    /**
+     * Get number of indexed groups, which changes whenever a group is indexed, such that bit sets of groups which have been resolved before can be resolved again
+     */
+    public static int size() {
+        return size;
+    }
+
+    /**
+     * Get bit set of groups, whereas groups which are not indexed are ignored, because they are not referenced by any policy
+     * @param groupIDs Group IDs (or null)
+     * @return Bit set whose bits are set at the indexes of the groups
+     */
+    public static BitSet toBitSet(String[] groupIDs) {
+        BitSet groups = new BitSet();
+        if (groupIDs != null) {
+            for (int i = 0; i < groupIDs.length; i++) {
+                if (groupIDs[i] != null) {
+                    int index = getIndex(groupIDs[i]);
+                    if (index >= 0) {
+                        groups.set(index);
+                    }
+                }
+            }
+        }
+        return groups;
+    }
+}
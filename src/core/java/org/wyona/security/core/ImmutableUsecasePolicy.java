@@ -0,0 +1,279 @@
+package org.wyona.security.core;
+
+import org.wyona.security.core.api.Identity;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.LogManager;
+
+/**
+ * Usecase policy which cannot be modified and therefore can be shared between threads and between aggregated policies.
+ * Identity and group policies are looked up by user ID and group ID without scanning the item policies.
+ * All methods which would modify the usecase policy throw an {@link UnsupportedOperationException}.
+ */
+public final class ImmutableUsecasePolicy extends UsecasePolicy {
+
+    private static Logger log = LogManager.getLogger(ImmutableUsecasePolicy.class);
+
+    private final boolean useInheritedPolicies;
+    private final ItemPolicy[] itemPolicies;
+    private final IdentityPolicy[] identityPolicies;
+    private final GroupPolicy[] groupPolicies;
+    private final IdentityPolicy worldPolicy;
+    private final Map<String, IdentityPolicy> identityPoliciesByUsername;
+    private final Map<String, GroupPolicy> groupPoliciesById;
+
+    /**
+     * @param name Name/ID of usecase
+     * @param useInheritedPolicies Whether inheritance shall be applied
+     * @param itemPolicies Identity and group policies in the order in which they have been defined, whereas they must not be modified anymore
+     */
+    private ImmutableUsecasePolicy(String name, boolean useInheritedPolicies, ItemPolicy[] itemPolicies) {
+        super(name);
+        this.useInheritedPolicies = useInheritedPolicies;
+        this.itemPolicies = itemPolicies;
+
+        List<IdentityPolicy> idps = new ArrayList<IdentityPolicy>();
+        List<GroupPolicy> gps = new ArrayList<GroupPolicy>();
+        IdentityPolicy world = null;
+        identityPoliciesByUsername = new HashMap<String, IdentityPolicy>();
+        groupPoliciesById = new HashMap<String, GroupPolicy>();
+        for (int i = 0; i < itemPolicies.length; i++) {
+            if (itemPolicies[i] instanceof IdentityPolicy) {
+                IdentityPolicy idp = (IdentityPolicy) itemPolicies[i];
+                idps.add(idp);
+                // INFO: Like the linear scan of a mutable usecase policy the first matching identity policy wins
+                if (idp.getIdentity().isWorld()) {
+                    if (world == null) {
+                        world = idp;
+                    }
+                } else if (!identityPoliciesByUsername.containsKey(idp.getIdentity().getUsername())) {
+                    identityPoliciesByUsername.put(idp.getIdentity().getUsername(), idp);
+                }
+            } else if (itemPolicies[i] instanceof GroupPolicy) {
+                GroupPolicy gp = (GroupPolicy) itemPolicies[i];
+                gps.add(gp);
+                if (!groupPoliciesById.containsKey(gp.getId())) {
+                    groupPoliciesById.put(gp.getId(), gp);
+                }
+            }
+        }
+        this.worldPolicy = world;
+        this.identityPolicies = idps.toArray(new IdentityPolicy[idps.size()]);
+        this.groupPolicies = gps.toArray(new GroupPolicy[gps.size()]);
+    }
+
+    /**
+     * Get immutable snapshot of a usecase policy
+     * @param up Usecase policy, which is returned as it is if it is immutable already
+     */
+    public static ImmutableUsecasePolicy copyOf(UsecasePolicy up) {
+        if (up instanceof ImmutableUsecasePolicy) {
+            return (ImmutableUsecasePolicy) up;
+        }
+        ItemPolicy[] ips = up.getItemPolicies();
+        ItemPolicy[] frozen = new ItemPolicy[ips.length];
+        for (int i = 0; i < ips.length; i++) {
+            frozen[i] = freeze(ips[i]);
+        }
+        return new ImmutableUsecasePolicy(up.getName(), up.useInheritedPolicies(), frozen);
+    }
+
+    /**
+     * Merge this usecase policy with a usecase policy of a parent (see {@link UsecasePolicy#merge(UsecasePolicy)}), whereas neither of them is modified
+     * @param up Usecase policy of parent
+     * @return Merged usecase policy, which shares the item policies of both, or this usecase policy itself if the parent does not add any identity or group
+     */
+    public ImmutableUsecasePolicy mergedWith(UsecasePolicy up) {
+        if (!getName().equals(up.getName())) {
+            log.error("Usecase policies do not have the same names/IDs: " + getName() + " != " + up.getName());
+            return this;
+        }
+
+        List<ItemPolicy> added = new ArrayList<ItemPolicy>();
+        IdentityPolicy[] upIdps = up.getIdentityPolicies();
+        boolean worldAdded = false;
+        Map<String, Boolean> usernamesAdded = new HashMap<String, Boolean>();
+        for (int i = 0; i < upIdps.length; i++) {
+            String username = upIdps[i].getIdentity().getUsername();
+            if (username == null) {
+                if (worldPolicy == null && !worldAdded) {
+                    added.add(freeze(upIdps[i]));
+                    worldAdded = true;
+                }
+            } else if (!identityPoliciesByUsername.containsKey(username) && !usernamesAdded.containsKey(username)) {
+                added.add(freeze(upIdps[i]));
+                usernamesAdded.put(username, Boolean.TRUE);
+            }
+        }
+        GroupPolicy[] upGps = up.getGroupPolicies();
+        Map<String, Boolean> groupsAdded = new HashMap<String, Boolean>();
+        for (int i = 0; i < upGps.length; i++) {
+            String groupId = upGps[i].getId();
+            if (!groupPoliciesById.containsKey(groupId) && !groupsAdded.containsKey(groupId)) {
+                added.add(freeze(upGps[i]));
+                groupsAdded.put(groupId, Boolean.TRUE);
+            }
+        }
+
+        if (added.isEmpty()) {
+            return this;
+        }
+        ItemPolicy[] merged = new ItemPolicy[itemPolicies.length + added.size()];
+        System.arraycopy(itemPolicies, 0, merged, 0, itemPolicies.length);
+        for (int i = 0; i < added.size(); i++) {
+            merged[itemPolicies.length + i] = added.get(i);
+        }
+        return new ImmutableUsecasePolicy(getName(), useInheritedPolicies, merged);
+    }
+
+    /**
+     * Get immutable item policy with the same ID and permission
+     */
+    private static ItemPolicy freeze(ItemPolicy ip) {
+        if (ip instanceof ImmutableIdentityPolicy || ip instanceof ImmutableGroupPolicy) {
+            return ip;
+        } else if (ip instanceof IdentityPolicy) {
+            return freeze((IdentityPolicy) ip);
+        } else if (ip instanceof GroupPolicy) {
+            return freeze((GroupPolicy) ip);
+        }
+        throw new IllegalArgumentException("No such item policy implementation: " + ip.getClass().getName());
+    }
+
+    private static IdentityPolicy freeze(IdentityPolicy idp) {
+        return idp instanceof ImmutableIdentityPolicy ? idp : new ImmutableIdentityPolicy(idp.getIdentity(), idp.getPermission());
+    }
+
+    private static GroupPolicy freeze(GroupPolicy gp) {
+        return gp instanceof ImmutableGroupPolicy ? gp : new ImmutableGroupPolicy(gp.getId(), gp.getPermission());
+    }
+
+    /**
+     * @see org.wyona.security.core.UsecasePolicy#getIdentities()
+     */
+    public Identity[] getIdentities() {
+        Identity[] ids = new Identity[identityPolicies.length];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = identityPolicies[i].getIdentity();
+        }
+        return ids;
+    }
+
+    /**
+     * @see org.wyona.security.core.UsecasePolicy#getIdentityPolicies()
+     */
+    public IdentityPolicy[] getIdentityPolicies() {
+        return identityPolicies.clone();
+    }
+
+    /**
+     * @see org.wyona.security.core.UsecasePolicy#getIdentityPolicy(Identity)
+     */
+    public IdentityPolicy getIdentityPolicy(Identity identity) {
+        if (identity.isWorld()) {
+            return worldPolicy;
+        }
+        return identityPoliciesByUsername.get(identity.getUsername());
+    }
+
+    /**
+     * @see org.wyona.security.core.UsecasePolicy#getGroupPolicies()
+     */
+    public GroupPolicy[] getGroupPolicies() {
+        return groupPolicies.clone();
+    }
+
+    /**
+     * @see org.wyona.security.core.UsecasePolicy#getGroupPolicy(String)
+     */
+    public GroupPolicy getGroupPolicy(String groupId) {
+        return groupPoliciesById.get(groupId);
+    }
+
+    /**
+     * @see org.wyona.security.core.UsecasePolicy#getItemPolicies()
+     */
+    public ItemPolicy[] getItemPolicies() {
+        return itemPolicies.clone();
+    }
+
+    /**
+     * @see org.wyona.security.core.UsecasePolicy#useInheritedPolicies()
+     */
+    public boolean useInheritedPolicies() {
+        return useInheritedPolicies;
+    }
+
+    /**
+     * @throws UnsupportedOperationException Always
+     */
+    public void addIdentity(Identity identity, boolean permission) {
+        throw new UnsupportedOperationException("Usecase policy '" + getName() + "' is immutable");
+    }
+
+    /**
+     * @throws UnsupportedOperationException Always
+     */
+    public void removeIdentityPolicy(Identity identity) {
+        throw new UnsupportedOperationException("Usecase policy '" + getName() + "' is immutable");
+    }
+
+    /**
+     * @throws UnsupportedOperationException Always
+     */
+    public void addGroupPolicy(GroupPolicy groupPolicy) {
+        throw new UnsupportedOperationException("Usecase policy '" + getName() + "' is immutable");
+    }
+
+    /**
+     * @throws UnsupportedOperationException Always
+     */
+    public void removeGroupPolicy(String groupId) {
+        throw new UnsupportedOperationException("Usecase policy '" + getName() + "' is immutable");
+    }
+
+    /**
+     * @throws UnsupportedOperationException Always
+     */
+    public void setUseInheritedPolicies(boolean useInheritedPolicies) {
+        throw new UnsupportedOperationException("Usecase policy '" + getName() + "' is immutable");
+    }
+
+    /**
+     * @throws UnsupportedOperationException Always, use {@link #mergedWith(UsecasePolicy)} instead
+     */
+    public void merge(UsecasePolicy up) {
+        throw new UnsupportedOperationException("Usecase policy '" + getName() + "' is immutable");
+    }
+
+    /**
+     * Identity policy whose permission cannot be modified
+     */
+    private static final class ImmutableIdentityPolicy extends IdentityPolicy {
+        ImmutableIdentityPolicy(Identity identity, boolean permission) {
+            super(identity, permission);
+        }
+
+        public void setPermission(boolean permission) {
+            throw new UnsupportedOperationException("Identity policy '" + getId() + "' is immutable");
+        }
+    }
+
+    /**
+     * Group policy whose permission cannot be modified
+     */
+    private static final class ImmutableGroupPolicy extends GroupPolicy {
+        ImmutableGroupPolicy(String groupId, boolean permission) {
+            super(groupId, permission);
+        }
+
+        public void setPermission(boolean permission) {
+            throw new UnsupportedOperationException("Group policy '" + getId() + "' is immutable");
+        }
+    }
+}
@@ -1,5 +1,9 @@
 package org.wyona.security.core.api;
 
+import java.util.BitSet;
+
+import org.wyona.security.core.GroupIndex;
+
 import org.apache.log4j.Logger;
 
 /**
@@ -8,6 +12,11 @@ import org.apache.log4j.Logger;
 public class Identity implements java.io.Serializable {
 
     private static Logger log = Logger.getLogger(Identity.class);
+
+    /**
+     * Name of the custom attribute containing the IP address of the client from which the identity requests access (see {@link #setClientAddress(String)})
+     */
+    public static final String CLIENT_ADDRESS = "client-address";
     
     protected String username;
     protected String[] groupnames;
@@ -19,6 +28,9 @@ public class Identity implements java.io.Serializable {
 
     private boolean isWorld = false;
 
+    // INFO: Group indexes are only valid within the current JVM, hence they are not serialized, but resolved again on demand
+    private transient volatile Groups groups;
+
     /**
      * Identity is WORLD
      */
@@ -49,7 +61,8 @@ public class Identity implements java.io.Serializable {
         this.alias = alias;
         // TODO: What about parents groups?! This method seems to be used a lot, e.g. during policy instantiation ...!
         //log.error("DEBUG: Set groupnames via String array for user: " + username);
-        this.groupnames = groupnames;
+        // INFO: The array is copied, because the group indexes are resolved from it and cached
+        this.groupnames = groupnames != null ? groupnames.clone() : null;
     }
     
     /**
@@ -155,6 +168,72 @@ public class Identity implements java.io.Serializable {
         }
     }
     
+    /**
+     * Check whether this identity is member of a particular group (including parent groups if they have been resolved when this identity was created)
+     * @param groupID Group ID
+     */
+    public boolean isMemberOfGroup(String groupID) {
+        int index = GroupIndex.getIndex(groupID);
+        if (index >= 0) {
+            return getGroups().get(index);
+        }
+        // INFO: Groups which are not referenced by any policy are not indexed
+        if (groupnames != null) {
+            for (int i = 0; i < groupnames.length; i++) {
+                if (groupID.equals(groupnames[i])) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check whether this identity is member of a particular group
+     * @param groupIndex Index of group (see {@link GroupIndex})
+     */
+    public boolean isMemberOfGroup(int groupIndex) {
+        return getGroups().get(groupIndex);
+    }
+
+    /**
+     * Check whether this identity is member of at least one of several groups
+     * @param groupIndexes Bit set of group indexes (see {@link GroupIndex})
+     */
+    public boolean isMemberOfAnyGroup(BitSet groupIndexes) {
+        return getGroups().intersects(groupIndexes);
+    }
+
+    /**
+     * Get groups of this identity as bit set of group indexes (see {@link GroupIndex})
+     * @return Copy of bit set, which is empty if there are no groups
+     */
+    public BitSet getGroupIndexes() {
+        return (BitSet) getGroups().clone();
+    }
+
+    /**
+     * Get groups of this identity as bit set of group indexes without copying it, e.g. in order to look up cached decisions without allocating memory
+     * @return Shared bit set, which must not be modified
+     */
+    public BitSet getGroupIndexesReadOnly() {
+        return getGroups();
+    }
+
+    /**
+     * Get bit set of groups, which is resolved again only if groups have been indexed meanwhile and must not be modified
+     */
+    private BitSet getGroups() {
+        Groups g = groups;
+        int indexSize = GroupIndex.size();
+        if (g == null || g.indexSize != indexSize) {
+            // INFO: The size is read before resolving, such that a group which is indexed concurrently leads to resolving again next time
+            g = new Groups(GroupIndex.toBitSet(groupnames), indexSize);
+            groups = g;
+        }
+        return g.bits;
+    }
+
     /**
      *
      */
@@ -219,6 +298,22 @@ public class Identity implements java.io.Serializable {
         customAttributes.put(name, value);
     }
 
+    /**
+     * Set IP address of the client from which this identity requests access, such that IP ranges and hosts of policies can be matched
+     * @param address Literal IPv4 or IPv6 address, e.g. "192.168.1.10" (host names are not resolved)
+     */
+    public void setClientAddress(String address) {
+        setAttribute(CLIENT_ADDRESS, address);
+    }
+
+    /**
+     * Get IP address of the client from which this identity requests access
+     * @return Address or null if no address has been set
+     */
+    public String getClientAddress() {
+        return customAttributes != null ? (String) customAttributes.get(CLIENT_ADDRESS) : null;
+    }
+
     /**
      * Get custom attribute
      * @param name Attribute name/key
@@ -232,4 +327,17 @@ public class Identity implements java.io.Serializable {
             return null;
         }
     }
+
+    /**
+     * Bit set of groups and number of indexed groups when it has been resolved
+     */
+    private static class Groups {
+        private final BitSet bits;
+        private final int indexSize;
+
+        Groups(BitSet bits, int indexSize) {
+            this.bits = bits;
+            this.indexSize = indexSize;
+        }
+    }
 }
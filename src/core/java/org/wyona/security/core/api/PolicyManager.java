@@ -1,7 +1,13 @@
 package org.wyona.security.core.api;
 
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
 import org.wyona.commons.io.Path;
+import org.wyona.security.core.AccessibleSubtrees;
 import org.wyona.security.core.AuthorizationException;
+import org.wyona.security.core.AuthorizedPrincipals;
+import org.wyona.security.core.DecisionTrace;
 import org.wyona.yarep.core.Repository;
 
 /**
@@ -34,7 +40,64 @@ public interface PolicyManager {
      * @param identity User
      */
     public boolean authorize(String path, Identity identity, Usecase usecase) throws AuthorizationException;
+
+    /**
+     * Check asynchronously whether a particular identity is authorized to execute a specific usecase for a specific path/URL and query string, such that the calling thread is not blocked by accessing the policies repository
+     * @param path Requested path
+     * @param queryString Query string attached to original request
+     * @param identity User requesting path
+     * @param usecase Usecase associated with requested path
+     * @param timeout Time after which access is denied if no decision is available yet
+     * @param unit Unit of timeout
+     * @return Future, which returns true when authorized and false otherwise (or when the timeout has elapsed)
+     */
+    public Future<Boolean> authorizeAsync(String path, String queryString, Identity identity, Usecase usecase, long timeout, TimeUnit unit) throws AuthorizationException;
     
+    /**
+     * Check whether a particular identity is authorized to execute a specific usecase for many paths at once, e.g. in order to filter the entries of a navigation menu, a sitemap or search results
+     * @param paths Requested paths
+     * @param identity User requesting paths
+     * @param usecase Usecase associated with requested paths
+     * @return Array of the same length as paths, whereas an entry is true when authorized for the path at the same position and false otherwise
+     */
+    public boolean[] authorizeAll(String[] paths, Identity identity, Usecase usecase) throws AuthorizationException;
+
+    /**
+     * Get all usecases (see {@link #getUsecases()}) which a particular identity is authorized to execute for a specific path/URL and query string, e.g. in order to decide which entries of a toolbar shall be displayed
+     * @param path Requested path
+     * @param queryString Query string attached to original request
+     * @param identity User requesting path
+     * @return Permitted usecases
+     */
+    public String[] getPermittedUsecases(String path, String queryString, Identity identity) throws AuthorizationException;
+
+    /**
+     * Get the subtrees of a path which a particular identity is authorized or not authorized to access, computed from the policies below this path instead of the content, e.g. in order to filter a content listing, a sitemap or search results by prefix checks
+     * @param rootPath Root path of subtrees, e.g. "/hello"
+     * @param identity User requesting paths
+     * @param usecase Usecase associated with requested paths
+     * @return Maximal granted and denied subtrees, whereas a nested subtree overrides the subtree containing it
+     */
+    public AccessibleSubtrees getAccessibleSubtrees(String rootPath, Identity identity, Usecase usecase) throws AuthorizationException;
+
+    /**
+     * Get the users, groups and world which are authorized or not authorized to execute a specific usecase for a specific path, computed during one walk through the ancestor policies, e.g. in order to review who can access a path
+     * @param path Requested path
+     * @param usecase Usecase associated with requested path
+     * @return Principals, whose groups can be expanded to users (see {@link AuthorizedPrincipals#getEffectiveUsers(GroupManager)})
+     */
+    public AuthorizedPrincipals getAuthorizedPrincipals(String path, Usecase usecase) throws AuthorizationException;
+
+    /**
+     * Explain an authorization decision, e.g. in order to find out why a particular identity is not authorized. In contrast to authorize(String, String, Identity, Usecase) decisions are not cached.
+     * @param path Requested path
+     * @param queryString Query string attached to original request
+     * @param identity User requesting path
+     * @param usecase Usecase associated with requested path
+     * @return Trace listing the checked policies, the matching entry and where the inheritance stopped
+     */
+    public DecisionTrace explain(String path, String queryString, Identity identity, Usecase usecase) throws AuthorizationException;
+
     /**
      * @param policy TODO
      */
@@ -0,0 +1,139 @@
+package org.wyona.security.impl;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.LogManager;
+
+/**
+ * Result of an asynchronous authorization request (see {@link org.wyona.security.core.api.PolicyManager#authorizeAsync(String, String, org.wyona.security.core.api.Identity, org.wyona.security.core.api.Usecase, long, TimeUnit)}),
+ * which fails closed, i.e. access is denied if the decision is not available before the deadline.
+ */
+public class AuthorizationFuture implements Future<Boolean> {
+
+    private static Logger log = LogManager.getLogger(AuthorizationFuture.class);
+
+    private final Future<Boolean> task;
+    private final Boolean result;
+    private final long deadline;
+    private final String description;
+    private volatile boolean expired = false;
+
+    /**
+     * @param task Task evaluating the decision
+     * @param deadline Deadline as value of System.nanoTime()
+     * @param description Description of request, which is logged when the deadline has passed
+     */
+    public AuthorizationFuture(Future<Boolean> task, long deadline, String description) {
+        this.task = task;
+        this.result = null;
+        this.deadline = deadline;
+        this.description = description;
+    }
+
+    /**
+     * @param granted Decision which is already available
+     */
+    private AuthorizationFuture(boolean granted) {
+        this.task = null;
+        this.result = Boolean.valueOf(granted);
+        this.deadline = 0;
+        this.description = null;
+    }
+
+    /**
+     * Create future of a decision which is already available
+     * @param granted Decision
+     */
+    public static AuthorizationFuture completed(boolean granted) {
+        return new AuthorizationFuture(granted);
+    }
+
+    /**
+     * Wait for the decision until the deadline has passed
+     * @return Decision, whereas false is returned if the deadline has passed
+     */
+    public Boolean get() throws InterruptedException, ExecutionException {
+        if (task == null) {
+            return result;
+        }
+        if (expired) {
+            return Boolean.FALSE;
+        }
+        try {
+            return task.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            return deny();
+        } catch (CancellationException e) {
+            if (expired) {
+                // INFO: Another thread waiting for this decision has cancelled the evaluation, because the deadline has passed
+                return Boolean.FALSE;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Wait for the decision at most for the given time
+     * @return Decision, whereas false is returned if the deadline of the request has passed
+     * @throws TimeoutException If the given time elapsed before the deadline of the request has passed
+     */
+    public Boolean get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (task == null) {
+            return result;
+        }
+        if (expired) {
+            return Boolean.FALSE;
+        }
+        long remaining = deadline - System.nanoTime();
+        if (unit.toNanos(timeout) < remaining) {
+            return task.get(timeout, unit);
+        }
+        try {
+            return task.get(remaining, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            return deny();
+        } catch (CancellationException e) {
+            if (expired) {
+                // INFO: Another thread waiting for this decision has cancelled the evaluation, because the deadline has passed
+                return Boolean.FALSE;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Cancel evaluation, because the deadline has passed
+     */
+    private Boolean deny() {
+        expired = true;
+        task.cancel(true);
+        log.warn("Deadline of authorization request has passed, hence access denied: " + description);
+        return Boolean.FALSE;
+    }
+
+    /**
+     * @see java.util.concurrent.Future#cancel(boolean)
+     */
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return task != null && task.cancel(mayInterruptIfRunning);
+    }
+
+    /**
+     * @see java.util.concurrent.Future#isCancelled()
+     */
+    public boolean isCancelled() {
+        return task != null && task.isCancelled();
+    }
+
+    /**
+     * Check whether the decision is available, i.e. the evaluation has finished or the deadline has passed
+     */
+    public boolean isDone() {
+        return task == null || task.isDone() || deadline - System.nanoTime() <= 0;
+    }
+}
@@ -0,0 +1,499 @@
+package org.wyona.security.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.wyona.security.core.AuthorizedPrincipals;
+import org.wyona.security.core.DecisionTrace;
+import org.wyona.security.core.GroupIndex;
+import org.wyona.security.core.api.Identity;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.LogManager;
+
+import org.apache.avalon.framework.configuration.Configuration;
+import org.apache.avalon.framework.configuration.ConfigurationException;
+import org.apache.avalon.framework.configuration.DefaultConfigurationBuilder;
+import org.xml.sax.SAXException;
+
+/**
+ * Immutable, pre-parsed representation of a policy (version 2), such that authorization requests can be evaluated without parsing the policy XML again.
+ * The permissions are kept per principal (world, user or group) as bit sets indexed by usecase ID (see {@link UsecaseRegistry}).
+ * Groups are identified by their global index (see {@link GroupIndex}), such that group memberships of an identity are checked by bit operations instead of string comparisons.
+ * Because the first matching entry of a usecase decides, every permission also remembers the position of its entry in document order, such that conflicting permissions of several matching principals are resolved by position.
+ * IP ranges and hosts are kept inside a prefix trie (see {@link IPRangeTrie}), such that the ranges containing the client address of an identity (see {@link Identity#getClientAddress()}) are found independent of the number of ranges.
+ */
+public class CompiledPolicy {
+
+    private static Logger log = LogManager.getLogger(CompiledPolicy.class);
+
+    /**
+     * Policy does not decide, hence the parent policy has to be checked
+     */
+    public static final int INHERIT = 0;
+    /**
+     * Access granted
+     */
+    public static final int GRANTED = 1;
+    /**
+     * Access denied
+     */
+    public static final int DENIED = 2;
+
+    private static String USECASE_ELEMENT_NAME = "usecase";
+
+    private final boolean useInheritedPolicies;
+    private final UsecaseRegistry usecaseRegistry;
+    private final Permissions world;
+    private final Map<String, Permissions> users;
+    private final String[] groupIDs;
+    private final int[] groupIndexes;
+    private final Permissions[] groupPermissions;
+    private final BitSet groups;
+    private final IPRangeTrie<AddressPermissions> addresses;
+    private final long lastModified;
+
+    /**
+     * @param useInheritedPolicies Flag whether parent policies shall be checked
+     * @param world Permissions which apply to everyone
+     * @param users Permissions by username
+     * @param groups Permissions by group ID
+     * @param addresses Permissions of IP ranges and hosts
+     * @param lastModified Last modified of policy node from which this policy has been compiled
+     */
+    private CompiledPolicy(boolean useInheritedPolicies, UsecaseRegistry usecaseRegistry, Permissions world, Map<String, Permissions> users, Map<String, Permissions> groups, IPRangeTrie<AddressPermissions> addresses, long lastModified) {
+        this.useInheritedPolicies = useInheritedPolicies;
+        this.usecaseRegistry = usecaseRegistry;
+        this.world = world;
+        this.users = users;
+        this.groupIDs = new String[groups.size()];
+        this.groupIndexes = new int[groups.size()];
+        this.groupPermissions = new Permissions[groups.size()];
+        this.groups = new BitSet();
+        int i = 0;
+        for (Map.Entry<String, Permissions> entry : groups.entrySet()) {
+            groupIDs[i] = entry.getKey();
+            groupIndexes[i] = GroupIndex.intern(entry.getKey());
+            groupPermissions[i] = entry.getValue();
+            this.groups.set(groupIndexes[i]);
+            i++;
+        }
+        this.addresses = addresses;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * Parse policy XML and compile it
+     * @param in Policy XML as input stream
+     * @param lastModified Last modified of policy node
+     * @param usecaseRegistry Registry which assigns the IDs of usecases
+     */
+    public static CompiledPolicy compile(InputStream in, long lastModified, UsecaseRegistry usecaseRegistry) throws ConfigurationException, SAXException, IOException {
+        Configuration config = new DefaultConfigurationBuilder().build(in);
+        boolean useInheritedPolicies = config.getAttributeAsBoolean("use-inherited-policies", true);
+
+        Permissions world = new Permissions();
+        Map<String, Permissions> users = new HashMap<String, Permissions>();
+        Map<String, Permissions> groups = new HashMap<String, Permissions>();
+        IPRangeTrie<AddressPermissions> addresses = new IPRangeTrie<AddressPermissions>();
+        int position = 0;
+        Configuration[] usecaseConfigs = config.getChildren(USECASE_ELEMENT_NAME);
+        for (int i = 0; i < usecaseConfigs.length; i++) {
+            String usecaseName = usecaseConfigs[i].getAttribute("id", null);
+            if (usecaseName == null) {
+                log.warn("Usecase without id will be ignored!");
+                continue;
+            }
+            int usecase = usecaseRegistry.intern(usecaseName);
+            boolean useInheritedUsecasePolicies = usecaseConfigs[i].getAttributeAsBoolean("use-inherited-policies", true);
+            boolean worldCredentialExists = false;
+
+            Configuration[] accreditableObjects = usecaseConfigs[i].getChildren();
+            for (int k = 0; k < accreditableObjects.length; k++) {
+                String aObjectName = accreditableObjects[k].getName();
+                Map<String, Permissions> principals;
+                if (aObjectName.equals("world")) {
+                    worldCredentialExists = true;
+                    principals = null;
+                } else if (aObjectName.equals("group")) {
+                    principals = groups;
+                } else if (aObjectName.equals("user")) {
+                    principals = users;
+                } else if (aObjectName.equals("iprange") || aObjectName.equals("host")) {
+                    principals = null;
+                } else {
+                    log.warn("No such accreditable object implemented: " + aObjectName);
+                    continue;
+                }
+
+                String id = accreditableObjects[k].getAttribute("id", null);
+                if (!aObjectName.equals("world") && id == null) {
+                    log.error("Accreditable object '" + aObjectName + "' of usecase '" + usecaseName + "' has no id and will be ignored!");
+                    continue;
+                }
+                String permission = accreditableObjects[k].getAttribute("permission", null);
+                if (permission == null) {
+                    log.error("Accreditable object '" + aObjectName + "' (" + id + ") of usecase '" + usecaseName + "' has no permission, hence access will be denied.");
+                }
+                boolean granted = "true".equals(permission);
+
+                if (aObjectName.equals("iprange") || aObjectName.equals("host")) {
+                    AddressPermissions permissions;
+                    try {
+                        permissions = addresses.get(id);
+                        if (permissions == null) {
+                            permissions = new AddressPermissions(aObjectName.equals("host") ? DecisionTrace.HOST : DecisionTrace.IPRANGE, id);
+                            addresses.put(id, permissions);
+                        }
+                    } catch (IllegalArgumentException e) {
+                        log.error("Accreditable object '" + aObjectName + "' of usecase '" + usecaseName + "' has no valid IP address or range and will be ignored: " + e.getMessage());
+                        continue;
+                    }
+                    permissions.add(usecase, granted, position);
+                } else if (principals == null) {
+                    // INFO: A denied world entry does not match by itself, but denies access if no other entry of this usecase matches (see below)
+                    if (granted) {
+                        world.add(usecase, true, position);
+                    }
+                } else {
+                    Permissions permissions = principals.get(id);
+                    if (permissions == null) {
+                        permissions = new Permissions();
+                        principals.put(id, permissions);
+                    }
+                    permissions.add(usecase, granted, position);
+                }
+                position++;
+            }
+
+            if (worldCredentialExists || !useInheritedUsecasePolicies) {
+                // INFO: Deny everyone who is not matched by an entry of this usecase element
+                world.add(usecase, false, position);
+                position++;
+            }
+        }
+        return new CompiledPolicy(useInheritedPolicies, usecaseRegistry, world, users, groups, addresses, lastModified);
+    }
+
+    /**
+     * Check whether a particular identity is authorized to execute a specific usecase according to this policy
+     * @param identity Identity requesting access
+     * @param usecaseName Name of usecase, whereas a usecase which is not registered has no entry within this policy
+     * @return GRANTED or DENIED if this policy decides, otherwise INHERIT
+     */
+    public int authorize(Identity identity, String usecaseName) {
+        return authorize(identity, usecaseRegistry.getId(usecaseName));
+    }
+
+    /**
+     * Check whether a particular identity is authorized to execute a specific usecase according to this policy
+     * @param identity Identity requesting access
+     * @param usecase ID of usecase (see {@link UsecaseRegistry})
+     * @return GRANTED or DENIED if this policy decides, otherwise INHERIT
+     */
+    public int authorize(Identity identity, int usecase) {
+        return authorize(identity, usecase, null);
+    }
+
+    /**
+     * Check whether a particular identity is authorized to execute a specific usecase according to this policy and record which entry matched
+     * @param identity Identity requesting access
+     * @param usecase ID of usecase (see {@link UsecaseRegistry})
+     * @param trace Trace whose current level is set to the decision of this policy, whereas null disables tracing
+     * @return GRANTED or DENIED if this policy decides, otherwise INHERIT
+     */
+    public int authorize(Identity identity, int usecase, DecisionTrace trace) {
+        int position = world.getPosition(usecase);
+        boolean granted = position != Permissions.NONE && world.isGranted(usecase);
+        // INFO: -2 means world, -1 means user, otherwise index of group
+        int matched = -2;
+
+        String username = identity.getUsername();
+        if (username != null && !users.isEmpty()) {
+            Permissions permissions = users.get(username);
+            if (permissions != null && permissions.getPosition(usecase) < position) {
+                position = permissions.getPosition(usecase);
+                granted = permissions.isGranted(usecase);
+                matched = -1;
+            }
+        }
+
+        if (groupIndexes.length > 0 && identity.isMemberOfAnyGroup(groups)) {
+            for (int i = 0; i < groupIndexes.length; i++) {
+                if (identity.isMemberOfGroup(groupIndexes[i]) && groupPermissions[i].getPosition(usecase) < position) {
+                    position = groupPermissions[i].getPosition(usecase);
+                    granted = groupPermissions[i].isGranted(usecase);
+                    matched = i;
+                }
+            }
+        }
+
+        AddressPermissions matchedAddress = null;
+        if (!addresses.isEmpty()) {
+            for (AddressPermissions permissions : getMatchingAddresses(identity)) {
+                if (permissions.getPosition(usecase) < position) {
+                    position = permissions.getPosition(usecase);
+                    granted = permissions.isGranted(usecase);
+                    matchedAddress = permissions;
+                }
+            }
+        }
+
+        if (position != Permissions.NONE) {
+            if (trace != null) {
+                if (matchedAddress != null) {
+                    trace.setDecision(granted ? DecisionTrace.GRANTED : DecisionTrace.DENIED, matchedAddress.type, matchedAddress.id, null);
+                } else if (matched == -1) {
+                    trace.setDecision(granted ? DecisionTrace.GRANTED : DecisionTrace.DENIED, DecisionTrace.USER, username, null);
+                } else if (matched >= 0) {
+                    trace.setDecision(granted ? DecisionTrace.GRANTED : DecisionTrace.DENIED, DecisionTrace.GROUP, groupIDs[matched], null);
+                } else if (granted) {
+                    trace.setDecision(DecisionTrace.GRANTED, DecisionTrace.WORLD, null, null);
+                } else {
+                    trace.setDecision(DecisionTrace.DENIED, null, null, "No entry of usecase matched, whereas usecase has a world entry or disables inheritance");
+                }
+            }
+            return granted ? GRANTED : DENIED;
+        }
+        if (!useInheritedPolicies) {
+            if (log.isDebugEnabled()) log.debug("Policy inheritance disabled. Access denied.");
+            if (trace != null) {
+                trace.setDecision(DecisionTrace.DENIED, null, null, "No entry of usecase matched and policy inheritance disabled");
+            }
+            return DENIED;
+        }
+        if (trace != null) {
+            trace.setDecision(DecisionTrace.INHERIT, null, null, "No entry of usecase matched");
+        }
+        return INHERIT;
+    }
+
+    /**
+     * Check for several usecases at once whether a particular identity is authorized to execute them according to this policy
+     * @param identity Identity requesting access
+     * @param pending IDs of usecases which have not been decided yet. Usecases which are decided by this policy are cleared.
+     * @param granted IDs of usecases which are granted. Usecases which are granted by this policy are set.
+     */
+    public void authorize(Identity identity, BitSet pending, BitSet granted) {
+        List<Permissions> matching = new ArrayList<Permissions>();
+        matching.add(world);
+        String username = identity.getUsername();
+        if (username != null && users.get(username) != null) {
+            matching.add(users.get(username));
+        }
+        if (groupIndexes.length > 0 && identity.isMemberOfAnyGroup(groups)) {
+            for (int i = 0; i < groupIndexes.length; i++) {
+                if (identity.isMemberOfGroup(groupIndexes[i])) {
+                    matching.add(groupPermissions[i]);
+                }
+            }
+        }
+        if (!addresses.isEmpty()) {
+            matching.addAll(getMatchingAddresses(identity));
+        }
+
+        BitSet decided = new BitSet();
+        BitSet grantedByAny = new BitSet();
+        BitSet deniedByAny = new BitSet();
+        for (Permissions permissions : matching) {
+            decided.or(permissions.decided);
+            grantedByAny.or(permissions.granted);
+            deniedByAny.or(permissions.denied);
+        }
+        decided.and(pending);
+
+        // INFO: Usecases which are granted by one and denied by another matching principal are resolved by position
+        BitSet conflicts = (BitSet) grantedByAny.clone();
+        conflicts.and(deniedByAny);
+        conflicts.and(decided);
+        grantedByAny.and(decided);
+        grantedByAny.andNot(conflicts);
+        for (int usecase = conflicts.nextSetBit(0); usecase >= 0; usecase = conflicts.nextSetBit(usecase + 1)) {
+            if (authorize(identity, usecase) == GRANTED) {
+                grantedByAny.set(usecase);
+            }
+        }
+
+        granted.or(grantedByAny);
+        pending.andNot(decided);
+        if (!useInheritedPolicies) {
+            pending.clear();
+        }
+    }
+
+    /**
+     * Get permissions of all IP ranges and hosts which contain the client address of an identity
+     * @return Permissions, which are empty if the identity has no literal client address
+     */
+    private List<AddressPermissions> getMatchingAddresses(Identity identity) {
+        List<AddressPermissions> matching = new ArrayList<AddressPermissions>();
+        byte[] address = IPRangeTrie.parseAddress(identity.getClientAddress());
+        if (address != null) {
+            addresses.getMatches(address, matching);
+        }
+        return matching;
+    }
+
+    /**
+     * Add the entries of world, users and groups of a usecase to the principals of a path, whereas entries of IP ranges and hosts are not added
+     * @param usecase ID of usecase (see {@link UsecaseRegistry})
+     * @param principals Principals to whose last level the entries are added
+     * @return True if this policy decides for everyone (because of a world entry or because inheritance is disabled), hence parent policies do not have to be checked
+     */
+    public boolean addEntries(int usecase, AuthorizedPrincipals principals) {
+        int worldPosition = world.getPosition(usecase);
+        if (worldPosition != Permissions.NONE) {
+            principals.addEntry(DecisionTrace.WORLD, null, worldPosition, world.isGranted(usecase));
+        }
+        for (Map.Entry<String, Permissions> entry : users.entrySet()) {
+            int position = entry.getValue().getPosition(usecase);
+            if (position != Permissions.NONE) {
+                principals.addEntry(DecisionTrace.USER, entry.getKey(), position, entry.getValue().isGranted(usecase));
+            }
+        }
+        for (int i = 0; i < groupIDs.length; i++) {
+            int position = groupPermissions[i].getPosition(usecase);
+            if (position != Permissions.NONE) {
+                principals.addEntry(DecisionTrace.GROUP, groupIDs[i], position, groupPermissions[i].isGranted(usecase));
+            }
+        }
+        return worldPosition != Permissions.NONE || !useInheritedPolicies;
+    }
+
+    /**
+     * Check whether this policy contains IP ranges or hosts, such that decisions depend on the client address
+     */
+    public boolean hasAddresses() {
+        return !addresses.isEmpty();
+    }
+
+    /**
+     * Check if inheritance shall be applied
+     */
+    public boolean useInheritedPolicies() {
+        return useInheritedPolicies;
+    }
+
+    /**
+     * Get last modified of policy node from which this policy has been compiled
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Get permissions which apply to everyone (see {@link Permissions#toEntries()})
+     */
+    int[] getWorldEntries() {
+        return world.toEntries();
+    }
+
+    /**
+     * Get permissions by username (see {@link Permissions#toEntries()})
+     */
+    Map<String, int[]> getUserEntries() {
+        Map<String, int[]> entries = new HashMap<String, int[]>();
+        for (Map.Entry<String, Permissions> entry : users.entrySet()) {
+            entries.put(entry.getKey(), entry.getValue().toEntries());
+        }
+        return entries;
+    }
+
+    /**
+     * Get permissions by group ID (see {@link Permissions#toEntries()})
+     */
+    Map<String, int[]> getGroupEntries() {
+        Map<String, int[]> entries = new HashMap<String, int[]>();
+        for (int i = 0; i < groupIDs.length; i++) {
+            entries.put(groupIDs[i], groupPermissions[i].toEntries());
+        }
+        return entries;
+    }
+
+    /**
+     * Permissions of an IP range or host
+     */
+    private static class AddressPermissions extends Permissions {
+
+        private final String type;
+        private final String id;
+
+        /**
+         * @param type Either DecisionTrace.IPRANGE or DecisionTrace.HOST
+         * @param id IP range or address as it is written inside the policy
+         */
+        AddressPermissions(String type, String id) {
+            this.type = type;
+            this.id = id;
+        }
+    }
+
+    /**
+     * Permissions of one principal, whereas only the first entry of every usecase is kept
+     */
+    private static class Permissions {
+
+        static final int NONE = Integer.MAX_VALUE;
+
+        private final BitSet decided = new BitSet();
+        private final BitSet granted = new BitSet();
+        private final BitSet denied = new BitSet();
+        private int[] positions = new int[0];
+
+        /**
+         * @param usecase ID of usecase
+         * @param permission Permission of entry
+         * @param position Position of entry in document order
+         */
+        void add(int usecase, boolean permission, int position) {
+            if (decided.get(usecase)) {
+                // INFO: An earlier entry of this principal decides already
+                return;
+            }
+            if (usecase >= positions.length) {
+                int length = positions.length;
+                positions = Arrays.copyOf(positions, usecase + 1);
+                Arrays.fill(positions, length, positions.length, NONE);
+            }
+            positions[usecase] = position;
+            decided.set(usecase);
+            if (permission) {
+                granted.set(usecase);
+            } else {
+                denied.set(usecase);
+            }
+        }
+
+        /**
+         * Get position of the entry of a usecase
+         * @param usecase ID of usecase or -1 if the usecase is not registered
+         * @return Position or NONE if this principal has no entry for this usecase
+         */
+        int getPosition(int usecase) {
+            return usecase >= 0 && usecase < positions.length ? positions[usecase] : NONE;
+        }
+
+        boolean isGranted(int usecase) {
+            return usecase >= 0 && granted.get(usecase);
+        }
+
+        /**
+         * Get permissions as pairs of usecase ID and position, whereas the lowest bit of the position is the permission (position &lt;&lt; 1 | permission), sorted by usecase ID
+         */
+        int[] toEntries() {
+            int[] entries = new int[decided.cardinality() * 2];
+            int i = 0;
+            for (int usecase = decided.nextSetBit(0); usecase >= 0; usecase = decided.nextSetBit(usecase + 1)) {
+                entries[i++] = usecase;
+                entries[i++] = positions[usecase] << 1 | (granted.get(usecase) ? 1 : 0);
+            }
+            return entries;
+        }
+    }
+}
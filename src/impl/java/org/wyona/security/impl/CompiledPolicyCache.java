@@ -0,0 +1,157 @@
+package org.wyona.security.impl;
+
+import java.io.InputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.wyona.security.impl.metrics.AuthorizationStats;
+import org.wyona.security.impl.metrics.PolicyManagerMetrics;
+import org.wyona.yarep.core.Node;
+import org.wyona.yarep.core.Repository;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.LogManager;
+
+/**
+ * Cache of compiled policies by policy path. A cached policy is revalidated against the last modified of its policy node, such that policies which have been modified inside the repository are compiled again.
+ * In order to avoid accessing the repository for every authorization request, a revalidation interval can be set, within which a cached policy is not revalidated.
+ */
+public class CompiledPolicyCache {
+
+    private static Logger log = LogManager.getLogger(CompiledPolicyCache.class);
+
+    private ConcurrentMap<String, Entry> policies = new ConcurrentHashMap<String, Entry>();
+    // INFO: Incremented by every invalidation, such that a policy which has been compiled concurrently to an invalidation is not retained
+    private final AtomicLong generation = new AtomicLong();
+    private final UsecaseRegistry usecaseRegistry;
+    private volatile PolicyManagerMetrics metrics;
+    private volatile long revalidationInterval = 0;
+
+    /**
+     * @param usecaseRegistry Registry which assigns the IDs of usecases
+     */
+    public CompiledPolicyCache(UsecaseRegistry usecaseRegistry) {
+        this.usecaseRegistry = usecaseRegistry;
+    }
+
+    /**
+     * Set metrics which record the duration of parsing and compiling policies
+     * @param metrics Metrics, whereas null disables recording
+     */
+    public void setMetrics(PolicyManagerMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Set interval within which a cached policy is not revalidated against the last modified of its policy node
+     * @param interval Interval in milliseconds, whereas 0 means that a cached policy is revalidated every time it is used
+     */
+    public void setRevalidationInterval(long interval) {
+        this.revalidationInterval = interval;
+    }
+
+    /**
+     * Get compiled policy
+     * @param repo Repository containing policies
+     * @param policyPath Path of policy node, e.g. "/hello/world.html.policy"
+     * @return Compiled policy, whereas the policy node is expected to exist
+     */
+    public CompiledPolicy getPolicy(Repository repo, String policyPath) throws Exception {
+        return getPolicy(repo, policyPath, null);
+    }
+
+    /**
+     * Get compiled policy
+     * @param repo Repository containing policies
+     * @param policyPath Path of policy node, e.g. "/hello/world.html.policy"
+     * @param stats Statistics of the current decision, whereas null means statistics are not collected
+     * @return Compiled policy, whereas the policy node is expected to exist
+     */
+    public CompiledPolicy getPolicy(Repository repo, String policyPath, AuthorizationStats stats) throws Exception {
+        Entry entry = policies.get(policyPath);
+        long now = 0;
+        if (entry != null && revalidationInterval > 0) {
+            now = System.currentTimeMillis();
+            if (now - entry.validated < revalidationInterval) {
+                return entry.policy;
+            }
+        }
+
+        long generation = this.generation.get();
+        if (stats != null) {
+            stats.incrementGetNodeCalls();
+        }
+        Node node = repo.getNode(policyPath);
+        long lastModified = node.getLastModified();
+        if (entry != null && entry.policy.getLastModified() == lastModified) {
+            entry.validated = now;
+            return entry.policy;
+        }
+
+        if (log.isDebugEnabled()) log.debug("Compile policy: " + policyPath);
+        PolicyManagerMetrics metrics = this.metrics;
+        long start = metrics != null ? System.nanoTime() : 0;
+        InputStream in = node.getInputStream();
+        CompiledPolicy policy;
+        try {
+            policy = CompiledPolicy.compile(in, lastModified, usecaseRegistry);
+        } finally {
+            in.close();
+        }
+        if (metrics != null) {
+            metrics.recordPolicyCompilation(policyPath, System.nanoTime() - start);
+        }
+        Entry compiled = new Entry(policy, revalidationInterval > 0 ? System.currentTimeMillis() : 0);
+        policies.put(policyPath, compiled);
+        if (this.generation.get() != generation) {
+            // INFO: The policy node has possibly been read before it has been modified and invalidated, hence the compiled policy is removed again (unless it has been replaced by another thread meanwhile)
+            if (log.isDebugEnabled()) log.debug("Policy has been invalidated while compiling: " + policyPath);
+            policies.remove(policyPath, compiled);
+        }
+        return policy;
+    }
+
+    /**
+     * Get compiled policy only if it is cached and does not have to be revalidated, i.e. without accessing the repository
+     * @param policyPath Path of policy node
+     * @return Compiled policy or null if the policy is not cached or has to be revalidated
+     */
+    public CompiledPolicy getPolicyIfValid(String policyPath) {
+        Entry entry = policies.get(policyPath);
+        if (entry != null && revalidationInterval > 0 && System.currentTimeMillis() - entry.validated < revalidationInterval) {
+            return entry.policy;
+        }
+        return null;
+    }
+
+    /**
+     * Remove compiled policy from cache
+     * @param policyPath Path of policy node
+     */
+    public void invalidate(String policyPath) {
+        generation.incrementAndGet();
+        policies.remove(policyPath);
+    }
+
+    /**
+     * Remove all compiled policies from cache
+     */
+    public void clear() {
+        generation.incrementAndGet();
+        policies.clear();
+    }
+
+    /**
+     * Compiled policy and time when it has been validated the last time
+     */
+    private static class Entry {
+        private final CompiledPolicy policy;
+        private volatile long validated;
+
+        Entry(CompiledPolicy policy, long validated) {
+            this.policy = policy;
+            this.validated = validated;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package org.wyona.security.impl;
+
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.wyona.security.core.api.Identity;
+import org.wyona.security.impl.util.StripedLruCache;
+
+/**
+ * Bounded cache of authorization decisions, whereas the least recently used decisions are evicted first (approximately, see {@link StripedLruCache}).
+ * A decision is keyed by path (ignoring a trailing slash), query string, usecase, username, the group indexes (see {@link org.wyona.security.core.GroupIndex}) and the client address (see {@link Identity#getClientAddress()}) of the identity.
+ * All cached decisions become invalid as soon as the generation is incremented (e.g. when a policy has been set or removed).
+ */
+public class DecisionCache {
+
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final StripedLruCache<Key, Decision> decisions;
+    private final ThreadLocal<Key> probes = new ThreadLocal<Key>() {
+        protected Key initialValue() {
+            return new Key();
+        }
+    };
+
+    /**
+     * @param maxSize Maximum number of cached decisions
+     */
+    public DecisionCache(int maxSize) {
+        this.decisions = new StripedLruCache<Key, Decision>(maxSize);
+    }
+
+    /**
+     * Get cached decision, whereas the lookup does not allocate memory
+     * @param path Path, whereas a trailing slash is ignored (except for ROOT), e.g. "/hello/world.html"
+     * @param queryString Query string associated with path (or null)
+     * @param identity Identity requesting access
+     * @param usecase ID of usecase (see {@link UsecaseRegistry})
+     * @return Cached decision or null if no valid decision is cached
+     */
+    public Boolean get(String path, String queryString, Identity identity, int usecase) {
+        Key probe = probes.get();
+        probe.set(path, queryString, usecase, identity.isWorld(), identity.getUsername(), identity.getGroupIndexesReadOnly(), identity.getClientAddress());
+        Decision decision = decisions.get(probe);
+        // INFO: Do not keep references to the identity
+        probe.clear();
+        if (decision != null && decision.generation == generation.get()) {
+            hits.incrementAndGet();
+            return Boolean.valueOf(decision.granted);
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Cache decision
+     * @param path Path, whereas a trailing slash is ignored (except for ROOT)
+     * @param queryString Query string associated with path (or null)
+     * @param identity Identity requesting access
+     * @param usecase ID of usecase
+     * @param granted Decision
+     * @param generation Generation which was current before the decision has been evaluated
+     */
+    public void put(String path, String queryString, Identity identity, int usecase, boolean granted, long generation) {
+        if (generation != this.generation.get()) {
+            return;
+        }
+        Key key = new Key();
+        key.set(path.substring(0, getNormalizedLength(path)), queryString, usecase, identity.isWorld(), identity.getUsername(), identity.getGroupIndexes(), identity.getClientAddress());
+        decisions.put(key, new Decision(granted, generation));
+    }
+
+    /**
+     * Get current generation
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Invalidate all cached decisions
+     */
+    public void invalidate() {
+        generation.incrementAndGet();
+        decisions.clear();
+    }
+
+    /**
+     * Get number of cached decisions
+     */
+    public int size() {
+        return decisions.size();
+    }
+
+    /**
+     * Get maximum number of cached decisions
+     */
+    public int getMaxSize() {
+        return decisions.getMaxSize();
+    }
+
+    /**
+     * Get number of cache hits
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Get number of cache misses
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Cached decision
+     */
+    private static class Decision {
+        private final boolean granted;
+        private final long generation;
+
+        Decision(boolean granted, long generation) {
+            this.granted = granted;
+            this.generation = generation;
+        }
+    }
+
+    /**
+     * Get length of path without trailing slash (except for ROOT)
+     */
+    private static int getNormalizedLength(String path) {
+        int length = path.length();
+        return length > 1 && path.charAt(length - 1) == '/' ? length - 1 : length;
+    }
+
+    /**
+     * Key of a cached decision. Cached keys are never modified, whereas every thread re-uses one key in order to look up decisions.
+     */
+    private static class Key {
+        private String path;
+        private int pathLength;
+        private String queryString;
+        private int usecase;
+        private boolean world;
+        private String username;
+        private BitSet groups;
+        private String clientAddress;
+        private int hash;
+
+        /**
+         * @param path Path, whereas only the normalized length is taken into account
+         * @param groups Group indexes
+         * @param clientAddress Client address, because IP ranges and hosts of policies depend on it
+         */
+        void set(String path, String queryString, int usecase, boolean world, String username, BitSet groups, String clientAddress) {
+            this.path = path;
+            this.pathLength = getNormalizedLength(path);
+            this.queryString = queryString;
+            this.usecase = usecase;
+            this.world = world;
+            this.username = username;
+            this.groups = groups;
+            this.clientAddress = clientAddress;
+
+            int h = 0;
+            for (int i = 0; i < pathLength; i++) {
+                h = 31 * h + path.charAt(i);
+            }
+            h = 31 * h + (queryString != null ? queryString.hashCode() : 0);
+            h = 31 * h + usecase;
+            h = 31 * h + (world ? 1 : 0);
+            h = 31 * h + (username != null ? username.hashCode() : 0);
+            h = 31 * h + groups.hashCode();
+            h = 31 * h + (clientAddress != null ? clientAddress.hashCode() : 0);
+            this.hash = h;
+        }
+
+        /**
+         * Remove references of re-used key
+         */
+        void clear() {
+            path = null;
+            queryString = null;
+            username = null;
+            groups = null;
+            clientAddress = null;
+        }
+
+        /**
+         * @see java.lang.Object#hashCode()
+         */
+        public int hashCode() {
+            return hash;
+        }
+
+        /**
+         * @see java.lang.Object#equals(Object)
+         */
+        public boolean equals(Object object) {
+            if (this == object) {
+                return true;
+            }
+            if (!(object instanceof Key)) {
+                return false;
+            }
+            Key that = (Key) object;
+            return hash == that.hash && usecase == that.usecase && world == that.world && pathLength == that.pathLength && path.regionMatches(0, that.path, 0, pathLength) && equals(queryString, that.queryString) && equals(username, that.username) && groups.equals(that.groups) && equals(clientAddress, that.clientAddress);
+        }
+
+        /**
+         *
+         */
+        private static boolean equals(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+}
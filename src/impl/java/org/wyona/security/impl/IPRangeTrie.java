@@ -0,0 +1,242 @@
+package org.wyona.security.impl;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+
+/**
+ * Binary prefix trie of IPv4 and IPv6 ranges in CIDR notation (e.g. "10.0.0.0/8" or "2001:db8::/32"), such that all ranges containing an address are found by one walk along the bits of the address.
+ * Hence matching an address costs at most 32 (IPv4) or 128 (IPv6) steps, independent of the number of ranges.
+ * A trie is built once and not modified anymore while it is read, hence it can be read by several threads without synchronization.
+ */
+public class IPRangeTrie<T> {
+
+    private final Node<T> ipv4 = new Node<T>();
+    private final Node<T> ipv6 = new Node<T>();
+    private int size = 0;
+
+    /**
+     * Add range
+     * @param range Range in CIDR notation or single address (e.g. "192.168.1.10"), whereas bits of the address beyond the prefix length are ignored
+     * @param value Value of range, which replaces the value of the same range if it has been added already
+     * @throws IllegalArgumentException If range is not a literal IPv4 or IPv6 range
+     */
+    public void put(String range, T value) {
+        Node<T> node = getNode(range, true);
+        if (node.value == null) {
+            size++;
+        }
+        node.value = value;
+    }
+
+    /**
+     * Get value of a range
+     * @param range Range in CIDR notation or single address
+     * @return Value of exactly this range or null if the range has not been added
+     * @throws IllegalArgumentException If range is not a literal IPv4 or IPv6 range
+     */
+    public T get(String range) {
+        Node<T> node = getNode(range, false);
+        return node != null ? node.value : null;
+    }
+
+    /**
+     * Get values of all ranges which contain an address
+     * @param address Address as returned by {@link #parseAddress(String)}
+     * @param matches List to which the values are added, ordered from the shortest to the longest prefix
+     * @return Number of added values
+     */
+    public int getMatches(byte[] address, List<T> matches) {
+        Node<T> node = address.length == 4 ? ipv4 : ipv6;
+        int bits = address.length * 8;
+        int added = 0;
+        for (int i = 0; node != null; i++) {
+            if (node.value != null) {
+                matches.add(node.value);
+                added++;
+            }
+            if (i == bits) {
+                break;
+            }
+            node = bit(address, i) ? node.one : node.zero;
+        }
+        return added;
+    }
+
+    /**
+     * Check whether no range has been added
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Get number of ranges
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get node of a range
+     * @param create Flag whether missing nodes shall be created
+     * @return Node or null if it does not exist and shall not be created
+     */
+    private Node<T> getNode(String range, boolean create) {
+        byte[] prefix = parsePrefix(range);
+        int length = parsePrefixLength(range, prefix);
+
+        Node<T> node = prefix.length == 4 ? ipv4 : ipv6;
+        for (int i = 0; i < length && node != null; i++) {
+            if (bit(prefix, i)) {
+                if (node.one == null && create) {
+                    node.one = new Node<T>();
+                }
+                node = node.one;
+            } else {
+                if (node.zero == null && create) {
+                    node.zero = new Node<T>();
+                }
+                node = node.zero;
+            }
+        }
+        return node;
+    }
+
+    /**
+     * Check whether a range contains an address, e.g. in order to check a single range without building a trie
+     * @param range Range in CIDR notation or single address
+     * @param address Address as returned by {@link #parseAddress(String)}
+     * @throws IllegalArgumentException If range is not a literal IPv4 or IPv6 range
+     */
+    public static boolean contains(String range, byte[] address) {
+        byte[] prefix = parsePrefix(range);
+        int length = parsePrefixLength(range, prefix);
+        if (prefix.length != address.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (bit(prefix, i) != bit(address, i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get address of a range
+     * @param range Range in CIDR notation or single address
+     * @throws IllegalArgumentException If range does not start with a literal IPv4 or IPv6 address
+     */
+    private static byte[] parsePrefix(String range) {
+        int slash = range.indexOf('/');
+        byte[] prefix = parseAddress(slash >= 0 ? range.substring(0, slash) : range);
+        if (prefix == null) {
+            throw new IllegalArgumentException("No IP range: " + range);
+        }
+        return prefix;
+    }
+
+    /**
+     * Get prefix length of a range
+     * @param range Range in CIDR notation or single address, whereas the prefix length of a single address is the length of the address
+     * @param prefix Address of range
+     * @throws IllegalArgumentException If prefix length is not a number or exceeds the length of the address
+     */
+    private static int parsePrefixLength(String range, byte[] prefix) {
+        int slash = range.indexOf('/');
+        if (slash < 0) {
+            return prefix.length * 8;
+        }
+        int length;
+        try {
+            length = Integer.parseInt(range.substring(slash + 1).trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("No prefix length: " + range);
+        }
+        if (length < 0 || length > prefix.length * 8) {
+            throw new IllegalArgumentException("Prefix length out of range: " + range);
+        }
+        return length;
+    }
+
+    /**
+     * Parse literal IPv4 or IPv6 address, whereas host names are not resolved
+     * @param address Address, e.g. "192.168.1.10", "2001:db8::1" or "[::1]". IPv4-mapped IPv6 addresses are returned as IPv4 addresses.
+     * @return Address as 4 or 16 bytes or null if address is not a literal address
+     */
+    public static byte[] parseAddress(String address) {
+        if (address == null) {
+            return null;
+        }
+        address = address.trim();
+        if (address.indexOf(':') < 0) {
+            return parseIPv4(address);
+        }
+        if (address.startsWith("[") && address.endsWith("]")) {
+            address = address.substring(1, address.length() - 1);
+        }
+        int zone = address.indexOf('%');
+        if (zone >= 0) {
+            address = address.substring(0, zone);
+        }
+        for (int i = 0; i < address.length(); i++) {
+            char c = address.charAt(i);
+            if (!(c == ':' || c == '.' || Character.digit(c, 16) >= 0)) {
+                return null;
+            }
+        }
+        try {
+            // INFO: A literal IPv6 address is parsed without looking up any name
+            InetAddress inetAddress = InetAddress.getByName(address);
+            return inetAddress instanceof Inet4Address || inetAddress.getAddress().length == 16 ? inetAddress.getAddress() : null;
+        } catch (UnknownHostException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Parse dotted decimal IPv4 address
+     * @return Address as 4 bytes or null if address is not a dotted decimal IPv4 address
+     */
+    private static byte[] parseIPv4(String address) {
+        byte[] bytes = new byte[4];
+        int octet = 0;
+        int value = -1;
+        for (int i = 0; i <= address.length(); i++) {
+            char c = i < address.length() ? address.charAt(i) : '.';
+            if (c == '.') {
+                if (value < 0 || octet > 3) {
+                    return null;
+                }
+                bytes[octet++] = (byte) value;
+                value = -1;
+            } else if (c >= '0' && c <= '9') {
+                value = (value < 0 ? 0 : value * 10) + (c - '0');
+                if (value > 255) {
+                    return null;
+                }
+            } else {
+                return null;
+            }
+        }
+        return octet == 4 ? bytes : null;
+    }
+
+    /**
+     * Get bit of an address, whereas bit 0 is the most significant bit
+     */
+    private static boolean bit(byte[] address, int i) {
+        return (address[i >> 3] & (0x80 >>> (i & 7))) != 0;
+    }
+
+    /**
+     * Node of trie, whereas the value is only set if a range ends at this node
+     */
+    private static class Node<T> {
+        private Node<T> zero;
+        private Node<T> one;
+        private T value;
+    }
+}
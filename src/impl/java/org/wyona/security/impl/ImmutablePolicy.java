@@ -0,0 +1,162 @@
+package org.wyona.security.impl;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.wyona.security.core.ImmutableUsecasePolicy;
+import org.wyona.security.core.UsecasePolicy;
+import org.wyona.security.core.api.AccessManagementException;
+import org.wyona.security.core.api.Policy;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.LogManager;
+
+/**
+ * Policy which cannot be modified and therefore can be cached and handed out to several threads without copying it.
+ * Usecase policies are looked up by name without scanning all usecase policies, and merging with the aggregated policy of a parent reuses all usecase policies which are not changed by the merge.
+ * All methods which would modify the policy throw an {@link UnsupportedOperationException}.
+ */
+public final class ImmutablePolicy implements Policy {
+
+    private static Logger log = LogManager.getLogger(ImmutablePolicy.class);
+
+    private final boolean useInheritedPolicies;
+    private final ImmutableUsecasePolicy[] usecasePolicies;
+    private final Map<String, ImmutableUsecasePolicy> usecasePoliciesByName;
+
+    /**
+     * @param useInheritedPolicies Whether inheritance shall be applied
+     * @param usecasePolicies Usecase policies in the order in which they have been defined
+     */
+    private ImmutablePolicy(boolean useInheritedPolicies, ImmutableUsecasePolicy[] usecasePolicies) {
+        this.useInheritedPolicies = useInheritedPolicies;
+        this.usecasePolicies = usecasePolicies;
+        this.usecasePoliciesByName = new LinkedHashMap<String, ImmutableUsecasePolicy>();
+        for (int i = 0; i < usecasePolicies.length; i++) {
+            if (!usecasePoliciesByName.containsKey(usecasePolicies[i].getName())) {
+                usecasePoliciesByName.put(usecasePolicies[i].getName(), usecasePolicies[i]);
+            }
+        }
+    }
+
+    /**
+     * Get immutable snapshot of a policy
+     * @param policy Policy, which is returned as it is if it is immutable already
+     */
+    public static ImmutablePolicy copyOf(Policy policy) {
+        if (policy instanceof ImmutablePolicy) {
+            return (ImmutablePolicy) policy;
+        }
+        UsecasePolicy[] ups = policy.getUsecasePolicies();
+        ImmutableUsecasePolicy[] copies = new ImmutableUsecasePolicy[ups.length];
+        for (int i = 0; i < ups.length; i++) {
+            copies[i] = ImmutableUsecasePolicy.copyOf(ups[i]);
+        }
+        return new ImmutablePolicy(policy.useInheritedPolicies(), copies);
+    }
+
+    /**
+     * Merge this policy with the aggregated policy of its parent, whereas neither of them is modified.
+     * Usecase policies which are only defined by one of both policies, or which the parent does not extend, are shared with the merged policy instead of being copied.
+     * @param parentPolicy Aggregated policy of parent
+     * @return Merged policy or this policy itself if the parent policy does not add anything
+     */
+    public ImmutablePolicy mergedWith(Policy parentPolicy) {
+        if (parentPolicy == null) {
+            return this;
+        }
+        ImmutableUsecasePolicy[] merged = usecasePolicies.clone();
+        Map<String, ImmutableUsecasePolicy> added = new LinkedHashMap<String, ImmutableUsecasePolicy>();
+        boolean modified = false;
+        UsecasePolicy[] parentUsecasePolicies = parentPolicy.getUsecasePolicies();
+        for (int i = 0; i < parentUsecasePolicies.length; i++) {
+            String name = parentUsecasePolicies[i].getName();
+            ImmutableUsecasePolicy up = usecasePoliciesByName.get(name);
+            if (up != null) {
+                for (int k = 0; k < merged.length; k++) {
+                    if (merged[k].getName().equals(name)) {
+                        ImmutableUsecasePolicy mergedUp = merged[k].mergedWith(parentUsecasePolicies[i]);
+                        if (mergedUp != merged[k]) {
+                            merged[k] = mergedUp;
+                            modified = true;
+                        }
+                        break;
+                    }
+                }
+            } else if (!added.containsKey(name)) {
+                added.put(name, ImmutableUsecasePolicy.copyOf(parentUsecasePolicies[i]));
+            }
+        }
+
+        if (!modified && added.isEmpty()) {
+            return this;
+        }
+        ImmutableUsecasePolicy[] result = new ImmutableUsecasePolicy[merged.length + added.size()];
+        System.arraycopy(merged, 0, result, 0, merged.length);
+        int i = merged.length;
+        for (ImmutableUsecasePolicy up : added.values()) {
+            result[i++] = up;
+        }
+        return new ImmutablePolicy(useInheritedPolicies, result);
+    }
+
+    /**
+     * @see org.wyona.security.core.api.Policy#getUsecasePolicy(String)
+     */
+    public UsecasePolicy getUsecasePolicy(String name) throws AccessManagementException {
+        return usecasePoliciesByName.get(name);
+    }
+
+    /**
+     * @see org.wyona.security.core.api.Policy#getUsecasePolicies()
+     */
+    public UsecasePolicy[] getUsecasePolicies() {
+        UsecasePolicy[] ups = new UsecasePolicy[usecasePolicies.length];
+        System.arraycopy(usecasePolicies, 0, ups, 0, ups.length);
+        return ups;
+    }
+
+    /**
+     * @see org.wyona.security.core.api.Policy#useInheritedPolicies()
+     */
+    public boolean useInheritedPolicies() {
+        return useInheritedPolicies;
+    }
+
+    /**
+     * @see org.wyona.security.core.api.Policy#getPath()
+     */
+    public String getPath() throws AccessManagementException {
+        log.warn("Not implemented yet!");
+        return null;
+    }
+
+    /**
+     * @see org.wyona.security.core.api.Policy#getParentPolicy()
+     */
+    public Policy getParentPolicy() throws AccessManagementException {
+        log.warn("Not implemented yet!");
+        return null;
+    }
+
+    /**
+     * @throws UnsupportedOperationException Always
+     */
+    public void addUsecasePolicy(UsecasePolicy up) throws AccessManagementException {
+        throw new UnsupportedOperationException("Policy is immutable");
+    }
+
+    /**
+     * @throws UnsupportedOperationException Always
+     */
+    public void removeUsecasePolicy(String name) throws AccessManagementException {
+        throw new UnsupportedOperationException("Policy is immutable");
+    }
+
+    /**
+     * @throws UnsupportedOperationException Always
+     */
+    public void setUseInheritedPolicies(boolean useInheritedPolicies) {
+        throw new UnsupportedOperationException("Policy is immutable");
+    }
+}
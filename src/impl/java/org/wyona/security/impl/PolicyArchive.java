@@ -0,0 +1,312 @@
+package org.wyona.security.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import org.wyona.yarep.core.Node;
+import org.wyona.yarep.core.NodeType;
+import org.wyona.yarep.core.Repository;
+import org.wyona.yarep.core.RepositoryException;
+import org.wyona.yarep.core.RepositoryFactory;
+import org.wyona.yarep.util.YarepUtil;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.LogManager;
+
+/**
+ * Exports all policies of a repository, the policy map and the usecases configuration as one zip archive, and imports such an archive into a repository.
+ * The export streams one node after the other into the archive. The import writes the nodes concurrently, creates every parent collection only once and skips nodes whose content has not changed.
+ * Policy managers which use the repository while it is imported have to reload their policy index afterwards (see {@link PolicyManagerImplVersion2#reloadPolicyIndex()}).
+ *
+ * Usage: java org.wyona.security.impl.PolicyArchive export REPOSITORY_CONFIG ARCHIVE_FILE
+ *        java org.wyona.security.impl.PolicyArchive import REPOSITORY_CONFIG ARCHIVE_FILE [THREADS]
+ */
+public class PolicyArchive {
+
+    private static Logger log = LogManager.getLogger(PolicyArchive.class);
+
+    private static final String POLICY_SUFFIX = ".policy";
+    private static final int DEFAULT_THREADS = 8;
+
+    /**
+     *
+     */
+    private PolicyArchive() {
+    }
+
+    /**
+     * @param args Command, repository configuration, archive file and optionally number of threads
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3 || !(args[0].equals("export") || args[0].equals("import"))) {
+            System.err.println("Usage: java " + PolicyArchive.class.getName() + " export REPOSITORY_CONFIG ARCHIVE_FILE");
+            System.err.println("       java " + PolicyArchive.class.getName() + " import REPOSITORY_CONFIG ARCHIVE_FILE [THREADS]");
+            System.exit(1);
+        }
+        Repository repo = new RepositoryFactory().newRepository("policies-archive", new File(args[1]));
+        if (args[0].equals("export")) {
+            OutputStream out = new FileOutputStream(args[2]);
+            try {
+                exportPolicies(repo, out);
+            } finally {
+                out.close();
+            }
+        } else {
+            int threads = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_THREADS;
+            InputStream in = new FileInputStream(args[2]);
+            try {
+                importPolicies(repo, in, threads);
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * Export policies, policy map and usecases configuration of a repository
+     * @param repo Repository containing policies
+     * @param out Output stream to which the zip archive is written, whereas the stream is not closed
+     * @return Number of exported nodes
+     */
+    public static int exportPolicies(Repository repo, OutputStream out) throws Exception {
+        ZipOutputStream zip = new ZipOutputStream(out);
+        byte[] buffer = new byte[8192];
+        int exported = export(repo.getRootNode(), "/", zip, buffer);
+
+        if (repo.existsNode(PolicyManagerImplVersion2.POLICY_MAP_FILE)) {
+            Node node = repo.getNode(PolicyManagerImplVersion2.POLICY_MAP_FILE);
+            PolicyMap policyMap;
+            InputStream in = node.getInputStream();
+            try {
+                policyMap = PolicyMap.read(in, node.getLastModified());
+            } finally {
+                in.close();
+            }
+            writeEntry(zip, PolicyManagerImplVersion2.POLICY_MAP_FILE, node, buffer);
+            exported++;
+
+            // INFO: Policies which are referenced by the policy map, but do not have the policy suffix, are not found by walking the repository
+            Set<String> mappedPolicyPaths = new LinkedHashSet<String>(policyMap.getPolicyPaths());
+            for (String policyPath : mappedPolicyPaths) {
+                if (!policyPath.endsWith(POLICY_SUFFIX)) {
+                    if (repo.existsNode(policyPath)) {
+                        writeEntry(zip, policyPath, repo.getNode(policyPath), buffer);
+                        exported++;
+                    } else {
+                        log.warn("No such policy: " + policyPath + " (" + repo + ")");
+                    }
+                }
+            }
+        }
+        if (repo.existsNode(UsecaseRegistry.USECASES_FILE)) {
+            writeEntry(zip, UsecaseRegistry.USECASES_FILE, repo.getNode(UsecaseRegistry.USECASES_FILE), buffer);
+            exported++;
+        }
+        zip.finish();
+        log.info(exported + " nodes of repository '" + repo.getName() + "' exported");
+        return exported;
+    }
+
+    /**
+     * Export all policies of a collection and its descendants
+     * @return Number of exported policies
+     */
+    private static int export(Node collection, String path, ZipOutputStream zip, byte[] buffer) throws Exception {
+        int exported = 0;
+        Node[] children = collection.getNodes();
+        for (int i = 0; i < children.length; i++) {
+            String name = children[i].getName();
+            if (children[i].isCollection()) {
+                exported += export(children[i], path + name + "/", zip, buffer);
+            } else if (name.endsWith(POLICY_SUFFIX)) {
+                writeEntry(zip, path + name, children[i], buffer);
+                exported++;
+            }
+        }
+        return exported;
+    }
+
+    /**
+     * Copy content of a node into a new archive entry
+     * @param path Path of node, e.g. "/hello/world.html.policy"
+     */
+    private static void writeEntry(ZipOutputStream zip, String path, Node node, byte[] buffer) throws Exception {
+        ZipEntry entry = new ZipEntry(path.substring(1));
+        entry.setTime(node.getLastModified());
+        zip.putNextEntry(entry);
+        InputStream in = node.getInputStream();
+        try {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                zip.write(buffer, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+        zip.closeEntry();
+    }
+
+    /**
+     * Import an archive which has been created by {@link #exportPolicies(Repository, OutputStream)}, whereas existing nodes with the same content are not written again
+     * @param repo Repository into which the policies are imported
+     * @param in Input stream from which the zip archive is read, whereas the stream is not closed
+     * @param threads Number of threads writing nodes concurrently
+     * @return Number of written nodes
+     */
+    public static int importPolicies(final Repository repo, InputStream in, int threads) throws Exception {
+        final AtomicInteger written = new AtomicInteger();
+        final AtomicInteger skipped = new AtomicInteger();
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+        final ConcurrentMap<String, Boolean> collections = new ConcurrentHashMap<String, Boolean>();
+        collections.put("/", Boolean.TRUE);
+
+        // INFO: Limit the number of entries which have been read, but not written yet, such that the archive does not have to fit into memory
+        final Semaphore pending = new Semaphore(threads * 16);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            ZipInputStream zip = new ZipInputStream(in);
+            byte[] buffer = new byte[8192];
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null && failure.get() == null) {
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                final String path = getPath(entry);
+                final byte[] content = read(zip, buffer);
+                pending.acquire();
+                executor.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            if (importNode(repo, path, content, collections)) {
+                                written.incrementAndGet();
+                            } else {
+                                skipped.incrementAndGet();
+                            }
+                        } catch (Exception e) {
+                            log.error("Importing '" + path + "' failed: " + e.getMessage(), e);
+                            failure.compareAndSet(null, e);
+                        } finally {
+                            pending.release();
+                        }
+                    }
+                });
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        log.info(written.get() + " nodes imported into repository '" + repo.getName() + "', " + skipped.get() + " unchanged nodes skipped");
+        return written.get();
+    }
+
+    /**
+     * Get path of node from name of archive entry, whereas names which could address a node outside of the exported tree are rejected
+     * @param entry Archive entry, e.g. "hello/world.html.policy"
+     * @return Path of node, e.g. "/hello/world.html.policy"
+     * @throws ZipException If the name is absolute, contains backslashes or contains empty, "." or ".." segments
+     */
+    private static String getPath(ZipEntry entry) throws ZipException {
+        String name = entry.getName();
+        if (name.length() == 0 || name.indexOf('\\') >= 0) {
+            throw new ZipException("Invalid name of archive entry: '" + name + "'");
+        }
+        String[] segments = name.split("/", -1);
+        for (int i = 0; i < segments.length; i++) {
+            if (segments[i].length() == 0 || segments[i].equals(".") || segments[i].equals("..")) {
+                throw new ZipException("Invalid name of archive entry: '" + name + "'");
+            }
+        }
+        return "/" + name;
+    }
+
+    /**
+     * Write content of a node unless the node exists already with the same content
+     * @param collections Paths of collections which are known to exist
+     * @return True if the node has been written and false if it has been skipped
+     */
+    private static boolean importNode(Repository repo, String path, byte[] content, ConcurrentMap<String, Boolean> collections) throws Exception {
+        Node node;
+        if (repo.existsNode(path)) {
+            node = repo.getNode(path);
+            InputStream in = node.getInputStream();
+            byte[] existing;
+            try {
+                existing = read(in, new byte[8192]);
+            } finally {
+                in.close();
+            }
+            if (Arrays.equals(existing, content)) {
+                return false;
+            }
+        } else {
+            int slash = path.lastIndexOf('/');
+            String parentPath = slash == 0 ? "/" : path.substring(0, slash);
+            Node parent = getCollection(repo, parentPath, collections);
+            node = parent.addNode(path.substring(slash + 1), NodeType.RESOURCE);
+        }
+        OutputStream out = node.getOutputStream();
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+        return true;
+    }
+
+    /**
+     * Get collection, whereas the collection and its ancestors are created only if they are not known to exist yet
+     * @param collections Paths of collections which are known to exist
+     */
+    private static Node getCollection(Repository repo, String path, ConcurrentMap<String, Boolean> collections) throws RepositoryException {
+        if (path.equals("/")) {
+            return repo.getRootNode();
+        }
+        if (!collections.containsKey(path)) {
+            // INFO: Collections are created by one thread at a time, such that siblings do not create the same ancestors concurrently
+            synchronized (collections) {
+                if (!collections.containsKey(path)) {
+                    if (!repo.existsNode(path)) {
+                        YarepUtil.addNodes(repo, path, NodeType.COLLECTION);
+                    }
+                    collections.put(path, Boolean.TRUE);
+                }
+            }
+        }
+        return repo.getNode(path);
+    }
+
+    /**
+     * Read input stream completely
+     */
+    private static byte[] read(InputStream in, byte[] buffer) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            bytes.write(buffer, 0, n);
+        }
+        return bytes.toByteArray();
+    }
+}
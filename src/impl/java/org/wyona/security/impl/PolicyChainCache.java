@@ -0,0 +1,78 @@
+package org.wyona.security.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.wyona.security.impl.util.StripedLruCache;
+
+/**
+ * Bounded cache of policy chains by requested path, whereas the least recently used chains are evicted first (approximately, see {@link StripedLruCache}).
+ * A policy chain contains the paths of the existing policy nodes which apply to a path, i.e. the policy of the path itself and the policies of its ancestors in the order in which they have to be checked,
+ * such that an authorization request neither has to build policy paths nor has to check the existence of policy nodes again.
+ * All cached chains become invalid as soon as the generation is incremented (e.g. when a policy has been added or removed).
+ */
+class PolicyChainCache {
+
+    private final AtomicLong generation = new AtomicLong();
+    private final StripedLruCache<String, Chain> chains;
+
+    /**
+     * @param maxSize Maximum number of cached chains
+     */
+    PolicyChainCache(int maxSize) {
+        this.chains = new StripedLruCache<String, Chain>(maxSize);
+    }
+
+    /**
+     * Get cached chain
+     * @param path Requested path
+     * @return Paths of policy nodes or null if no valid chain is cached
+     */
+    String[] get(String path) {
+        Chain chain = chains.get(path);
+        if (chain != null && chain.generation == generation.get()) {
+            return chain.policyPaths;
+        }
+        return null;
+    }
+
+    /**
+     * Cache chain
+     * @param path Requested path
+     * @param policyPaths Paths of policy nodes, starting with the policy of the path itself
+     * @param generation Generation which was current before the chain has been resolved
+     */
+    void put(String path, String[] policyPaths, long generation) {
+        if (generation != this.generation.get()) {
+            return;
+        }
+        chains.put(path, new Chain(policyPaths, generation));
+    }
+
+    /**
+     * Get current generation
+     */
+    long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Invalidate all cached chains
+     */
+    void invalidate() {
+        generation.incrementAndGet();
+        chains.clear();
+    }
+
+    /**
+     * Cached chain
+     */
+    private static class Chain {
+        private final String[] policyPaths;
+        private final long generation;
+
+        Chain(String[] policyPaths, long generation) {
+            this.policyPaths = policyPaths;
+            this.generation = generation;
+        }
+    }
+}
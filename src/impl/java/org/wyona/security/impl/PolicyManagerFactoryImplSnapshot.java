@@ -0,0 +1,54 @@
+package org.wyona.security.impl;
+
+import org.w3c.dom.Document;
+
+import org.wyona.security.core.PolicyManagerFactory;
+import org.wyona.security.core.api.PolicyManager;
+import org.wyona.yarep.core.Repository;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.LogManager;
+
+import java.io.File;
+
+/**
+ * Factory of read-only policy managers based on policy snapshots (see {@link PolicyManagerImplSnapshot})
+ */
+public class PolicyManagerFactoryImplSnapshot extends PolicyManagerFactory {
+
+    private static Logger log = LogManager.getLogger(PolicyManagerFactoryImplSnapshot.class);
+
+    /**
+     * Compile snapshot of repository into a temporary file and create policy manager based on this snapshot
+     */
+    public PolicyManager newPolicyManager(Repository policiesRepository) {
+        try {
+            File snapshotFile = File.createTempFile("policies", ".snapshot");
+            snapshotFile.deleteOnExit();
+            PolicySnapshotCompiler.compile(policiesRepository, snapshotFile);
+            return new PolicyManagerImplSnapshot(snapshotFile);
+        } catch (Exception e) {
+            log.error(e.getMessage(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Create policy manager based on a configuration such as for example
+     * &lt;policy-manager-config xmlns="http://www.wyona.org/security/1.0"&gt;ac-policies/policies.snapshot&lt;/policy-manager-config&gt;
+     */
+    public PolicyManager newPolicyManager(Document configuration, javax.xml.transform.URIResolver resolver) {
+        String snapshotPath = configuration.getDocumentElement().getFirstChild().getNodeValue();
+        if (log.isDebugEnabled()) log.debug("Snapshot path: " + snapshotPath);
+
+        try {
+            String base = null;
+            String resolvedSnapshotPath = resolver.resolve(snapshotPath, base).getSystemId();
+            if (log.isDebugEnabled()) log.debug("Resolved snapshot path: " + resolvedSnapshotPath);
+            return new PolicyManagerImplSnapshot(new File(resolvedSnapshotPath));
+        } catch (Exception e) {
+            log.error(e.getMessage(), e);
+            return null;
+        }
+    }
+}
@@ -1,9 +1,13 @@
 package org.wyona.security.impl;
 
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 
 import org.wyona.security.core.PolicyManagerFactory;
 import org.wyona.security.core.api.PolicyManager;
+import org.wyona.security.impl.invalidation.FileInvalidationBus;
+import org.wyona.security.impl.metrics.PolicyManagerMetricsImpl;
+import org.wyona.security.impl.replication.FilePolicyChangeLog;
 import org.wyona.yarep.core.Repository;
 import org.wyona.yarep.core.RepositoryFactory;
 
@@ -19,6 +23,8 @@ public class PolicyManagerFactoryImplVersion2 extends PolicyManagerFactory {
 
     private static Logger log = LogManager.getLogger(PolicyManagerFactoryImplVersion2.class);
 
+    private static final long DEFAULT_INVALIDATION_POLL_INTERVAL = 1000;
+
     /**
      *
      */
@@ -27,7 +33,10 @@ public class PolicyManagerFactoryImplVersion2 extends PolicyManagerFactory {
     }
 
     /**
-     *
+     * Create policy manager based on a configuration such as for example
+     * &lt;policy-manager-config xmlns="http://www.wyona.org/security/1.0" decision-cache-size="10000" policy-map-reload-interval="10000" policy-revalidation-interval="1000" metrics="true" world-index="true" change-log="/var/lib/policy-changes" invalidation-bus="/var/lib/policy-invalidations" invalidation-poll-interval="1000" invalidation-bus-max-size="1048576"&gt;ac-policies/repository.xml&lt;/policy-manager-config&gt;
+     * Please note that compiled policies are revalidated against the last modified of their policy nodes at most once per second by default (attribute policy-revalidation-interval in milliseconds),
+     * hence a policy which is modified inside the repository by another process (and not by this policy manager) takes effect up to one second later. Set the attribute to "0" in order to revalidate policies for every authorization request as before.
      */
     public PolicyManager newPolicyManager(Document configuration, javax.xml.transform.URIResolver resolver) {
         if (log.isDebugEnabled()) log.debug("Configuration Root Name: " + configuration.getDocumentElement().getLocalName());
@@ -38,7 +47,9 @@ public class PolicyManagerFactoryImplVersion2 extends PolicyManagerFactory {
             String base = null;
             String resolvedRepoPath = resolver.resolve(repoPath, base).getSystemId();
             if (log.isDebugEnabled()) log.debug("Resolved repo path: " + resolvedRepoPath);
-            return new PolicyManagerImplVersion2(new RepositoryFactory().newRepository("policy-repo-v2", new File(resolvedRepoPath)));
+            PolicyManagerImplVersion2 pm = new PolicyManagerImplVersion2(new RepositoryFactory().newRepository("policy-repo-v2", new File(resolvedRepoPath)));
+            configure(pm, configuration.getDocumentElement(), resolvedRepoPath);
+            return pm;
 
             // NOTE: Repo factory will automagically resolve a relative path with respect to the classpath, but this is not necessarily how it should be. In case of realm it should be relative to the realm configuration, hence the resolver!
             //return new PolicyManagerImplVersion2(new RepositoryFactory().newRepository("policy-repo-v2", new File(repoPath)));
@@ -47,4 +58,51 @@ public class PolicyManagerFactoryImplVersion2 extends PolicyManagerFactory {
             return null;
         }
     }
+
+    /**
+     * Apply optional settings of configuration
+     * @param pm Policy manager
+     * @param config Root element of configuration
+     * @param name Name of policy manager, which is used as name of the metrics MBean
+     */
+    private void configure(PolicyManagerImplVersion2 pm, Element config, String name) throws Exception {
+        String decisionCacheSize = config.getAttribute("decision-cache-size");
+        if (decisionCacheSize != null && decisionCacheSize.length() > 0) {
+            pm.setDecisionCacheSize(Integer.parseInt(decisionCacheSize));
+        }
+        String policyMapReloadInterval = config.getAttribute("policy-map-reload-interval");
+        if (policyMapReloadInterval != null && policyMapReloadInterval.length() > 0) {
+            pm.setPolicyMapReloadInterval(Long.parseLong(policyMapReloadInterval));
+        }
+        String policyRevalidationInterval = config.getAttribute("policy-revalidation-interval");
+        if (policyRevalidationInterval != null && policyRevalidationInterval.length() > 0) {
+            pm.setPolicyRevalidationInterval(Long.parseLong(policyRevalidationInterval));
+        }
+        if ("true".equals(config.getAttribute("world-index"))) {
+            pm.setWorldIndexEnabled(true);
+        }
+        String changeLogDir = config.getAttribute("change-log");
+        if (changeLogDir != null && changeLogDir.length() > 0) {
+            pm.setChangeLog(new FilePolicyChangeLog(new File(changeLogDir)));
+        }
+        String invalidationBusFile = config.getAttribute("invalidation-bus");
+        if (invalidationBusFile != null && invalidationBusFile.length() > 0) {
+            long pollInterval = DEFAULT_INVALIDATION_POLL_INTERVAL;
+            String invalidationPollInterval = config.getAttribute("invalidation-poll-interval");
+            if (invalidationPollInterval != null && invalidationPollInterval.length() > 0) {
+                pollInterval = Long.parseLong(invalidationPollInterval);
+            }
+            long maxSize = FileInvalidationBus.DEFAULT_MAX_SIZE;
+            String invalidationBusMaxSize = config.getAttribute("invalidation-bus-max-size");
+            if (invalidationBusMaxSize != null && invalidationBusMaxSize.length() > 0) {
+                maxSize = Long.parseLong(invalidationBusMaxSize);
+            }
+            pm.setInvalidationBus(new FileInvalidationBus(new File(invalidationBusFile), pollInterval, maxSize));
+        }
+        if ("true".equals(config.getAttribute("metrics"))) {
+            PolicyManagerMetricsImpl metrics = new PolicyManagerMetricsImpl();
+            metrics.registerMBean(name);
+            pm.setMetrics(metrics);
+        }
+    }
 }
@@ -1,10 +1,15 @@
 package org.wyona.security.impl;
 
 import java.util.Hashtable;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.wyona.commons.io.Path;
 import org.wyona.commons.io.PathUtil;
+import org.wyona.security.core.AccessibleSubtrees;
 import org.wyona.security.core.AuthorizationException;
+import org.wyona.security.core.AuthorizedPrincipals;
+import org.wyona.security.core.DecisionTrace;
 import org.wyona.security.core.GroupPolicy;
 import org.wyona.security.core.IdentityPolicy;
 import org.wyona.security.core.UsecasePolicy;
@@ -13,6 +18,7 @@ import org.wyona.security.core.api.Policy;
 import org.wyona.security.core.api.PolicyManager;
 import org.wyona.security.core.api.Role;
 import org.wyona.security.core.api.Usecase;
+import org.wyona.security.impl.util.SubtreeResolver;
 import org.wyona.yarep.core.NoSuchNodeException;
 import org.wyona.yarep.core.Repository;
 import org.wyona.yarep.core.RepositoryException;
@@ -74,6 +80,132 @@ public class PolicyManagerImpl implements PolicyManager {
         return authorize(path, identity, usecase);
     }
 
+    /**
+     * @see org.wyona.security.core.api.PolicyManager#authorizeAll(String[], Identity, Usecase)
+     */
+    public boolean[] authorizeAll(String[] paths, Identity identity, Usecase usecase) throws AuthorizationException {
+        boolean[] authorized = new boolean[paths.length];
+        for (int i = 0; i < paths.length; i++) {
+            authorized[i] = authorize(paths[i], identity, usecase);
+        }
+        return authorized;
+    }
+
+    /**
+     * @see org.wyona.security.core.api.PolicyManager#getPermittedUsecases(String, String, Identity)
+     */
+    public String[] getPermittedUsecases(String path, String queryString, Identity identity) throws AuthorizationException {
+        java.util.List<String> permitted = new java.util.ArrayList<String>();
+        String[] usecases = getUsecases();
+        for (int i = 0; i < usecases.length; i++) {
+            if (authorize(path, queryString, identity, new Usecase(usecases[i]))) {
+                permitted.add(usecases[i]);
+            }
+        }
+        return permitted.toArray(new String[permitted.size()]);
+    }
+
+    /**
+     * Policies version 1 are not indexed, hence the policies repository is scanned for policy nodes
+     * @see org.wyona.security.core.api.PolicyManager#getAccessibleSubtrees(String, Identity, Usecase)
+     */
+    public AccessibleSubtrees getAccessibleSubtrees(String rootPath, Identity identity, Usecase usecase) throws AuthorizationException {
+        try {
+            PolicyPathIndex index = new PolicyPathIndex();
+            index.load(getPoliciesRepository(), null);
+            return SubtreeResolver.resolve(this, index.getPolicyPaths(), rootPath, identity, usecase);
+        } catch(RepositoryException e) {
+            log.error(e.getMessage(), e);
+            throw new AuthorizationException("Error getting accessible subtrees " + getPoliciesRepository().getID() + ", " + rootPath + ", " + identity + ", " + usecase, e);
+        }
+    }
+
+    /**
+     * Collect the entries of the role during one walk through the ancestor policies, until a policy decides for everyone
+     * @see org.wyona.security.core.api.PolicyManager#getAuthorizedPrincipals(String, Usecase)
+     */
+    public AuthorizedPrincipals getAuthorizedPrincipals(String path, Usecase usecase) throws AuthorizationException {
+        if(path == null || usecase == null) {
+            log.error("Path or usecase is null! [" + path + ", " + usecase + "]");
+            throw new AuthorizationException("Path or usecase is null! [" + path + ", " + usecase + "]");
+        }
+
+        AuthorizedPrincipals principals = new AuthorizedPrincipals(path, usecase.getName());
+        Repository repo = getPoliciesRepository();
+        try {
+            String current = path;
+            while (current != null) {
+                String yarepPath = getPolicyPath(current);
+                if (repo.existsNode(yarepPath)) {
+                    Configuration config = configBuilder.build(repo.getNode(yarepPath).getInputStream());
+                    boolean useInheritedPolicies = config.getAttributeAsBoolean("use-inherited-policies", true);
+                    principals.addLevel(yarepPath, useInheritedPolicies);
+                    boolean decidesForEveryone = !useInheritedPolicies;
+                    // INFO: Roles with the same ID are checked one after the other, hence the position of an entry runs across all roles of the policy
+                    int position = 0;
+                    Configuration[] roles = config.getChildren("role");
+                    for (int i = 0; i < roles.length; i++) {
+                        if (usecase.getName().equals(roles[i].getAttribute("id", null))) {
+                            Configuration[] accreditableObjects = roles[i].getChildren();
+                            boolean worldCredentialExists = false;
+                            for (int k = 0; k < accreditableObjects.length; k++, position++) {
+                                String aObjectName = accreditableObjects[k].getName();
+                                boolean granted = "true".equals(accreditableObjects[k].getAttribute("permission", null));
+                                if (aObjectName.equals("world")) {
+                                    worldCredentialExists = true;
+                                    if (granted) {
+                                        principals.addEntry(DecisionTrace.WORLD, null, position, true);
+                                        decidesForEveryone = true;
+                                    }
+                                } else if (aObjectName.equals("user") || aObjectName.equals("group")) {
+                                    String id = accreditableObjects[k].getAttribute("id", null);
+                                    if (id != null) {
+                                        principals.addEntry(aObjectName.equals("user") ? DecisionTrace.USER : DecisionTrace.GROUP, id, position, granted);
+                                    }
+                                }
+                            }
+                            if (worldCredentialExists || !roles[i].getAttributeAsBoolean("use-inherited-policies", true)) {
+                                // INFO: Everyone who is not matched by an entry of this role is denied
+                                principals.addEntry(DecisionTrace.WORLD, null, position++, false);
+                                decidesForEveryone = true;
+                            }
+                        }
+                    }
+                    if (decidesForEveryone) {
+                        break;
+                    }
+                }
+                current = PathUtil.getParent(current);
+            }
+        } catch(Exception e) {
+            log.error(e.getMessage(), e);
+            throw new AuthorizationException("Error getting authorized principals " + repo.getID() + ", " + path + ", " + usecase, e);
+        }
+        return principals;
+    }
+
+    /**
+     * Policies version 1 are evaluated synchronously by the calling thread
+     * @see org.wyona.security.core.api.PolicyManager#authorizeAsync(String, String, Identity, Usecase, long, TimeUnit)
+     */
+    public Future<Boolean> authorizeAsync(String path, String queryString, Identity identity, Usecase usecase, long timeout, TimeUnit unit) throws AuthorizationException {
+        return AuthorizationFuture.completed(authorize(path, queryString, identity, usecase));
+    }
+
+    /**
+     * Policies version 1 are not traced, hence only the decision is reported
+     * @see org.wyona.security.core.api.PolicyManager#explain(String, String, Identity, Usecase)
+     */
+    public DecisionTrace explain(String path, String queryString, Identity identity, Usecase usecase) throws AuthorizationException {
+        if(path == null || identity == null || usecase == null) {
+            log.error("Path or identity or usecase is null! [" + path + ", " + identity + ", " + usecase + "]");
+            throw new AuthorizationException("Path or identity or usecase is null! [" + path + ", " + identity + ", " + usecase + "]");
+        }
+        DecisionTrace trace = new DecisionTrace(path, usecase.getName());
+        trace.setResult(authorize(path, queryString, identity, usecase), "Tracing not supported by " + getClass().getName());
+        return trace;
+    }
+
     /**
      * @see org.wyona.security.core.api.PolicyManager#(String, Identity, Usecase)
      */
@@ -180,9 +312,25 @@ public class PolicyManagerImpl implements PolicyManager {
                                     }
                                 }
                             }
-                        } else if (aObjectName.equals("iprange")) {
-                            log.warn("Credential IP Range not implemented yet!");
-                            //return false;
+                        } else if (aObjectName.equals("iprange") || aObjectName.equals("host")) {
+                            byte[] clientAddress = IPRangeTrie.parseAddress(identity.getClientAddress());
+                            if (clientAddress != null) {
+                                String range = accreditableObjects[k].getAttribute("id", null);
+                                try {
+                                    if (range != null && IPRangeTrie.contains(range, clientAddress)) {
+                                        String permission = accreditableObjects[k].getAttribute("permission", null);
+                                        if ("true".equals(permission)) {
+                                            log.debug("Access granted: Path = " + path + ", " + aObjectName + " = " + range);
+                                            return true;
+                                        } else {
+                                            log.debug("Access denied: Path = " + path + ", " + aObjectName + " = " + range);
+                                            return false;
+                                        }
+                                    }
+                                } catch (IllegalArgumentException e) {
+                                    log.error("No valid IP address or range: " + e.getMessage());
+                                }
+                            }
                         } else {
                             log.warn("No such accreditable object implemented: " + aObjectName);
                             //return false;
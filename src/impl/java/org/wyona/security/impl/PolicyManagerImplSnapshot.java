@@ -0,0 +1,226 @@
+package org.wyona.security.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.wyona.commons.io.Path;
+import org.wyona.security.core.AccessibleSubtrees;
+import org.wyona.security.core.AuthorizationException;
+import org.wyona.security.core.AuthorizedPrincipals;
+import org.wyona.security.core.DecisionTrace;
+import org.wyona.security.core.api.Identity;
+import org.wyona.security.core.api.Policy;
+import org.wyona.security.core.api.PolicyManager;
+import org.wyona.security.core.api.Role;
+import org.wyona.security.core.api.Usecase;
+import org.wyona.security.impl.util.SubtreeResolver;
+import org.wyona.yarep.core.Repository;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.LogManager;
+
+/**
+ * Read-only policy manager, which answers authorization requests from a memory-mapped policy snapshot (see {@link PolicySnapshotCompiler}) without parsing XML and without accessing the policies repository.
+ * Policies can neither be read nor modified, instead a new snapshot has to be compiled and the policy manager has to be re-created.
+ */
+public class PolicyManagerImplSnapshot implements PolicyManager {
+
+    private static Logger log = LogManager.getLogger(PolicyManagerImplSnapshot.class);
+
+    private final PolicySnapshot snapshot;
+    private final UsecaseRegistry usecaseRegistry;
+
+    /**
+     * @param snapshotFile Snapshot file created by {@link PolicySnapshotCompiler}
+     */
+    public PolicyManagerImplSnapshot(File snapshotFile) throws IOException {
+        snapshot = PolicySnapshot.open(snapshotFile);
+        usecaseRegistry = snapshot.getUsecaseRegistry();
+    }
+
+    /**
+     * @deprecated Use authorize(String, Identity, Usecase) instead
+     */
+    @Deprecated
+    public boolean authorize(Path path, Identity identity, Role role) throws AuthorizationException {
+        return authorize(path.toString(), identity, role);
+    }
+
+    /**
+     * @deprecated Use authorize(String, Identity, Usecase) instead
+     */
+    @Deprecated
+    public boolean authorize(String path, Identity identity, Role role) throws AuthorizationException {
+        log.warn("Deprecated method and not implemented! Use method authorize(String, Identity, Usecase) instead!");
+        return false;
+    }
+
+    /**
+     * @see org.wyona.security.core.api.PolicyManager#authorize(Policy, Identity, Usecase)
+     */
+    public boolean authorize(Policy policy, Identity identity, Usecase usecase) throws AuthorizationException {
+        log.error("Not implemented yet!");
+        return false;
+    }
+
+    /**
+     * @see org.wyona.security.core.api.PolicyManager#authorize(String, Identity, Usecase)
+     */
+    public boolean authorize(String path, Identity identity, Usecase usecase) throws AuthorizationException {
+        return authorize(path, null, identity, usecase);
+    }
+
+    /**
+     * @see org.wyona.security.core.api.PolicyManager#authorize(String, String, Identity, Usecase)
+     */
+    public boolean authorize(String path, String queryString, Identity identity, Usecase usecase) throws AuthorizationException {
+        if(path == null || identity == null || usecase == null) {
+            log.error("Path or identity or usecase is null! [" + path + ", " + identity + ", " + usecase + "]");
+            throw new AuthorizationException("Path or identity or usecase is null! [" + path + ", " + identity + ", " + usecase + "]");
+        }
+        return snapshot.authorize(path, queryString, identity, usecaseRegistry.getId(usecase.getName()));
+    }
+
+    /**
+     * @see org.wyona.security.core.api.PolicyManager#authorizeAll(String[], Identity, Usecase)
+     */
+    public boolean[] authorizeAll(String[] paths, Identity identity, Usecase usecase) throws AuthorizationException {
+        if(paths == null || identity == null || usecase == null) {
+            log.error("Paths or identity or usecase is null! [" + paths + ", " + identity + ", " + usecase + "]");
+            throw new AuthorizationException("Paths or identity or usecase is null! [" + paths + ", " + identity + ", " + usecase + "]");
+        }
+        // INFO: All usecases of the snapshot are registered when it is loaded, hence a usecase which is not registered (-1) has no entries and is denied
+        int usecaseId = usecaseRegistry.getId(usecase.getName());
+        boolean[] authorized = new boolean[paths.length];
+        for (int i = 0; i < paths.length; i++) {
+            if (paths[i] == null) {
+                throw new AuthorizationException("Path at position " + i + " is null!");
+            }
+            authorized[i] = snapshot.authorize(paths[i], null, identity, usecaseId);
+        }
+        return authorized;
+    }
+
+    /**
+     * @see org.wyona.security.core.api.PolicyManager#getPermittedUsecases(String, String, Identity)
+     */
+    public String[] getPermittedUsecases(String path, String queryString, Identity identity) throws AuthorizationException {
+        if(path == null || identity == null) {
+            log.error("Path or identity is null! [" + path + ", " + identity + "]");
+            throw new AuthorizationException("Path or identity is null! [" + path + ", " + identity + "]");
+        }
+        java.util.List<String> permitted = new java.util.ArrayList<String>();
+        for (int i = 0; i < usecaseRegistry.getNumberOfUsecases(); i++) {
+            if (snapshot.authorize(path, queryString, identity, i)) {
+                permitted.add(usecaseRegistry.getName(i));
+            }
+        }
+        return permitted.toArray(new String[permitted.size()]);
+    }
+
+    /**
+     * @see org.wyona.security.core.api.PolicyManager#getAccessibleSubtrees(String, Identity, Usecase)
+     */
+    public AccessibleSubtrees getAccessibleSubtrees(String rootPath, Identity identity, Usecase usecase) throws AuthorizationException {
+        if (snapshot.hasPolicyMap()) {
+            log.error("Accessible subtrees cannot be resolved, because policies are mapped by a policy map!");
+            throw new AuthorizationException("Accessible subtrees cannot be resolved, because policies are mapped by a policy map!");
+        }
+        return SubtreeResolver.resolve(this, snapshot.getPolicyPaths(), rootPath, identity, usecase);
+    }
+
+    /**
+     * @see org.wyona.security.core.api.PolicyManager#getAuthorizedPrincipals(String, Usecase)
+     */
+    public AuthorizedPrincipals getAuthorizedPrincipals(String path, Usecase usecase) throws AuthorizationException {
+        if(path == null || usecase == null) {
+            log.error("Path or usecase is null! [" + path + ", " + usecase + "]");
+            throw new AuthorizationException("Path or usecase is null! [" + path + ", " + usecase + "]");
+        }
+        AuthorizedPrincipals principals = new AuthorizedPrincipals(path, usecase.getName());
+        snapshot.addEntries(path, usecaseRegistry.getId(usecase.getName()), principals);
+        return principals;
+    }
+
+    /**
+     * Snapshots are evaluated synchronously by the calling thread, because they do not access the repository
+     * @see org.wyona.security.core.api.PolicyManager#authorizeAsync(String, String, Identity, Usecase, long, TimeUnit)
+     */
+    public Future<Boolean> authorizeAsync(String path, String queryString, Identity identity, Usecase usecase, long timeout, TimeUnit unit) throws AuthorizationException {
+        return AuthorizationFuture.completed(authorize(path, queryString, identity, usecase));
+    }
+
+    /**
+     * Snapshots are not traced, hence only the decision is reported
+     * @see org.wyona.security.core.api.PolicyManager#explain(String, String, Identity, Usecase)
+     */
+    public DecisionTrace explain(String path, String queryString, Identity identity, Usecase usecase) throws AuthorizationException {
+        if(path == null || identity == null || usecase == null) {
+            log.error("Path or identity or usecase is null! [" + path + ", " + identity + ", " + usecase + "]");
+            throw new AuthorizationException("Path or identity or usecase is null! [" + path + ", " + identity + ", " + usecase + "]");
+        }
+        DecisionTrace trace = new DecisionTrace(path, usecase.getName());
+        trace.setResult(authorize(path, queryString, identity, usecase), "Tracing not supported by " + getClass().getName());
+        return trace;
+    }
+
+    /**
+     * A snapshot is not backed by a repository
+     * @return null
+     */
+    public Repository getPoliciesRepository() {
+        return null;
+    }
+
+    /**
+     * @see org.wyona.security.core.api.PolicyManager#getPolicy(String, boolean)
+     */
+    public Policy getPolicy(String path, boolean aggregate) throws AuthorizationException {
+        throw new AuthorizationException("Policies of a snapshot can not be read (Path: " + path + ")");
+    }
+
+    /**
+     * @see org.wyona.security.core.api.PolicyManager#setPolicy(String, Policy)
+     */
+    public void setPolicy(String path, Policy policy) throws AuthorizationException {
+        throw new UnsupportedOperationException("Snapshot is read-only (Path: " + path + ")");
+    }
+
+    /**
+     * @see org.wyona.security.core.api.PolicyManager#removePolicy(String)
+     */
+    public void removePolicy(String path) throws AuthorizationException {
+        throw new UnsupportedOperationException("Snapshot is read-only (Path: " + path + ")");
+    }
+
+    /**
+     * @see org.wyona.security.core.api.PolicyManager#createEmptyPolicy()
+     */
+    public Policy createEmptyPolicy() throws AuthorizationException {
+        try {
+            return new PolicyImplV2();
+        } catch (Exception e) {
+            throw new AuthorizationException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @see org.wyona.security.core.api.PolicyManager#getUsecases()
+     */
+    public String[] getUsecases() {
+        return usecaseRegistry.getUsecases();
+    }
+
+    /**
+     * @see org.wyona.security.core.api.PolicyManager#getUsecaseLabel(String, String)
+     */
+    public String getUsecaseLabel(String usecaseId, String language) {
+        String label = usecaseRegistry.getLabel(usecaseId, language);
+        if (label == null) {
+            return "No label for \"" + usecaseId + "\" (see " + this.getClass().getName() + ")";
+        }
+        return label;
+    }
+}
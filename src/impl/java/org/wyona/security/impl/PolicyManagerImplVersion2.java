@@ -1,15 +1,34 @@
 package org.wyona.security.impl;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 
 import org.wyona.commons.io.Path;
 import org.wyona.commons.io.PathUtil;
+import org.wyona.security.core.AccessibleSubtrees;
 import org.wyona.security.core.AuthorizationException;
+import org.wyona.security.core.AuthorizedPrincipals;
+import org.wyona.security.core.DecisionTrace;
 import org.wyona.security.core.GroupPolicy;
 import org.wyona.security.core.IdentityPolicy;
 import org.wyona.security.core.api.Identity;
@@ -17,6 +36,16 @@ import org.wyona.security.core.api.Policy;
 import org.wyona.security.core.api.PolicyManager;
 import org.wyona.security.core.api.Role;
 import org.wyona.security.core.api.Usecase;
+import org.wyona.security.impl.invalidation.InvalidationBus;
+import org.wyona.security.impl.invalidation.InvalidationEvent;
+import org.wyona.security.impl.invalidation.InvalidationListener;
+import org.wyona.security.impl.metrics.AuthorizationStats;
+import org.wyona.security.impl.metrics.PolicyManagerMetrics;
+import org.wyona.security.impl.metrics.PolicyManagerMetricsImpl;
+import org.wyona.security.impl.replication.PolicyChange;
+import org.wyona.security.impl.replication.PolicyChangeLog;
+import org.wyona.security.impl.util.PolicyAggregator;
+import org.wyona.security.impl.util.SubtreeResolver;
 
 import org.wyona.yarep.core.NoSuchNodeException;
 import org.wyona.yarep.core.Node;
@@ -30,10 +59,7 @@ import org.xml.sax.SAXException;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
 
-import org.apache.avalon.framework.configuration.Configuration;
 import org.apache.avalon.framework.configuration.ConfigurationException;
-import org.apache.avalon.framework.configuration.DefaultConfigurationBuilder;
-import org.apache.commons.io.FilenameUtils;
 
 /**
  * Policy manager implementation version 2
@@ -43,24 +69,495 @@ public class PolicyManagerImplVersion2 implements PolicyManager {
     private static Logger log = LogManager.getLogger(PolicyManagerImplVersion2.class);
 
     private Repository policiesRepository;
-    private DefaultConfigurationBuilder configBuilder;
+    private CompiledPolicyCache compiledPolicies;
+    private PolicyPathIndex policyIndex;
+    private boolean policyIndexLoaded = false;
+    private volatile DecisionCache decisionCache;
+    private volatile WorldAccessIndex worldIndex;
+    private UsecaseRegistry usecaseRegistry;
+    private volatile PolicyManagerMetrics metrics;
+    private volatile PolicyChangeLog changeLog;
+    private volatile InvalidationBus invalidationBus;
+    private final InvalidationListener invalidationListener = new InvalidationListener() {
+        public void invalidate(InvalidationEvent event) {
+            if (InvalidationEvent.POLICY.equals(event.getRegion())) {
+                evictPolicy(event.getKey());
+            } else if (InvalidationEvent.POLICY_MAP.equals(event.getRegion())) {
+                try {
+                    reloadPolicyMapIfModified();
+                } catch (RepositoryException e) {
+                    log.error("Reloading policy map after '" + event + "' failed: " + e.getMessage(), e);
+                }
+            }
+        }
+    };
+    private final PolicyChainCache policyChains = new PolicyChainCache(DEFAULT_POLICY_CHAIN_CACHE_SIZE);
 
-    private static String USECASE_ELEMENT_NAME = "usecase";
+    private static final int DEFAULT_POLICY_CHAIN_CACHE_SIZE = 10000;
+    private static final long DEFAULT_POLICY_REVALIDATION_INTERVAL = 1000;
+    private static final int APPLY_CHANGES_BATCH_SIZE = 1000;
+
+    private static final int DEFAULT_EXECUTOR_THREADS = Math.max(8, 4 * Runtime.getRuntime().availableProcessors());
+    private static final int DEFAULT_EXECUTOR_QUEUE_SIZE = 1000;
+
+    /**
+     * Executor of asynchronous authorization requests, which is shared by all policy managers and creates daemon threads on demand (more threads than processors, because the tasks are blocked by repository I/O most of the time).
+     * Threads and queued tasks are bounded, such that a burst of requests cannot exhaust threads or memory, whereas requests which exceed the bounds are rejected (see {@link #authorizeAsync(String, String, Identity, Usecase, long, TimeUnit)}).
+     */
+    private static final ExecutorService defaultExecutor = createDefaultExecutor();
+    private volatile ExecutorService executor = defaultExecutor;
+    private final PolicyAggregator policyAggregator = new PolicyAggregator(this, defaultExecutor);
 
     private static final String NEWLINE = System.getProperty("line.separator");
+    private static final String POLICY_NAMESPACE = "http://www.wyona.org/security/1.0";
 
-    private static final String POLICY_MAP_FILE = "/policy-map.xml";
-    private Map<String, String> policy_map;
-    private java.util.Date policyMapLastModified;
+    static final String POLICY_MAP_FILE = "/policy-map.xml";
+    private static final long DEFAULT_POLICY_MAP_RELOAD_INTERVAL = 10000;
+    private volatile PolicyMap policyMap;
+    private PolicyMapWatcher policyMapWatcher;
+    private long checkedPolicyMapLastModified;
+
+    /**
+     * Create bounded executor, whose idle threads terminate after one minute
+     */
+    private static ExecutorService createDefaultExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(DEFAULT_EXECUTOR_THREADS, DEFAULT_EXECUTOR_THREADS, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(DEFAULT_EXECUTOR_QUEUE_SIZE), new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "policy-manager-authorization");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
 
     /**
      * @param policiesRepository Repository containing access policies
      */
     public PolicyManagerImplVersion2(Repository policiesRepository) {
         this.policiesRepository = policiesRepository;
-        configBuilder = new DefaultConfigurationBuilder();
-        policy_map = new HashMap<String, String>();
-        readPolicyMap(policiesRepository); // INFO: For peformance reasons we read the policy map at the startup of the policy manager, but which means changes at run-time won't be working.
+        usecaseRegistry = UsecaseRegistry.load(policiesRepository);
+        compiledPolicies = new CompiledPolicyCache(usecaseRegistry);
+        compiledPolicies.setRevalidationInterval(DEFAULT_POLICY_REVALIDATION_INTERVAL);
+        policyMap = new PolicyMap();
+        readPolicyMap(policiesRepository); // INFO: For peformance reasons we read the policy map at the startup of the policy manager and changes at run-time are detected in the background (see setPolicyMapReloadInterval(long))
+        policyIndex = new PolicyPathIndex();
+        reloadPolicyIndex();
+        setPolicyMapReloadInterval(DEFAULT_POLICY_MAP_RELOAD_INTERVAL);
+    }
+
+    /**
+     * Set interval of checking in the background whether the policy map has been modified
+     * @param interval Interval in milliseconds, whereas 0 disables reloading the policy map
+     */
+    public synchronized void setPolicyMapReloadInterval(long interval) {
+        if (policyMapWatcher != null) {
+            policyMapWatcher.stop();
+            policyMapWatcher = null;
+        }
+        if (interval > 0) {
+            policyMapWatcher = PolicyMapWatcher.start(this, interval);
+        }
+    }
+
+    /**
+     * Set interval within which a compiled policy is not revalidated against the last modified of its policy node. Please note that policies which are set or removed by this policy manager are always applied immediately.
+     * @param interval Interval in milliseconds (default 1000), whereas 0 means that the policy node is accessed for every authorization request
+     */
+    public void setPolicyRevalidationInterval(long interval) {
+        compiledPolicies.setRevalidationInterval(interval);
+    }
+
+    /**
+     * Set executor of asynchronous authorization requests (see {@link #authorizeAsync(String, String, Identity, Usecase, long, TimeUnit)}) and of reading ancestor policies concurrently (see {@link #getPolicy(String, boolean)}), e.g. an executor which starts a virtual thread per task
+     * @param executor Executor, whereas null means the default executor, which is shared by all policy managers
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor != null ? executor : defaultExecutor;
+        policyAggregator.setExecutor(this.executor);
+    }
+
+    /**
+     * Stop background tasks of this policy manager
+     */
+    public void shutdown() {
+        setPolicyMapReloadInterval(0);
+        setInvalidationBus(null);
+        PolicyManagerMetrics metrics = this.metrics;
+        if (metrics instanceof PolicyManagerMetricsImpl) {
+            ((PolicyManagerMetricsImpl) metrics).unregisterMBean();
+        }
+    }
+
+    /**
+     * Enable or disable recording of metrics, e.g. latency of authorizations and repository accesses per decision
+     * @param metrics Metrics, whereas null disables recording
+     */
+    public void setMetrics(PolicyManagerMetrics metrics) {
+        this.metrics = metrics;
+        compiledPolicies.setMetrics(metrics);
+    }
+
+    /**
+     * Get metrics of this policy manager
+     * @return Metrics or null if metrics are not recorded
+     */
+    public PolicyManagerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Enable or disable appending every policy which is set or removed by this policy manager and every modification of the policy map to a change log, such that replicas can apply these changes (see {@link #applyChanges(PolicyChangeLog, long)})
+     * @param changeLog Change log, whereas null disables appending changes
+     */
+    public void setChangeLog(PolicyChangeLog changeLog) {
+        this.changeLog = changeLog;
+    }
+
+    /**
+     * Get change log of this policy manager
+     * @return Change log or null if changes are not appended
+     */
+    public PolicyChangeLog getChangeLog() {
+        return changeLog;
+    }
+
+    /**
+     * Set bus to announce policies which are set or removed by this policy manager to the policy managers of other application nodes sharing the same policies repository, and to evict the compiled policies which have been set or removed by them.
+     * Only the compiled policy of the announced policy node is evicted, whereas decisions and aggregated policies are invalidated as a whole.
+     * @param bus Invalidation bus or null in order to stop publishing and receiving
+     */
+    public void setInvalidationBus(InvalidationBus bus) {
+        synchronized (invalidationListener) {
+            if (invalidationBus != null) {
+                invalidationBus.unsubscribe(invalidationListener);
+            }
+            invalidationBus = bus;
+            if (bus != null) {
+                bus.subscribe(invalidationListener);
+            }
+        }
+    }
+
+    /**
+     * Get invalidation bus of this policy manager
+     * @return Invalidation bus or null if modifications are not announced
+     */
+    public InvalidationBus getInvalidationBus() {
+        return invalidationBus;
+    }
+
+    /**
+     * Announce modification to other policy managers if an invalidation bus is set
+     */
+    private void publish(String region, String key) {
+        InvalidationBus bus = invalidationBus;
+        if (bus != null) {
+            bus.publish(region, key, invalidationListener);
+        }
+    }
+
+    /**
+     * Evict compiled policy of a policy node which has been set or removed by another policy manager
+     * @param policyPath Path of policy node, e.g. "/hello/world.html.policy"
+     */
+    private void evictPolicy(String policyPath) {
+        compiledPolicies.invalidate(policyPath);
+        try {
+            if (policiesRepository.existsNode(policyPath)) {
+                policyIndex.add(policyPath);
+            } else {
+                policyIndex.remove(policyPath);
+            }
+        } catch (RepositoryException e) {
+            log.error(e, e);
+        }
+        updateWorldIndex(policyPath);
+        invalidateCaches();
+    }
+
+    /**
+     * Apply changes of a change log to the policies repository of this policy manager, whereas only the compiled policies of the changed nodes are removed from the cache.
+     * Applied changes are not appended to the change log of this policy manager.
+     * @param changeLog Change log, e.g. the change log of the policy manager of another application node
+     * @param fromVersion Version of the first change which has not been applied yet
+     * @return Version of the next change which has not been applied yet, i.e. the version of the last applied change plus one, or fromVersion if there are no new changes
+     */
+    public synchronized long applyChanges(PolicyChangeLog changeLog, long fromVersion) throws AuthorizationException {
+        long nextVersion = fromVersion;
+        boolean policiesAddedOrRemoved = false;
+        boolean policyMapModified = false;
+        try {
+            List<PolicyChange> changes;
+            while (!(changes = changeLog.getChanges(nextVersion, APPLY_CHANGES_BATCH_SIZE)).isEmpty()) {
+                for (PolicyChange change : changes) {
+                    if (log.isDebugEnabled()) log.debug("Apply change: " + change);
+                    String path = change.getPath();
+                    if (change.getType() == PolicyChange.SET) {
+                        policiesAddedOrRemoved |= writeNode(path, change.getContent());
+                        compiledPolicies.invalidate(path);
+                        policyIndex.add(path);
+                    } else if (change.getType() == PolicyChange.REMOVE) {
+                        if (policiesRepository.existsNode(path)) {
+                            policiesRepository.getNode(path).delete();
+                        }
+                        compiledPolicies.invalidate(path);
+                        policyIndex.remove(path);
+                        policiesAddedOrRemoved = true;
+                    } else if (change.getType() == PolicyChange.POLICY_MAP) {
+                        if (change.getContent() != null) {
+                            writeNode(path, change.getContent());
+                        } else if (policiesRepository.existsNode(path)) {
+                            policiesRepository.getNode(path).delete();
+                        }
+                        policyMapModified = true;
+                    } else {
+                        log.warn("No such change type implemented: " + change);
+                    }
+                    nextVersion = change.getVersion() + 1;
+                }
+            }
+        } catch (Exception e) {
+            log.error(e, e);
+            throw new AuthorizationException("Applying changes of '" + changeLog + "' from version " + nextVersion + " failed: " + e.getMessage(), e);
+        } finally {
+            if (policyMapModified) {
+                readPolicyMap(policiesRepository);
+                // INFO: The policy map has been read already, hence the watcher must not append this modification to the change log again
+                checkedPolicyMapLastModified = policyMap.getLastModified();
+                for (String policyPath : policyMap.getPolicyPaths()) {
+                    try {
+                        if (policiesRepository.existsNode(policyPath)) {
+                            policyIndex.add(policyPath);
+                        }
+                    } catch (RepositoryException e) {
+                        log.error(e, e);
+                    }
+                }
+            }
+            if (policiesAddedOrRemoved || policyMapModified) {
+                policyChains.invalidate();
+            }
+            if (nextVersion != fromVersion) {
+                // INFO: Decisions and aggregated policies are not kept per policy, hence all of them are invalidated
+                policyAggregator.invalidate();
+                invalidateWorldIndex();
+                DecisionCache cache = decisionCache;
+                if (cache != null) {
+                    cache.invalidate();
+                }
+            }
+        }
+        return nextVersion;
+    }
+
+    /**
+     * Write content of a node of the policies repository
+     * @param path Path of node, e.g. "/hello/world.html.policy"
+     * @return True if the node has been created and false if it existed already
+     */
+    private boolean writeNode(String path, byte[] content) throws Exception {
+        boolean created = !policiesRepository.existsNode(path);
+        Node node = created ? YarepUtil.addNodes(policiesRepository, path, org.wyona.yarep.core.NodeType.RESOURCE) : policiesRepository.getNode(path);
+        OutputStream out = node.getOutputStream();
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+        return created;
+    }
+
+    /**
+     * Append change to the change log if a change log is set
+     */
+    private void appendChange(int type, String path, byte[] content) {
+        PolicyChangeLog changeLog = this.changeLog;
+        if (changeLog != null) {
+            try {
+                changeLog.append(type, path, content);
+            } catch (IOException e) {
+                log.error("Appending change of '" + path + "' to change log '" + changeLog + "' failed: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Reload policy map if it has been modified, added or removed since it has been loaded the last time
+     */
+    void reloadPolicyMapIfModified() throws RepositoryException {
+        boolean reloaded = false;
+        synchronized (this) {
+            long lastModified = -1;
+            if (policiesRepository.existsNode(POLICY_MAP_FILE)) {
+                lastModified = policiesRepository.getNode(POLICY_MAP_FILE).getLastModified();
+            }
+            if (lastModified != policyMap.getLastModified() && lastModified != checkedPolicyMapLastModified) {
+                // INFO: Remember last modified, such that a broken policy map is not read again and again
+                checkedPolicyMapLastModified = lastModified;
+                log.info("Reload policy map, because it has been modified '" + new java.util.Date(lastModified) + "' since it has been loaded the last time '" + new java.util.Date(policyMap.getLastModified()) + "'.");
+                readPolicyMap(policiesRepository);
+                for (String policyPath : policyMap.getPolicyPaths()) {
+                    if (policiesRepository.existsNode(policyPath)) {
+                        policyIndex.add(policyPath);
+                    }
+                }
+                invalidateCaches();
+                invalidateWorldIndex();
+                if (changeLog != null) {
+                    appendChange(PolicyChange.POLICY_MAP, POLICY_MAP_FILE, lastModified != -1 ? readNode(POLICY_MAP_FILE) : null);
+                }
+                reloaded = true;
+            }
+        }
+        // INFO: Other policy managers are notified without holding the lock of this policy manager, because they might notify this policy manager at the same time
+        if (reloaded) {
+            publish(InvalidationEvent.POLICY_MAP, POLICY_MAP_FILE);
+        }
+    }
+
+    /**
+     * Read content of a node of the policies repository
+     */
+    private byte[] readNode(String path) throws RepositoryException {
+        InputStream in = policiesRepository.getNode(path).getInputStream();
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                bytes.write(buffer, 0, n);
+            }
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new RepositoryException(e.getMessage(), e);
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                log.warn(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * (Re-)load the index of existing policy nodes. This is only necessary if policies have been added or removed inside the repository without using this policy manager.
+     */
+    public void reloadPolicyIndex() {
+        try {
+            policyIndex.load(policiesRepository, policyMap.getPolicyPaths());
+            policyIndexLoaded = true;
+            invalidateCaches();
+            invalidateWorldIndex();
+        } catch (RepositoryException e) {
+            log.error("Loading index of policies failed, hence existence of policies will be checked inside repository: " + e.getMessage(), e);
+            policyIndexLoaded = false;
+        }
+    }
+
+    /**
+     * Enable or disable the cache of authorization decisions. Please note that decisions are only invalidated when policies are set or removed by this policy manager.
+     * @param maxSize Maximum number of cached decisions, whereas 0 disables the cache
+     */
+    public void setDecisionCacheSize(int maxSize) {
+        if (maxSize > 0) {
+            log.info("Enable decision cache with maximum size: " + maxSize);
+            decisionCache = new DecisionCache(maxSize);
+        } else {
+            decisionCache = null;
+        }
+    }
+
+    /**
+     * Get cache of authorization decisions, e.g. in order to read the number of hits and misses
+     * @return Decision cache or null if decisions are not cached
+     */
+    public DecisionCache getDecisionCache() {
+        return decisionCache;
+    }
+
+    /**
+     * Enable or disable answering anonymous requests (see {@link Identity#isWorld()}) by the index of the decisions of all policies for world (see {@link WorldAccessIndex}).
+     * Please note that like cached decisions the index is only updated when policies are set or removed by this policy manager, and that it is not used if a policy map exists.
+     * @param enabled True in order to enable the index
+     */
+    public void setWorldIndexEnabled(boolean enabled) {
+        if (enabled) {
+            log.info("Enable world access index");
+            worldIndex = new WorldAccessIndex(policiesRepository, compiledPolicies, policyIndex, usecaseRegistry);
+        } else {
+            worldIndex = null;
+        }
+    }
+
+    /**
+     * Update decisions of a policy inside the world access index, if it is enabled
+     * @param policyPath Path of policy node, e.g. "/hello/world.html.policy"
+     */
+    private void updateWorldIndex(String policyPath) {
+        WorldAccessIndex index = worldIndex;
+        if (index != null) {
+            index.update(policyPath);
+        }
+    }
+
+    /**
+     * Discard world access index, if it is enabled, such that it is built again
+     */
+    private void invalidateWorldIndex() {
+        WorldAccessIndex index = worldIndex;
+        if (index != null) {
+            index.invalidate();
+        }
+    }
+
+    /**
+     * Check authorization of an anonymous request by the world access index
+     * @param usecase ID of usecase
+     * @param build Flag whether the index may be built, which reads all policies
+     * @return Decision or null if the index is disabled or cannot decide this request
+     */
+    private Boolean authorizeWorld(String path, String queryString, Identity identity, int usecase, boolean build) {
+        WorldAccessIndex index = worldIndex;
+        if (index == null || queryString != null || !identity.isWorld() || identity.getUsername() != null || !identity.getGroupIndexesReadOnly().isEmpty()) {
+            return null;
+        }
+        if (!policyIndexLoaded || !policyMap.isEmpty() || !(build || index.isBuilt())) {
+            return null;
+        }
+        try {
+            return index.authorize(path, identity, usecase);
+        } catch (Exception e) {
+            log.error("World access index failed, hence policies are evaluated: " + e.getMessage(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Invalidate all cached decisions, policy chains and aggregated policies
+     */
+    private void invalidateCaches() {
+        policyChains.invalidate();
+        policyAggregator.invalidate();
+        DecisionCache cache = decisionCache;
+        if (cache != null) {
+            cache.invalidate();
+        }
+    }
+
+    /**
+     * Check whether a policy node exists
+     * @param policyPath Path of policy node, e.g. "/hello/world.html.policy"
+     */
+    private boolean existsPolicy(Repository repo, String policyPath, AuthorizationStats stats) throws RepositoryException {
+        if (policyIndexLoaded && repo == policiesRepository) {
+            return policyIndex.contains(policyPath);
+        }
+        if (stats != null) {
+            stats.incrementExistsNodeCalls();
+        }
+        return repo.existsNode(policyPath);
     }
     
     /**
@@ -79,23 +576,18 @@ public class PolicyManagerImplVersion2 implements PolicyManager {
             if(!repo.existsNode(POLICY_MAP_FILE)) {
                 // INFO: No policy map file, abort.
                 log.info("No policy map '" + POLICY_MAP_FILE + "' file in repo: " + repo.getName());
+                policyMap = new PolicyMap();
                 return;
             }
             log.info("Found a policy map file in repo: " + repo.getName());
 			
             Node pm_node = repo.getNode(POLICY_MAP_FILE);
-            policyMapLastModified = new java.util.Date(pm_node.getLastModified());
+            long lastModified = pm_node.getLastModified();
             InputStream pm_istream = pm_node.getInputStream();
-            DefaultConfigurationBuilder builder = new DefaultConfigurationBuilder(true);
-            Configuration config = builder.build(pm_istream);
-			
-            //Configuration root = config.getChild("policy-map");
-            Configuration[] mappings = config.getChildren("matcher");
-            for(Configuration mapping : mappings) {
-                // TODO: Allow custom matching classes?
-                String pattern = mapping.getAttribute("pattern");
-                String path = mapping.getAttribute("path");
-                policy_map.put(pattern, path);
+            try {
+                policyMap = PolicyMap.read(pm_istream, lastModified);
+            } finally {
+                pm_istream.close();
             }
         } catch (RepositoryException e) {
             log.fatal("Problem with policy repository: " + e.getMessage());
@@ -112,6 +604,13 @@ public class PolicyManagerImplVersion2 implements PolicyManager {
         }
     }
     
+    /**
+     * Get registry of usecases
+     */
+    public UsecaseRegistry getUsecaseRegistry() {
+        return usecaseRegistry;
+    }
+
     /**
      * Match a path against the policy map.
      * @param path Path to be matched, e.g. '/projects/yanel/changes/master/c-c172df5f.html'
@@ -119,31 +618,18 @@ public class PolicyManagerImplVersion2 implements PolicyManager {
      * @return Policy path if requested path is matching, otherwise return null
      */
     private String getMappedPath(String path, String queryString) {
-        // INFO: Check last modified of policy map node and compare with policyMapLastModified
-        try {
-            Node pm_node = policiesRepository.getNode(POLICY_MAP_FILE);
-            if (new java.util.Date(pm_node.getLastModified()).after(policyMapLastModified)) {
-                log.warn("TODO: Reload policy map, because it has been modified '" + new java.util.Date(pm_node.getLastModified()) + "' since it has been loaded the last time '" + policyMapLastModified + "'!");
-            } else {
-                //log.debug("Policy map has not been modified since it has been loaded the last time '" + policyMapLastModified + "'.");
-            }
-        } catch(Exception e) {
-            log.error(e, e);
-        }
-
+        // INFO: Modifications of the policy map are detected in the background (see PolicyMapWatcher)
         if (queryString != null) {
             path = path + "?" + queryString;
         }
-        for(Map.Entry<String, String> mapping : policy_map.entrySet()) {
-            if(FilenameUtils.wildcardMatch(path, mapping.getKey())) {
-                //log.debug("DEBUG: Path '" + path + "' matched inside policy map onto policy path '" + mapping.getValue() + "'.");
-                return mapping.getValue();
-            }
+        PolicyManagerMetrics metrics = this.metrics;
+        if (metrics == null) {
+            return policyMap.getPolicyPath(path);
         }
-
-        //log.debug("Path '" + path + "' did not match inside policy map.");
-
-        return null;
+        long start = System.nanoTime();
+        String policyPath = policyMap.getPolicyPath(path);
+        metrics.recordPolicyMapMatch(System.nanoTime() - start);
+        return policyPath;
     }
      
     /**
@@ -185,20 +671,456 @@ public class PolicyManagerImplVersion2 implements PolicyManager {
             throw new AuthorizationException("Path or identity or usecase is null! [" + path + ", " + identity + ", " + usecase + "]");
         }
 
+        PolicyManagerMetrics metrics = this.metrics;
+        if (metrics == null) {
+            return authorize(path, queryString, identity, usecase, null);
+        }
+        long start = System.nanoTime();
+        AuthorizationStats stats = new AuthorizationStats();
+        boolean granted = authorize(path, queryString, identity, usecase, stats);
+        metrics.recordAuthorization(getMetricsUsecase(usecase), System.nanoTime() - start, granted, stats);
+        return granted;
+    }
+
+    /**
+     * @param stats Statistics of this decision, whereas null means statistics are not collected
+     */
+    private boolean authorize(String path, String queryString, Identity identity, Usecase usecase, AuthorizationStats stats) throws AuthorizationException {
         try {
-            return authorize(getPoliciesRepository(), path, queryString, identity, usecase);
+            int usecaseId = usecaseRegistry.getId(usecase.getName());
+            if (usecaseId < 0) {
+                usecaseId = resolveUsecase(path, queryString, identity, usecase.getName(), stats);
+                if (usecaseId < 0) {
+                    return false;
+                }
+            }
+            Boolean world = authorizeWorld(path, queryString, identity, usecaseId, true);
+            if (world != null) {
+                return world.booleanValue();
+            }
+            DecisionCache cache = decisionCache;
+            if (cache == null) {
+                return evaluate(path, queryString, identity, usecaseId, stats);
+            }
+
+            Boolean cached = cache.get(path, queryString, identity, usecaseId);
+            if (cached != null) {
+                if (stats != null) {
+                    stats.setCached(true);
+                }
+                return cached.booleanValue();
+            }
+            long generation = cache.getGeneration();
+            boolean granted = evaluate(path, queryString, identity, usecaseId, stats);
+            cache.put(path, queryString, identity, usecaseId, granted, generation);
+            return granted;
         } catch(Exception e) {
             log.error(e.getMessage(), e);
             throw new AuthorizationException("Error authorizing " + getPoliciesRepository().getID() + ", " + path + ", " + identity + ", " + usecase, e);
         }
     }
 
+    /**
+     * Requests whose decision is cached or whose policies are compiled and valid are answered by the calling thread, all other requests are evaluated by the executor (see {@link #setExecutor(ExecutorService)})
+     * @see org.wyona.security.core.api.PolicyManager#authorizeAsync(String, String, Identity, Usecase, long, TimeUnit)
+     */
+    public Future<Boolean> authorizeAsync(final String path, final String queryString, final Identity identity, final Usecase usecase, long timeout, TimeUnit unit) throws AuthorizationException {
+        if(path == null || identity == null || usecase == null) {
+            log.error("Path or identity or usecase is null! [" + path + ", " + identity + ", " + usecase + "]");
+            throw new AuthorizationException("Path or identity or usecase is null! [" + path + ", " + identity + ", " + usecase + "]");
+        }
+
+        final long start = System.nanoTime();
+        final int usecaseId = usecaseRegistry.getId(usecase.getName());
+        // INFO: The world access index is only used if it has been built already, because building it reads all policies
+        Boolean world = authorizeWorld(path, queryString, identity, usecaseId, false);
+        if (world != null) {
+            recordAuthorization(usecase, start, world.booleanValue(), false);
+            return AuthorizationFuture.completed(world.booleanValue());
+        }
+        // INFO: Decisions of usecases which are not registered are not cached, because the usecase may be registered by compiling a policy
+        final DecisionCache cache = usecaseId >= 0 ? decisionCache : null;
+        final long generation = cache != null ? cache.getGeneration() : 0;
+        if (cache != null) {
+            Boolean cached = cache.get(path, queryString, identity, usecaseId);
+            if (cached != null) {
+                recordAuthorization(usecase, start, cached.booleanValue(), true);
+                return AuthorizationFuture.completed(cached.booleanValue());
+            }
+        }
+
+        // INFO: If all policies of the path are compiled, then none of them contains a usecase which is not registered
+        Boolean granted = evaluateIfCompiled(path, queryString, identity, usecaseId);
+        if (granted != null) {
+            if (cache != null) {
+                cache.put(path, queryString, identity, usecaseId, granted.booleanValue(), generation);
+            }
+            recordAuthorization(usecase, start, granted.booleanValue(), false);
+            return AuthorizationFuture.completed(granted.booleanValue());
+        }
+
+        Callable<Boolean> task = new Callable<Boolean>() {
+            public Boolean call() throws Exception {
+                PolicyManagerMetrics metrics = PolicyManagerImplVersion2.this.metrics;
+                AuthorizationStats stats = metrics != null ? new AuthorizationStats() : null;
+                boolean decision;
+                try {
+                    int id = usecaseId >= 0 ? usecaseId : resolveUsecase(path, queryString, identity, usecase.getName(), stats);
+                    decision = id >= 0 && evaluate(path, queryString, identity, id, stats);
+                } catch(Exception e) {
+                    log.error(e.getMessage(), e);
+                    throw new AuthorizationException("Error authorizing " + getPoliciesRepository().getID() + ", " + path + ", " + identity + ", " + usecase, e);
+                }
+                if (cache != null) {
+                    cache.put(path, queryString, identity, usecaseId, decision, generation);
+                }
+                if (metrics != null) {
+                    metrics.recordAuthorization(getMetricsUsecase(usecase), System.nanoTime() - start, decision, stats);
+                }
+                return Boolean.valueOf(decision);
+            }
+        };
+        try {
+            return new AuthorizationFuture(executor.submit(task), start + unit.toNanos(timeout), path + ", " + identity + ", " + usecase.getName());
+        } catch(RejectedExecutionException e) {
+            log.error(e.getMessage(), e);
+            throw new AuthorizationException("Executor rejected authorization request " + path + ", " + identity + ", " + usecase, e);
+        }
+    }
+
+    /**
+     * Get name under which an authorization is recorded by the metrics
+     * @return Name of usecase if it is registered, otherwise OTHER_USECASES
+     */
+    private String getMetricsUsecase(Usecase usecase) {
+        return usecaseRegistry.getId(usecase.getName()) >= 0 ? usecase.getName() : PolicyManagerMetrics.OTHER_USECASES;
+    }
+
+    /**
+     * Record authorization which has been answered without accessing the repository
+     * @param start Start of authorization as value of System.nanoTime()
+     * @param cached True if decision has been answered by the decision cache
+     */
+    private void recordAuthorization(Usecase usecase, long start, boolean granted, boolean cached) {
+        PolicyManagerMetrics metrics = this.metrics;
+        if (metrics != null) {
+            AuthorizationStats stats = new AuthorizationStats();
+            stats.setCached(cached);
+            metrics.recordAuthorization(getMetricsUsecase(usecase), System.nanoTime() - start, granted, stats);
+        }
+    }
+
+    /**
+     * Check authorization only if the policy chain of the path is cached and all its policies are compiled and do not have to be revalidated, i.e. without accessing the repository
+     * @param usecase ID of usecase
+     * @return Decision or null if the repository would have to be accessed
+     */
+    private Boolean evaluateIfCompiled(String path, String queryString, Identity identity, int usecase) {
+        if (queryString != null || !policyIndexLoaded) {
+            return null;
+        }
+        String[] chain = policyChains.get(path);
+        if (chain == null) {
+            return null;
+        }
+        for (int i = 0; i < chain.length; i++) {
+            CompiledPolicy policy = compiledPolicies.getPolicyIfValid(chain[i]);
+            if (policy == null) {
+                return null;
+            }
+            int decision = policy.authorize(identity, usecase);
+            if (decision != CompiledPolicy.INHERIT) {
+                return Boolean.valueOf(decision == CompiledPolicy.GRANTED);
+            }
+        }
+        return Boolean.FALSE;
+    }
+
+    /**
+     * Check authorization, whereas the policies which apply to a path are resolved once and cached as policy chain, if the existence of policies is known from the index.
+     * Evaluating a cached policy chain does not allocate memory.
+     * @param usecase ID of usecase
+     * @param stats Statistics of this decision, whereas null means statistics are not collected
+     */
+    private boolean evaluate(String path, String queryString, Identity identity, int usecase, AuthorizationStats stats) throws Exception {
+        if (queryString != null || !policyIndexLoaded) {
+            return authorize(getPoliciesRepository(), path, queryString, identity, usecase, stats, null);
+        }
+
+        String[] chain = getPolicyChain(path);
+        for (int i = 0; i < chain.length; i++) {
+            if (stats != null) {
+                stats.incrementLevels();
+            }
+            CompiledPolicy policy;
+            try {
+                policy = compiledPolicies.getPolicy(getPoliciesRepository(), chain[i], stats);
+            } catch(NoSuchNodeException e) {
+                log.error(e.getMessage(), e);
+                continue;
+            }
+            int decision = policy.authorize(identity, usecase);
+            if (decision != CompiledPolicy.INHERIT) {
+                return decision == CompiledPolicy.GRANTED;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Resolve the ID of a usecase which is not registered, whereas the policies of the path are compiled, because compiling a policy registers the usecases which it contains.
+     * Names of usecases which are only requested are not registered, such that requests cannot grow the registry.
+     * @param usecaseName Name of usecase
+     * @param stats Statistics of this decision, whereas null means statistics are not collected
+     * @return ID of usecase or -1 if no policy of the path contains the usecase, hence access is denied
+     */
+    private int resolveUsecase(String path, String queryString, Identity identity, String usecaseName, AuthorizationStats stats) throws Exception {
+        evaluate(path, queryString, identity, -1, stats);
+        return usecaseRegistry.getId(usecaseName);
+    }
+
+    /**
+     * Get paths of the existing policy nodes which apply to a path, in the order in which they have to be checked
+     * @param path Requested path
+     */
+    private String[] getPolicyChain(String path) throws Exception {
+        String[] chain = policyChains.get(path);
+        if (chain != null) {
+            return chain;
+        }
+
+        long generation = policyChains.getGeneration();
+        List<String> policyPaths = new ArrayList<String>();
+        String current = path;
+        while (current != null) {
+            String policyPath = getPolicyPath(current, null);
+            if (existsPolicy(getPoliciesRepository(), policyPath, null)) {
+                policyPaths.add(policyPath);
+            }
+            current = getParentToCheck(current);
+        }
+        chain = policyPaths.toArray(new String[policyPaths.size()]);
+        policyChains.put(path, chain, generation);
+        return chain;
+    }
+
+    /**
+     * Evaluate the policies without using the decision cache and record every checked policy level
+     * @see org.wyona.security.core.api.PolicyManager#explain(String, String, Identity, Usecase)
+     */
+    public DecisionTrace explain(String path, String queryString, Identity identity, Usecase usecase) throws AuthorizationException {
+        if(path == null || identity == null || usecase == null) {
+            log.error("Path or identity or usecase is null! [" + path + ", " + identity + ", " + usecase + "]");
+            throw new AuthorizationException("Path or identity or usecase is null! [" + path + ", " + identity + ", " + usecase + "]");
+        }
+
+        DecisionTrace trace = new DecisionTrace(path, usecase.getName());
+        try {
+            int usecaseId = usecaseRegistry.getId(usecase.getName());
+            if (usecaseId < 0) {
+                usecaseId = resolveUsecase(path, queryString, identity, usecase.getName(), null);
+            }
+            authorize(getPoliciesRepository(), path, queryString, identity, usecaseId, null, trace);
+        } catch(Exception e) {
+            log.error(e.getMessage(), e);
+            throw new AuthorizationException("Error explaining " + getPoliciesRepository().getID() + ", " + path + ", " + identity + ", " + usecase, e);
+        }
+        return trace;
+    }
+
+    /**
+     * Sort paths, such that siblings are next to each other, and remember the decision of every checked ancestor, such that ancestor policies are checked only once for all paths.
+     * @see org.wyona.security.core.api.PolicyManager#authorizeAll(String[], Identity, Usecase)
+     */
+    public boolean[] authorizeAll(String[] paths, Identity identity, Usecase usecase) throws AuthorizationException {
+        if(paths == null || identity == null || usecase == null) {
+            log.error("Paths or identity or usecase is null! [" + paths + ", " + identity + ", " + usecase + "]");
+            throw new AuthorizationException("Paths or identity or usecase is null! [" + paths + ", " + identity + ", " + usecase + "]");
+        }
+
+        final String[] normalizedPaths = new String[paths.length];
+        Integer[] order = new Integer[paths.length];
+        for (int i = 0; i < paths.length; i++) {
+            if (paths[i] == null) {
+                throw new AuthorizationException("Path at position " + i + " is null!");
+            }
+            normalizedPaths[i] = removeTrailingSlash(paths[i]);
+            order[i] = new Integer(i);
+        }
+        java.util.Arrays.sort(order, new java.util.Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return normalizedPaths[a.intValue()].compareTo(normalizedPaths[b.intValue()]);
+            }
+        });
+
+        boolean[] authorized = new boolean[paths.length];
+        Map<String, Boolean> decisions = new HashMap<String, Boolean>();
+        List<String> checkedPaths = new ArrayList<String>();
+        try {
+            int usecaseId = usecaseRegistry.getId(usecase.getName());
+            for (int i = 0; i < order.length; i++) {
+                int index = order[i].intValue();
+                if (usecaseId < 0) {
+                    // INFO: Decisions of ancestors are only remembered once the usecase is registered
+                    usecaseId = resolveUsecase(normalizedPaths[index], null, identity, usecase.getName(), null);
+                    if (usecaseId < 0) {
+                        continue;
+                    }
+                }
+                authorized[index] = authorize(getPoliciesRepository(), normalizedPaths[index], identity, usecaseId, decisions, checkedPaths);
+            }
+        } catch(Exception e) {
+            log.error(e.getMessage(), e);
+            throw new AuthorizationException("Error authorizing " + getPoliciesRepository().getID() + ", " + paths.length + " paths, " + identity + ", " + usecase, e);
+        }
+        return authorized;
+    }
+
+    /**
+     * Collect the entries of the usecase during one walk through the ancestor policies, until a policy decides for everyone
+     * @see org.wyona.security.core.api.PolicyManager#getAuthorizedPrincipals(String, Usecase)
+     */
+    public AuthorizedPrincipals getAuthorizedPrincipals(String path, Usecase usecase) throws AuthorizationException {
+        if(path == null || usecase == null) {
+            log.error("Path or usecase is null! [" + path + ", " + usecase + "]");
+            throw new AuthorizationException("Path or usecase is null! [" + path + ", " + usecase + "]");
+        }
+
+        AuthorizedPrincipals principals = new AuthorizedPrincipals(path, usecase.getName());
+        int usecaseId = usecaseRegistry.getId(usecase.getName());
+        try {
+            String current = path;
+            while (current != null) {
+                CompiledPolicy policy = getCompiledPolicy(getPoliciesRepository(), current, null, null, null);
+                if (policy != null) {
+                    if (usecaseId < 0) {
+                        // INFO: Compiling the policy registers the usecases which it contains
+                        usecaseId = usecaseRegistry.getId(usecase.getName());
+                    }
+                    principals.addLevel(getPolicyPath(current, null), policy.useInheritedPolicies());
+                    if (policy.addEntries(usecaseId, principals)) {
+                        break;
+                    }
+                }
+                current = getParentToCheck(current);
+            }
+        } catch(Exception e) {
+            log.error(e.getMessage(), e);
+            throw new AuthorizationException("Error getting authorized principals " + getPoliciesRepository().getID() + ", " + path + ", " + usecase, e);
+        }
+        return principals;
+    }
+
+    /**
+     * Only the root path and the paths of the indexed policies below it are authorized (see {@link SubtreeResolver}), whereas policies mapped by a policy map cannot be resolved to subtrees
+     * @see org.wyona.security.core.api.PolicyManager#getAccessibleSubtrees(String, Identity, Usecase)
+     */
+    public AccessibleSubtrees getAccessibleSubtrees(String rootPath, Identity identity, Usecase usecase) throws AuthorizationException {
+        if (!policyMap.isEmpty()) {
+            log.error("Accessible subtrees cannot be resolved, because policies are mapped by a policy map: " + getPoliciesRepository().getID());
+            throw new AuthorizationException("Accessible subtrees cannot be resolved, because policies are mapped by a policy map: " + getPoliciesRepository().getID());
+        }
+        if (policyIndexLoaded) {
+            return SubtreeResolver.resolve(this, policyIndex.getPolicyPaths(), rootPath, identity, usecase);
+        }
+        try {
+            PolicyPathIndex index = new PolicyPathIndex();
+            index.load(getPoliciesRepository(), null);
+            return SubtreeResolver.resolve(this, index.getPolicyPaths(), rootPath, identity, usecase);
+        } catch(RepositoryException e) {
+            log.error(e.getMessage(), e);
+            throw new AuthorizationException("Error getting accessible subtrees " + getPoliciesRepository().getID() + ", " + rootPath + ", " + identity + ", " + usecase, e);
+        }
+    }
+
+    /**
+     * Resolve all configured usecases during one walk through the ancestor policies, whereas the undecided and granted usecases are kept as bit sets indexed by usecase ID
+     * @see org.wyona.security.core.api.PolicyManager#getPermittedUsecases(String, String, Identity)
+     */
+    public String[] getPermittedUsecases(String path, String queryString, Identity identity) throws AuthorizationException {
+        if(path == null || identity == null) {
+            log.error("Path or identity is null! [" + path + ", " + identity + "]");
+            throw new AuthorizationException("Path or identity is null! [" + path + ", " + identity + "]");
+        }
+
+        BitSet granted = getPermittedUsecases(path, queryString, identity, usecaseRegistry.getNumberOfUsecases());
+        String[] permitted = new String[granted.cardinality()];
+        int k = 0;
+        for (int i = granted.nextSetBit(0); i >= 0; i = granted.nextSetBit(i + 1)) {
+            permitted[k++] = usecaseRegistry.getName(i);
+        }
+        return permitted;
+    }
+
+    /**
+     * Resolve usecases during one walk through the ancestor policies, whereas the undecided and granted usecases are kept as bit sets indexed by usecase ID
+     * @param numberOfUsecases Number of usecases which are resolved, i.e. the usecases with the IDs 0 to n-1
+     * @return IDs of permitted usecases
+     */
+    private BitSet getPermittedUsecases(String path, String queryString, Identity identity, int numberOfUsecases) throws AuthorizationException {
+        BitSet pending = new BitSet(numberOfUsecases);
+        pending.set(0, numberOfUsecases);
+        BitSet granted = new BitSet(numberOfUsecases);
+        try {
+            String current = path;
+            String currentQueryString = queryString;
+            while (current != null && !pending.isEmpty()) {
+                CompiledPolicy policy = getCompiledPolicy(getPoliciesRepository(), current, currentQueryString, null, null);
+                if (policy != null) {
+                    policy.authorize(identity, pending, granted);
+                }
+                current = getParentToCheck(current);
+                currentQueryString = null;
+            }
+        } catch(Exception e) {
+            log.error(e.getMessage(), e);
+            throw new AuthorizationException("Error getting permitted usecases " + getPoliciesRepository().getID() + ", " + path + ", " + identity, e);
+        }
+        return granted;
+    }
+
+    /**
+     * Check authorization of a path, whereas decisions of paths which have been checked already are reused
+     * @param path Normalized path
+     * @param decisions Decisions of paths which have been checked already
+     * @param checkedPaths Buffer to collect paths which are checked by this call
+     */
+    private boolean authorize(Repository repo, String path, Identity identity, int usecase, Map<String, Boolean> decisions, List<String> checkedPaths) throws Exception {
+        checkedPaths.clear();
+        Boolean decision = null;
+        String current = path;
+        while (current != null) {
+            decision = decisions.get(current);
+            if (decision != null) {
+                break;
+            }
+            checkedPaths.add(current);
+            int levelDecision = authorizeLevel(repo, current, null, identity, usecase, null, null);
+            if (levelDecision != CompiledPolicy.INHERIT) {
+                decision = Boolean.valueOf(levelDecision == CompiledPolicy.GRANTED);
+                break;
+            }
+            String parent = getParentToCheck(current);
+            current = parent != null ? removeTrailingSlash(parent) : null;
+        }
+        if (decision == null) {
+            decision = Boolean.FALSE;
+        }
+        for (int i = 0; i < checkedPaths.size(); i++) {
+            decisions.put(checkedPaths.get(i), decision);
+        }
+        return decision.booleanValue();
+    }
+
     /**
      * @param repo Access control policy repository
      * @param path Requested path
      * @param queryString Query string associated with requested path
+     * @param usecase ID of usecase
+     * @param stats Statistics of this decision, whereas null means statistics are not collected
+     * @param trace Trace of this decision, whereas null disables tracing
      */
-    private boolean authorize(Repository repo, String path, String queryString, Identity identity, Usecase usecase) throws Exception {
+    private boolean authorize(Repository repo, String path, String queryString, Identity identity, int usecase, AuthorizationStats stats, DecisionTrace trace) throws Exception {
         if(repo == null) {
             log.error("Repo is null!");
             throw new Exception("Repo is null!");
@@ -208,97 +1130,79 @@ public class PolicyManagerImplVersion2 implements PolicyManager {
         } else if(identity == null) {
             log.error("Identity is null!");
             throw new Exception("Identity is null!");
-        } else if(usecase == null) {
-            log.error("Usecase is null!");
-            throw new Exception("Usecase is null!");
         }
 
+        int decision = authorizeLevel(repo, path, queryString, identity, usecase, stats, trace);
+        if (decision != CompiledPolicy.INHERIT) {
+            if (trace != null) {
+                trace.setResult(decision == CompiledPolicy.GRANTED, "Decided by policy of '" + path + "'");
+            }
+            return decision == CompiledPolicy.GRANTED;
+        }
+
+        String parent = getParentToCheck(path);
+        if (parent != null) {
+            // Check policy of parent in order to inherit credentials ...
+            if (log.isDebugEnabled()) log.debug("Check parent policy: " + parent + " ... (Current path: " + path + ")");
+            return authorize(repo, parent, null, identity, usecase, stats, trace);
+        } else {
+            if (log.isDebugEnabled()) log.debug("Trying to get parent of " + path + " (" + repo + ") failed, hence access denied.");
+            if (trace != null) {
+                trace.setResult(false, "No policy decided up to the root, hence access denied");
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Check the policy of one particular path, whereas parent policies are not checked
+     * @param repo Access control policy repository
+     * @param path Requested path
+     * @param queryString Query string associated with requested path
+     * @param usecase ID of usecase
+     * @param stats Statistics of this decision, whereas null means statistics are not collected
+     * @param trace Trace of this decision, whereas null disables tracing
+     * @return GRANTED or DENIED if the policy of the path decides, otherwise INHERIT
+     */
+    private int authorizeLevel(Repository repo, String path, String queryString, Identity identity, int usecase, AuthorizationStats stats, DecisionTrace trace) throws Exception {
+        if (stats != null) {
+            stats.incrementLevels();
+        }
+        CompiledPolicy policy = getCompiledPolicy(repo, path, queryString, stats, trace);
+        if (policy == null) {
+            return CompiledPolicy.INHERIT;
+        }
+        int decision = policy.authorize(identity, usecase, trace);
+        if (log.isDebugEnabled()) {
+            if (decision == CompiledPolicy.GRANTED) {
+                log.debug("Access granted: Path = " + path + ", Usecase = " + usecaseRegistry.getName(usecase));
+            } else if (decision == CompiledPolicy.DENIED) {
+                log.debug("Access denied: Path = " + path + ", Usecase = " + usecaseRegistry.getName(usecase));
+            }
+        }
+        return decision;
+    }
+
+    /**
+     * Get compiled policy of one particular path
+     * @param repo Access control policy repository
+     * @param path Requested path
+     * @param queryString Query string associated with requested path
+     * @param stats Statistics of this decision, whereas null means statistics are not collected
+     * @param trace Trace to which the checked level is added, whereas null disables tracing
+     * @return Compiled policy or null if no policy exists for this path
+     */
+    private CompiledPolicy getCompiledPolicy(Repository repo, String path, String queryString, AuthorizationStats stats, DecisionTrace trace) throws Exception {
         //log.debug("Get policy path for requested path '" + path + "' and query string '" + queryString + "' ...");
         String yarepPath = getPolicyPath(path, queryString); 
-        log.debug("Policy Yarep Path: " + yarepPath + ", Original Path: " + path + ", Repo: " + repo);
-        if (repo.existsNode(yarepPath)) {
+        if (log.isDebugEnabled()) log.debug("Policy Yarep Path: " + yarepPath + ", Original Path: " + path + ", Repo: " + repo);
+        boolean exists = existsPolicy(repo, yarepPath, stats);
+        if (trace != null) {
+            trace.addLevel(path, yarepPath, exists);
+        }
+        if (exists) {
             try {
-                Configuration config = configBuilder.build(repo.getNode(yarepPath).getInputStream());
-                boolean useInheritedPolicies = config.getAttributeAsBoolean("use-inherited-policies", true);
-
-            Configuration[] usecases = config.getChildren(USECASE_ELEMENT_NAME);
-            for (int i = 0; i < usecases.length; i++) {
-                String usecaseName = usecases[i].getAttribute("id", null);
-                if (usecaseName != null && usecaseName.equals(usecase.getName())) {
-                    boolean useInheritedRolePolicies = usecases[i].getAttributeAsBoolean("use-inherited-policies", true);
-                    Configuration[] accreditableObjects = usecases[i].getChildren();
-
-                    boolean worldCredentialExists = false;
-                    boolean worldIsNotAuthorized = true;
-                    for (int k = 0; k < accreditableObjects.length; k++) {
-                        String aObjectName = accreditableObjects[k].getName();
-                        log.debug("Accreditable Object Name: " + aObjectName);
-
-                        if (aObjectName.equals("world")) {
-                            worldCredentialExists = true;
-                            String permission = accreditableObjects[k].getAttribute("permission", null);
-                            if (permission.equals("true")) {
-                                log.debug("Access granted: " + path);
-                                worldIsNotAuthorized = false;
-                                return true;
-                            } else {
-                                worldIsNotAuthorized = true;
-                            }
-                        } else if (aObjectName.equals("group")) {
-                            if (identity.getGroupnames() != null) {
-                                String groupName = accreditableObjects[k].getAttribute("id", null);
-                                String[] groupnames = identity.getGroupnames();
-                                if (groupnames != null) {
-                                    for (int j = 0; j < groupnames.length; j++) {
-                                        if (groupName.equals(groupnames[j])) {
-                                            String permission = accreditableObjects[k].getAttribute("permission", null);
-                                            if (permission.equals("true")) {
-                                                log.debug("Access granted: Path = " + path + ", Group = " + groupName);
-                                                return true;
-                                            } else {
-                                                log.debug("Access denied: Path = " + path + ", Group = " + groupName);
-                                                return false;
-                                            }
-                                        }
-                                    }
-                                }
-                            }
-                        } else if (aObjectName.equals("user")) {
-                            if (identity.getUsername() != null) {
-                                String userName = accreditableObjects[k].getAttribute("id", null);
-                                if (userName.equals(identity.getUsername())) {
-                                    String permission = accreditableObjects[k].getAttribute("permission", null);
-                                    if (permission.equals("true")) {
-                                        log.debug("Access granted: Path = " + path + ", User = " + userName);
-                                        return true;
-                                    } else {
-                                        log.debug("Access denied: Path = " + path + ", User = " + userName);
-                                        return false;
-                                    }
-                                }
-                            }
-                        } else if (aObjectName.equals("iprange")) {
-                            log.warn("Credential IP Range not implemented yet!");
-                            //return false;
-                        } else {
-                            log.warn("No such accreditable object implemented: " + aObjectName);
-                            //return false;
-                        }
-                    }
-                    if (worldCredentialExists && worldIsNotAuthorized) {
-                       log.debug("Access for world denied: " + path);
-                       return false;
-                    }
-                    if (!useInheritedRolePolicies){
-                        log.debug("Policy inheritance disabled for usecase:" + usecaseName + ". Access denied: "+ path);
-                        return false;
-                    }
-                }
-            }
-                if (!useInheritedPolicies) {
-                    log.debug("Policy inheritance disabled. Access denied: "+ path);
-                    return false;
-                }
+                return compiledPolicies.getPolicy(repo, yarepPath, stats);
             } catch(NoSuchNodeException e) {
                 log.error(e.getMessage(), e);
             }
@@ -309,15 +1213,20 @@ public class PolicyManagerImplVersion2 implements PolicyManager {
                 if (log.isDebugEnabled()) log.debug("No such node: " + yarepPath + " (Fallback to parent policy ...)");
             }
         }
+        return null;
+    }
 
-        String parent = PathUtil.getParent(path);
-        if (parent != null) {
-            // Check policy of parent in order to inherit credentials ...
-            log.debug("Check parent policy: " + parent + " ... (Current path: " + path + ")");
-            return authorize(repo, parent, null, identity, usecase);
+    /**
+     * Get parent whose policy has to be checked next
+     * @param path Path whose policy has been checked
+     * @return Parent path or null if there is no parent
+     */
+    private String getParentToCheck(String path) {
+        if (policyIndexLoaded && policyMap.isEmpty()) {
+            // INFO: Jump to the nearest ancestor which has its own policy
+            return policyIndex.getNearestAncestorWithPolicy(removeTrailingSlash(path));
         } else {
-            log.debug("Trying to get parent of " + path + " (" + repo + ") failed, hence access denied.");
-            return false;
+            return PathUtil.getParent(path);
         }
     }
 
@@ -329,15 +1238,12 @@ public class PolicyManagerImplVersion2 implements PolicyManager {
      */
     private String getPolicyPath(String path, String queryString) {
         //log.debug("Get policy path for requested path '" + path + "' ...");
-        // INFO: Remove trailing slash except for ROOT ...
-        if (path.length() > 1 && path.charAt(path.length() - 1) == '/') {
-            path = path.substring(0, path.length() - 1);
-        }
+        path = removeTrailingSlash(path);
  
         // TODO: Make order configurable, such that we can also check first whether individual policy exists (e.g. "/en/projects/yanel/invite-user.html.policy") and if not, then check policy map
         String mapped = getMappedPath(path, queryString);
         if(mapped != null) {
-            log.debug("Mapped path: " + path + " -> " + mapped);
+            if (log.isDebugEnabled()) log.debug("Mapped path: " + path + " -> " + mapped);
             return mapped;
         }
     	
@@ -345,15 +1251,37 @@ public class PolicyManagerImplVersion2 implements PolicyManager {
     }
 
     /**
+     * Remove trailing slash except for ROOT
+     * @param path Path, e.g. "/en/projects/"
+     * @return path without trailing slash, e.g. "/en/projects"
+     */
+    private static String removeTrailingSlash(String path) {
+        if (path.length() > 1 && path.charAt(path.length() - 1) == '/') {
+            return path.substring(0, path.length() - 1);
+        }
+        return path;
+    }
+
+    /**
+     * Get aggregated policy without copying it, e.g. in order to read the policy of a path repeatedly
+     * @param path Path of content, e.g. /hello/world.html
+     * @return Shared immutable aggregated policy (see {@link ImmutablePolicy}), whose modification throws an UnsupportedOperationException, or null if there are no policies at all
+     */
+    public Policy getAggregatedPolicyReadOnly(String path) throws AuthorizationException {
+        return policyAggregator.getAggregatedPolicyReadOnly(path);
+    }
+
+    /**
+     * Aggregated policies are memoized until a policy is set or removed by this policy manager, whereas every call returns a copy
      * @see org.wyona.security.core.api.PolicyManager#getPolicy(String, boolean)
      */
     public Policy getPolicy(String path, boolean aggregate) throws AuthorizationException {
         //log.debug("Get policy for requested path '" + path + "' ...");
         try {
             if (aggregate) {
-                return org.wyona.security.impl.util.PolicyAggregator.aggregatePolicy(path, this);
+                return policyAggregator.getAggregatedPolicy(path);
             } else {
-                if (getPoliciesRepository().existsNode(getPolicyPath(path, null))) {
+                if (existsPolicy(getPoliciesRepository(), getPolicyPath(path, null), null)) {
                     return new PolicyImplV2(getPoliciesRepository().getNode(getPolicyPath(path, null)).getInputStream());
                 } else {
                     if (!path.equals("/")) {
@@ -380,6 +1308,17 @@ public class PolicyManagerImplVersion2 implements PolicyManager {
             Repository repo = getPoliciesRepository();
             String policyPath = getPolicyPath(path, null);
             log.debug("Set policy: " + policyPath);
+
+            String parentPath = PathUtil.getParent(path);
+            log.debug("Parent path: " + parentPath);
+            if (parentPath == null) {
+                log.warn("Seems like root policy is set (because parent path is null). Path: " + path);
+            }
+            // INFO: The policy XML is written completely (including the resolution of inherited permissions) before the node is opened, such that an error does not truncate the existing policy
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            writePolicyXML(policy, parentPath, bytes);
+            byte[] content = bytes.toByteArray();
+
             Node node;
             if (!repo.existsNode(policyPath)) {
                 log.warn("Create new policy: " + policyPath);              
@@ -388,255 +1327,154 @@ public class PolicyManagerImplVersion2 implements PolicyManager {
                 log.info("Policy '" + policyPath + "' already exists and hence creation request will be ignored!");
                 node = repo.getNode(policyPath);
             }
-
-            String parentPath = PathUtil.getParent(path);
-            log.debug("Parent path: " + parentPath);
-            if (parentPath == null) {
-                log.warn("Seems like root policy is set (because parent path is null). Path: " + path);
+            OutputStream out = node.getOutputStream();
+            try {
+                out.write(content);
+            } finally {
+                out.close();
+                // INFO: Caches are invalidated even if writing failed, because the node may have been modified partially
+                compiledPolicies.invalidate(policyPath);
+                policyIndex.add(policyPath);
+                updateWorldIndex(policyPath);
+                invalidateCaches();
+                publish(InvalidationEvent.POLICY, policyPath);
             }
-            StringBuilder sb = generatePolicyXML(policy, parentPath);
-            org.apache.commons.io.IOUtils.copy(new java.io.StringBufferInputStream(sb.toString()), node.getOutputStream());
+            appendChange(PolicyChange.SET, policyPath, content);
         } catch(Exception e) {
             log.error(e, e);
-            new java.lang.UnsupportedOperationException(e.getMessage());
+            throw new java.lang.UnsupportedOperationException("Could not set policy of path '" + path + "': " + e.getMessage(), e);
         }
     }
 
     /**
-     * Generate policy XML from a policy object
+     * Write policy XML of a policy object.
+     * The inherited permissions of all identities are resolved with one walk through the parent policies per identity (see {@link #getPermittedUsecases(String, String, Identity)}), independent of the number of usecases.
      * @param policy Policy object
      * @param parentPath Parent path of this policy object
+     * @param out Output stream to which the policy XML is written
      */
-    private StringBuilder generatePolicyXML(Policy policy, String parentPath) {
+    private void writePolicyXML(Policy policy, String parentPath, OutputStream out) throws XMLStreamException {
         // TODO: ...
         log.warn("TODO: Do not disentangle users and groups!");
-        StringBuilder sb = new StringBuilder("<?xml version=\"1.0\"?>");
-
-        sb.append(NEWLINE + NEWLINE);
+        XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+        writer.writeStartDocument("UTF-8", "1.0");
+        writer.writeCharacters(NEWLINE + NEWLINE);
 
-        sb.append("<policy xmlns=\"http://www.wyona.org/security/1.0\"");
+        writer.setDefaultNamespace(POLICY_NAMESPACE);
+        writer.writeStartElement(POLICY_NAMESPACE, "policy");
+        writer.writeDefaultNamespace(POLICY_NAMESPACE);
         boolean inheritPolicy = policy.useInheritedPolicies();
         if (!inheritPolicy) {
-            sb.append(" use-inherited-policies=\"false\"");
-        }
-        sb.append(">");
-
-            org.wyona.security.core.UsecasePolicy[] up = policy.getUsecasePolicies();
-            for (int i = 0; i < up.length; i++) {
-                org.wyona.security.core.ItemPolicy[] itps = up[i].getItemPolicies();
-                if (itps != null && itps.length > 0) {
-                    sb.append(NEWLINE);
-                    sb.append("  <usecase id=\"" + up[i].getName() + "\">");
-
-                    // Iterate over all users (including WORLD)
-                    for (int k = 0; k < itps.length; k++) {
-                        if (itps[k] instanceof IdentityPolicy) {
-                            IdentityPolicy idp = (IdentityPolicy) itps[k];
-                            Identity identity = idp.getIdentity();
-
-                        // INFO: The policy editor can not differentiate yet whether a permissions has been set to false explicitely or has just not been set. Hence if inherit policy is true, then check on parent policies
-                        // TODO: Resolve ambiguity within policy editor!
-                        if (idp.getPermission() == false && inheritPolicy) { // TODO: Check inheritance flag of identity policy
-                            if (identity.getGroupnames() != null) {
-                                log.debug("Number of groups: " + identity.getGroupnames().length);
-                            } else {
-                                log.debug("User '" + identity.getUsername() + "' has no groups!");
-                            }
-
-                            try {
-                                if (identity.isWorld()) {
-                                    sb.append(NEWLINE);
-                                    sb.append("    <world permission=\"" + this.authorize(parentPath, identity, new Usecase(up[i].getName())) + "\"/>");
-                                } else {
-                                    if (parentPath != null) {
-                                        log.debug("Identity: " + identity + ", Usecase: " + up[i].getName() + ", Permission: " + this.authorize(parentPath, identity, new Usecase(up[i].getName())));
-                                        sb.append(NEWLINE);
-                                        sb.append("    <user id=\"" + identity.getUsername() + "\" permission=\"" + this.authorize(parentPath, identity, new Usecase(up[i].getName())) + "\"/>");
-
-                                        // QUESTION: hm?
-                                        //log.warn("DEBUG: Identity: " + identity + ", Usecase: " + up[i].getName() + ", Permission: " + this.authorize(policy.getParentPolicy(), identity, new Usecase(up[i].getName())));
-                                        //sb.append(NEWLINE);
-                                        //sb.append("    <user id=\"" + identity.getUsername() + "\" permission=\"" + this.authorize(policy.getParentPolicy(), identity, new Usecase(up[i].getName())) + "\"/>");
-                                     } else {
-                                         // TODO: Resolve ambiguity!
-                                         log.warn("Seems like root policy is set (because parent path is null): " + identity.getUsername() + ", " + up[i].getName());
-                                     }
-                                 }
-                             } catch(Exception e) {
-                                 log.error(e, e);
-                             }
-                        } else {
-                            if (identity.isWorld()) {
-                                sb.append(NEWLINE);
-                                sb.append("    <world permission=\"" + idp.getPermission() + "\"/>");
-                            } else {
-                                sb.append(NEWLINE);
-                                sb.append("    <user id=\"" + identity.getUsername() + "\" permission=\"" + idp.getPermission() + "\"/>");
-                            }
-                        }
-                        } else if (itps[k] instanceof GroupPolicy) {
-                            GroupPolicy gp = (GroupPolicy) itps[k];
-                            if (inheritPolicy && gp.getPermission() == false) { // TODO: Check inheritance flag of group policy
-                                // TODO: Check group authorization
-                                sb.append(NEWLINE);
-                                sb.append("    <group id=\"" + gp.getId() + "\" permission=\"" + true + "\"/>");
-                                //sb.append("    <group id=\"" + gp.getId() + "\" permission=\"" + this.authorize(policy.getParentPolicy(), TODO, new Usecase(up[i].getName())) + "\"/>");
-                            } else {
-                                sb.append(NEWLINE);
-                                sb.append("    <group id=\"" + gp.getId() + "\" permission=\"" + gp.getPermission() + "\"/>");
-                            }
-                        } else {
-                            log.warn("No such policy type implemented: ");
-                        }
-                    }
+            writer.writeAttribute("use-inherited-policies", "false");
+        }
 
-                    sb.append(NEWLINE);
-                    sb.append("  </usecase>");
-                } else {
-                    log.warn("Usecase policy '" + up[i].getName() + "' has neither user, group nor any other policy!");
-                }
+        // INFO: IDs of the usecases which are permitted by the parent policies, by user ID, whereas the key of WORLD is null
+        Map<String, BitSet> inheritedPermissions = new HashMap<String, BitSet>();
 
-/* DEPRECATED
-                org.wyona.security.core.IdentityPolicy[] idps = up[i].getIdentityPolicies();
-                org.wyona.security.core.GroupPolicy[] gps = up[i].getGroupPolicies();
-                if ((idps != null && idps.length > 0) || (gps!= null && gps.length > 0)) {
-                    sb.append(NEWLINE);
-                    sb.append("  <usecase id=\"" + up[i].getName() + "\">");
-
-                    // Iterate over all users (including WORLD)
-                    for (int k = 0; k < idps.length; k++) {
-                        Identity identity = idps[k].getIdentity();
-
-                        // INFO: The policy editor can not differentiate yet whether a permissions has been set to false explicitely or has just not been set. Hence if inherit policy is true, then check on parent policies
-                        // TODO: Resolve ambiguity within policy editor!
-                        if (idps[k].getPermission() == false && inheritPolicy) { // TODO: Check inheritance flag of identity policy
-                            if (identity.getGroupnames() != null) {
-                                log.debug("Number of groups: " + identity.getGroupnames().length);
-                            } else {
-                                log.debug("User '" + identity.getUsername() + "' has no groups!");
-                            }
-
-                            try {
-                                if (identity.isWorld()) {
-                                    sb.append(NEWLINE);
-                                    sb.append("    <world permission=\"" + this.authorize(parentPath, identity, new Usecase(up[i].getName())) + "\"/>");
-                                } else {
-                                    if (parentPath != null) {
-                                        //log.warn("DEBUG: Identity: " + identity + ", Usecase: " + up[i].getName() + ", Permission: " + this.authorize(parentPath, identity, new Usecase(up[i].getName())));
-                                        sb.append(NEWLINE);
-                                        sb.append("    <user id=\"" + identity.getUsername() + "\" permission=\"" + this.authorize(parentPath, identity, new Usecase(up[i].getName())) + "\"/>");
-
-                                        // QUESTION: hm?
-                                        //log.warn("DEBUG: Identity: " + identity + ", Usecase: " + up[i].getName() + ", Permission: " + this.authorize(policy.getParentPolicy(), identity, new Usecase(up[i].getName())));
-                                        //sb.append(NEWLINE);
-                                        //sb.append("    <user id=\"" + identity.getUsername() + "\" permission=\"" + this.authorize(policy.getParentPolicy(), identity, new Usecase(up[i].getName())) + "\"/>");
-                                     } else {
-                                         // TODO: Resolve ambiguity!
-                                         log.warn("Seems like root policy is set (because parent path is null): " + identity.getUsername() + ", " + up[i].getName());
-                                     }
-                                 }
-                             } catch(Exception e) {
-                                 log.error(e, e);
-                             }
-                        } else {
-                            if (identity.isWorld()) {
-                                sb.append(NEWLINE);
-                                sb.append("    <world permission=\"" + idps[k].getPermission() + "\"/>");
-                            } else {
-                                sb.append(NEWLINE);
-                                sb.append("    <user id=\"" + identity.getUsername() + "\" permission=\"" + idps[k].getPermission() + "\"/>");
-                            }
-                        }
-                    }
+        org.wyona.security.core.UsecasePolicy[] up = policy.getUsecasePolicies();
+        // INFO: Usecases which are not configured are registered first, such that the inherited permissions are resolved for all usecases of this policy
+        for (int i = 0; i < up.length; i++) {
+            usecaseRegistry.intern(up[i].getName());
+        }
+        for (int i = 0; i < up.length; i++) {
+            org.wyona.security.core.ItemPolicy[] itps = up[i].getItemPolicies();
+            if (itps == null || itps.length == 0) {
+                log.warn("Usecase policy '" + up[i].getName() + "' has neither user, group nor any other policy!");
+                continue;
+            }
+            writer.writeCharacters(NEWLINE + "  ");
+            writer.writeStartElement(POLICY_NAMESPACE, "usecase");
+            writer.writeAttribute("id", up[i].getName());
 
-                    // Iterate over all groups
-                    for (int k = 0; k < gps.length; k++) {
-                        if (inheritPolicy && gps[k].getPermission() == false) { // TODO: Check inheritance flag of group policy
-                            // TODO: Check group authorization
-                            sb.append(NEWLINE);
-                            sb.append("    <group id=\"" + gps[k].getId() + "\" permission=\"" + true + "\"/>");
-                            //sb.append("    <group id=\"" + gps[k].getId() + "\" permission=\"" + this.authorize(policy.getParentPolicy(), TODO, new Usecase(up[i].getName())) + "\"/>");
-                        } else {
-                            sb.append(NEWLINE);
-                            sb.append("    <group id=\"" + gps[k].getId() + "\" permission=\"" + gps[k].getPermission() + "\"/>");
+            // Iterate over all users (including WORLD)
+            for (int k = 0; k < itps.length; k++) {
+                if (itps[k] instanceof IdentityPolicy) {
+                    IdentityPolicy idp = (IdentityPolicy) itps[k];
+                    Identity identity = idp.getIdentity();
+                    boolean permission = idp.getPermission();
+
+                    // INFO: The policy editor can not differentiate yet whether a permissions has been set to false explicitely or has just not been set. Hence if inherit policy is true, then check on parent policies
+                    // TODO: Resolve ambiguity within policy editor!
+                    if (permission == false && inheritPolicy) { // TODO: Check inheritance flag of identity policy
+                        if (parentPath == null) {
+                            // TODO: Resolve ambiguity!
+                            log.warn("Seems like root policy is set (because parent path is null): " + (identity.isWorld() ? "WORLD" : identity.getUsername()) + ", " + up[i].getName());
+                            continue;
+                        }
+                        try {
+                            permission = isPermittedByParent(parentPath, identity, up[i].getName(), inheritedPermissions);
+                        } catch(AuthorizationException e) {
+                            log.error(e, e);
+                            continue;
                         }
                     }
-                    sb.append(NEWLINE);
-                    sb.append("  </usecase>");
+                    writer.writeCharacters(NEWLINE + "    ");
+                    if (identity.isWorld()) {
+                        writer.writeEmptyElement(POLICY_NAMESPACE, "world");
+                    } else {
+                        writer.writeEmptyElement(POLICY_NAMESPACE, "user");
+                        writer.writeAttribute("id", identity.getUsername());
+                    }
+                    writer.writeAttribute("permission", String.valueOf(permission));
+                } else if (itps[k] instanceof GroupPolicy) {
+                    GroupPolicy gp = (GroupPolicy) itps[k];
+                    writer.writeCharacters(NEWLINE + "    ");
+                    writer.writeEmptyElement(POLICY_NAMESPACE, "group");
+                    writer.writeAttribute("id", gp.getId());
+                    if (inheritPolicy && gp.getPermission() == false) { // TODO: Check inheritance flag of group policy
+                        // TODO: Check group authorization
+                        writer.writeAttribute("permission", "true");
+                    } else {
+                        writer.writeAttribute("permission", String.valueOf(gp.getPermission()));
+                    }
+                } else {
+                    log.warn("No such policy type implemented: ");
                 }
-*/
             }
 
-            sb.append(NEWLINE);
-            sb.append("</policy>");
-            return sb;
+            writer.writeCharacters(NEWLINE + "  ");
+            writer.writeEndElement();
+        }
+
+        writer.writeCharacters(NEWLINE);
+        writer.writeEndElement();
+        writer.writeEndDocument();
+        writer.flush();
+        writer.close();
+    }
+
+    /**
+     * Check whether the parent policies permit a usecase to an identity, whereas all permitted usecases of an identity are resolved at once and kept for further usecases
+     * @param parentPath Parent path of the policy which is set
+     * @param inheritedPermissions IDs of permitted usecases by user ID which have been resolved already, whereas the key of WORLD is null
+     */
+    private boolean isPermittedByParent(String parentPath, Identity identity, String usecase, Map<String, BitSet> inheritedPermissions) throws AuthorizationException {
+        String key = identity.isWorld() ? null : identity.getUsername();
+        BitSet permitted = inheritedPermissions.get(key);
+        if (permitted == null) {
+            // INFO: All registered usecases are resolved (and not only the configured ones), because a policy may contain usecases which are not configured
+            permitted = getPermittedUsecases(parentPath, null, identity, usecaseRegistry.size());
+            inheritedPermissions.put(key, permitted);
+        }
+        return permitted.get(usecaseRegistry.intern(usecase));
     }
 
     /**
-     * @see
+     * @see org.wyona.security.core.api.PolicyManager#getUsecases()
      */
     public String[] getUsecases() {
-        log.warn("TODO: Implementation not finished yet! Read from configuration instead hardcoded!");
-        // TODO: What about configurable usecases such as for example workflow.approve, workflow.publish ...?
-        //String[] usecases = {"view", "open", "write", "resource.create", "delete", "yanel.resource.meta", "introspection", "toolbar", "policy.read", "policy.update"};
-        String[] usecases = {"view", "open", "write", "resource.create", "delete", "yanel.resource.meta", "introspection", "toolbar", "policy.read", "policy.update", "workflow.write", "workflow.approve", "workflow.publish"};
-        return usecases;
+        return usecaseRegistry.getUsecases();
     }
 
     /**
-     * @see
+     * @see org.wyona.security.core.api.PolicyManager#getUsecaseLabel(String, String)
      */
     public String getUsecaseLabel(String usecaseId, String language) {
-        log.debug("TODO: Implementation not finished yet! Read from configuration instead hardcoded!");
-        if (language.equals("de")) {
-            if (usecaseId.equals("view")) {
-                return "Inhalt lesen";
-            } else if (usecaseId.equals("open")) {
-                return "Inhalt zum Bearbeiten oeffnen";
-            } else if (usecaseId.equals("write")) {
-                return "(Bearbeiteter) Inhalt abspeichern";
-            } else if (usecaseId.equals("resource.create")) {
-                return "Inhalt neu kreieren";
-            } else if (usecaseId.equals("delete")) {
-                return "Inhalt loeschen";
-            } else if (usecaseId.equals("yanel.resource.meta")) {
-                return "Meta Informationen lesen";
-            } else if (usecaseId.equals("introspection")) {
-                return "Introspection anschauen/lesen";
-            } else if (usecaseId.equals("toolbar")) {
-                return "Yanel Toolbar verwenden";
-            } else if (usecaseId.equals("policy.read")) {
-                return "Zugriffsberechtigungen anschauen/lesen";
-            } else if (usecaseId.equals("policy.update")) {
-                return "Zugriffsberechtigungen bearbeiten";
-            } else {
-                return "No label for \"" + usecaseId + "\" (see " + this.getClass().getName() + ")";
-            }
-        } else {
-            if (usecaseId.equals("view")) {
-                return "View/Read";
-            } else if (usecaseId.equals("open")) {
-                return "Open content for editing";
-            } else if (usecaseId.equals("write")) {
-                return "Write/Save";
-            } else if (usecaseId.equals("resource.create")) {
-                return "Create a resource or a collection";
-            } else if (usecaseId.equals("delete")) {
-                return "Delete a resource or a collection";
-            } else if (usecaseId.equals("yanel.resource.meta")) {
-                return "View/Read meta information";
-            } else if (usecaseId.equals("introspection")) {
-                return "View introspection";
-            } else if (usecaseId.equals("toolbar")) {
-                return "Access Yanel toolbar";
-            } else if (usecaseId.equals("policy.read")) {
-                return "View access policy";
-            } else if (usecaseId.equals("policy.update")) {
-                return "Edit access policy";
-            } else {
-                return "No label for \"" + usecaseId + "\" (see " + this.getClass().getName() + ")";
-            }
+        String label = usecaseRegistry.getLabel(usecaseId, language);
+        if (label == null) {
+            return "No label for \"" + usecaseId + "\" (see " + this.getClass().getName() + ")";
         }
+        return label;
     }
     
     public Policy createEmptyPolicy() throws AuthorizationException {
@@ -656,6 +1494,12 @@ public class PolicyManagerImplVersion2 implements PolicyManager {
         try {
             if (repo.existsNode(policyPath)) {
                 repo.getNode(policyPath).delete();
+                compiledPolicies.invalidate(policyPath);
+                policyIndex.remove(policyPath);
+                updateWorldIndex(policyPath);
+                invalidateCaches();
+                publish(InvalidationEvent.POLICY, policyPath);
+                appendChange(PolicyChange.REMOVE, policyPath, null);
             }
         } catch (RepositoryException e) {
             throw new AuthorizationException("could not remove policy for path: " + path + 
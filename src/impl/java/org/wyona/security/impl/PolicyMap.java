@@ -0,0 +1,375 @@
+package org.wyona.security.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.LogManager;
+
+import org.apache.avalon.framework.configuration.Configuration;
+import org.apache.avalon.framework.configuration.ConfigurationException;
+import org.apache.avalon.framework.configuration.DefaultConfigurationBuilder;
+import org.apache.commons.io.FilenameUtils;
+import org.xml.sax.SAXException;
+
+import org.wyona.security.impl.util.StripedLruCache;
+
+/**
+ * Compiled policy map, which maps requested paths onto policy paths, for example
+ * <pre>
+ * &lt;policy-map&gt;
+ *   &lt;matcher pattern="/projects/*&#47;changes/*.html*" path="/projects/changes.policy"/&gt;
+ *   &lt;matcher type="prefix" pattern="/projects/yanel/" path="/projects/yanel.policy"/&gt;
+ *   &lt;matcher type="regex" pattern="/users/[^/]+/profile\.html" path="/users/profile.policy"/&gt;
+ * &lt;/policy-map&gt;
+ * </pre>
+ * The type of a matcher is either "wildcard" (default, see {@link FilenameUtils#wildcardMatch(String, String)}), "prefix" or "regex".
+ * Matchers are indexed by the literal prefix of their patterns, such that only matchers whose literal prefix matches the requested path are evaluated.
+ * The first matching matcher in document order wins. Results are memoized per path.
+ */
+public class PolicyMap {
+
+    private static Logger log = LogManager.getLogger(PolicyMap.class);
+
+    public static final String TYPE_WILDCARD = "wildcard";
+    public static final String TYPE_PREFIX = "prefix";
+    public static final String TYPE_REGEX = "regex";
+
+    private static final int DEFAULT_MAX_MEMOIZED_PATHS = 10000;
+
+    private static final String NO_MATCH = new String("NO_MATCH");
+
+    private final Matcher[] matchers;
+    private final PrefixNode root;
+    private final long lastModified;
+    private final StripedLruCache<String, String> memoized;
+
+    /**
+     * Empty policy map
+     */
+    public PolicyMap() {
+        this(new Matcher[0], -1);
+    }
+
+    /**
+     * @param matchers Matchers in document order
+     * @param lastModified Last modified of policy map node
+     */
+    private PolicyMap(Matcher[] matchers, long lastModified) {
+        this.matchers = matchers;
+        this.lastModified = lastModified;
+        this.root = new PrefixNode();
+        for (int i = 0; i < matchers.length; i++) {
+            root.add(matchers[i].getLiteralPrefix(), 0, i);
+        }
+        this.memoized = new StripedLruCache<String, String>(DEFAULT_MAX_MEMOIZED_PATHS);
+    }
+
+    /**
+     * Parse and compile policy map
+     * @param in Policy map XML as input stream
+     * @param lastModified Last modified of policy map node
+     */
+    public static PolicyMap read(InputStream in, long lastModified) throws ConfigurationException, SAXException, IOException {
+        DefaultConfigurationBuilder builder = new DefaultConfigurationBuilder(true);
+        Configuration config = builder.build(in);
+
+        Configuration[] mappings = config.getChildren("matcher");
+        List<String[]> definitions = new ArrayList<String[]>();
+        for (Configuration mapping : mappings) {
+            definitions.add(new String[] {mapping.getAttribute("type", TYPE_WILDCARD), mapping.getAttribute("pattern"), mapping.getAttribute("path")});
+        }
+        return create(definitions, lastModified);
+    }
+
+    /**
+     * Compile policy map
+     * @param definitions Type, pattern and policy path of every matcher in document order
+     * @param lastModified Last modified of policy map node
+     */
+    static PolicyMap create(List<String[]> definitions, long lastModified) {
+        List<Matcher> matchers = new ArrayList<Matcher>();
+        for (String[] definition : definitions) {
+            String type = definition[0];
+            String pattern = definition[1];
+            String path = definition[2];
+            if (type.equals(TYPE_WILDCARD)) {
+                matchers.add(new WildcardMatcher(pattern, path));
+            } else if (type.equals(TYPE_PREFIX)) {
+                matchers.add(new PrefixMatcher(pattern, path));
+            } else if (type.equals(TYPE_REGEX)) {
+                try {
+                    matchers.add(new RegexMatcher(pattern, path));
+                } catch (PatternSyntaxException e) {
+                    log.error("Invalid regular expression, hence matcher is ignored: " + e.getMessage() + " (Policy path: " + path + ")");
+                }
+            } else {
+                log.error("No such matcher type implemented: " + type + " (Pattern: " + pattern + ")");
+            }
+        }
+        log.info("Number of policy map matchers: " + matchers.size());
+        return new PolicyMap(matchers.toArray(new Matcher[matchers.size()]), lastModified);
+    }
+
+    /**
+     * Get type, pattern and policy path of every matcher in document order
+     */
+    List<String[]> getDefinitions() {
+        List<String[]> definitions = new ArrayList<String[]>();
+        for (int i = 0; i < matchers.length; i++) {
+            definitions.add(new String[] {matchers[i].getType(), matchers[i].pattern, matchers[i].getPolicyPath()});
+        }
+        return definitions;
+    }
+
+    /**
+     * Match a path against the policy map.
+     * @param path Path to be matched including query string, e.g. '/projects/yanel/changes/master/c-c172df5f.html?update-result-of-test=5f119d82'
+     * @return Policy path of first matching matcher, otherwise return null
+     */
+    public String getPolicyPath(String path) {
+        if (matchers.length == 0) {
+            return null;
+        }
+
+        String policyPath = memoized.get(path);
+        if (policyPath == null) {
+            policyPath = match(path);
+            memoized.put(path, policyPath != null ? policyPath : NO_MATCH);
+            return policyPath;
+        }
+        return policyPath == NO_MATCH ? null : policyPath;
+    }
+
+    /**
+     * Evaluate candidates, which are the matchers whose literal prefix is a prefix of the path, in document order
+     */
+    private String match(String path) {
+        int[] candidates = root.getCandidates(path);
+        for (int i = 0; i < candidates.length; i++) {
+            if (matchers[candidates[i]].matches(path)) {
+                return matchers[candidates[i]].getPolicyPath();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Check whether the policy map contains any matchers
+     */
+    public boolean isEmpty() {
+        return matchers.length == 0;
+    }
+
+    /**
+     * Get number of matchers
+     */
+    public int size() {
+        return matchers.length;
+    }
+
+    /**
+     * Get all policy paths onto which paths are mapped
+     */
+    public Collection<String> getPolicyPaths() {
+        Collection<String> policyPaths = new LinkedHashSet<String>();
+        for (int i = 0; i < matchers.length; i++) {
+            policyPaths.add(matchers[i].getPolicyPath());
+        }
+        return policyPaths;
+    }
+
+    /**
+     * Get last modified of policy map node from which this policy map has been read
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Node of prefix trie, which contains the indexes of all matchers whose literal prefix ends at this node
+     */
+    private static class PrefixNode {
+
+        private char[] chars = new char[0];
+        private PrefixNode[] children = new PrefixNode[0];
+        private int[] matcherIndexes = new int[0];
+
+        /**
+         *
+         */
+        void add(String prefix, int position, int matcherIndex) {
+            if (position == prefix.length()) {
+                matcherIndexes = Arrays.copyOf(matcherIndexes, matcherIndexes.length + 1);
+                matcherIndexes[matcherIndexes.length - 1] = matcherIndex;
+                return;
+            }
+
+            char c = prefix.charAt(position);
+            int i = Arrays.binarySearch(chars, c);
+            if (i < 0) {
+                i = -i - 1;
+                char[] newChars = new char[chars.length + 1];
+                PrefixNode[] newChildren = new PrefixNode[children.length + 1];
+                System.arraycopy(chars, 0, newChars, 0, i);
+                System.arraycopy(children, 0, newChildren, 0, i);
+                newChars[i] = c;
+                newChildren[i] = new PrefixNode();
+                System.arraycopy(chars, i, newChars, i + 1, chars.length - i);
+                System.arraycopy(children, i, newChildren, i + 1, children.length - i);
+                chars = newChars;
+                children = newChildren;
+            }
+            children[i].add(prefix, position + 1, matcherIndex);
+        }
+
+        /**
+         * Get indexes of all matchers whose literal prefix is a prefix of the path, sorted in document order
+         */
+        int[] getCandidates(String path) {
+            int[] candidates = new int[0];
+            PrefixNode node = this;
+            int position = 0;
+            while (node != null) {
+                if (node.matcherIndexes.length > 0) {
+                    int offset = candidates.length;
+                    candidates = Arrays.copyOf(candidates, offset + node.matcherIndexes.length);
+                    System.arraycopy(node.matcherIndexes, 0, candidates, offset, node.matcherIndexes.length);
+                }
+                if (position == path.length()) {
+                    break;
+                }
+                int i = Arrays.binarySearch(node.chars, path.charAt(position));
+                node = i >= 0 ? node.children[i] : null;
+                position++;
+            }
+            Arrays.sort(candidates);
+            return candidates;
+        }
+    }
+
+    /**
+     * Matcher of policy map
+     */
+    private static abstract class Matcher {
+
+        protected final String pattern;
+        private final String policyPath;
+
+        Matcher(String pattern, String policyPath) {
+            this.pattern = pattern;
+            this.policyPath = policyPath;
+        }
+
+        String getPolicyPath() {
+            return policyPath;
+        }
+
+        /**
+         * Get type of matcher, e.g. TYPE_WILDCARD
+         */
+        abstract String getType();
+
+        /**
+         * Get literal prefix which every matching path starts with
+         */
+        abstract String getLiteralPrefix();
+
+        abstract boolean matches(String path);
+    }
+
+    /**
+     * Matcher based on wildcards '*' and '?'
+     */
+    private static class WildcardMatcher extends Matcher {
+
+        WildcardMatcher(String pattern, String policyPath) {
+            super(pattern, policyPath);
+        }
+
+        String getType() {
+            return TYPE_WILDCARD;
+        }
+
+        String getLiteralPrefix() {
+            int i = 0;
+            while (i < pattern.length() && pattern.charAt(i) != '*' && pattern.charAt(i) != '?') {
+                i++;
+            }
+            return pattern.substring(0, i);
+        }
+
+        boolean matches(String path) {
+            return FilenameUtils.wildcardMatch(path, pattern);
+        }
+    }
+
+    /**
+     * Matcher which matches all paths starting with pattern
+     */
+    private static class PrefixMatcher extends Matcher {
+
+        PrefixMatcher(String pattern, String policyPath) {
+            super(pattern, policyPath);
+        }
+
+        String getType() {
+            return TYPE_PREFIX;
+        }
+
+        String getLiteralPrefix() {
+            return pattern;
+        }
+
+        boolean matches(String path) {
+            return path.startsWith(pattern);
+        }
+    }
+
+    /**
+     * Matcher based on a regular expression, which has to match the whole path
+     */
+    private static class RegexMatcher extends Matcher {
+
+        private static final String META_CHARACTERS = "\\[](){}.*+?^$|";
+
+        private final Pattern regex;
+
+        RegexMatcher(String pattern, String policyPath) {
+            super(pattern, policyPath);
+            regex = Pattern.compile(pattern);
+        }
+
+        String getType() {
+            return TYPE_REGEX;
+        }
+
+        String getLiteralPrefix() {
+            if (pattern.indexOf('|') >= 0) {
+                // INFO: Alternatives do not necessarily share a prefix
+                return "";
+            }
+            int start = pattern.startsWith("^") ? 1 : 0;
+            int i = start;
+            while (i < pattern.length() && META_CHARACTERS.indexOf(pattern.charAt(i)) < 0) {
+                i++;
+            }
+            // INFO: A quantifier makes the preceding character optional
+            if (i > start && i < pattern.length() && "*?{".indexOf(pattern.charAt(i)) >= 0) {
+                i--;
+            }
+            return pattern.substring(start, i);
+        }
+
+        boolean matches(String path) {
+            return regex.matcher(path).matches();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package org.wyona.security.impl;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.LogManager;
+
+/**
+ * Checks periodically in the background whether the policy map of a policy manager has been modified, such that the policy map does not have to be checked on the request path.
+ * All watchers share one daemon thread. A watcher stops by itself as soon as its policy manager has been garbage collected.
+ */
+class PolicyMapWatcher implements Runnable {
+
+    private static Logger log = LogManager.getLogger(PolicyMapWatcher.class);
+
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "policy-map-watcher");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final WeakReference<PolicyManagerImplVersion2> policyManager;
+    private volatile ScheduledFuture<?> future;
+
+    /**
+     * @param policyManager Policy manager whose policy map shall be watched
+     */
+    private PolicyMapWatcher(PolicyManagerImplVersion2 policyManager) {
+        this.policyManager = new WeakReference<PolicyManagerImplVersion2>(policyManager);
+    }
+
+    /**
+     * Start watching the policy map of a policy manager
+     * @param policyManager Policy manager whose policy map shall be watched
+     * @param interval Interval in milliseconds
+     */
+    static PolicyMapWatcher start(PolicyManagerImplVersion2 policyManager, long interval) {
+        PolicyMapWatcher watcher = new PolicyMapWatcher(policyManager);
+        watcher.future = scheduler.scheduleWithFixedDelay(watcher, interval, interval, TimeUnit.MILLISECONDS);
+        return watcher;
+    }
+
+    /**
+     * Stop watching
+     */
+    void stop() {
+        ScheduledFuture<?> f = future;
+        if (f != null) {
+            f.cancel(false);
+        }
+    }
+
+    /**
+     * @see java.lang.Runnable#run()
+     */
+    public void run() {
+        PolicyManagerImplVersion2 pm = policyManager.get();
+        if (pm == null) {
+            log.debug("Policy manager has been garbage collected, hence stop watching policy map.");
+            stop();
+            return;
+        }
+        try {
+            pm.reloadPolicyMapIfModified();
+        } catch (Throwable t) {
+            // INFO: An exception would suppress all subsequent executions
+            log.error(t, t);
+        }
+    }
+}
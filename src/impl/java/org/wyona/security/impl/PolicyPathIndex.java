@@ -0,0 +1,273 @@
+package org.wyona.security.impl;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.wyona.yarep.core.Node;
+import org.wyona.yarep.core.Repository;
+import org.wyona.yarep.core.RepositoryException;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.LogManager;
+
+/**
+ * In-memory path-segment trie of all existing policy nodes of a policies repository, such that the ancestor walk of an authorization request does not have to check the existence of policy nodes inside the repository.
+ * The index has to be kept current by the policy manager whenever a policy is added or removed.
+ * Policies which are added or removed while the repository is scanned (see {@link #load(Repository, java.util.Collection)}) are recorded and applied to the new content again before it replaces the current content, such that they are not lost.
+ */
+public class PolicyPathIndex {
+
+    private static Logger log = LogManager.getLogger(PolicyPathIndex.class);
+
+    private static final String POLICY_SUFFIX = ".policy";
+
+    private volatile TrieNode root = new TrieNode();
+
+    private final Object loadLock = new Object();
+    private final Object mutationLock = new Object();
+    // INFO: Added and removed policies while the repository is scanned, otherwise null
+    private java.util.List<Mutation> pendingMutations;
+
+    /**
+     * Scan repository for policy nodes, e.g. "/hello/world.html.policy", and replace the current content of this index
+     * @param repo Repository containing policies
+     * @param additionalPolicyPaths Policy paths which do not necessarily end with '.policy', e.g. targets of the policy map
+     */
+    public void load(Repository repo, java.util.Collection<String> additionalPolicyPaths) throws RepositoryException {
+        synchronized (loadLock) {
+            synchronized (mutationLock) {
+                pendingMutations = new java.util.ArrayList<Mutation>();
+            }
+            try {
+                TrieNode newRoot = new TrieNode();
+                int count = scan(repo.getRootNode(), newRoot);
+                if (additionalPolicyPaths != null) {
+                    for (String policyPath : additionalPolicyPaths) {
+                        if (repo.existsNode(policyPath)) {
+                            add(newRoot, policyPath);
+                            count++;
+                        } else {
+                            log.warn("No such policy: " + policyPath + " (" + repo + ")");
+                        }
+                    }
+                }
+                synchronized (mutationLock) {
+                    // INFO: The scan might or might not have seen policies which have been added or removed meanwhile, hence they are applied again in the same order
+                    for (Mutation mutation : pendingMutations) {
+                        if (mutation.added) {
+                            add(newRoot, mutation.policyPath);
+                        } else {
+                            remove(newRoot, mutation.policyPath);
+                        }
+                    }
+                    root = newRoot;
+                }
+                log.info("Number of indexed policies: " + count + " (" + repo + ")");
+            } finally {
+                synchronized (mutationLock) {
+                    pendingMutations = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Scan collection recursively
+     * @return Number of policies found
+     */
+    private int scan(Node collection, TrieNode trieNode) throws RepositoryException {
+        int count = 0;
+        Node[] children = collection.getNodes();
+        for (int i = 0; i < children.length; i++) {
+            String name = children[i].getName();
+            if (children[i].isCollection()) {
+                TrieNode child = new TrieNode();
+                trieNode.children.put(name, child);
+                count += scan(children[i], child);
+            } else if (name.endsWith(POLICY_SUFFIX)) {
+                trieNode.getOrAddChild(name).policy = true;
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Add policy node to index
+     * @param policyPath Path of policy node, e.g. "/hello/world.html.policy"
+     */
+    public void add(String policyPath) {
+        synchronized (mutationLock) {
+            add(root, policyPath);
+            if (pendingMutations != null) {
+                pendingMutations.add(new Mutation(policyPath, true));
+            }
+        }
+    }
+
+    /**
+     *
+     */
+    private static void add(TrieNode trieNode, String policyPath) {
+        int start = 1;
+        while (start <= policyPath.length()) {
+            int end = policyPath.indexOf('/', start);
+            if (end < 0) {
+                end = policyPath.length();
+            }
+            trieNode = trieNode.getOrAddChild(policyPath.substring(start, end));
+            start = end + 1;
+        }
+        trieNode.policy = true;
+    }
+
+    /**
+     * Remove policy node from index
+     * @param policyPath Path of policy node, e.g. "/hello/world.html.policy"
+     */
+    public void remove(String policyPath) {
+        synchronized (mutationLock) {
+            remove(root, policyPath);
+            if (pendingMutations != null) {
+                pendingMutations.add(new Mutation(policyPath, false));
+            }
+        }
+    }
+
+    /**
+     *
+     */
+    private static void remove(TrieNode root, String policyPath) {
+        TrieNode trieNode = getTrieNode(root, policyPath);
+        if (trieNode != null) {
+            trieNode.policy = false;
+        }
+    }
+
+    /**
+     * Check whether a policy node exists
+     * @param policyPath Path of policy node, e.g. "/hello/world.html.policy"
+     */
+    public boolean contains(String policyPath) {
+        TrieNode trieNode = getTrieNode(root, policyPath);
+        return trieNode != null && trieNode.policy;
+    }
+
+    /**
+     *
+     */
+    private static TrieNode getTrieNode(TrieNode root, String policyPath) {
+        TrieNode trieNode = root;
+        int start = 1;
+        while (trieNode != null && start <= policyPath.length()) {
+            int end = policyPath.indexOf('/', start);
+            if (end < 0) {
+                end = policyPath.length();
+            }
+            trieNode = trieNode.children.get(policyPath.substring(start, end));
+            start = end + 1;
+        }
+        return trieNode;
+    }
+
+    /**
+     * Get paths of all indexed policy nodes
+     * @return Paths of policy nodes, e.g. "/hello/world.html.policy"
+     */
+    public java.util.List<String> getPolicyPaths() {
+        java.util.List<String> policyPaths = new java.util.ArrayList<String>();
+        collect(root, "", policyPaths);
+        return policyPaths;
+    }
+
+    /**
+     * Collect paths of policy nodes of a subtree
+     * @param path Path of trie node
+     */
+    private static void collect(TrieNode trieNode, String path, java.util.List<String> policyPaths) {
+        for (java.util.Map.Entry<String, TrieNode> child : trieNode.children.entrySet()) {
+            String childPath = path + "/" + child.getKey();
+            if (child.getValue().policy) {
+                policyPaths.add(childPath);
+            }
+            collect(child.getValue(), childPath, policyPaths);
+        }
+    }
+
+    /**
+     * Get nearest ancestor of a path which has its own policy, whereas the policy map is not taken into account
+     * @param path Path without trailing slash (except ROOT), e.g. "/hello/world.html"
+     * @return Path of ancestor, e.g. "/hello" (policy "/hello.policy") or "/" (policy "/.policy"), and null if no ancestor has a policy
+     */
+    public String getNearestAncestorWithPolicy(String path) {
+        if (path.equals("/")) {
+            return null;
+        }
+
+        TrieNode trieNode = root;
+        String nearest = trieNode.hasPolicy("") ? "/" : null;
+        int start = 1;
+        // INFO: The last segment is the path itself, hence it is not taken into account
+        int end = path.indexOf('/', start);
+        while (end > 0) {
+            String segment = path.substring(start, end);
+            if (trieNode.hasPolicy(segment)) {
+                nearest = path.substring(0, end);
+            }
+            trieNode = trieNode.children.get(segment);
+            if (trieNode == null) {
+                break;
+            }
+            start = end + 1;
+            end = path.indexOf('/', start);
+        }
+        return nearest;
+    }
+
+    /**
+     * Policy which has been added or removed while the repository is scanned
+     */
+    private static class Mutation {
+
+        private final String policyPath;
+        private final boolean added;
+
+        Mutation(String policyPath, boolean added) {
+            this.policyPath = policyPath;
+            this.added = added;
+        }
+    }
+
+    /**
+     * Node of trie, which either represents a collection or a policy
+     */
+    private static class TrieNode {
+
+        private ConcurrentMap<String, TrieNode> children = new ConcurrentHashMap<String, TrieNode>();
+        private volatile boolean policy = false;
+
+        /**
+         *
+         */
+        TrieNode getOrAddChild(String name) {
+            TrieNode child = children.get(name);
+            if (child == null) {
+                TrieNode newChild = new TrieNode();
+                child = children.putIfAbsent(name, newChild);
+                if (child == null) {
+                    child = newChild;
+                }
+            }
+            return child;
+        }
+
+        /**
+         * Check whether a policy exists for a child with a particular name
+         * @param name Name of child, e.g. "world.html" (policy "world.html.policy")
+         */
+        boolean hasPolicy(String name) {
+            TrieNode child = children.get(name + POLICY_SUFFIX);
+            return child != null && child.policy;
+        }
+    }
+}
@@ -0,0 +1,470 @@
+package org.wyona.security.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.wyona.commons.io.PathUtil;
+import org.wyona.security.core.AuthorizedPrincipals;
+import org.wyona.security.core.DecisionTrace;
+import org.wyona.security.core.GroupIndex;
+import org.wyona.security.core.api.Identity;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.LogManager;
+
+/**
+ * Read-only, memory-mapped snapshot of all policies of a policies repository (see {@link PolicySnapshotCompiler}).
+ * The snapshot contains a path trie, whereas every node references the policy of its own path and the policy of its nearest ancestor, and for every policy a permission table per principal.
+ * Authorization requests are answered from the mapped file without parsing XML and without accessing the policies repository. Only the string table, the usecases and the policy map are read into memory when the snapshot is opened.
+ *
+ * <pre>
+ * Header:     int magic, int version, long created, int offsets of policy directory, trie root, matchers, usecases, groups and strings
+ * Policy:     int path, int flags, int parent policy, int world entries, int number of users, int[] user names (sorted), int[] user entries, int number of groups, int[] groups, int[] group entries
+ * Entries:    int number of entries, pairs of int usecase ID and int position &lt;&lt; 1 | permission (sorted by usecase ID)
+ * Trie node:  int name, int own policy, int nearest policy (own or of nearest ancestor), int number of children, int[] child names (sorted), int[] child nodes
+ * Matchers:   int number of matchers, triples of int type, int pattern and int policy path
+ * Usecases:   int number of usecases, int number of configured usecases, per usecase int name, int number of labels and pairs of int language and int label
+ * Groups:     int number of groups, int[] group IDs
+ * Strings:    int number of strings, per string int length and UTF-8 bytes
+ * </pre>
+ * All numbers are big-endian and all strings are referenced by their index inside the string table. Policies are referenced by their index inside the policy directory, whereas -1 means no policy.
+ */
+public class PolicySnapshot {
+
+    private static Logger log = LogManager.getLogger(PolicySnapshot.class);
+
+    static final int MAGIC = 0x5753504c; // INFO: "WSPL"
+    static final int VERSION = 1;
+
+    static final int POLICY_DIRECTORY_OFFSET = 16;
+    static final int ROOT_NODE_OFFSET = 20;
+    static final int MATCHERS_OFFSET = 24;
+    static final int USECASES_OFFSET = 28;
+    static final int GROUPS_OFFSET = 32;
+    static final int STRINGS_OFFSET = 36;
+    static final int HEADER_SIZE = 40;
+
+    static final int FLAG_USE_INHERITED_POLICIES = 1;
+
+    private static final int NONE = -1;
+
+    private final ByteBuffer buffer;
+    private final long created;
+    private final String[] strings;
+    private final String[] groupIDs;
+    private final int[] groupIndexes;
+    private final int policyDirectory;
+    private final int rootNode;
+    private final UsecaseRegistry usecaseRegistry;
+    private final PolicyMap policyMap;
+    private final Map<String, Integer> policiesByPath;
+
+    /**
+     *
+     */
+    private PolicySnapshot(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a policy snapshot!");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Version " + buffer.getInt(4) + " of policy snapshot is not supported (Supported version: " + VERSION + ")");
+        }
+        created = buffer.getLong(8);
+        policyDirectory = buffer.getInt(POLICY_DIRECTORY_OFFSET);
+        rootNode = buffer.getInt(ROOT_NODE_OFFSET);
+        strings = readStrings(buffer, buffer.getInt(STRINGS_OFFSET));
+        groupIDs = readGroups(buffer.getInt(GROUPS_OFFSET));
+        groupIndexes = new int[groupIDs.length];
+        for (int i = 0; i < groupIDs.length; i++) {
+            groupIndexes[i] = GroupIndex.intern(groupIDs[i]);
+        }
+        usecaseRegistry = readUsecases(buffer.getInt(USECASES_OFFSET));
+        policyMap = readPolicyMap(buffer.getInt(MATCHERS_OFFSET));
+
+        policiesByPath = new HashMap<String, Integer>();
+        int numberOfPolicies = buffer.getInt(policyDirectory);
+        for (int i = 0; i < numberOfPolicies; i++) {
+            policiesByPath.put(strings[buffer.getInt(getPolicyOffset(i))], new Integer(i));
+        }
+    }
+
+    /**
+     * Open snapshot by mapping it into memory
+     * @param file Snapshot file
+     */
+    public static PolicySnapshot open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            // INFO: The mapping stays valid after the channel has been closed
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            PolicySnapshot snapshot = new PolicySnapshot(buffer);
+            log.info("Policy snapshot '" + file + "' opened (Created: " + new java.util.Date(snapshot.created) + ", Policies: " + snapshot.policiesByPath.size() + ", Size: " + channel.size() + " bytes)");
+            return snapshot;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     *
+     */
+    private static String[] readStrings(ByteBuffer buffer, int offset) throws IOException {
+        ByteBuffer b = buffer.duplicate();
+        b.position(offset);
+        String[] strings = new String[b.getInt()];
+        for (int i = 0; i < strings.length; i++) {
+            byte[] bytes = new byte[b.getInt()];
+            b.get(bytes);
+            strings[i] = new String(bytes, "UTF-8");
+        }
+        return strings;
+    }
+
+    /**
+     * Map groups of snapshot onto global group indexes
+     */
+    private String[] readGroups(int offset) {
+        String[] ids = new String[buffer.getInt(offset)];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = strings[buffer.getInt(offset + 4 + 4 * i)];
+        }
+        return ids;
+    }
+
+    /**
+     * Register usecases in the order of the snapshot, such that the usecase IDs of the registry are the same as the usecase IDs of the snapshot
+     */
+    private UsecaseRegistry readUsecases(int offset) {
+        int numberOfUsecases = buffer.getInt(offset);
+        int numberOfConfiguredUsecases = buffer.getInt(offset + 4);
+        String[] names = new String[numberOfUsecases];
+        Map<String, Map<String, String>> labels = new HashMap<String, Map<String, String>>();
+        int position = offset + 8;
+        for (int i = 0; i < numberOfUsecases; i++) {
+            names[i] = strings[buffer.getInt(position)];
+            int numberOfLabels = buffer.getInt(position + 4);
+            position += 8;
+            if (numberOfLabels > 0) {
+                Map<String, String> usecaseLabels = new HashMap<String, String>();
+                for (int k = 0; k < numberOfLabels; k++) {
+                    usecaseLabels.put(strings[buffer.getInt(position)], strings[buffer.getInt(position + 4)]);
+                    position += 8;
+                }
+                labels.put(names[i], usecaseLabels);
+            }
+        }
+        String[] configured = new String[numberOfConfiguredUsecases];
+        System.arraycopy(names, 0, configured, 0, configured.length);
+        UsecaseRegistry registry = new UsecaseRegistry(configured, labels);
+        for (int i = configured.length; i < names.length; i++) {
+            registry.intern(names[i]);
+        }
+        return registry;
+    }
+
+    /**
+     *
+     */
+    private PolicyMap readPolicyMap(int offset) {
+        int numberOfMatchers = buffer.getInt(offset);
+        if (numberOfMatchers == 0) {
+            return new PolicyMap();
+        }
+        List<String[]> definitions = new ArrayList<String[]>();
+        for (int i = 0; i < numberOfMatchers; i++) {
+            int position = offset + 4 + 12 * i;
+            definitions.add(new String[] {strings[buffer.getInt(position)], strings[buffer.getInt(position + 4)], strings[buffer.getInt(position + 8)]});
+        }
+        return PolicyMap.create(definitions, created);
+    }
+
+    /**
+     * Get time when snapshot has been created
+     */
+    public long getCreated() {
+        return created;
+    }
+
+    /**
+     * Get registry of usecases contained by snapshot
+     */
+    public UsecaseRegistry getUsecaseRegistry() {
+        return usecaseRegistry;
+    }
+
+    /**
+     * Get paths of all policies contained by snapshot, e.g. "/hello/world.html.policy"
+     */
+    public java.util.Set<String> getPolicyPaths() {
+        return java.util.Collections.unmodifiableSet(policiesByPath.keySet());
+    }
+
+    /**
+     * Check whether snapshot contains a policy map
+     */
+    public boolean hasPolicyMap() {
+        return !policyMap.isEmpty();
+    }
+
+    /**
+     * Check whether a particular identity is authorized to execute a specific usecase for a specific path
+     * @param path Requested path, e.g. "/hello/world.html"
+     * @param queryString Query string associated with requested path (or null)
+     * @param identity Identity requesting access
+     * @param usecase ID of usecase (see {@link #getUsecaseRegistry()})
+     */
+    public boolean authorize(String path, String queryString, Identity identity, int usecase) {
+        int decision = CompiledPolicy.INHERIT;
+        if (policyMap.isEmpty()) {
+            // INFO: Inheritance has been resolved when the snapshot was created, hence follow the policies of the ancestors directly
+            int policy = getNearestPolicy(path);
+            while (policy != NONE && decision == CompiledPolicy.INHERIT) {
+                decision = authorize(policy, identity, usecase);
+                policy = buffer.getInt(getPolicyOffset(policy) + 8);
+            }
+        } else {
+            String current = path;
+            String currentQueryString = queryString;
+            while (current != null && decision == CompiledPolicy.INHERIT) {
+                int policy = getPolicy(current, currentQueryString);
+                if (policy != NONE) {
+                    decision = authorize(policy, identity, usecase);
+                }
+                current = PathUtil.getParent(current);
+                currentQueryString = null;
+            }
+        }
+        return decision == CompiledPolicy.GRANTED;
+    }
+
+    /**
+     * Collect the entries of a usecase during one walk through the ancestor policies of a path, until a policy decides for everyone
+     * @param path Requested path, e.g. "/hello/world.html"
+     * @param usecase ID of usecase (see {@link #getUsecaseRegistry()})
+     * @param principals Principals to which the checked policies and their entries are added
+     */
+    public void addEntries(String path, int usecase, AuthorizedPrincipals principals) {
+        if (policyMap.isEmpty()) {
+            int policy = getNearestPolicy(path);
+            while (policy != NONE && !addEntries(policy, usecase, principals)) {
+                policy = buffer.getInt(getPolicyOffset(policy) + 8);
+            }
+        } else {
+            String current = path;
+            while (current != null) {
+                int policy = getPolicy(current, null);
+                if (policy != NONE && addEntries(policy, usecase, principals)) {
+                    break;
+                }
+                current = PathUtil.getParent(current);
+            }
+        }
+    }
+
+    /**
+     * Add the entries of a usecase of one policy
+     * @param policy Index of policy
+     * @return True if this policy decides for everyone (because of a world entry or because inheritance is disabled)
+     */
+    private boolean addEntries(int policy, int usecase, AuthorizedPrincipals principals) {
+        int offset = getPolicyOffset(policy);
+        boolean useInheritedPolicies = (buffer.getInt(offset + 4) & FLAG_USE_INHERITED_POLICIES) != 0;
+        principals.addLevel(strings[buffer.getInt(offset)], useInheritedPolicies);
+        int world = getEntry(buffer.getInt(offset + 12), usecase);
+        if (world != NONE) {
+            principals.addEntry(DecisionTrace.WORLD, null, world >> 1, (world & 1) == 1);
+        }
+
+        int numberOfUsers = buffer.getInt(offset + 16);
+        int position = offset + 20;
+        for (int i = 0; i < numberOfUsers; i++) {
+            int entry = getEntry(buffer.getInt(position + 4 * numberOfUsers + 4 * i), usecase);
+            if (entry != NONE) {
+                principals.addEntry(DecisionTrace.USER, strings[buffer.getInt(position + 4 * i)], entry >> 1, (entry & 1) == 1);
+            }
+        }
+
+        position += 8 * numberOfUsers;
+        int numberOfGroups = buffer.getInt(position);
+        position += 4;
+        for (int i = 0; i < numberOfGroups; i++) {
+            int entry = getEntry(buffer.getInt(position + 4 * numberOfGroups + 4 * i), usecase);
+            if (entry != NONE) {
+                principals.addEntry(DecisionTrace.GROUP, groupIDs[buffer.getInt(position + 4 * i)], entry >> 1, (entry & 1) == 1);
+            }
+        }
+        return world != NONE || !useInheritedPolicies;
+    }
+
+    /**
+     * Check the permissions of one policy, whereas the first matching entry (by position) decides
+     * @param policy Index of policy
+     * @return GRANTED or DENIED if this policy decides, otherwise INHERIT
+     */
+    private int authorize(int policy, Identity identity, int usecase) {
+        int offset = getPolicyOffset(policy);
+        int match = getEntry(buffer.getInt(offset + 12), usecase);
+
+        String username = identity.getUsername();
+        int numberOfUsers = buffer.getInt(offset + 16);
+        int position = offset + 20;
+        if (username != null && numberOfUsers > 0) {
+            int user = findString(position, numberOfUsers, username);
+            if (user >= 0) {
+                match = min(match, getEntry(buffer.getInt(position + 4 * numberOfUsers + 4 * user), usecase));
+            }
+        }
+
+        position += 8 * numberOfUsers;
+        int numberOfGroups = buffer.getInt(position);
+        position += 4;
+        for (int i = 0; i < numberOfGroups; i++) {
+            if (identity.isMemberOfGroup(groupIndexes[buffer.getInt(position + 4 * i)])) {
+                match = min(match, getEntry(buffer.getInt(position + 4 * numberOfGroups + 4 * i), usecase));
+            }
+        }
+
+        if (match != NONE) {
+            return (match & 1) == 1 ? CompiledPolicy.GRANTED : CompiledPolicy.DENIED;
+        }
+        if ((buffer.getInt(offset + 4) & FLAG_USE_INHERITED_POLICIES) == 0) {
+            return CompiledPolicy.DENIED;
+        }
+        return CompiledPolicy.INHERIT;
+    }
+
+    /**
+     * Get entry with the lower position
+     */
+    private static int min(int entry, int otherEntry) {
+        if (entry == NONE) {
+            return otherEntry;
+        }
+        if (otherEntry == NONE) {
+            return entry;
+        }
+        return otherEntry < entry ? otherEntry : entry;
+    }
+
+    /**
+     * Find entry of a usecase by binary search
+     * @param offset Offset of entries
+     * @param usecase ID of usecase or -1 if the usecase is not registered
+     * @return Position &lt;&lt; 1 | permission or NONE if there is no entry for this usecase
+     */
+    private int getEntry(int offset, int usecase) {
+        if (usecase < 0) {
+            return NONE;
+        }
+        int low = 0;
+        int high = buffer.getInt(offset) - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int u = buffer.getInt(offset + 4 + 8 * middle);
+            if (u < usecase) {
+                low = middle + 1;
+            } else if (u > usecase) {
+                high = middle - 1;
+            } else {
+                return buffer.getInt(offset + 8 + 8 * middle);
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Find string by binary search within a sorted array of string indexes
+     * @param offset Offset of string indexes
+     * @return Index within array or -1 if not found
+     */
+    private int findString(int offset, int length, String s) {
+        int low = 0;
+        int high = length - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int c = strings[buffer.getInt(offset + 4 * middle)].compareTo(s);
+            if (c < 0) {
+                low = middle + 1;
+            } else if (c > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get policy which applies to a path itself, either mapped by the policy map or the policy of the path
+     * @return Index of policy or NONE
+     */
+    private int getPolicy(String path, String queryString) {
+        String normalizedPath = removeTrailingSlash(path);
+        String mapped = policyMap.getPolicyPath(queryString != null ? normalizedPath + "?" + queryString : normalizedPath);
+        if (mapped != null) {
+            Integer policy = policiesByPath.get(mapped);
+            return policy != null ? policy.intValue() : NONE;
+        }
+        int node = getNode(normalizedPath, true);
+        return node != NONE ? buffer.getInt(node + 4) : NONE;
+    }
+
+    /**
+     * Get policy of a path or of its nearest ancestor
+     * @return Index of policy or NONE
+     */
+    private int getNearestPolicy(String path) {
+        return buffer.getInt(getNode(removeTrailingSlash(path), false) + 8);
+    }
+
+    /**
+     * Descend trie along the segments of a path
+     * @param exact True if only the node of the path itself shall be returned
+     * @return Node of path, or (if not exact) the deepest node on the way to the path, or NONE
+     */
+    private int getNode(String path, boolean exact) {
+        int node = rootNode;
+        int start = 1;
+        while (start < path.length()) {
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = path.length();
+            }
+            int numberOfChildren = buffer.getInt(node + 12);
+            int child = findString(node + 16, numberOfChildren, path.substring(start, end));
+            if (child < 0) {
+                return exact ? NONE : node;
+            }
+            node = buffer.getInt(node + 16 + 4 * numberOfChildren + 4 * child);
+            start = end + 1;
+        }
+        return node;
+    }
+
+    /**
+     * Get offset of a policy
+     * @param policy Index of policy
+     */
+    private int getPolicyOffset(int policy) {
+        return buffer.getInt(policyDirectory + 4 + 4 * policy);
+    }
+
+    /**
+     * Remove trailing slash except for ROOT
+     */
+    private static String removeTrailingSlash(String path) {
+        if (path.length() > 1 && path.charAt(path.length() - 1) == '/') {
+            return path.substring(0, path.length() - 1);
+        }
+        return path;
+    }
+}
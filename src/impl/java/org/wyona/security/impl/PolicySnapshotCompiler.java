@@ -0,0 +1,387 @@
+package org.wyona.security.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.wyona.yarep.core.Node;
+import org.wyona.yarep.core.Repository;
+import org.wyona.yarep.core.RepositoryException;
+import org.wyona.yarep.core.RepositoryFactory;
+
+import org.apache.avalon.framework.configuration.ConfigurationException;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.LogManager;
+
+/**
+ * Walks a policies repository once and writes a snapshot of all policies, the policy map and the usecases, which can be memory-mapped by {@link PolicySnapshot}.
+ * The inheritance of policies is resolved, such that every node of the path trie knows its nearest policy and every policy knows the policy of its nearest ancestor.
+ *
+ * Usage: java org.wyona.security.impl.PolicySnapshotCompiler REPOSITORY_CONFIG SNAPSHOT_FILE
+ */
+public class PolicySnapshotCompiler {
+
+    private static Logger log = LogManager.getLogger(PolicySnapshotCompiler.class);
+
+    private static final String POLICY_SUFFIX = ".policy";
+
+    private final Map<String, Integer> strings = new LinkedHashMap<String, Integer>();
+    private final Map<String, Integer> groups = new LinkedHashMap<String, Integer>();
+
+    /**
+     *
+     */
+    private PolicySnapshotCompiler() {
+    }
+
+    /**
+     * @param args Repository configuration and snapshot file
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.err.println("Usage: java " + PolicySnapshotCompiler.class.getName() + " REPOSITORY_CONFIG SNAPSHOT_FILE");
+            System.exit(1);
+        }
+        Repository repo = new RepositoryFactory().newRepository("policies-snapshot", new File(args[0]));
+        compile(repo, new File(args[1]));
+    }
+
+    /**
+     * Compile all policies of a repository into a snapshot
+     * @param repo Repository containing policies
+     * @param file Snapshot file, which is replaced atomically if it exists already and the file system renames onto existing files (e.g. POSIX), whereas otherwise (e.g. Windows) the existing file is deleted first and hence missing for a moment
+     * @throws ConfigurationException If a policy contains IP ranges or hosts, which are not supported by snapshots
+     */
+    public static void compile(Repository repo, File file) throws Exception {
+        byte[] snapshot = new PolicySnapshotCompiler().compile(repo);
+        File tmpFile = new File(file.getPath() + ".tmp");
+        OutputStream out = new FileOutputStream(tmpFile);
+        try {
+            out.write(snapshot);
+        } finally {
+            out.close();
+        }
+        // INFO: Renaming onto an existing file replaces it atomically on POSIX file systems, whereas it fails on others, where the existing file has to be deleted first
+        if (!tmpFile.renameTo(file)) {
+            if (file.exists() && !file.delete()) {
+                throw new IOException("Could not replace snapshot: " + file);
+            }
+            if (!tmpFile.renameTo(file)) {
+                throw new IOException("Could not rename '" + tmpFile + "' to '" + file + "'");
+            }
+        }
+        log.info("Policy snapshot '" + file + "' created (Size: " + snapshot.length + " bytes)");
+    }
+
+    /**
+     * @return Snapshot
+     */
+    private byte[] compile(Repository repo) throws Exception {
+        UsecaseRegistry usecaseRegistry = UsecaseRegistry.load(repo);
+
+        PolicyMap policyMap = new PolicyMap();
+        if (repo.existsNode(PolicyManagerImplVersion2.POLICY_MAP_FILE)) {
+            Node node = repo.getNode(PolicyManagerImplVersion2.POLICY_MAP_FILE);
+            InputStream in = node.getInputStream();
+            try {
+                policyMap = PolicyMap.read(in, node.getLastModified());
+            } finally {
+                in.close();
+            }
+        }
+
+        List<String> policyPaths = new ArrayList<String>();
+        scan(repo.getRootNode(), "/", policyPaths);
+        for (String policyPath : policyMap.getPolicyPaths()) {
+            if (!policyPaths.contains(policyPath)) {
+                if (repo.existsNode(policyPath)) {
+                    policyPaths.add(policyPath);
+                } else {
+                    log.warn("No such policy: " + policyPath + " (" + repo + ")");
+                }
+            }
+        }
+
+        CompiledPolicy[] policies = new CompiledPolicy[policyPaths.size()];
+        TrieNode root = new TrieNode("");
+        for (int i = 0; i < policies.length; i++) {
+            Node node = repo.getNode(policyPaths.get(i));
+            InputStream in = node.getInputStream();
+            try {
+                policies[i] = CompiledPolicy.compile(in, node.getLastModified(), usecaseRegistry);
+            } finally {
+                in.close();
+            }
+            if (policies[i].hasAddresses()) {
+                // INFO: The snapshot format does not contain IP ranges and hosts, and ignoring them could grant access which they deny
+                log.error("Policy '" + policyPaths.get(i) + "' contains IP ranges or hosts, which are not supported by snapshots (" + repo + ")");
+                throw new ConfigurationException("Policy '" + policyPaths.get(i) + "' contains IP ranges or hosts, which are not supported by snapshots (" + repo + ")");
+            }
+            if (policyPaths.get(i).endsWith(POLICY_SUFFIX)) {
+                root.add(policyPaths.get(i).substring(0, policyPaths.get(i).length() - POLICY_SUFFIX.length())).policy = i;
+            }
+        }
+        int[] parentPolicies = new int[policies.length];
+        java.util.Arrays.fill(parentPolicies, -1);
+        root.resolveInheritance(-1, parentPolicies);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(new byte[PolicySnapshot.HEADER_SIZE]);
+
+        int[] policyOffsets = new int[policies.length];
+        for (int i = 0; i < policies.length; i++) {
+            policyOffsets[i] = writePolicy(out, policyPaths.get(i), policies[i], parentPolicies[i]);
+        }
+        int policyDirectoryOffset = out.size();
+        out.writeInt(policyOffsets.length);
+        for (int i = 0; i < policyOffsets.length; i++) {
+            out.writeInt(policyOffsets[i]);
+        }
+
+        int rootNodeOffset = writeNode(out, root);
+
+        int matchersOffset = out.size();
+        List<String[]> definitions = policyMap.getDefinitions();
+        out.writeInt(definitions.size());
+        for (String[] definition : definitions) {
+            out.writeInt(getString(definition[0]));
+            out.writeInt(getString(definition[1]));
+            out.writeInt(getString(definition[2]));
+        }
+
+        int usecasesOffset = out.size();
+        out.writeInt(usecaseRegistry.size());
+        out.writeInt(usecaseRegistry.getNumberOfUsecases());
+        Map<String, Map<String, String>> labels = usecaseRegistry.getLabels();
+        for (int i = 0; i < usecaseRegistry.size(); i++) {
+            String usecase = usecaseRegistry.getName(i);
+            out.writeInt(getString(usecase));
+            Map<String, String> usecaseLabels = labels.get(usecase);
+            if (usecaseLabels != null) {
+                out.writeInt(usecaseLabels.size());
+                for (Map.Entry<String, String> label : usecaseLabels.entrySet()) {
+                    out.writeInt(getString(label.getKey()));
+                    out.writeInt(getString(label.getValue()));
+                }
+            } else {
+                out.writeInt(0);
+            }
+        }
+
+        int groupsOffset = out.size();
+        out.writeInt(groups.size());
+        for (String group : groups.keySet()) {
+            out.writeInt(getString(group));
+        }
+
+        int stringsOffset = out.size();
+        out.writeInt(strings.size());
+        for (String s : strings.keySet()) {
+            byte[] utf8 = s.getBytes("UTF-8");
+            out.writeInt(utf8.length);
+            out.write(utf8);
+        }
+        out.close();
+
+        ByteBuffer snapshot = ByteBuffer.wrap(bytes.toByteArray());
+        snapshot.putInt(0, PolicySnapshot.MAGIC);
+        snapshot.putInt(4, PolicySnapshot.VERSION);
+        snapshot.putLong(8, System.currentTimeMillis());
+        snapshot.putInt(PolicySnapshot.POLICY_DIRECTORY_OFFSET, policyDirectoryOffset);
+        snapshot.putInt(PolicySnapshot.ROOT_NODE_OFFSET, rootNodeOffset);
+        snapshot.putInt(PolicySnapshot.MATCHERS_OFFSET, matchersOffset);
+        snapshot.putInt(PolicySnapshot.USECASES_OFFSET, usecasesOffset);
+        snapshot.putInt(PolicySnapshot.GROUPS_OFFSET, groupsOffset);
+        snapshot.putInt(PolicySnapshot.STRINGS_OFFSET, stringsOffset);
+        log.info("Number of policies: " + policies.length + ", Number of groups: " + groups.size() + ", Number of strings: " + strings.size());
+        return snapshot.array();
+    }
+
+    /**
+     * Scan collection recursively for policies
+     */
+    private void scan(Node collection, String path, List<String> policyPaths) throws RepositoryException {
+        Node[] children = collection.getNodes();
+        for (int i = 0; i < children.length; i++) {
+            String name = children[i].getName();
+            if (children[i].isCollection()) {
+                scan(children[i], path + name + "/", policyPaths);
+            } else if (name.endsWith(POLICY_SUFFIX)) {
+                policyPaths.add(path + name);
+            }
+        }
+    }
+
+    /**
+     * Write permission tables of a policy
+     * @return Offset of policy
+     */
+    private int writePolicy(DataOutputStream out, String policyPath, CompiledPolicy policy, int parentPolicy) throws IOException {
+        int worldEntriesOffset = writeEntries(out, policy.getWorldEntries());
+
+        Map<String, int[]> userEntries = new TreeMap<String, int[]>(policy.getUserEntries());
+        int[] userEntriesOffsets = new int[userEntries.size()];
+        int i = 0;
+        for (int[] entries : userEntries.values()) {
+            userEntriesOffsets[i++] = writeEntries(out, entries);
+        }
+
+        Map<String, int[]> groupEntries = policy.getGroupEntries();
+        int[] groupEntriesOffsets = new int[groupEntries.size()];
+        i = 0;
+        for (int[] entries : groupEntries.values()) {
+            groupEntriesOffsets[i++] = writeEntries(out, entries);
+        }
+
+        int offset = out.size();
+        out.writeInt(getString(policyPath));
+        out.writeInt(policy.useInheritedPolicies() ? PolicySnapshot.FLAG_USE_INHERITED_POLICIES : 0);
+        out.writeInt(parentPolicy);
+        out.writeInt(worldEntriesOffset);
+        out.writeInt(userEntries.size());
+        for (String user : userEntries.keySet()) {
+            out.writeInt(getString(user));
+        }
+        for (int k = 0; k < userEntriesOffsets.length; k++) {
+            out.writeInt(userEntriesOffsets[k]);
+        }
+        out.writeInt(groupEntries.size());
+        for (String group : groupEntries.keySet()) {
+            out.writeInt(getGroup(group));
+        }
+        for (int k = 0; k < groupEntriesOffsets.length; k++) {
+            out.writeInt(groupEntriesOffsets[k]);
+        }
+        return offset;
+    }
+
+    /**
+     * @param entries Pairs of usecase ID and position, sorted by usecase ID
+     * @return Offset of entries
+     */
+    private int writeEntries(DataOutputStream out, int[] entries) throws IOException {
+        int offset = out.size();
+        out.writeInt(entries.length / 2);
+        for (int i = 0; i < entries.length; i++) {
+            out.writeInt(entries[i]);
+        }
+        return offset;
+    }
+
+    /**
+     * Write trie node, whereas the children are written first
+     * @return Offset of node
+     */
+    private int writeNode(DataOutputStream out, TrieNode node) throws IOException {
+        int[] childOffsets = new int[node.children.size()];
+        int i = 0;
+        for (TrieNode child : node.children.values()) {
+            childOffsets[i++] = writeNode(out, child);
+        }
+
+        int offset = out.size();
+        out.writeInt(getString(node.name));
+        out.writeInt(node.policy);
+        out.writeInt(node.nearestPolicy);
+        out.writeInt(childOffsets.length);
+        for (String name : node.children.keySet()) {
+            out.writeInt(getString(name));
+        }
+        for (int k = 0; k < childOffsets.length; k++) {
+            out.writeInt(childOffsets[k]);
+        }
+        return offset;
+    }
+
+    /**
+     * Get index of string within string table
+     */
+    private int getString(String s) {
+        Integer index = strings.get(s);
+        if (index == null) {
+            index = new Integer(strings.size());
+            strings.put(s, index);
+        }
+        return index.intValue();
+    }
+
+    /**
+     * Get index of group within group table
+     */
+    private int getGroup(String group) {
+        Integer index = groups.get(group);
+        if (index == null) {
+            index = new Integer(groups.size());
+            groups.put(group, index);
+        }
+        return index.intValue();
+    }
+
+    /**
+     * Node of path trie
+     */
+    private static class TrieNode {
+
+        private final String name;
+        private final TreeMap<String, TrieNode> children = new TreeMap<String, TrieNode>();
+        private int policy = -1;
+        private int nearestPolicy = -1;
+
+        TrieNode(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Add node of a path
+         * @param path Path, e.g. "/hello/world.html"
+         */
+        TrieNode add(String path) {
+            TrieNode node = this;
+            int start = 1;
+            while (start < path.length()) {
+                int end = path.indexOf('/', start);
+                if (end < 0) {
+                    end = path.length();
+                }
+                String segment = path.substring(start, end);
+                TrieNode child = node.children.get(segment);
+                if (child == null) {
+                    child = new TrieNode(segment);
+                    node.children.put(segment, child);
+                }
+                node = child;
+                start = end + 1;
+            }
+            return node;
+        }
+
+        /**
+         * Resolve nearest policy of every node and the parent policy of every policy
+         * @param ancestorPolicy Nearest policy of parent node
+         * @param parentPolicies Parent policy by policy
+         */
+        void resolveInheritance(int ancestorPolicy, int[] parentPolicies) {
+            if (policy >= 0) {
+                parentPolicies[policy] = ancestorPolicy;
+                nearestPolicy = policy;
+            } else {
+                nearestPolicy = ancestorPolicy;
+            }
+            for (TrieNode child : children.values()) {
+                child.resolveInheritance(nearestPolicy, parentPolicies);
+            }
+        }
+    }
+}
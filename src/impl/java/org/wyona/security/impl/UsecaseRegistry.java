@@ -0,0 +1,232 @@
+package org.wyona.security.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.wyona.yarep.core.Repository;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.LogManager;
+
+import org.apache.avalon.framework.configuration.Configuration;
+import org.apache.avalon.framework.configuration.ConfigurationException;
+import org.apache.avalon.framework.configuration.DefaultConfigurationBuilder;
+import org.xml.sax.SAXException;
+
+/**
+ * Registry of usecases, which assigns every usecase a dense integer ID, such that compiled policies can keep permissions as bit sets indexed by usecase ID.
+ * The configured usecases are read from the policies repository, for example
+ * <pre>
+ * &lt;usecases&gt;
+ *   &lt;usecase id="view"&gt;
+ *     &lt;label lang="en"&gt;View/Read&lt;/label&gt;
+ *     &lt;label lang="de"&gt;Inhalt lesen&lt;/label&gt;
+ *   &lt;/usecase&gt;
+ * &lt;/usecases&gt;
+ * </pre>
+ * The configured usecases get the IDs 0 to n-1 in document order. Usecases which are not configured, but are used by policies or requested, get the next free ID.
+ */
+public class UsecaseRegistry {
+
+    private static Logger log = LogManager.getLogger(UsecaseRegistry.class);
+
+    public static final String USECASES_FILE = "/usecases.xml";
+
+    private static final String DEFAULT_LANGUAGE = "en";
+
+    private static final String[][] DEFAULT_USECASES = {
+        // INFO: ID, English label, German label
+        {"view", "View/Read", "Inhalt lesen"},
+        {"open", "Open content for editing", "Inhalt zum Bearbeiten oeffnen"},
+        {"write", "Write/Save", "(Bearbeiteter) Inhalt abspeichern"},
+        {"resource.create", "Create a resource or a collection", "Inhalt neu kreieren"},
+        {"delete", "Delete a resource or a collection", "Inhalt loeschen"},
+        {"yanel.resource.meta", "View/Read meta information", "Meta Informationen lesen"},
+        {"introspection", "View introspection", "Introspection anschauen/lesen"},
+        {"toolbar", "Access Yanel toolbar", "Yanel Toolbar verwenden"},
+        {"policy.read", "View access policy", "Zugriffsberechtigungen anschauen/lesen"},
+        {"policy.update", "Edit access policy", "Zugriffsberechtigungen bearbeiten"},
+        {"workflow.write", null, null},
+        {"workflow.approve", null, null},
+        {"workflow.publish", null, null}
+    };
+
+    private final String[] configuredUsecases;
+    private final Map<String, Map<String, String>> labels;
+    private final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+    private volatile String[] names = new String[0];
+
+    /**
+     * @param usecases Configured usecases
+     * @param labels Labels of usecases by usecase and language
+     */
+    public UsecaseRegistry(String[] usecases, Map<String, Map<String, String>> labels) {
+        this.labels = labels;
+        for (int i = 0; i < usecases.length; i++) {
+            intern(usecases[i]);
+        }
+        this.configuredUsecases = names.clone();
+    }
+
+    /**
+     * Create registry containing the default usecases
+     */
+    public static UsecaseRegistry createDefault() {
+        String[] usecases = new String[DEFAULT_USECASES.length];
+        Map<String, Map<String, String>> labels = new HashMap<String, Map<String, String>>();
+        for (int i = 0; i < DEFAULT_USECASES.length; i++) {
+            usecases[i] = DEFAULT_USECASES[i][0];
+            if (DEFAULT_USECASES[i][1] != null) {
+                Map<String, String> usecaseLabels = new HashMap<String, String>();
+                usecaseLabels.put("en", DEFAULT_USECASES[i][1]);
+                usecaseLabels.put("de", DEFAULT_USECASES[i][2]);
+                labels.put(usecases[i], usecaseLabels);
+            }
+        }
+        return new UsecaseRegistry(usecases, labels);
+    }
+
+    /**
+     * Read configuration of usecases
+     * @param in Usecases XML as input stream
+     */
+    public static UsecaseRegistry read(InputStream in) throws ConfigurationException, SAXException, IOException {
+        Configuration config = new DefaultConfigurationBuilder().build(in);
+        Configuration[] usecaseConfigs = config.getChildren("usecase");
+        List<String> usecases = new ArrayList<String>();
+        Map<String, Map<String, String>> labels = new HashMap<String, Map<String, String>>();
+        for (int i = 0; i < usecaseConfigs.length; i++) {
+            String id = usecaseConfigs[i].getAttribute("id");
+            usecases.add(id);
+            Configuration[] labelConfigs = usecaseConfigs[i].getChildren("label");
+            if (labelConfigs.length > 0) {
+                Map<String, String> usecaseLabels = new HashMap<String, String>();
+                for (int k = 0; k < labelConfigs.length; k++) {
+                    usecaseLabels.put(labelConfigs[k].getAttribute("lang", DEFAULT_LANGUAGE), labelConfigs[k].getValue(""));
+                }
+                labels.put(id, usecaseLabels);
+            }
+        }
+        log.info("Number of configured usecases: " + usecases.size());
+        return new UsecaseRegistry(usecases.toArray(new String[usecases.size()]), labels);
+    }
+
+    /**
+     * Read configuration of usecases (see {@link #USECASES_FILE}) from a repository, whereas the default usecases are used if no usecases are configured
+     * @param repo Repository containing configuration of usecases
+     */
+    public static UsecaseRegistry load(Repository repo) {
+        try {
+            if (!repo.existsNode(USECASES_FILE)) {
+                log.info("No usecases configuration '" + USECASES_FILE + "' in repo '" + repo.getName() + "', hence default usecases will be used.");
+                return createDefault();
+            }
+            InputStream in = repo.getNode(USECASES_FILE).getInputStream();
+            try {
+                return read(in);
+            } finally {
+                in.close();
+            }
+        } catch (Exception e) {
+            log.error("Reading usecases configuration failed, hence default usecases will be used: " + e.getMessage(), e);
+            return createDefault();
+        }
+    }
+
+    /**
+     * Get ID of a usecase, whereby a usecase which is not registered yet gets the next free ID
+     * @param usecase Name of usecase
+     */
+    public int intern(String usecase) {
+        Integer id = ids.get(usecase);
+        if (id != null) {
+            return id.intValue();
+        }
+        synchronized (this) {
+            id = ids.get(usecase);
+            if (id == null) {
+                String[] newNames = Arrays.copyOf(names, names.length + 1);
+                newNames[names.length] = usecase;
+                id = new Integer(names.length);
+                // INFO: Publish name before ID, such that getName() works for every ID returned by intern()
+                names = newNames;
+                ids.put(usecase, id);
+                if (configuredUsecases != null) {
+                    log.info("Usecase '" + usecase + "' is not configured and has been registered with ID " + id);
+                }
+            }
+            return id.intValue();
+        }
+    }
+
+    /**
+     * Get ID of a usecase
+     * @param usecase Name of usecase
+     * @return ID or -1 if usecase is not registered
+     */
+    public int getId(String usecase) {
+        Integer id = ids.get(usecase);
+        return id != null ? id.intValue() : -1;
+    }
+
+    /**
+     * Get name of a usecase
+     * @param id ID of usecase
+     */
+    public String getName(int id) {
+        return names[id];
+    }
+
+    /**
+     * Get configured usecases, ordered by ID
+     */
+    public String[] getUsecases() {
+        return configuredUsecases.clone();
+    }
+
+    /**
+     * Get number of configured usecases, which have the IDs 0 to n-1
+     */
+    public int getNumberOfUsecases() {
+        return configuredUsecases.length;
+    }
+
+    /**
+     * Get number of registered usecases, including usecases which are not configured
+     */
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * Get labels of all usecases by usecase and language
+     */
+    Map<String, Map<String, String>> getLabels() {
+        return labels;
+    }
+
+    /**
+     * Get label of a usecase
+     * @param usecase Name of usecase
+     * @param language Language of label, whereas the English label is returned if there is no label for this language
+     * @return Label or null if usecase has no label
+     */
+    public String getLabel(String usecase, String language) {
+        Map<String, String> usecaseLabels = labels.get(usecase);
+        if (usecaseLabels == null) {
+            return null;
+        }
+        String label = usecaseLabels.get(language);
+        if (label == null) {
+            label = usecaseLabels.get(DEFAULT_LANGUAGE);
+        }
+        return label;
+    }
+}
@@ -0,0 +1,234 @@
+package org.wyona.security.impl;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.wyona.security.core.api.Identity;
+import org.wyona.yarep.core.NoSuchNodeException;
+import org.wyona.yarep.core.Repository;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.LogManager;
+
+/**
+ * Path-segment trie of the decisions of all policies for world (anonymous identities), such that an anonymous authorization request is answered by one walk along the segments of the requested path, without checking groups and without accessing the repository.
+ * Every policy node of the trie keeps the usecases which it grants or denies to world as bit sets, including explicit world denials and usecases or policies which do not inherit, and the nearest deciding policy of a path wins.
+ * The trie is built from all indexed policies when it is used the first time and is updated per policy node when a policy is set or removed by the policy manager.
+ * Like the decision cache it does not notice policies which are modified inside the repository without using the policy manager.
+ */
+public class WorldAccessIndex {
+
+    private static Logger log = LogManager.getLogger(WorldAccessIndex.class);
+
+    private static final String POLICY_SUFFIX = ".policy";
+
+    private final Repository repo;
+    private final CompiledPolicyCache compiledPolicies;
+    private final PolicyPathIndex policyIndex;
+    private final UsecaseRegistry usecaseRegistry;
+    private volatile TrieNode root;
+
+    /**
+     * @param repo Repository containing policies
+     * @param compiledPolicies Cache from which the compiled policies are read
+     * @param policyIndex Index of all existing policy nodes
+     * @param usecaseRegistry Registry which assigns the IDs of usecases
+     */
+    public WorldAccessIndex(Repository repo, CompiledPolicyCache compiledPolicies, PolicyPathIndex policyIndex, UsecaseRegistry usecaseRegistry) {
+        this.repo = repo;
+        this.compiledPolicies = compiledPolicies;
+        this.policyIndex = policyIndex;
+        this.usecaseRegistry = usecaseRegistry;
+    }
+
+    /**
+     * Check whether world is authorized to execute a usecase on a path
+     * @param path Requested path, whereas a trailing slash is ignored, e.g. "/hello/world.html"
+     * @param identity World identity, whose client address is only relevant if a policy of the path contains IP ranges or hosts
+     * @param usecase ID of usecase (see {@link UsecaseRegistry})
+     * @return Decision or null if the index cannot decide, e.g. because the client address would have to be matched
+     */
+    public Boolean authorize(String path, Identity identity, int usecase) throws Exception {
+        TrieNode trieNode = root;
+        if (trieNode == null) {
+            trieNode = build();
+        }
+        boolean hasClientAddress = identity.getClientAddress() != null;
+
+        boolean granted = false;
+        WorldDecisions decisions = trieNode.decisions;
+        if (decisions != null) {
+            if (decisions.hasAddresses && hasClientAddress) {
+                return null;
+            }
+            int decision = decisions.authorize(usecase);
+            if (decision != CompiledPolicy.INHERIT) {
+                granted = decision == CompiledPolicy.GRANTED;
+            }
+        }
+        int length = path.length() > 1 && path.charAt(path.length() - 1) == '/' ? path.length() - 1 : path.length();
+        int start = 1;
+        while (start < length) {
+            int end = path.indexOf('/', start);
+            if (end < 0 || end > length) {
+                end = length;
+            }
+            trieNode = trieNode.children.get(path.substring(start, end));
+            if (trieNode == null) {
+                break;
+            }
+            decisions = trieNode.decisions;
+            if (decisions != null) {
+                if (decisions.hasAddresses && hasClientAddress) {
+                    return null;
+                }
+                // INFO: The nearest policy which decides overrides the decisions of its ancestors
+                int decision = decisions.authorize(usecase);
+                if (decision != CompiledPolicy.INHERIT) {
+                    granted = decision == CompiledPolicy.GRANTED;
+                }
+            }
+            start = end + 1;
+        }
+        return Boolean.valueOf(granted);
+    }
+
+    /**
+     * Check whether the trie has been built, such that an authorization request does not read any policies
+     */
+    public boolean isBuilt() {
+        return root != null;
+    }
+
+    /**
+     * Build trie from all indexed policies, unless another thread has built it already
+     */
+    private synchronized TrieNode build() throws Exception {
+        if (root != null) {
+            return root;
+        }
+        long start = System.currentTimeMillis();
+        TrieNode newRoot = new TrieNode();
+        List<String> policyPaths = policyIndex.getPolicyPaths();
+        for (String policyPath : policyPaths) {
+            update(newRoot, policyPath);
+        }
+        root = newRoot;
+        log.info("World access index of " + policyPaths.size() + " policies built in " + (System.currentTimeMillis() - start) + " milliseconds (" + repo + ")");
+        return newRoot;
+    }
+
+    /**
+     * Update decisions of a policy which has been set or removed
+     * @param policyPath Path of policy node, e.g. "/hello/world.html.policy"
+     */
+    public synchronized void update(String policyPath) {
+        TrieNode trieNode = root;
+        if (trieNode == null) {
+            return;
+        }
+        try {
+            update(trieNode, policyPath);
+        } catch (Exception e) {
+            log.error("Updating world access of policy '" + policyPath + "' failed, hence index will be built again: " + e.getMessage(), e);
+            root = null;
+        }
+    }
+
+    /**
+     *
+     */
+    private void update(TrieNode trieNode, String policyPath) throws Exception {
+        if (!policyPath.endsWith(POLICY_SUFFIX)) {
+            // INFO: Policies of the policy map are not indexed, because the policy manager does not use this index if a policy map exists
+            return;
+        }
+        String path = policyPath.substring(0, policyPath.length() - POLICY_SUFFIX.length());
+        int start = 1;
+        while (start < path.length()) {
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = path.length();
+            }
+            trieNode = trieNode.getOrAddChild(path.substring(start, end));
+            start = end + 1;
+        }
+
+        WorldDecisions decisions = null;
+        if (policyIndex.contains(policyPath)) {
+            try {
+                decisions = new WorldDecisions(compiledPolicies.getPolicy(repo, policyPath), usecaseRegistry.size());
+            } catch (NoSuchNodeException e) {
+                log.warn("No such policy: " + policyPath + " (" + repo + ")");
+            }
+        }
+        trieNode.decisions = decisions;
+    }
+
+    /**
+     * Discard all decisions, such that the trie is built again when it is used the next time
+     */
+    public void invalidate() {
+        root = null;
+    }
+
+    /**
+     * Decisions of one policy for world
+     */
+    private static class WorldDecisions {
+
+        private final BitSet decided = new BitSet();
+        private final BitSet granted = new BitSet();
+        private final int numberOfUsecases;
+        private final boolean useInheritedPolicies;
+        private final boolean hasAddresses;
+
+        /**
+         * @param policy Compiled policy
+         * @param numberOfUsecases Number of usecases which are registered after the policy has been compiled
+         */
+        WorldDecisions(CompiledPolicy policy, int numberOfUsecases) {
+            BitSet pending = new BitSet(numberOfUsecases);
+            pending.set(0, numberOfUsecases);
+            policy.authorize(new Identity(), pending, granted);
+            decided.set(0, numberOfUsecases);
+            decided.andNot(pending);
+            this.numberOfUsecases = numberOfUsecases;
+            this.useInheritedPolicies = policy.useInheritedPolicies();
+            this.hasAddresses = policy.hasAddresses();
+        }
+
+        /**
+         * @return GRANTED or DENIED if the policy decides, otherwise INHERIT
+         */
+        int authorize(int usecase) {
+            if (usecase >= 0 && usecase < numberOfUsecases ? decided.get(usecase) : !useInheritedPolicies) {
+                return granted.get(usecase) ? CompiledPolicy.GRANTED : CompiledPolicy.DENIED;
+            }
+            return CompiledPolicy.INHERIT;
+        }
+    }
+
+    /**
+     * Node of trie, which represents one segment of a path and knows the decisions of the policy of this path (if it exists)
+     */
+    private static class TrieNode {
+
+        private final ConcurrentMap<String, TrieNode> children = new ConcurrentHashMap<String, TrieNode>();
+        private volatile WorldDecisions decisions;
+
+        /**
+         *
+         */
+        TrieNode getOrAddChild(String name) {
+            TrieNode child = children.get(name);
+            if (child == null) {
+                child = new TrieNode();
+                children.put(name, child);
+            }
+            return child;
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package org.wyona.security.impl.invalidation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.LogManager;
+
+/**
+ * Invalidation bus between several processes of the same host (or sharing a file system), which appends all events to a shared file and polls this file for events of other processes.
+ * Events are delivered to the listeners of the publishing process immediately and to the listeners of other processes within the poll interval.
+ * The file is compacted by the publishing process once it exceeds its maximum size, whereas the oldest records are dropped and the newer half is kept, such that the file does not grow forever.
+ * A process which has not polled while more than half of the maximum size has been appended misses events, hence the maximum size should exceed the events of several poll intervals.
+ */
+public class FileInvalidationBus extends LocalInvalidationBus {
+
+    private static Logger log = LogManager.getLogger(FileInvalidationBus.class);
+
+    /**
+     * Thread polling the event files of all buses
+     */
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "invalidation-bus-poller");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * Default maximum size of the file in bytes
+     */
+    public static final long DEFAULT_MAX_SIZE = 1024 * 1024;
+
+    // INFO: The file starts with a header consisting of a magic number and a generation, which is incremented whenever the file is compacted
+    private static final int MAGIC = 0x57494e56;
+    private static final int HEADER_LENGTH = 12;
+
+    private final File file;
+    private final long maxSize;
+    private long generation;
+    private long offset;
+    private final Map<String, Long> versions = new HashMap<String, Long>();
+    private ScheduledFuture<?> poller;
+
+    /**
+     * @param file File containing the events, which is created if it does not exist yet. Events which have been appended before are not delivered.
+     * @param pollInterval Interval in milliseconds of polling the file for events of other processes, whereas 0 means that the file is only polled by calling {@link #poll()}
+     */
+    public FileInvalidationBus(File file, long pollInterval) throws IOException {
+        this(file, pollInterval, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * @param file File containing the events, which is created if it does not exist yet. Events which have been appended before are not delivered.
+     * @param pollInterval Interval in milliseconds of polling the file for events of other processes, whereas 0 means that the file is only polled by calling {@link #poll()}
+     * @param maxSize Maximum size of the file in bytes, which is compacted when appending an event would exceed it
+     */
+    public FileInvalidationBus(File file, long pollInterval, long maxSize) throws IOException {
+        this.file = file;
+        this.maxSize = maxSize;
+        synchronized (FileInvalidationBus.class) {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                FileLock lock = raf.getChannel().lock();
+                try {
+                    generation = readGeneration(raf);
+                    offset = raf.length();
+                } finally {
+                    lock.release();
+                }
+            } finally {
+                raf.close();
+            }
+        }
+        if (pollInterval > 0) {
+            poller = scheduler.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    try {
+                        poll();
+                    } catch (Exception e) {
+                        log.error("Polling invalidation events of '" + FileInvalidationBus.this.file + "' failed: " + e.getMessage(), e);
+                    }
+                }
+            }, pollInterval, pollInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Deliver event to the listeners of this process and append it to the shared file
+     * @see org.wyona.security.impl.invalidation.InvalidationBus#publish(String, String, InvalidationListener)
+     */
+    public InvalidationEvent publish(String region, String key, InvalidationListener publisher) {
+        InvalidationEvent event = super.publish(region, key, publisher);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream record = new DataOutputStream(bytes);
+            record.writeInt(0);
+            record.writeUTF(event.getOrigin());
+            record.writeLong(event.getVersion());
+            record.writeUTF(event.getRegion());
+            record.writeUTF(event.getKey());
+            byte[] data = bytes.toByteArray();
+            int length = data.length - 4;
+            data[0] = (byte) (length >>> 24);
+            data[1] = (byte) (length >>> 16);
+            data[2] = (byte) (length >>> 8);
+            data[3] = (byte) length;
+
+            // INFO: File locks are held on behalf of the whole JVM, hence threads are serialized separately
+            synchronized (FileInvalidationBus.class) {
+                RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                try {
+                    FileLock lock = raf.getChannel().lock();
+                    try {
+                        long generation = readGeneration(raf);
+                        if (raf.length() + data.length > maxSize) {
+                            compact(raf, generation + 1);
+                        }
+                        raf.seek(raf.length());
+                        raf.write(data);
+                    } finally {
+                        lock.release();
+                    }
+                } finally {
+                    raf.close();
+                }
+            }
+        } catch (IOException e) {
+            log.error("Appending invalidation event '" + event + "' to '" + file + "' failed: " + e.getMessage(), e);
+        }
+        return event;
+    }
+
+    /**
+     * Deliver all events of other processes which have been appended since the last poll
+     * @return Number of delivered events
+     */
+    public synchronized int poll() throws IOException {
+        List<InvalidationEvent> events = new ArrayList<InvalidationEvent>();
+        // INFO: The file is read while holding a shared lock, such that it is not compacted concurrently, whereas events are delivered after releasing the lock, because listeners might publish events
+        synchronized (FileInvalidationBus.class) {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                FileLock lock = raf.getChannel().lock(0, Long.MAX_VALUE, true);
+                try {
+                    read(raf, events);
+                } finally {
+                    lock.release();
+                }
+            } finally {
+                raf.close();
+            }
+        }
+
+        int delivered = 0;
+        for (InvalidationEvent event : events) {
+            if (event.getOrigin().equals(getOrigin())) {
+                continue;
+            }
+            Long lastVersion = versions.get(event.getOrigin());
+            if (lastVersion != null && event.getVersion() <= lastVersion.longValue()) {
+                // INFO: Records which are kept by compacting the file are read again
+                if (log.isDebugEnabled()) log.debug("Event has been delivered already: " + event);
+                continue;
+            }
+            if (lastVersion != null && event.getVersion() > lastVersion.longValue() + 1) {
+                log.warn("Events of origin '" + event.getOrigin() + "' have been missed, because '" + file + "' has been compacted before they have been polled (Last delivered version: " + lastVersion + ", next version: " + event.getVersion() + ")");
+            }
+            versions.put(event.getOrigin(), Long.valueOf(event.getVersion()));
+            deliver(event, null);
+            delivered++;
+        }
+        return delivered;
+    }
+
+    /**
+     * Read all records which have been appended since the last poll, whereas all kept records are read again if the file has been compacted
+     * @param events Events to which the read events are added
+     */
+    private void read(RandomAccessFile raf, List<InvalidationEvent> events) throws IOException {
+        long length = raf.length();
+        raf.seek(0);
+        long generation = length >= HEADER_LENGTH && raf.readInt() == MAGIC ? raf.readLong() : -1;
+        if (generation < 0) {
+            log.warn("'" + file + "' does not start with a valid header, hence it is ignored until the next event is published.");
+            this.generation = generation;
+            offset = length;
+            return;
+        }
+        if (generation != this.generation || offset > length) {
+            log.info("'" + file + "' has been compacted, hence the kept records are read again.");
+            this.generation = generation;
+            offset = HEADER_LENGTH;
+        }
+        raf.seek(offset);
+        // INFO: A record which is being appended right now is read at the next poll
+        while (offset + 4 <= length) {
+            int recordLength = raf.readInt();
+            if (offset + 4 + recordLength > length) {
+                break;
+            }
+            byte[] data = new byte[recordLength];
+            raf.readFully(data);
+            offset += 4 + recordLength;
+
+            DataInputStream record = new DataInputStream(new ByteArrayInputStream(data));
+            events.add(new InvalidationEvent(record.readUTF(), record.readLong(), record.readUTF(), record.readUTF()));
+        }
+    }
+
+    /**
+     * Read generation of file, whereas the header is written if the file is empty or does not start with a valid header (e.g. because it has been written by a previous version)
+     * @param raf File, which has to be locked exclusively
+     */
+    private long readGeneration(RandomAccessFile raf) throws IOException {
+        long length = raf.length();
+        if (length >= HEADER_LENGTH) {
+            raf.seek(0);
+            if (raf.readInt() == MAGIC) {
+                return raf.readLong();
+            }
+        }
+        if (length > 0) {
+            log.warn("'" + file + "' does not start with a valid header, hence its records are dropped.");
+        }
+        raf.setLength(0);
+        raf.seek(0);
+        raf.writeInt(MAGIC);
+        raf.writeLong(0);
+        return 0;
+    }
+
+    /**
+     * Compact file by dropping the oldest records, such that at most half of the maximum size is kept.
+     * Buses notice the incremented generation and read the kept records again, whereas events which have been delivered already are skipped by their versions.
+     * @param raf File, which has to be locked exclusively
+     * @param generation New generation of file
+     */
+    private void compact(RandomAccessFile raf, long generation) throws IOException {
+        long length = raf.length();
+        long start = HEADER_LENGTH;
+        while (length - start > maxSize / 2 && start + 4 <= length) {
+            raf.seek(start);
+            start += 4 + raf.readInt();
+        }
+        byte[] kept = new byte[(int) Math.max(0, length - start)];
+        raf.seek(Math.min(start, length));
+        raf.readFully(kept);
+        raf.seek(0);
+        raf.writeInt(MAGIC);
+        raf.writeLong(generation);
+        raf.write(kept);
+        raf.setLength(HEADER_LENGTH + kept.length);
+        log.info("'" + file + "' has been compacted from " + length + " to " + raf.length() + " bytes (Generation: " + generation + ")");
+    }
+
+    /**
+     * Stop polling the file
+     */
+    public synchronized void close() {
+        if (poller != null) {
+            poller.cancel(false);
+            poller = null;
+        }
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    public String toString() {
+        return "File invalidation bus: " + file;
+    }
+}
@@ -0,0 +1,29 @@
+package org.wyona.security.impl.invalidation;
+
+/**
+ * Service provider interface to distribute invalidation events between the caches of policy managers, user managers and group managers, e.g. of several application nodes sharing the same repositories.
+ * A published event is delivered to all subscribed listeners except the publishing listener, which has evicted its own entry already.
+ */
+public interface InvalidationBus {
+
+    /**
+     * Publish that a cached entry has been modified or removed
+     * @param region Region of cached entry, e.g. {@link InvalidationEvent#POLICY}
+     * @param key Key of cached entry within its region
+     * @param publisher Listener of the publishing cache, to which the event is not delivered, or null
+     * @return Published event
+     */
+    public InvalidationEvent publish(String region, String key, InvalidationListener publisher);
+
+    /**
+     * Subscribe to all events
+     * @param listener Listener
+     */
+    public void subscribe(InvalidationListener listener);
+
+    /**
+     * Unsubscribe from events
+     * @param listener Listener which has been subscribed
+     */
+    public void unsubscribe(InvalidationListener listener);
+}
@@ -0,0 +1,77 @@
+package org.wyona.security.impl.invalidation;
+
+/**
+ * Event announcing that a cached entry has been modified or removed, such that receivers can evict exactly this entry (see {@link InvalidationBus})
+ */
+public class InvalidationEvent {
+
+    /**
+     * Region of policies, whereas the key is the path of the policy node, e.g. "/hello/world.html.policy"
+     */
+    public static final String POLICY = "policy";
+    /**
+     * Region of the policy map, whereas the key is the path of the policy map
+     */
+    public static final String POLICY_MAP = "policy-map";
+    /**
+     * Region of users, whereas the key is the user ID
+     */
+    public static final String USER = "user";
+    /**
+     * Region of groups, whereas the key is the group ID
+     */
+    public static final String GROUP = "group";
+
+    private final String origin;
+    private final long version;
+    private final String region;
+    private final String key;
+
+    /**
+     * @param origin ID of the bus which has published the event
+     * @param version Version of the event, which is incremented by one for every event of the same origin
+     * @param region Region of cached entry, e.g. {@link #POLICY}
+     * @param key Key of cached entry within its region
+     */
+    public InvalidationEvent(String origin, long version, String region, String key) {
+        this.origin = origin;
+        this.version = version;
+        this.region = region;
+        this.key = key;
+    }
+
+    /**
+     * Get ID of the bus which has published the event
+     */
+    public String getOrigin() {
+        return origin;
+    }
+
+    /**
+     * Get version of the event, which is incremented by one for every event of the same origin
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Get region of cached entry, e.g. {@link #POLICY}
+     */
+    public String getRegion() {
+        return region;
+    }
+
+    /**
+     * Get key of cached entry within its region
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    public String toString() {
+        return "Origin: " + origin + ", Version: " + version + ", Region: " + region + ", Key: " + key;
+    }
+}
@@ -0,0 +1,13 @@
+package org.wyona.security.impl.invalidation;
+
+/**
+ * Receiver of invalidation events (see {@link InvalidationBus#subscribe(InvalidationListener)})
+ */
+public interface InvalidationListener {
+
+    /**
+     * Evict the cached entry of an event. Implementations are called by the thread delivering the events, hence evicting must be thread-safe and must not block.
+     * @param event Invalidation event
+     */
+    public void invalidate(InvalidationEvent event);
+}
@@ -0,0 +1,68 @@
+package org.wyona.security.impl.invalidation;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.LogManager;
+
+/**
+ * Invalidation bus within one JVM, which delivers events synchronously by the publishing thread
+ */
+public class LocalInvalidationBus implements InvalidationBus {
+
+    private static Logger log = LogManager.getLogger(LocalInvalidationBus.class);
+
+    private final String origin = UUID.randomUUID().toString();
+    private final AtomicLong version = new AtomicLong();
+    private final List<InvalidationListener> listeners = new CopyOnWriteArrayList<InvalidationListener>();
+
+    /**
+     * @see org.wyona.security.impl.invalidation.InvalidationBus#publish(String, String, InvalidationListener)
+     */
+    public InvalidationEvent publish(String region, String key, InvalidationListener publisher) {
+        InvalidationEvent event = new InvalidationEvent(origin, version.incrementAndGet(), region, key);
+        if (log.isDebugEnabled()) log.debug("Publish event: " + event);
+        deliver(event, publisher);
+        return event;
+    }
+
+    /**
+     * @see org.wyona.security.impl.invalidation.InvalidationBus#subscribe(InvalidationListener)
+     */
+    public void subscribe(InvalidationListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @see org.wyona.security.impl.invalidation.InvalidationBus#unsubscribe(InvalidationListener)
+     */
+    public void unsubscribe(InvalidationListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Get ID of this bus, which is the origin of all events published by this bus
+     */
+    public String getOrigin() {
+        return origin;
+    }
+
+    /**
+     * Deliver event to all subscribed listeners, whereas a failing listener does not prevent the delivery to the other listeners
+     * @param publisher Listener to which the event is not delivered, or null
+     */
+    protected void deliver(InvalidationEvent event, InvalidationListener publisher) {
+        for (InvalidationListener listener : listeners) {
+            if (listener != publisher) {
+                try {
+                    listener.invalidate(event);
+                } catch (RuntimeException e) {
+                    log.error("Delivering event '" + event + "' failed: " + e.getMessage(), e);
+                }
+            }
+        }
+    }
+}
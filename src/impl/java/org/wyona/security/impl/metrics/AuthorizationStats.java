@@ -0,0 +1,68 @@
+package org.wyona.security.impl.metrics;
+
+/**
+ * Statistics of one authorization decision. An instance is only used by the thread which evaluates the decision.
+ */
+public class AuthorizationStats {
+
+    private int levels;
+    private int existsNodeCalls;
+    private int getNodeCalls;
+    private boolean cached;
+
+    /**
+     * Count policy level which has been checked
+     */
+    public void incrementLevels() {
+        levels++;
+    }
+
+    /**
+     * Count call of Repository#existsNode(String)
+     */
+    public void incrementExistsNodeCalls() {
+        existsNodeCalls++;
+    }
+
+    /**
+     * Count call of Repository#getNode(String)
+     */
+    public void incrementGetNodeCalls() {
+        getNodeCalls++;
+    }
+
+    /**
+     * Mark decision as answered by decision cache
+     */
+    public void setCached(boolean cached) {
+        this.cached = cached;
+    }
+
+    /**
+     * Get number of policy levels (path and ancestors) which have been checked
+     */
+    public int getLevels() {
+        return levels;
+    }
+
+    /**
+     * Get number of calls of Repository#existsNode(String)
+     */
+    public int getExistsNodeCalls() {
+        return existsNodeCalls;
+    }
+
+    /**
+     * Get number of calls of Repository#getNode(String)
+     */
+    public int getGetNodeCalls() {
+        return getNodeCalls;
+    }
+
+    /**
+     * Check whether decision has been answered by decision cache
+     */
+    public boolean isCached() {
+        return cached;
+    }
+}
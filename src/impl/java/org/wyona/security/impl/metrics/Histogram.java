@@ -0,0 +1,116 @@
+package org.wyona.security.impl.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of non-negative values with log-linear buckets (similar to HdrHistogram), whereas every power of two is divided into 16 linear sub-buckets, such that percentiles have a relative error of at most 6.25%.
+ * Recording a value costs three atomic increments (bucket, count and sum) plus a compare-and-set loop for the maximum, which only retries if the maximum grows concurrently, and does not allocate.
+ */
+public class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int NUMBER_OF_BUCKETS = SUB_BUCKET_COUNT + (63 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(NUMBER_OF_BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record value
+     * @param value Value, whereas negative values are recorded as 0
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        buckets.incrementAndGet(getBucket(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long currentMax = max.get();
+        while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+            currentMax = max.get();
+        }
+    }
+
+    /**
+     * Get number of recorded values
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Get mean of recorded values
+     */
+    public double getMean() {
+        long c = count.get();
+        return c > 0 ? (double) sum.get() / c : 0;
+    }
+
+    /**
+     * Get maximum of recorded values
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Get percentile
+     * @param percentile Percentile between 0 and 100, e.g. 99.9
+     * @return Upper bound of bucket containing the percentile (but at most the maximum), or 0 if no values have been recorded
+     */
+    public long getPercentile(double percentile) {
+        long c = count.get();
+        if (c == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(percentile / 100 * c));
+        long cumulative = 0;
+        for (int i = 0; i < NUMBER_OF_BUCKETS; i++) {
+            cumulative += buckets.get(i);
+            if (cumulative >= target) {
+                return Math.min(getUpperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Reset histogram. Values which are recorded concurrently might be lost partially.
+     */
+    public void reset() {
+        for (int i = 0; i < NUMBER_OF_BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    /**
+     * Get index of bucket of a value
+     */
+    static int getBucket(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) & (SUB_BUCKET_COUNT - 1);
+        return SUB_BUCKET_COUNT + shift * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    /**
+     * Get highest value of a bucket
+     */
+    static long getUpperBound(int bucket) {
+        if (bucket < SUB_BUCKET_COUNT) {
+            return bucket;
+        }
+        int shift = (bucket - SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT;
+        int subBucket = (bucket - SUB_BUCKET_COUNT) % SUB_BUCKET_COUNT;
+        return ((long) (SUB_BUCKET_COUNT + subBucket + 1) << shift) - 1;
+    }
+}
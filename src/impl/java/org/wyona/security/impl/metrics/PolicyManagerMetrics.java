@@ -0,0 +1,35 @@
+package org.wyona.security.impl.metrics;
+
+/**
+ * Service provider interface to record metrics of a policy manager (see {@link org.wyona.security.impl.PolicyManagerImplVersion2#setMetrics(PolicyManagerMetrics)}).
+ * Implementations are called on the request path by many threads concurrently, hence recording must be thread-safe and cheap.
+ */
+public interface PolicyManagerMetrics {
+
+    /**
+     * Name under which authorizations of requested usecases are recorded, which are not registered (i.e. neither configured nor contained by a policy), such that arbitrary usecase names cannot grow the metrics
+     */
+    public static final String OTHER_USECASES = "(other)";
+
+    /**
+     * Record an authorization decision
+     * @param usecase Name of usecase or {@link #OTHER_USECASES}
+     * @param durationNanos Duration of authorization in nanoseconds
+     * @param granted Decision
+     * @param stats Ancestor levels and repository accesses of this decision
+     */
+    public void recordAuthorization(String usecase, long durationNanos, boolean granted, AuthorizationStats stats);
+
+    /**
+     * Record parsing and compiling of a policy
+     * @param policyPath Path of policy node
+     * @param durationNanos Duration in nanoseconds
+     */
+    public void recordPolicyCompilation(String policyPath, long durationNanos);
+
+    /**
+     * Record matching of a path against the policy map
+     * @param durationNanos Duration in nanoseconds
+     */
+    public void recordPolicyMapMatch(long durationNanos);
+}
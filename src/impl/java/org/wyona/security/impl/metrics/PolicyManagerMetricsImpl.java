@@ -0,0 +1,262 @@
+package org.wyona.security.impl.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.LogManager;
+
+/**
+ * Default implementation of policy manager metrics, which keeps lock-free histograms (see {@link Histogram}) and can be registered as JMX MBean, e.g. as "org.wyona.security:type=PolicyManager,name=realm-policies"
+ */
+public class PolicyManagerMetricsImpl implements PolicyManagerMetrics, PolicyManagerMetricsImplMBean {
+
+    private static Logger log = LogManager.getLogger(PolicyManagerMetricsImpl.class);
+
+    public static final String OBJECT_NAME_PREFIX = "org.wyona.security:type=PolicyManager,name=";
+
+    private final Histogram authorizations = new Histogram();
+    private final ConcurrentMap<String, Histogram> authorizationsByUsecase = new ConcurrentHashMap<String, Histogram>();
+    private final Histogram levels = new Histogram();
+    private final Histogram existsNodeCalls = new Histogram();
+    private final Histogram getNodeCalls = new Histogram();
+    private final Histogram repositoryAccesses = new Histogram();
+    private final Histogram compilations = new Histogram();
+    private final Histogram policyMapMatches = new Histogram();
+    private final AtomicLong granted = new AtomicLong();
+    private final AtomicLong cached = new AtomicLong();
+
+    private ObjectName objectName;
+
+    /**
+     * @see org.wyona.security.impl.metrics.PolicyManagerMetrics#recordAuthorization(String, long, boolean, AuthorizationStats)
+     */
+    public void recordAuthorization(String usecase, long durationNanos, boolean granted, AuthorizationStats stats) {
+        authorizations.record(durationNanos);
+        getHistogram(usecase).record(durationNanos);
+        if (granted) {
+            this.granted.incrementAndGet();
+        }
+        if (stats != null) {
+            if (stats.isCached()) {
+                cached.incrementAndGet();
+            } else {
+                levels.record(stats.getLevels());
+                existsNodeCalls.record(stats.getExistsNodeCalls());
+                getNodeCalls.record(stats.getGetNodeCalls());
+                repositoryAccesses.record(stats.getExistsNodeCalls() + stats.getGetNodeCalls());
+            }
+        }
+    }
+
+    /**
+     * @see org.wyona.security.impl.metrics.PolicyManagerMetrics#recordPolicyCompilation(String, long)
+     */
+    public void recordPolicyCompilation(String policyPath, long durationNanos) {
+        compilations.record(durationNanos);
+    }
+
+    /**
+     * @see org.wyona.security.impl.metrics.PolicyManagerMetrics#recordPolicyMapMatch(long)
+     */
+    public void recordPolicyMapMatch(long durationNanos) {
+        policyMapMatches.record(durationNanos);
+    }
+
+    /**
+     * Get histogram of authorization latency of a particular usecase
+     * @param usecase Name of usecase or {@link PolicyManagerMetrics#OTHER_USECASES}, whereas the policy manager records only registered usecases by name, such that the number of histograms is bounded
+     */
+    public Histogram getHistogram(String usecase) {
+        Histogram histogram = authorizationsByUsecase.get(usecase);
+        if (histogram == null) {
+            Histogram newHistogram = new Histogram();
+            histogram = authorizationsByUsecase.putIfAbsent(usecase, newHistogram);
+            if (histogram == null) {
+                histogram = newHistogram;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Get histogram of authorization latency (in nanoseconds) of all usecases
+     */
+    public Histogram getAuthorizations() {
+        return authorizations;
+    }
+
+    /**
+     * Get histogram of policy levels which have been checked per decision
+     */
+    public Histogram getLevels() {
+        return levels;
+    }
+
+    /**
+     * Get histogram of repository accesses (existsNode and getNode) per decision
+     */
+    public Histogram getRepositoryAccesses() {
+        return repositoryAccesses;
+    }
+
+    /**
+     * Get histogram of durations (in nanoseconds) of parsing and compiling policies
+     */
+    public Histogram getCompilations() {
+        return compilations;
+    }
+
+    /**
+     * Get histogram of durations (in nanoseconds) of matching paths against the policy map
+     */
+    public Histogram getPolicyMapMatches() {
+        return policyMapMatches;
+    }
+
+    /**
+     * Register these metrics as MBean of the platform MBean server
+     * @param name Name of policy manager, e.g. name of realm
+     */
+    public synchronized void registerMBean(String name) throws Exception {
+        unregisterMBean();
+        ObjectName objectName = new ObjectName(OBJECT_NAME_PREFIX + ObjectName.quote(name));
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        if (server.isRegistered(objectName)) {
+            log.warn("MBean '" + objectName + "' is already registered and will be replaced.");
+            server.unregisterMBean(objectName);
+        }
+        server.registerMBean(this, objectName);
+        this.objectName = objectName;
+        log.info("Policy manager metrics have been registered as MBean: " + objectName);
+    }
+
+    /**
+     * Unregister MBean if it has been registered
+     */
+    public synchronized void unregisterMBean() {
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (Exception e) {
+                log.warn("Unregistering MBean '" + objectName + "' failed: " + e.getMessage());
+            }
+            objectName = null;
+        }
+    }
+
+    public long getAuthorizationCount() {
+        return authorizations.getCount();
+    }
+
+    public long getGrantedCount() {
+        return granted.get();
+    }
+
+    public long getDeniedCount() {
+        return authorizations.getCount() - granted.get();
+    }
+
+    public double getAuthorizationMeanMicros() {
+        return authorizations.getMean() / 1000;
+    }
+
+    public long getAuthorizationP50Micros() {
+        return authorizations.getPercentile(50) / 1000;
+    }
+
+    public long getAuthorizationP99Micros() {
+        return authorizations.getPercentile(99) / 1000;
+    }
+
+    public long getAuthorizationP999Micros() {
+        return authorizations.getPercentile(99.9) / 1000;
+    }
+
+    public long getAuthorizationMaxMicros() {
+        return authorizations.getMax() / 1000;
+    }
+
+    public String getAuthorizationP99MicrosByUsecase() {
+        StringBuilder sb = new StringBuilder();
+        Iterator<Map.Entry<String, Histogram>> it = new TreeMap<String, Histogram>(authorizationsByUsecase).entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Histogram> entry = it.next();
+            sb.append(entry.getKey()).append("=").append(entry.getValue().getPercentile(99) / 1000);
+            if (it.hasNext()) {
+                sb.append(", ");
+            }
+        }
+        return sb.toString();
+    }
+
+    public double getLevelsMean() {
+        return levels.getMean();
+    }
+
+    public long getLevelsP99() {
+        return levels.getPercentile(99);
+    }
+
+    public double getExistsNodeCallsMean() {
+        return existsNodeCalls.getMean();
+    }
+
+    public double getGetNodeCallsMean() {
+        return getNodeCalls.getMean();
+    }
+
+    public long getRepositoryAccessesP99() {
+        return repositoryAccesses.getPercentile(99);
+    }
+
+    public long getPolicyCompilationCount() {
+        return compilations.getCount();
+    }
+
+    public double getPolicyCompilationMeanMicros() {
+        return compilations.getMean() / 1000;
+    }
+
+    public long getPolicyCompilationMaxMicros() {
+        return compilations.getMax() / 1000;
+    }
+
+    public long getPolicyMapMatchCount() {
+        return policyMapMatches.getCount();
+    }
+
+    public double getPolicyMapMatchMeanMicros() {
+        return policyMapMatches.getMean() / 1000;
+    }
+
+    public long getPolicyMapMatchP99Micros() {
+        return policyMapMatches.getPercentile(99) / 1000;
+    }
+
+    public double getDecisionCacheHitRatio() {
+        long count = authorizations.getCount();
+        return count > 0 ? (double) cached.get() / count : 0;
+    }
+
+    public void reset() {
+        authorizations.reset();
+        authorizationsByUsecase.clear();
+        levels.reset();
+        existsNodeCalls.reset();
+        getNodeCalls.reset();
+        repositoryAccesses.reset();
+        compilations.reset();
+        policyMapMatches.reset();
+        granted.set(0);
+        cached.set(0);
+    }
+}
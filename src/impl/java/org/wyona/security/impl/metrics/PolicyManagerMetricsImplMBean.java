@@ -0,0 +1,60 @@
+package org.wyona.security.impl.metrics;
+
+/**
+ * JMX management interface of {@link PolicyManagerMetricsImpl}, whereas durations are in microseconds
+ */
+public interface PolicyManagerMetricsImplMBean {
+
+    public long getAuthorizationCount();
+
+    public long getGrantedCount();
+
+    public long getDeniedCount();
+
+    public double getAuthorizationMeanMicros();
+
+    public long getAuthorizationP50Micros();
+
+    public long getAuthorizationP99Micros();
+
+    public long getAuthorizationP999Micros();
+
+    public long getAuthorizationMaxMicros();
+
+    /**
+     * Get 99th percentile of authorization latency per usecase, e.g. "view=12, write=40"
+     */
+    public String getAuthorizationP99MicrosByUsecase();
+
+    public double getLevelsMean();
+
+    public long getLevelsP99();
+
+    public double getExistsNodeCallsMean();
+
+    public double getGetNodeCallsMean();
+
+    public long getRepositoryAccessesP99();
+
+    public long getPolicyCompilationCount();
+
+    public double getPolicyCompilationMeanMicros();
+
+    public long getPolicyCompilationMaxMicros();
+
+    public long getPolicyMapMatchCount();
+
+    public double getPolicyMapMatchMeanMicros();
+
+    public long getPolicyMapMatchP99Micros();
+
+    /**
+     * Get ratio of authorizations answered by the decision cache
+     */
+    public double getDecisionCacheHitRatio();
+
+    /**
+     * Reset all histograms and counters
+     */
+    public void reset();
+}
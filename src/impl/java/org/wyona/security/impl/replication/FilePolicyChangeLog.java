@@ -0,0 +1,204 @@
+package org.wyona.security.impl.replication;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.LogManager;
+
+/**
+ * Change log inside a directory of the local file system, e.g. a directory which is shared by several application nodes.
+ * Every change is written as a file of its own, named by its version, and the latest version is kept inside the file 'latest'.
+ * The next version is derived from the file 'latest' and from the existing change files, such that a change file is never replaced, even if the file 'latest' is stale.
+ * Appending is serialized by a file lock, such that several processes can append to the same directory.
+ */
+public class FilePolicyChangeLog implements PolicyChangeLog {
+
+    private static Logger log = LogManager.getLogger(FilePolicyChangeLog.class);
+
+    private static final String CHANGE_SUFFIX = ".change";
+    private static final String LATEST_FILE = "latest";
+    private static final String LOCK_FILE = "lock";
+
+    private final File dir;
+
+    /**
+     * @param dir Directory containing the changes, which is created if it does not exist yet
+     */
+    public FilePolicyChangeLog(File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create change log directory: " + dir);
+        }
+        this.dir = dir;
+    }
+
+    /**
+     * @see org.wyona.security.impl.replication.PolicyChangeLog#append(int, String, byte[])
+     */
+    public long append(int type, String path, byte[] content) throws IOException {
+        // INFO: File locks are held on behalf of the whole JVM, hence threads are serialized separately
+        synchronized (FilePolicyChangeLog.class) {
+            RandomAccessFile lockFile = new RandomAccessFile(new File(dir, LOCK_FILE), "rw");
+            try {
+                FileLock lock = lockFile.getChannel().lock();
+                try {
+                    // INFO: The file 'latest' lags behind if a process terminated after writing a change file, hence existing change files are never reused
+                    long version = Math.max(getLatestVersion(), getHighestChangeVersion()) + 1;
+                    long timestamp = System.currentTimeMillis();
+                    File tmpFile = new File(dir, getFileName(version) + ".tmp");
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+                    try {
+                        out.writeInt(type);
+                        out.writeUTF(path);
+                        out.writeLong(timestamp);
+                        if (content != null) {
+                            out.writeInt(content.length);
+                            out.write(content);
+                        } else {
+                            out.writeInt(-1);
+                        }
+                    } finally {
+                        out.close();
+                    }
+                    File changeFile = new File(dir, getFileName(version));
+                    if (changeFile.exists()) {
+                        tmpFile.delete();
+                        throw new IOException("Change file exists already: " + changeFile);
+                    }
+                    if (!tmpFile.renameTo(changeFile)) {
+                        throw new IOException("Could not rename '" + tmpFile + "' to '" + changeFile + "'");
+                    }
+                    writeLatestVersion(version);
+                    if (log.isDebugEnabled()) log.debug("Change appended: " + version + ", " + type + ", " + path);
+                    return version;
+                } finally {
+                    lock.release();
+                }
+            } finally {
+                lockFile.close();
+            }
+        }
+    }
+
+    /**
+     * @see org.wyona.security.impl.replication.PolicyChangeLog#getChanges(long, int)
+     */
+    public List<PolicyChange> getChanges(long fromVersion, int maxChanges) throws IOException {
+        List<PolicyChange> changes = new ArrayList<PolicyChange>();
+        for (long version = Math.max(fromVersion, 1); changes.size() < maxChanges; version++) {
+            File file = new File(dir, getFileName(version));
+            if (!file.isFile()) {
+                break;
+            }
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                int type = in.readInt();
+                String path = in.readUTF();
+                long timestamp = in.readLong();
+                int length = in.readInt();
+                byte[] content = null;
+                if (length >= 0) {
+                    content = new byte[length];
+                    in.readFully(content);
+                }
+                changes.add(new PolicyChange(version, type, path, content, timestamp));
+            } finally {
+                in.close();
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * @see org.wyona.security.impl.replication.PolicyChangeLog#getLatestVersion()
+     */
+    public long getLatestVersion() throws IOException {
+        File file = new File(dir, LATEST_FILE);
+        if (!file.isFile()) {
+            return 0;
+        }
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            return in.readLong();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Get highest version of all change files
+     * @return Highest version or 0 if there are no change files yet
+     */
+    private long getHighestChangeVersion() throws IOException {
+        String[] names = dir.list();
+        if (names == null) {
+            throw new IOException("Could not list change log directory: " + dir);
+        }
+        long highest = 0;
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].endsWith(CHANGE_SUFFIX)) {
+                try {
+                    highest = Math.max(highest, Long.parseLong(names[i].substring(0, names[i].length() - CHANGE_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    log.warn("Ignore file which is not a change: " + new File(dir, names[i]));
+                }
+            }
+        }
+        return highest;
+    }
+
+    /**
+     * Replace latest version
+     */
+    private void writeLatestVersion(long version) throws IOException {
+        File tmpFile = new File(dir, LATEST_FILE + ".tmp");
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(tmpFile));
+        try {
+            out.writeLong(version);
+        } finally {
+            out.close();
+        }
+        rename(tmpFile, new File(dir, LATEST_FILE));
+    }
+
+    /**
+     * Rename file, whereas an existing target file is replaced (only used for the file 'latest', change files are never replaced)
+     */
+    private void rename(File from, File to) throws IOException {
+        if (to.exists() && !to.delete()) {
+            throw new IOException("Could not replace: " + to);
+        }
+        if (!from.renameTo(to)) {
+            throw new IOException("Could not rename '" + from + "' to '" + to + "'");
+        }
+    }
+
+    /**
+     * Get name of change file, such that the files are sorted by version
+     */
+    private static String getFileName(long version) {
+        String number = Long.toString(version);
+        StringBuilder sb = new StringBuilder();
+        for (int i = number.length(); i < 20; i++) {
+            sb.append('0');
+        }
+        return sb.append(number).append(CHANGE_SUFFIX).toString();
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    public String toString() {
+        return "File change log: " + dir;
+    }
+}
@@ -0,0 +1,84 @@
+package org.wyona.security.impl.replication;
+
+/**
+ * Change of a policy node or of the policy map, which has been appended to a change log (see {@link PolicyChangeLog})
+ */
+public class PolicyChange {
+
+    /**
+     * Policy has been added or modified
+     */
+    public static final int SET = 1;
+    /**
+     * Policy has been removed
+     */
+    public static final int REMOVE = 2;
+    /**
+     * Policy map has been added, modified or removed
+     */
+    public static final int POLICY_MAP = 3;
+
+    private final long version;
+    private final int type;
+    private final String path;
+    private final byte[] content;
+    private final long timestamp;
+
+    /**
+     * @param version Version of change
+     * @param type Type of change, e.g. {@link #SET}
+     * @param path Path of policy node or of policy map inside the policies repository, e.g. "/hello/world.html.policy"
+     * @param content Content of node or null if the node has been removed
+     * @param timestamp Time when the change has been appended
+     */
+    public PolicyChange(long version, int type, String path, byte[] content, long timestamp) {
+        this.version = version;
+        this.type = type;
+        this.path = path;
+        this.content = content;
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * Get version, which is incremented by one for every change
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Get type of change, e.g. {@link #SET}
+     */
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * Get path of policy node or of policy map, e.g. "/hello/world.html.policy"
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Get content of node
+     * @return Content or null if the node has been removed
+     */
+    public byte[] getContent() {
+        return content;
+    }
+
+    /**
+     * Get time when the change has been appended
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    public String toString() {
+        return "Version: " + version + ", Type: " + type + ", Path: " + path;
+    }
+}
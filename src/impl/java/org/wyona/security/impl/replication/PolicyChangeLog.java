@@ -0,0 +1,34 @@
+package org.wyona.security.impl.replication;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Service provider interface of a log of policy changes (see {@link org.wyona.security.impl.PolicyManagerImplVersion2#setChangeLog(PolicyChangeLog)}), such that replicas of a policies repository can apply the changes from a particular version onward (see {@link org.wyona.security.impl.PolicyManagerImplVersion2#applyChanges(PolicyChangeLog, long)}).
+ * Every appended change gets the next version, starting with 1, and implementations must be thread-safe.
+ */
+public interface PolicyChangeLog {
+
+    /**
+     * Append change
+     * @param type Type of change, e.g. {@link PolicyChange#SET}
+     * @param path Path of policy node or of policy map, e.g. "/hello/world.html.policy"
+     * @param content Content of node or null if the node has been removed
+     * @return Version of appended change
+     */
+    public long append(int type, String path, byte[] content) throws IOException;
+
+    /**
+     * Get changes in the order of their versions
+     * @param fromVersion Version of first change
+     * @param maxChanges Maximum number of changes
+     * @return Changes starting with the given version, which is empty if there are no such changes yet
+     */
+    public List<PolicyChange> getChanges(long fromVersion, int maxChanges) throws IOException;
+
+    /**
+     * Get version of the latest change
+     * @return Version or 0 if no change has been appended yet
+     */
+    public long getLatestVersion() throws IOException;
+}
@@ -1,25 +1,68 @@
 package org.wyona.security.impl.util;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.wyona.security.core.AuthorizationException;
+import org.wyona.security.core.GroupPolicy;
+import org.wyona.security.core.IdentityPolicy;
+import org.wyona.security.core.ItemPolicy;
 import org.wyona.security.core.UsecasePolicy;
 import org.wyona.security.core.api.Policy;
 import org.wyona.security.core.api.PolicyManager;
-/*
-import org.wyona.security.core.GroupPolicy;
-import org.wyona.security.core.api.Identity;
-*/
+import org.wyona.security.impl.ImmutablePolicy;
+import org.wyona.security.impl.PolicyImplV2;
 
 import org.wyona.commons.io.PathUtil;
 
 import org.apache.log4j.Logger;
 
 /**
- * Utility class to aggregate policies based on their parent policies
+ * Utility class to aggregate policies based on their parent policies.
+ * An instance memoizes the aggregated policy of every path, such that the aggregated policy of a child is computed from the memoized aggregated policy of its parent.
+ * Memoized aggregated policies are immutable (see {@link ImmutablePolicy}) and share unchanged usecase policies with the aggregated policy of their parent, whereas callers get a mutable copy (see {@link #getAggregatedPolicy(String)}), unless they opt in to the shared policy (see {@link #getAggregatedPolicyReadOnly(String)}).
  */
 public class PolicyAggregator {
 
     private static Logger log = Logger.getLogger(PolicyAggregator.class);
 
+    /**
+     * Marks a path without policy, neither its own nor an inherited one
+     */
+    private static final Object NO_POLICY = new Object();
+
+    private final PolicyManager pm;
+    private volatile ExecutorService executor;
+    private static final int MAX_SIZE = 10000;
+
+    private final ConcurrentMap<String, Object> aggregatedPolicies = new ConcurrentHashMap<String, Object>();
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * @param pm Policy manager from which the policies of the individual paths are read (see {@link PolicyManager#getPolicy(String, boolean)})
+     * @param executor Executor in order to read uncached ancestor policies concurrently, whereas null means they are read sequentially
+     */
+    public PolicyAggregator(PolicyManager pm, ExecutorService executor) {
+        this.pm = pm;
+        this.executor = executor;
+    }
+
+    /**
+     * Set executor in order to read uncached ancestor policies concurrently
+     * @param executor Executor, whereas null means they are read sequentially
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
     /**
      *
      */
@@ -28,51 +71,206 @@ public class PolicyAggregator {
     }
 
     /**
-     * Aggregate policies
+     * Aggregate policies without memoizing them
+     * @return Copy of aggregated policy, which the caller may modify, or null if there are no policies at all
      */
     public static Policy aggregatePolicy(String path, PolicyManager pm) throws AuthorizationException {
+        Policy aggregated = aggregateImmutablePolicy(path, pm);
+        return aggregated != null ? copy(aggregated) : null;
+    }
+
+    /**
+     * Aggregate policies without memoizing them
+     * @return Immutable aggregated policy or null if there are no policies at all
+     */
+    private static Policy aggregateImmutablePolicy(String path, PolicyManager pm) throws AuthorizationException {
         //log.debug("Aggregate policy: " + path);
         Policy policy = pm.getPolicy(path, false);
         if (policy == null) {
             if (!path.equals("/")) {
-                return aggregatePolicy(PathUtil.getParent(path), pm);
+                return aggregateImmutablePolicy(PathUtil.getParent(path), pm);
             } else {
                 log.warn("No policies found at all, not even a root policy!");
                 return null;
             }
         } else {
-            if (!policy.useInheritedPolicies()) {
-                return policy;
+            if (!policy.useInheritedPolicies() || path.equals("/")) {
+                return ImmutablePolicy.copyOf(policy);
             } else {
-                if (!path.equals("/")) {
-                    Policy parentPolicy = aggregatePolicy(PathUtil.getParent(path), pm);
-
-                    UsecasePolicy[] usecasePolicies = policy.getUsecasePolicies();
-                    UsecasePolicy[] parentUsecasePolicies = parentPolicy.getUsecasePolicies();
-                    for (int i = 0; i < parentUsecasePolicies.length; i++) {
-                        boolean usecaseAlreadyExists = false;
-                        for (int k = 0; k < usecasePolicies.length; k++) {
-                            if (parentUsecasePolicies[i].getName().equals(usecasePolicies[k].getName())) {
-                                usecaseAlreadyExists = true;
-                                usecasePolicies[k].merge(parentUsecasePolicies[i]);
-                                break;
-                            }
-                        }
-                        if(!usecaseAlreadyExists) {
-                            try {
-                                policy.addUsecasePolicy(parentUsecasePolicies[i]);
-                            } catch(Exception e) {
-                                log.error(e, e);
-                                throw new AuthorizationException(e.getMessage());
-			    }
-                        }
-                    }
+                return merge(policy, aggregateImmutablePolicy(PathUtil.getParent(path), pm));
+            }
+        }
+    }
+
+    /**
+     * Get aggregated policy, whereas the policies of uncached ancestors are read concurrently
+     * @param path Path, e.g. "/hello/world.html"
+     * @return Copy of aggregated policy, which the caller may modify, or null if there are no policies at all
+     */
+    public Policy getAggregatedPolicy(String path) throws AuthorizationException {
+        Policy aggregated = getMemoizedPolicy(path);
+        return aggregated != null ? copy(aggregated) : null;
+    }
 
-                    return policy;
-                } else {
-                    return policy;
+    /**
+     * Get aggregated policy without copying it, whereas the policies of uncached ancestors are read concurrently
+     * @param path Path, e.g. "/hello/world.html"
+     * @return Shared immutable aggregated policy, whose modification throws an UnsupportedOperationException, or null if there are no policies at all
+     */
+    public Policy getAggregatedPolicyReadOnly(String path) throws AuthorizationException {
+        return getMemoizedPolicy(path);
+    }
+
+    /**
+     * Remove all memoized aggregated policies, e.g. because a policy has been set or removed
+     */
+    public void invalidate() {
+        generation.incrementAndGet();
+        aggregatedPolicies.clear();
+    }
+
+    /**
+     * Get memoized aggregated policy, whereas missing aggregated policies are computed from the top-most uncached ancestor downwards
+     * @return Aggregated policy or null if there are no policies at all
+     */
+    private Policy getMemoizedPolicy(String path) throws AuthorizationException {
+        Object memoized = aggregatedPolicies.get(path);
+        if (memoized != null) {
+            return memoized != NO_POLICY ? (Policy) memoized : null;
+        }
+
+        long currentGeneration = generation.get();
+        if (aggregatedPolicies.size() > MAX_SIZE) {
+            log.warn("More than " + MAX_SIZE + " aggregated policies, hence all will be removed.");
+            aggregatedPolicies.clear();
+        }
+
+        // INFO: Collect path and its ancestors up to the nearest ancestor whose aggregated policy is memoized already
+        List<String> uncachedPaths = new ArrayList<String>();
+        Policy parentAggregated = null;
+        String current = path;
+        while (current != null) {
+            memoized = aggregatedPolicies.get(current);
+            if (memoized != null) {
+                parentAggregated = memoized != NO_POLICY ? (Policy) memoized : null;
+                break;
+            }
+            uncachedPaths.add(current);
+            current = current.equals("/") ? null : PathUtil.getParent(current);
+        }
+
+        Policy[] policies = getPolicies(uncachedPaths);
+        Policy aggregated = null;
+        for (int i = uncachedPaths.size() - 1; i >= 0; i--) {
+            String currentPath = uncachedPaths.get(i);
+            Policy policy = policies[i];
+            if (policy == null) {
+                if (parentAggregated == null && currentPath.equals("/")) {
+                    log.warn("No policies found at all, not even a root policy!");
+                }
+                aggregated = parentAggregated;
+            } else if (!policy.useInheritedPolicies() || parentAggregated == null) {
+                aggregated = ImmutablePolicy.copyOf(policy);
+            } else {
+                aggregated = merge(policy, parentAggregated);
+            }
+            if (generation.get() == currentGeneration) {
+                aggregatedPolicies.put(currentPath, aggregated != null ? aggregated : NO_POLICY);
+            }
+            parentAggregated = aggregated;
+        }
+        return aggregated;
+    }
+
+    /**
+     * Read the policies of several paths, concurrently if an executor is set
+     * @return Policies, whereas an entry is null if the path at the same position has no policy of its own
+     */
+    private Policy[] getPolicies(List<String> paths) throws AuthorizationException {
+        Policy[] policies = new Policy[paths.size()];
+        ExecutorService executor = this.executor;
+        if (executor == null || paths.size() < 2) {
+            for (int i = 0; i < policies.length; i++) {
+                policies[i] = pm.getPolicy(paths.get(i), false);
+            }
+            return policies;
+        }
+
+        List<Future<Policy>> futures = new ArrayList<Future<Policy>>(paths.size());
+        for (final String path : paths) {
+            try {
+                futures.add(executor.submit(new Callable<Policy>() {
+                    public Policy call() throws Exception {
+                        return pm.getPolicy(path, false);
+                    }
+                }));
+            } catch (RejectedExecutionException e) {
+                // INFO: The executor is saturated, hence the remaining policies are read by the current thread
+                if (log.isDebugEnabled()) log.debug("Executor rejected reading policy, hence read it sequentially: " + path);
+                futures.add(null);
+            }
+        }
+        try {
+            for (int i = 0; i < policies.length; i++) {
+                policies[i] = futures.get(i) != null ? futures.get(i).get() : pm.getPolicy(paths.get(i), false);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AuthorizationException("Interrupted while reading policies of " + paths, e);
+        } catch (ExecutionException e) {
+            throw new AuthorizationException("Reading policies of " + paths + " failed: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            for (Future<Policy> future : futures) {
+                if (future != null) {
+                    future.cancel(true);
                 }
             }
         }
+        return policies;
+    }
+
+    /**
+     * Merge a policy with the aggregated policy of its parent, whereas neither of them is modified
+     * @param policy Policy of a path
+     * @param parentPolicy Aggregated policy of the parent
+     * @return New aggregated policy, which shares all unchanged usecase policies with the policy and the parent policy
+     */
+    private static Policy merge(Policy policy, Policy parentPolicy) {
+        return ImmutablePolicy.copyOf(policy).mergedWith(parentPolicy);
+    }
+
+    /**
+     * Create deep copy of a policy
+     */
+    private static Policy copy(Policy policy) throws AuthorizationException {
+        try {
+            Policy copy = new PolicyImplV2();
+            copy.setUseInheritedPolicies(policy.useInheritedPolicies());
+            UsecasePolicy[] usecasePolicies = policy.getUsecasePolicies();
+            for (int i = 0; i < usecasePolicies.length; i++) {
+                copy.addUsecasePolicy(copy(usecasePolicies[i]));
+            }
+            return copy;
+        } catch(Exception e) {
+            log.error(e, e);
+            throw new AuthorizationException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Create deep copy of a usecase policy
+     */
+    private static UsecasePolicy copy(UsecasePolicy usecasePolicy) {
+        UsecasePolicy copy = new UsecasePolicy(usecasePolicy.getName());
+        copy.setUseInheritedPolicies(usecasePolicy.useInheritedPolicies());
+        ItemPolicy[] itemPolicies = usecasePolicy.getItemPolicies();
+        for (int i = 0; i < itemPolicies.length; i++) {
+            if (itemPolicies[i] instanceof IdentityPolicy) {
+                copy.addIdentity(((IdentityPolicy) itemPolicies[i]).getIdentity(), itemPolicies[i].getPermission());
+            } else if (itemPolicies[i] instanceof GroupPolicy) {
+                copy.addGroupPolicy(new GroupPolicy(itemPolicies[i].getId(), itemPolicies[i].getPermission()));
+            }
+        }
+        return copy;
     }
 }
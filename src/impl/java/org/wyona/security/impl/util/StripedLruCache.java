@@ -0,0 +1,129 @@
+package org.wyona.security.impl.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache, whereas the least recently used entries are evicted first.
+ * In order to avoid one global lock on the hot path of authorization requests, the entries are distributed by hash code onto segments, which are locked independently and evict their own least recently used entries.
+ * Hence eviction is only approximately LRU across all entries, whereas small caches consist of one segment and are exactly LRU.
+ */
+public class StripedLruCache<K, V> {
+
+    private static final int MAX_SEGMENTS = 16;
+    // INFO: Minimum number of entries per segment, such that the entries of small caches are not distributed too unevenly
+    private static final int MIN_SEGMENT_SIZE = 64;
+
+    private final int maxSize;
+    private final Segment<K, V>[] segments;
+    private final int segmentMask;
+
+    /**
+     * @param maxSize Maximum number of entries of all segments together
+     */
+    @SuppressWarnings("unchecked")
+    public StripedLruCache(int maxSize) {
+        this.maxSize = maxSize;
+        int numberOfSegments = 1;
+        while (numberOfSegments < MAX_SEGMENTS && numberOfSegments * 2 * MIN_SEGMENT_SIZE <= maxSize) {
+            numberOfSegments *= 2;
+        }
+        segments = (Segment<K, V>[]) new Segment<?, ?>[numberOfSegments];
+        for (int i = 0; i < numberOfSegments; i++) {
+            segments[i] = new Segment<K, V>(maxSize / numberOfSegments + (i < maxSize % numberOfSegments ? 1 : 0));
+        }
+        segmentMask = numberOfSegments - 1;
+    }
+
+    /**
+     * Get entry and mark it as most recently used within its segment
+     * @param key Key, whereas the key is not retained
+     * @return Value or null if no entry exists
+     */
+    public V get(Object key) {
+        Segment<K, V> segment = getSegment(key);
+        synchronized (segment) {
+            return segment.get(key);
+        }
+    }
+
+    /**
+     * Add or replace entry, whereas the least recently used entry of its segment is evicted if the segment is full
+     */
+    public void put(K key, V value) {
+        Segment<K, V> segment = getSegment(key);
+        synchronized (segment) {
+            segment.put(key, value);
+        }
+    }
+
+    /**
+     * Remove entry
+     */
+    public void remove(Object key) {
+        Segment<K, V> segment = getSegment(key);
+        synchronized (segment) {
+            segment.remove(key);
+        }
+    }
+
+    /**
+     * Remove all entries, whereas the segments are cleared one after the other
+     */
+    public void clear() {
+        for (int i = 0; i < segments.length; i++) {
+            synchronized (segments[i]) {
+                segments[i].clear();
+            }
+        }
+    }
+
+    /**
+     * Get number of entries
+     */
+    public int size() {
+        int size = 0;
+        for (int i = 0; i < segments.length; i++) {
+            synchronized (segments[i]) {
+                size += segments[i].size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Get maximum number of entries
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Get segment of a key, whereas the hash code is spread, because the lower bits of hash codes are often similar
+     */
+    private Segment<K, V> getSegment(Object key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        h ^= (h >>> 7);
+        return segments[h & segmentMask];
+    }
+
+    /**
+     * Access ordered map with a maximum size
+     */
+    private static class Segment<K, V> extends LinkedHashMap<K, V> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int maxSize;
+
+        Segment(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            return size() > maxSize;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package org.wyona.security.impl.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.wyona.security.core.AccessibleSubtrees;
+import org.wyona.security.core.AuthorizationException;
+import org.wyona.security.core.api.Identity;
+import org.wyona.security.core.api.PolicyManager;
+import org.wyona.security.core.api.Usecase;
+
+/**
+ * Utility class to resolve the accessible subtrees of a path from the policy nodes below this path.
+ * A path without its own policy inherits the decision of its nearest ancestor with a policy, hence only the root path and the paths of the policies below it have to be authorized.
+ */
+public class SubtreeResolver {
+
+    private static final String POLICY_SUFFIX = ".policy";
+
+    /**
+     * Resolve accessible subtrees
+     * @param pm Policy manager which authorizes the root path and the paths of the policies (see {@link PolicyManager#authorizeAll(String[], Identity, Usecase)})
+     * @param policyPaths Paths of all policy nodes of the policies repository (or at least of all policy nodes below the root path), e.g. "/hello/world.html.policy"
+     * @param rootPath Root path, e.g. "/hello"
+     * @param identity User requesting paths
+     * @param usecase Usecase associated with requested paths
+     */
+    public static AccessibleSubtrees resolve(PolicyManager pm, Collection<String> policyPaths, String rootPath, Identity identity, Usecase usecase) throws AuthorizationException {
+        if (rootPath == null || identity == null || usecase == null) {
+            throw new AuthorizationException("Root path or identity or usecase is null! [" + rootPath + ", " + identity + ", " + usecase + "]");
+        }
+        String normalizedRootPath = rootPath.length() > 1 && rootPath.endsWith("/") ? rootPath.substring(0, rootPath.length() - 1) : rootPath;
+
+        List<String> paths = new ArrayList<String>();
+        for (String policyPath : policyPaths) {
+            if (!policyPath.endsWith(POLICY_SUFFIX)) {
+                // INFO: Policies of a policy map apply to patterns of paths and hence cannot be resolved to subtrees
+                continue;
+            }
+            String path = policyPath.substring(0, policyPath.length() - POLICY_SUFFIX.length());
+            if (path.length() > normalizedRootPath.length() && AccessibleSubtrees.contains(normalizedRootPath, path)) {
+                paths.add(path);
+            }
+        }
+        // INFO: Ancestors are sorted before their descendants
+        Collections.sort(paths);
+        paths.add(0, normalizedRootPath);
+
+        boolean[] authorized = pm.authorizeAll(paths.toArray(new String[paths.size()]), identity, usecase);
+        AccessibleSubtrees subtrees = new AccessibleSubtrees(normalizedRootPath, usecase.getName(), authorized[0]);
+        for (int i = 1; i < authorized.length; i++) {
+            subtrees.add(paths.get(i), authorized[i]);
+        }
+        return subtrees;
+    }
+}
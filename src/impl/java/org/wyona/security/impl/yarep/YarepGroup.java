@@ -300,6 +300,15 @@ public class YarepGroup extends YarepItem implements Group {
         }
     }
     
+    /**
+     * @see org.wyona.security.impl.yarep.YarepItem#modified()
+     */
+    protected void modified() throws AccessManagementException {
+        if (getGroupManager() instanceof YarepGroupManager) {
+            ((YarepGroupManager) getGroupManager()).publishModified(getID());
+        }
+    }
+
     /**
      * Two groups are equal if they have the same id.
      */
@@ -1,6 +1,6 @@
 package org.wyona.security.impl.yarep;
 
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.avalon.framework.configuration.Configuration;
 import org.apache.avalon.framework.configuration.DefaultConfigurationBuilder;
@@ -13,6 +13,9 @@ import org.wyona.security.core.api.Group;
 import org.wyona.security.core.api.GroupManager;
 import org.wyona.security.core.api.IdentityManager;
 import org.wyona.security.core.api.UserManager;
+import org.wyona.security.impl.invalidation.InvalidationBus;
+import org.wyona.security.impl.invalidation.InvalidationEvent;
+import org.wyona.security.impl.invalidation.InvalidationListener;
 
 import org.wyona.yarep.core.NoSuchNodeException;
 import org.wyona.yarep.core.Node;
@@ -37,11 +40,21 @@ public class YarepGroupManager implements GroupManager {
 
     //private boolean cacheEnabled = true;
     private boolean cacheEnabled = false;
-    private HashMap cachedGroups;
+    // INFO: Groups are evicted by the thread of the invalidation bus, hence groups are loaded into the cache while holding the lock of this manager and read by one lookup
+    private volatile ConcurrentHashMap cachedGroups;
     //protected HashMap groups;
 
     private String groupImplClassName = null;
 
+    private volatile InvalidationBus invalidationBus;
+    private final InvalidationListener invalidationListener = new InvalidationListener() {
+        public void invalidate(InvalidationEvent event) {
+            if (InvalidationEvent.GROUP.equals(event.getRegion())) {
+                evictGroupFromCache(event.getKey());
+            }
+        }
+    };
+
     /**
      * Constructor.
      * @param identityManager
@@ -203,8 +216,19 @@ public class YarepGroupManager implements GroupManager {
      * Check if group exists within cache
      */
     private boolean existsWithinCache(String userId) {
-        if (cacheEnabled && cachedGroups!= null && cachedGroups.containsKey(userId)) return true;
-        return false;
+        return getGroupFromCache(userId) != null;
+    }
+
+    /**
+     * Get group from cache
+     * @return Group or null if the cache is disabled or does not contain the group
+     */
+    private Group getGroupFromCache(String id) {
+        ConcurrentHashMap groups = cachedGroups;
+        if (cacheEnabled && groups != null) {
+            return (Group) groups.get(id);
+        }
+        return null;
     }
 
     /**
@@ -223,16 +247,20 @@ public class YarepGroupManager implements GroupManager {
      * @see org.wyona.security.core.api.GroupManager#getGroup(java.lang.String)
      */
     public Group getGroup(String id) throws AccessManagementException {
-        if (!existsGroup(id)) {
+        Group group = getGroupFromCache(id);
+        if (group != null) {
+            log.warn("Get group '" + id + "' from cache.");
+            return group;
+        }
+        if (!existsWithinRepository(id)) {
             log.warn("No such group: " + id);
             return null;
         } else {
             if (cacheEnabled) {
-                if (!existsWithinCache(id)) {
+                synchronized (this) {
                     loadGroupIntoCache(id);
+                    return (Group) cachedGroups.get(id);
                 }
-                log.warn("Get group '" + id + "' from cache.");
-                return (Group) cachedGroups.get(id);
             } else {
                 log.debug("Get group '" + id + "' from repository.");
                 return getGroupFromPersistentRepository(id);
@@ -262,8 +290,9 @@ public class YarepGroupManager implements GroupManager {
      */
     public Group[] getGroups() throws AccessManagementException {
         log.warn("This method does not scale well. Rather use an iterator!");
-        if (cacheEnabled && cachedGroups != null) {
-            return (Group[]) cachedGroups.values().toArray(new Group[cachedGroups.size()]);
+        ConcurrentHashMap groups = cachedGroups;
+        if (cacheEnabled && groups != null) {
+            return (Group[]) groups.values().toArray(new Group[0]);
         } else {
             return loadGroupsFromRepository();
         }
@@ -278,8 +307,8 @@ public class YarepGroupManager implements GroupManager {
         }
         Group group = getGroup(id);
    
-        if (cacheEnabled && existsWithinCache(id)) {
-            cachedGroups.remove(id);
+        if (cacheEnabled) {
+            evictGroupFromCache(id);
         }
         group.delete();
     }
@@ -308,7 +337,7 @@ public class YarepGroupManager implements GroupManager {
         log.debug("Load group '" + id + "' from persistent repository '" + identitiesRepository.getName() + "' into cache.");
         if (cachedGroups == null) {
             log.warn("No groups yet within memory. Initialize groups hash map.");
-            cachedGroups = new HashMap();
+            cachedGroups = new ConcurrentHashMap();
         }
         if (cachedGroups.containsKey(id)) {
             log.warn("Group '" + id + "' already exists within memory, but will be reloaded!");
@@ -328,4 +357,39 @@ public class YarepGroupManager implements GroupManager {
     protected boolean isCacheEnabled() {
         return cacheEnabled;
     }
+
+    /**
+     * Announce to other caches that a group has been saved or deleted
+     * @param id Group ID
+     */
+    void publishModified(String id) {
+        InvalidationBus bus = invalidationBus;
+        if (bus != null) {
+            bus.publish(InvalidationEvent.GROUP, id, invalidationListener);
+        }
+    }
+
+    /**
+     * Set bus to announce modified groups to other caches and to evict groups which have been modified by others
+     * @param bus Invalidation bus or null in order to stop publishing and receiving
+     */
+    public void setInvalidationBus(InvalidationBus bus) {
+        if (invalidationBus != null) {
+            invalidationBus.unsubscribe(invalidationListener);
+        }
+        invalidationBus = bus;
+        if (bus != null) {
+            bus.subscribe(invalidationListener);
+        }
+    }
+
+    /**
+     * Remove group from memory cache, such that it is reloaded from the repository the next time it is requested
+     * @param id Group ID
+     */
+    protected synchronized void evictGroupFromCache(String id) {
+        if (cachedGroups != null && cachedGroups.remove(id) != null) {
+            log.debug("Group '" + id + "' evicted from cache.");
+        }
+    }
 }
@@ -1,45 +1,99 @@
 package org.wyona.security.impl.yarep;
 
-import org.wyona.security.core.api.Group;
+import org.apache.avalon.framework.configuration.Configuration;
+import org.apache.avalon.framework.configuration.ConfigurationException;
+import org.apache.avalon.framework.configuration.DefaultConfiguration;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.LogManager;
+
+import org.wyona.security.core.api.AccessManagementException;
+import org.wyona.security.core.api.GroupManager;
 import org.wyona.security.core.api.Host;
-import org.wyona.security.core.api.Item;
-import org.wyona.security.core.api.User;
+import org.wyona.security.core.api.UserManager;
+import org.wyona.security.impl.IPRangeTrie;
 
-public class YarepHost implements Host {
+import org.wyona.yarep.core.Node;
 
-    public String getIP() {
-        // TODO Auto-generated method stub
-        return null;
-    }
+/**
+ * Host which is persisted as XML inside a Yarep node, e.g.
+ * &lt;host id="build-server"&gt;&lt;name&gt;Build server&lt;/name&gt;&lt;ip&gt;192.168.1.10&lt;/ip&gt;&lt;/host&gt;
+ * Policies refer to hosts by their IP address (&lt;host id="192.168.1.10" permission="true"/&gt;), which is matched against the client address of an identity.
+ */
+public class YarepHost extends YarepItem implements Host {
 
-    public void setIP(String ip) {
-        // TODO Auto-generated method stub
-        
-    }
+    private static Logger log = LogManager.getLogger(YarepHost.class);
 
-    public void delete() {
-        // TODO Auto-generated method stub
-        
+    public static final String HOST_TAG_NAME = "host";
+    public static final String IP = "ip";
+
+    private String ip;
+
+    /**
+     * Instantiates an existing YarepHost from a repository node.
+     *
+     * @param userManager User manager
+     * @param groupManager Group manager
+     * @param node Yarep node containing host data
+     * @throws AccessManagementException
+     */
+    public YarepHost(UserManager userManager, GroupManager groupManager, Node node) throws AccessManagementException {
+        super(userManager, groupManager, node); // this will call configure()
     }
 
-    public String getID() {
-        // TODO Auto-generated method stub
-        return null;
+    /**
+     * @param userManager User manager
+     * @param groupManager Group manager
+     * @param id Host ID
+     * @param name Host name
+     * @param ip IP address
+     */
+    public YarepHost(UserManager userManager, GroupManager groupManager, String id, String name, String ip) throws AccessManagementException {
+        super(userManager, groupManager, id, name);
+        setIP(ip);
     }
 
-    public String getName() {
-        // TODO Auto-generated method stub
-        return null;
+    /**
+     * @see org.wyona.security.impl.yarep.YarepItem#configure(org.apache.avalon.framework.configuration.Configuration)
+     */
+    protected void configure(Configuration config) throws ConfigurationException, AccessManagementException {
+        setID(config.getAttribute(ID));
+        setName(config.getChild(NAME, false) != null ? config.getChild(NAME).getValue(null) : null);
+        setIP(config.getChild(IP).getValue());
     }
 
-    public void save() {
-        // TODO Auto-generated method stub
-        
+    /**
+     * @see org.wyona.security.impl.yarep.YarepItem#createConfiguration()
+     */
+    protected Configuration createConfiguration() throws AccessManagementException {
+        DefaultConfiguration config = new DefaultConfiguration(HOST_TAG_NAME);
+        config.setAttribute(ID, getID());
+        if (getName() != null) {
+            DefaultConfiguration nameNode = new DefaultConfiguration(NAME);
+            nameNode.setValue(getName());
+            config.addChild(nameNode);
+        }
+        DefaultConfiguration ipNode = new DefaultConfiguration(IP);
+        ipNode.setValue(ip);
+        config.addChild(ipNode);
+        return config;
     }
 
-    public void setName(String name) {
-        // TODO Auto-generated method stub
-        
+    /**
+     * @see org.wyona.security.core.api.Host#getIP()
+     */
+    public String getIP() throws AccessManagementException {
+        return ip;
     }
 
-}
\ No newline at end of file
+    /**
+     * @see org.wyona.security.core.api.Host#setIP(String)
+     */
+    public void setIP(String ip) throws AccessManagementException {
+        if (IPRangeTrie.parseAddress(ip) == null) {
+            log.error("No literal IP address: " + ip);
+            throw new AccessManagementException("Host '" + getID() + "' has no literal IP address: " + ip);
+        }
+        this.ip = ip.trim();
+    }
+}
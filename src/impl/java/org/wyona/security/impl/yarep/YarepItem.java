@@ -103,6 +103,7 @@ public abstract class YarepItem implements Item {
             log.error(e.getMessage(), e);
             throw new AccessManagementException(e.getMessage(), e);
         }
+        modified();
     }
 
     /**
@@ -122,6 +123,13 @@ public abstract class YarepItem implements Item {
             log.error(e.getMessage(), e);
             throw new AccessManagementException(e.getMessage(), e);
         }
+        modified();
+    }
+
+    /**
+     * Called after this item has been saved or deleted, e.g. in order to announce the modification to the caches of other application nodes
+     */
+    protected void modified() throws AccessManagementException {
     }
 
     /**
@@ -309,6 +309,15 @@ public class YarepUser extends YarepItem implements User {
         return config;
     }
 
+    /**
+     * @see org.wyona.security.impl.yarep.YarepItem#modified()
+     */
+    protected void modified() throws AccessManagementException {
+        if (getUserManager() instanceof YarepUserManager) {
+            ((YarepUserManager) getUserManager()).publishModified(getID());
+        }
+    }
+
     /**
      * @see org.wyona.security.core.api.User#authenticate(java.lang.String)
      */
@@ -1,6 +1,6 @@
 package org.wyona.security.impl.yarep;
 
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.avalon.framework.configuration.Configuration;
 import org.apache.avalon.framework.configuration.DefaultConfigurationBuilder;
@@ -13,6 +13,9 @@ import org.wyona.security.core.api.Group;
 import org.wyona.security.core.api.IdentityManager;
 import org.wyona.security.core.api.User;
 import org.wyona.security.core.api.UserManager;
+import org.wyona.security.impl.invalidation.InvalidationBus;
+import org.wyona.security.impl.invalidation.InvalidationEvent;
+import org.wyona.security.impl.invalidation.InvalidationListener;
 import org.wyona.yarep.core.NoSuchNodeException;
 import org.wyona.yarep.core.Node;
 import org.wyona.yarep.core.NodeType;
@@ -34,7 +37,8 @@ public class YarepUserManager implements UserManager {
     protected IdentityManager identityManager;
 
     private boolean cacheEnabled = false;
-    private HashMap cachedUsers;
+    // INFO: Users are evicted by the thread of the invalidation bus, hence users are loaded into the cache while holding the lock of this manager and read by one lookup
+    private volatile ConcurrentHashMap cachedUsers;
 
     private boolean resolveGroupsAtCreation = false;
 
@@ -43,6 +47,15 @@ public class YarepUserManager implements UserManager {
 
     private static final String PSEUDONYM = "pseudonym";
 
+    private volatile InvalidationBus invalidationBus;
+    private final InvalidationListener invalidationListener = new InvalidationListener() {
+        public void invalidate(InvalidationEvent event) {
+            if (InvalidationEvent.USER.equals(event.getRegion())) {
+                evictUserFromCache(event.getKey());
+            }
+        }
+    };
+
     /**
      * Constructor.
      *
@@ -133,7 +146,7 @@ public class YarepUserManager implements UserManager {
         log.debug("Load user '" + id + "' from persistent repository '" + identitiesRepository.getName() + "' into cache.");
         if (cachedUsers == null) {
             log.warn("No users yet within memory. Initialize users hash map.");
-            cachedUsers = new HashMap();
+            cachedUsers = new ConcurrentHashMap();
         }
         if (cachedUsers.containsKey(id)) {
             log.warn("User '" + id + "' already exists within memory, but will be reloaded!");
@@ -225,8 +238,19 @@ public class YarepUserManager implements UserManager {
      * Check if user exists within cache
      */
     private boolean existsWithinCache(String userId) {
-        if (cacheEnabled && cachedUsers!= null && cachedUsers.containsKey(userId)) return true;
-        return false;
+        return getUserFromCache(userId) != null;
+    }
+
+    /**
+     * Get user from cache
+     * @return User or null if the cache is disabled or does not contain the user
+     */
+    private User getUserFromCache(String userId) {
+        ConcurrentHashMap users = cachedUsers;
+        if (cacheEnabled && users != null) {
+            return (User) users.get(userId);
+        }
+        return null;
     }
 
     /**
@@ -298,9 +322,10 @@ public class YarepUserManager implements UserManager {
      * @see org.wyona.security.core.api.UserManager#getUser(java.lang.String)
      */
     public User getUser(String id) throws AccessManagementException {
-        if (cacheEnabled && existsWithinCache(id)) {
+        User user = getUserFromCache(id);
+        if (user != null) {
             log.warn("Get user '" + id + "' from cache.");
-            return (User) cachedUsers.get(id);
+            return user;
         } else {
             return getUser(id, true);
         }
@@ -317,18 +342,24 @@ public class YarepUserManager implements UserManager {
 */
             if (cacheEnabled) {
                 log.warn("Update user '" + id + "' within cache.");
-                loadUserIntoCache(id);
-                return (User) cachedUsers.get(id);
+                synchronized (this) {
+                    loadUserIntoCache(id);
+                    return (User) cachedUsers.get(id);
+                }
             } else {
                 return getUserFromPersistentRepository(id);
             }
         } else {
             if (cacheEnabled) {
-                if (!existsWithinCache(id)) {
+                User user = getUserFromCache(id);
+                if (user != null) {
+                    return user;
+                }
+                synchronized (this) {
                     log.warn("User cache does not exist yet, hence user '" + id + "' will be loaded into cache ...");
                     loadUserIntoCache(id);
+                    return (User) cachedUsers.get(id);
                 }
-                return (User) cachedUsers.get(id);
             } else {
                 log.warn("Cache is disabled, hence get user '" + id + "' from repository");
                 return getUserFromPersistentRepository(id);
@@ -341,8 +372,9 @@ public class YarepUserManager implements UserManager {
      */
     public User[] getUsers() throws AccessManagementException {
         log.warn("This method does not scale well. Rather use an iterator!");
-        if (cacheEnabled && cachedUsers != null) {
-            return (User[]) cachedUsers.values().toArray(new User[cachedUsers.size()]);
+        ConcurrentHashMap users = cachedUsers;
+        if (cacheEnabled && users != null) {
+            return (User[]) users.values().toArray(new User[0]);
         } else {
             return getUsers(true);
         }
@@ -370,15 +402,17 @@ public class YarepUserManager implements UserManager {
             return loadUsersFromRepository();
         } else {
             if (cacheEnabled) {
-                if (cachedUsers == null) {
-                    log.warn("User cache does not exist yet, hence users will be loaded into cache ...");
-                    cachedUsers = new HashMap();
-                    User[] users = loadUsersFromRepository();
-                    for (int i = 0; i < users.length; i++) {
-                        cachedUsers.put(users[i].getID(), users[i]);
+                synchronized (this) {
+                    if (cachedUsers == null) {
+                        log.warn("User cache does not exist yet, hence users will be loaded into cache ...");
+                        cachedUsers = new ConcurrentHashMap();
+                        User[] users = loadUsersFromRepository();
+                        for (int i = 0; i < users.length; i++) {
+                            cachedUsers.put(users[i].getID(), users[i]);
+                        }
                     }
+                    return (User[]) cachedUsers.values().toArray(new User[0]);
                 }
-                return (User[]) cachedUsers.values().toArray(new User[cachedUsers.size()]);
             } else {
                 log.warn("Cache is disabled, hence get users from repository");
                 return loadUsersFromRepository();
@@ -416,8 +450,8 @@ public class YarepUserManager implements UserManager {
             removeAlias(aliases[i]);
         }
 
-        if (cacheEnabled && existsWithinCache(id)) {
-            cachedUsers.remove(id);
+        if (cacheEnabled) {
+            evictUserFromCache(id);
         }
 
         user.delete();
@@ -572,4 +606,39 @@ public class YarepUserManager implements UserManager {
             throw new AccessManagementException(e.getMessage(), e);
         }
     }
+
+    /**
+     * Announce to other caches that a user has been saved or deleted
+     * @param id User ID
+     */
+    void publishModified(String id) {
+        InvalidationBus bus = invalidationBus;
+        if (bus != null) {
+            bus.publish(InvalidationEvent.USER, id, invalidationListener);
+        }
+    }
+
+    /**
+     * Set bus to announce modified users to other caches and to evict users which have been modified by others
+     * @param bus Invalidation bus or null in order to stop publishing and receiving
+     */
+    public void setInvalidationBus(InvalidationBus bus) {
+        if (invalidationBus != null) {
+            invalidationBus.unsubscribe(invalidationListener);
+        }
+        invalidationBus = bus;
+        if (bus != null) {
+            bus.subscribe(invalidationListener);
+        }
+    }
+
+    /**
+     * Remove user from memory cache, such that it is reloaded from the repository the next time it is requested
+     * @param id User ID
+     */
+    protected synchronized void evictUserFromCache(String id) {
+        if (cachedUsers != null && cachedUsers.remove(id) != null) {
+            log.debug("User '" + id + "' evicted from cache.");
+        }
+    }
 }
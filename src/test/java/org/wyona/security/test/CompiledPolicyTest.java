@@ -0,0 +1,189 @@
+package org.wyona.security.test;
+
+import java.io.ByteArrayInputStream;
+import java.util.BitSet;
+
+import org.wyona.security.core.GroupIndex;
+import org.wyona.security.core.api.Identity;
+import org.wyona.security.impl.CompiledPolicy;
+import org.wyona.security.impl.UsecaseRegistry;
+
+import junit.framework.TestCase;
+
+/**
+ * Test for the compiled policy.
+ */
+public class CompiledPolicyTest extends TestCase {
+
+    private static final String POLICY = "<?xml version=\"1.0\"?>" +
+        "<policy xmlns=\"http://www.wyona.org/security/1.0\">" +
+        "<usecase id=\"view\">" +
+        "<world permission=\"false\"/>" +
+        "<group id=\"editors\" permission=\"true\"/>" +
+        "<user id=\"lenya\" permission=\"false\"/>" +
+        "<user id=\"alice\" permission=\"true\"/>" +
+        "</usecase>" +
+        "<usecase id=\"write\">" +
+        "<user id=\"alice\" permission=\"true\"/>" +
+        "</usecase>" +
+        "<usecase id=\"delete\" use-inherited-policies=\"false\">" +
+        "<user id=\"alice\" permission=\"true\"/>" +
+        "</usecase>" +
+        "</policy>";
+
+    /**
+     * Test that the first matching entry decides
+     */
+    public void testFirstMatchingEntryDecides() throws Exception {
+        CompiledPolicy policy = compile(POLICY);
+        Identity lenya = new Identity("lenya", new String[] {"editors"}, "lenya");
+        Identity alice = new Identity("alice", null, "alice");
+        Identity bob = new Identity("bob", null, "bob");
+
+        assertEquals(CompiledPolicy.GRANTED, policy.authorize(lenya, "view"));
+        assertEquals(CompiledPolicy.GRANTED, policy.authorize(alice, "view"));
+        assertEquals(CompiledPolicy.DENIED, policy.authorize(bob, "view"));
+        assertEquals(CompiledPolicy.DENIED, policy.authorize(new Identity(), "view"));
+    }
+
+    /**
+     * Test inheritance flags
+     */
+    public void testInheritance() throws Exception {
+        CompiledPolicy policy = compile(POLICY);
+        Identity bob = new Identity("bob", null, "bob");
+
+        assertEquals(CompiledPolicy.INHERIT, policy.authorize(bob, "write"));
+        assertEquals(CompiledPolicy.INHERIT, policy.authorize(bob, "open"));
+        assertEquals(CompiledPolicy.DENIED, policy.authorize(bob, "delete"));
+
+        CompiledPolicy notInheriting = compile("<policy xmlns=\"http://www.wyona.org/security/1.0\" use-inherited-policies=\"false\"/>");
+        assertEquals(CompiledPolicy.DENIED, notInheriting.authorize(bob, "view"));
+    }
+
+    /**
+     * Test that several usecases are decided at once like one by one, including conflicting permissions of several matching principals
+     */
+    public void testSeveralUsecases() throws Exception {
+        UsecaseRegistry usecaseRegistry = UsecaseRegistry.createDefault();
+        CompiledPolicy policy = compile("<policy xmlns=\"http://www.wyona.org/security/1.0\">" +
+            "<usecase id=\"view\"><group id=\"editors\" permission=\"false\"/><user id=\"alice\" permission=\"true\"/></usecase>" +
+            "<usecase id=\"open\"><user id=\"alice\" permission=\"true\"/><group id=\"editors\" permission=\"false\"/></usecase>" +
+            "<usecase id=\"write\"><world permission=\"false\"/><group id=\"admins\" permission=\"true\"/></usecase>" +
+            "<usecase id=\"delete\"><world permission=\"true\"/></usecase>" +
+            "</policy>", usecaseRegistry);
+        Identity[] identities = {new Identity("alice", new String[] {"editors"}, "alice"), new Identity("alice", null, "alice"), new Identity("bob", new String[] {"admins"}, "bob"), new Identity()};
+        int numberOfUsecases = usecaseRegistry.getNumberOfUsecases();
+        for (int i = 0; i < identities.length; i++) {
+            BitSet pending = new BitSet();
+            pending.set(0, numberOfUsecases);
+            BitSet granted = new BitSet();
+            policy.authorize(identities[i], pending, granted);
+            for (int usecase = 0; usecase < numberOfUsecases; usecase++) {
+                int decision = policy.authorize(identities[i], usecase);
+                assertEquals(identities[i] + ", " + usecaseRegistry.getName(usecase), decision == CompiledPolicy.INHERIT, pending.get(usecase));
+                assertEquals(identities[i] + ", " + usecaseRegistry.getName(usecase), decision == CompiledPolicy.GRANTED, granted.get(usecase));
+            }
+        }
+        assertEquals(CompiledPolicy.DENIED, policy.authorize(identities[0], "view"));
+        assertEquals(CompiledPolicy.GRANTED, policy.authorize(identities[0], "open"));
+    }
+
+    /**
+     * Test group membership by group indexes
+     */
+    public void testGroups() throws Exception {
+        CompiledPolicy policy = compile("<policy xmlns=\"http://www.wyona.org/security/1.0\">" +
+            "<usecase id=\"view\"><group id=\"staff\" permission=\"false\"/><group id=\"editors\" permission=\"true\"/></usecase>" +
+            "</policy>");
+        String[] groupnames = new String[200];
+        for (int i = 0; i < groupnames.length; i++) {
+            groupnames[i] = "group-" + i;
+        }
+        Identity bob = new Identity("bob", groupnames, "bob");
+        assertEquals(CompiledPolicy.INHERIT, policy.authorize(bob, "view"));
+        assertTrue(bob.isMemberOfGroup("group-199"));
+        assertFalse(bob.isMemberOfGroup("editors"));
+        assertFalse(bob.isMemberOfGroup("no-such-group"));
+
+        groupnames[100] = "editors";
+        assertEquals(CompiledPolicy.GRANTED, policy.authorize(new Identity("bob", groupnames, "bob"), "view"));
+        groupnames[50] = "staff";
+        assertEquals(CompiledPolicy.DENIED, policy.authorize(new Identity("bob", groupnames, "bob"), "view"));
+        assertFalse(new Identity().isMemberOfGroup("staff"));
+    }
+
+    /**
+     * Test that only groups of policies are indexed and that the groups of an identity are resolved again when a policy references a new group
+     */
+    public void testGroupIndex() throws Exception {
+        String[] groupnames = new String[] {"group-index-reviewers"};
+        Identity carol = new Identity("carol", groupnames, "carol");
+        assertTrue(carol.getGroupIndexes().isEmpty());
+        assertEquals(-1, GroupIndex.getIndex("group-index-reviewers"));
+
+        CompiledPolicy policy = compile("<policy xmlns=\"http://www.wyona.org/security/1.0\">" +
+            "<usecase id=\"view\"><group id=\"group-index-reviewers\" permission=\"true\"/></usecase>" +
+            "</policy>");
+        assertEquals(CompiledPolicy.GRANTED, policy.authorize(carol, "view"));
+        assertTrue(carol.getGroupIndexes().get(GroupIndex.getIndex("group-index-reviewers")));
+
+        // INFO: Modifying the array of the caller does not modify the identity
+        groupnames[0] = "group-index-others";
+        assertEquals(CompiledPolicy.GRANTED, policy.authorize(carol, "view"));
+        assertFalse(carol.isMemberOfGroup("group-index-others"));
+    }
+
+    /**
+     * Test IP ranges and hosts, whereas the first matching entry decides independent of the length of the prefixes
+     */
+    public void testIPRanges() throws Exception {
+        StringBuilder xml = new StringBuilder("<policy xmlns=\"http://www.wyona.org/security/1.0\"><usecase id=\"view\">");
+        xml.append("<host id=\"10.1.2.3\" permission=\"false\"/>");
+        xml.append("<iprange id=\"10.0.0.0/8\" permission=\"true\"/>");
+        for (int i = 0; i < 500; i++) {
+            xml.append("<iprange id=\"172.16." + (i % 256) + "." + (i / 256 * 128) + "/25\" permission=\"true\"/>");
+        }
+        xml.append("<iprange id=\"2001:db8::/32\" permission=\"true\"/>");
+        xml.append("<iprange id=\"no-range\" permission=\"true\"/>");
+        xml.append("<user id=\"alice\" permission=\"false\"/>");
+        xml.append("</usecase></policy>");
+        CompiledPolicy policy = compile(xml.toString());
+        assertTrue(policy.hasAddresses());
+
+        assertEquals(CompiledPolicy.GRANTED, policy.authorize(withClientAddress(new Identity(), "10.200.0.1"), "view"));
+        assertEquals(CompiledPolicy.DENIED, policy.authorize(withClientAddress(new Identity(), "10.1.2.3"), "view"));
+        assertEquals(CompiledPolicy.GRANTED, policy.authorize(withClientAddress(new Identity(), "172.16.243.200"), "view"));
+        assertEquals(CompiledPolicy.GRANTED, policy.authorize(withClientAddress(new Identity(), "::ffff:172.16.3.1"), "view"));
+        assertEquals(CompiledPolicy.INHERIT, policy.authorize(withClientAddress(new Identity(), "172.17.0.1"), "view"));
+        assertEquals(CompiledPolicy.GRANTED, policy.authorize(withClientAddress(new Identity(), "2001:db8:1::5"), "view"));
+        assertEquals(CompiledPolicy.INHERIT, policy.authorize(withClientAddress(new Identity(), "2001:db9::5"), "view"));
+        assertEquals(CompiledPolicy.INHERIT, policy.authorize(withClientAddress(new Identity(), "localhost"), "view"));
+        assertEquals(CompiledPolicy.INHERIT, policy.authorize(new Identity(), "view"));
+        // INFO: The range precedes the user entry
+        assertEquals(CompiledPolicy.GRANTED, policy.authorize(withClientAddress(new Identity("alice", null, "alice"), "10.0.0.1"), "view"));
+        assertEquals(CompiledPolicy.DENIED, policy.authorize(withClientAddress(new Identity("alice", null, "alice"), "192.168.0.1"), "view"));
+    }
+
+    /**
+     *
+     */
+    private Identity withClientAddress(Identity identity, String address) {
+        identity.setClientAddress(address);
+        return identity;
+    }
+
+    /**
+     *
+     */
+    private CompiledPolicy compile(String xml) throws Exception {
+        return compile(xml, UsecaseRegistry.createDefault());
+    }
+
+    /**
+     *
+     */
+    private CompiledPolicy compile(String xml, UsecaseRegistry usecaseRegistry) throws Exception {
+        return CompiledPolicy.compile(new ByteArrayInputStream(xml.getBytes("UTF-8")), 0, usecaseRegistry);
+    }
+}
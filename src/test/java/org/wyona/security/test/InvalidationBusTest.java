@@ -0,0 +1,178 @@
+package org.wyona.security.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.wyona.security.core.UsecasePolicy;
+import org.wyona.security.core.api.Identity;
+import org.wyona.security.core.api.Policy;
+import org.wyona.security.core.api.Usecase;
+import org.wyona.security.impl.PolicyArchive;
+import org.wyona.security.impl.PolicyManagerImplVersion2;
+import org.wyona.security.impl.invalidation.FileInvalidationBus;
+import org.wyona.security.impl.invalidation.InvalidationEvent;
+import org.wyona.security.impl.invalidation.InvalidationListener;
+import org.wyona.security.impl.invalidation.LocalInvalidationBus;
+import org.wyona.yarep.core.Repository;
+import org.wyona.yarep.core.RepositoryFactory;
+
+import junit.framework.TestCase;
+
+/**
+ * Test for distributing cache invalidations between policy managers.
+ */
+public class InvalidationBusTest extends TestCase {
+
+    private File tmpDir;
+    private Repository repo;
+
+    /**
+     *
+     */
+    public void setUp() throws Exception {
+        tmpDir = File.createTempFile("invalidation", "");
+        tmpDir.delete();
+
+        new File(tmpDir, "policies/content").mkdirs();
+        File config = new File(tmpDir, "policies/repository.xml");
+        FileWriter writer = new FileWriter(config);
+        writer.write("<?xml version=\"1.0\"?>\n<repository class=\"org.wyona.yarep.impl.repo.vfs.VirtualFileSystemRepository\">\n  <name>Shared</name>\n  <content src=\"content\"/>\n</repository>\n");
+        writer.close();
+        repo = new RepositoryFactory().newRepository("policies-shared-repository", config);
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        PolicyArchive.exportPolicies(new RepositoryFactory().newRepository("policies-v2-repository", new File("repository-policies-version2/repository.xml")), archive);
+        PolicyArchive.importPolicies(repo, new ByteArrayInputStream(archive.toByteArray()), 2);
+    }
+
+    /**
+     *
+     */
+    public void tearDown() throws Exception {
+        delete(tmpDir);
+    }
+
+    /**
+     * Test that a policy which is set by one policy manager is applied immediately by another policy manager of the same repository
+     */
+    public void testPolicyManagers() throws Exception {
+        PolicyManagerImplVersion2 pm1 = new PolicyManagerImplVersion2(repo);
+        PolicyManagerImplVersion2 pm2 = new PolicyManagerImplVersion2(repo);
+        try {
+            pm1.setPolicyMapReloadInterval(0);
+            pm2.setPolicyMapReloadInterval(0);
+            // INFO: Without invalidation the second policy manager would not notice the modification within an hour
+            pm2.setPolicyRevalidationInterval(3600000);
+            pm2.setDecisionCacheSize(100);
+            LocalInvalidationBus bus = new LocalInvalidationBus();
+            pm1.setInvalidationBus(bus);
+            pm2.setInvalidationBus(bus);
+
+            String path = "/hello/invalidated.html";
+            Identity world = new Identity();
+            Usecase view = new Usecase("view");
+            assertFalse(pm2.authorize(path, world, view));
+
+            Policy policy = pm1.createEmptyPolicy();
+            UsecasePolicy up = new UsecasePolicy("view");
+            up.addIdentity(world, true);
+            policy.addUsecasePolicy(up);
+            pm1.setPolicy(path, policy);
+            assertTrue(pm2.authorize(path, world, view));
+
+            pm1.removePolicy(path);
+            assertFalse(pm2.authorize(path, world, view));
+        } finally {
+            pm1.shutdown();
+            pm2.shutdown();
+        }
+    }
+
+    /**
+     * Test that events are delivered to the buses of other processes exactly once, but not to the publishing bus
+     */
+    public void testFileInvalidationBus() throws Exception {
+        File file = new File(tmpDir, "invalidations");
+        FileInvalidationBus bus1 = new FileInvalidationBus(file, 0);
+        FileInvalidationBus bus2 = new FileInvalidationBus(file, 0);
+        final List<InvalidationEvent> received1 = new ArrayList<InvalidationEvent>();
+        final List<InvalidationEvent> received2 = new ArrayList<InvalidationEvent>();
+        InvalidationListener listener1 = new InvalidationListener() {
+            public void invalidate(InvalidationEvent event) {
+                received1.add(event);
+            }
+        };
+        bus1.subscribe(listener1);
+        bus2.subscribe(new InvalidationListener() {
+            public void invalidate(InvalidationEvent event) {
+                received2.add(event);
+            }
+        });
+
+        InvalidationEvent event = bus1.publish(InvalidationEvent.USER, "alice", listener1);
+        assertEquals(0, received1.size());
+        assertEquals(0, bus1.poll());
+        assertEquals(1, bus2.poll());
+        assertEquals(0, bus2.poll());
+        assertEquals(1, received2.size());
+        assertEquals(bus1.getOrigin(), received2.get(0).getOrigin());
+        assertEquals(event.getVersion(), received2.get(0).getVersion());
+        assertEquals(InvalidationEvent.USER, received2.get(0).getRegion());
+        assertEquals("alice", received2.get(0).getKey());
+
+        // INFO: Without a publisher the event is delivered to all listeners of the publishing bus as well
+        bus2.publish(InvalidationEvent.GROUP, "editors", null);
+        assertEquals(2, received2.size());
+        assertEquals(1, bus1.poll());
+        assertEquals("editors", received1.get(0).getKey());
+        bus1.close();
+        bus2.close();
+    }
+
+    /**
+     * Test that the file is compacted once it exceeds its maximum size, whereas events are still delivered exactly once
+     */
+    public void testFileInvalidationBusCompaction() throws Exception {
+        File file = new File(tmpDir, "invalidations");
+        long maxSize = 1024;
+        FileInvalidationBus bus1 = new FileInvalidationBus(file, 0, maxSize);
+        FileInvalidationBus bus2 = new FileInvalidationBus(file, 0, maxSize);
+        final List<InvalidationEvent> received = new ArrayList<InvalidationEvent>();
+        bus2.subscribe(new InvalidationListener() {
+            public void invalidate(InvalidationEvent event) {
+                received.add(event);
+            }
+        });
+
+        for (int i = 0; i < 100; i++) {
+            bus1.publish(InvalidationEvent.USER, "user-" + i, null);
+            assertTrue(file.length() <= maxSize);
+            if (i % 5 == 4) {
+                assertEquals(5, bus2.poll());
+            }
+        }
+        assertEquals(0, bus2.poll());
+        assertEquals(100, received.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals("user-" + i, received.get(i).getKey());
+        }
+        bus1.close();
+        bus2.close();
+    }
+
+    /**
+     *
+     */
+    private void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (int i = 0; i < children.length; i++) {
+                delete(children[i]);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,109 @@
+package org.wyona.security.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+import org.wyona.security.core.api.Identity;
+import org.wyona.security.core.api.Usecase;
+import org.wyona.security.impl.PolicyArchive;
+import org.wyona.security.impl.PolicyManagerImplVersion2;
+import org.wyona.yarep.core.Repository;
+import org.wyona.yarep.core.RepositoryFactory;
+
+import junit.framework.TestCase;
+
+/**
+ * Test for export and import of policies.
+ */
+public class PolicyArchiveTest extends TestCase {
+
+    private Repository repoPolicies;
+    private File targetDir;
+    private Repository targetRepo;
+
+    /**
+     *
+     */
+    public void setUp() throws Exception {
+        repoPolicies = new RepositoryFactory().newRepository("policies-v2-repository", new File("repository-policies-version2/repository.xml"));
+
+        targetDir = File.createTempFile("policies", "");
+        targetDir.delete();
+        new File(targetDir, "content").mkdirs();
+        File config = new File(targetDir, "repository.xml");
+        FileWriter writer = new FileWriter(config);
+        writer.write("<?xml version=\"1.0\"?>\n<repository class=\"org.wyona.yarep.impl.repo.vfs.VirtualFileSystemRepository\">\n  <name>Imported policies</name>\n  <content src=\"content\"/>\n</repository>\n");
+        writer.close();
+        targetRepo = new RepositoryFactory().newRepository("policies-import-repository", config);
+    }
+
+    /**
+     *
+     */
+    public void tearDown() throws Exception {
+        delete(targetDir);
+    }
+
+    /**
+     * Test that imported policies decide like the exported ones and that unchanged policies are not written again
+     */
+    public void testExportImport() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int exported = PolicyArchive.exportPolicies(repoPolicies, out);
+        assertTrue(exported >= 2);
+
+        assertEquals(exported, PolicyArchive.importPolicies(targetRepo, new ByteArrayInputStream(out.toByteArray()), 4));
+        assertTrue(targetRepo.existsNode("/hello.policy"));
+
+        PolicyManagerImplVersion2 source = new PolicyManagerImplVersion2(repoPolicies);
+        PolicyManagerImplVersion2 target = new PolicyManagerImplVersion2(targetRepo);
+        Identity[] identities = {new Identity("alice", null, "alice"), new Identity("bob", new String[] {"editors"}, "bob"), new Identity()};
+        String[] usecases = {"view", "read", "write", "delete"};
+        for (int i = 0; i < identities.length; i++) {
+            for (int k = 0; k < usecases.length; k++) {
+                assertEquals(source.authorize("/hello/world.html", identities[i], new Usecase(usecases[k])), target.authorize("/hello/world.html", identities[i], new Usecase(usecases[k])));
+            }
+        }
+
+        assertEquals(0, PolicyArchive.importPolicies(targetRepo, new ByteArrayInputStream(out.toByteArray()), 4));
+    }
+
+    /**
+     * Test that entries whose names could address nodes outside of the exported tree are rejected
+     */
+    public void testInvalidEntryNames() throws Exception {
+        String[] names = {"../outside.policy", "hello/../../outside.policy", "/absolute.policy", "hello//world.html.policy", "hello\\..\\outside.policy", "hello/./world.html.policy"};
+        for (int i = 0; i < names.length; i++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ZipOutputStream zip = new ZipOutputStream(out);
+            zip.putNextEntry(new ZipEntry(names[i]));
+            zip.write("<policy xmlns=\"http://www.wyona.org/security/1.0\"/>".getBytes("UTF-8"));
+            zip.closeEntry();
+            zip.close();
+            try {
+                PolicyArchive.importPolicies(targetRepo, new ByteArrayInputStream(out.toByteArray()), 2);
+                fail("Entry must be rejected: " + names[i]);
+            } catch (ZipException e) {
+            }
+        }
+        assertFalse(new File(targetDir, "outside.policy").exists());
+    }
+
+    /**
+     *
+     */
+    private void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (int i = 0; i < children.length; i++) {
+                delete(children[i]);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,138 @@
+package org.wyona.security.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.util.List;
+
+import org.wyona.security.core.UsecasePolicy;
+import org.wyona.security.core.api.Identity;
+import org.wyona.security.core.api.Policy;
+import org.wyona.security.core.api.Usecase;
+import org.wyona.security.impl.PolicyArchive;
+import org.wyona.security.impl.PolicyManagerImplVersion2;
+import org.wyona.security.impl.replication.FilePolicyChangeLog;
+import org.wyona.security.impl.replication.PolicyChange;
+import org.wyona.yarep.core.Repository;
+import org.wyona.yarep.core.RepositoryFactory;
+
+import junit.framework.TestCase;
+
+/**
+ * Test for replicating policies by a change log.
+ */
+public class PolicyChangeLogTest extends TestCase {
+
+    private File tmpDir;
+    private PolicyManagerImplVersion2 primary;
+    private PolicyManagerImplVersion2 replica;
+    private FilePolicyChangeLog changeLog;
+
+    /**
+     *
+     */
+    public void setUp() throws Exception {
+        tmpDir = File.createTempFile("policies", "");
+        tmpDir.delete();
+
+        Repository repoPolicies = new RepositoryFactory().newRepository("policies-v2-repository", new File("repository-policies-version2/repository.xml"));
+        primary = new PolicyManagerImplVersion2(repoPolicies);
+        primary.setPolicyMapReloadInterval(0);
+
+        new File(tmpDir, "replica/content").mkdirs();
+        File config = new File(tmpDir, "replica/repository.xml");
+        FileWriter writer = new FileWriter(config);
+        writer.write("<?xml version=\"1.0\"?>\n<repository class=\"org.wyona.yarep.impl.repo.vfs.VirtualFileSystemRepository\">\n  <name>Replica</name>\n  <content src=\"content\"/>\n</repository>\n");
+        writer.close();
+        Repository replicaRepo = new RepositoryFactory().newRepository("policies-replica-repository", config);
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        PolicyArchive.exportPolicies(repoPolicies, archive);
+        PolicyArchive.importPolicies(replicaRepo, new ByteArrayInputStream(archive.toByteArray()), 2);
+        replica = new PolicyManagerImplVersion2(replicaRepo);
+        replica.setPolicyMapReloadInterval(0);
+        replica.setDecisionCacheSize(100);
+
+        changeLog = new FilePolicyChangeLog(new File(tmpDir, "changes"));
+        primary.setChangeLog(changeLog);
+    }
+
+    /**
+     *
+     */
+    public void tearDown() throws Exception {
+        primary.setChangeLog(null);
+        primary.removePolicy("/hello/replicated.html");
+        primary.shutdown();
+        replica.shutdown();
+        delete(tmpDir);
+    }
+
+    /**
+     * Test that a replica applies policies which are set or removed by the primary policy manager
+     */
+    public void testApplyChanges() throws Exception {
+        String path = "/hello/replicated.html";
+        Identity world = new Identity();
+        Usecase view = new Usecase("view");
+        assertFalse(replica.authorize(path, world, view));
+        assertEquals(1, replica.applyChanges(changeLog, 1));
+
+        Policy policy = primary.createEmptyPolicy();
+        UsecasePolicy up = new UsecasePolicy("view");
+        up.addIdentity(world, true);
+        policy.addUsecasePolicy(up);
+        primary.setPolicy(path, policy);
+        assertEquals(1, changeLog.getLatestVersion());
+        assertEquals(PolicyChange.SET, changeLog.getChanges(1, 10).get(0).getType());
+        assertEquals("/hello/replicated.html.policy", changeLog.getChanges(1, 10).get(0).getPath());
+
+        long nextVersion = replica.applyChanges(changeLog, 1);
+        assertEquals(2, nextVersion);
+        assertTrue(replica.authorize(path, world, view));
+        assertEquals(2, replica.applyChanges(changeLog, nextVersion));
+
+        primary.removePolicy(path);
+        nextVersion = replica.applyChanges(changeLog, nextVersion);
+        assertEquals(3, nextVersion);
+        assertFalse(replica.authorize(path, world, view));
+        assertEquals(primary.authorize(path, world, view), replica.authorize(path, world, view));
+    }
+
+    /**
+     * Test that a stale file 'latest' does not cause an existing change to be replaced
+     */
+    public void testStaleLatestVersion() throws Exception {
+        File dir = new File(tmpDir, "changes");
+        assertEquals(1, changeLog.append(PolicyChange.REMOVE, "/first.policy", null));
+        assertEquals(2, changeLog.append(PolicyChange.REMOVE, "/second.policy", null));
+
+        // INFO: Simulate a process which terminated after writing a change file, but before updating the file 'latest'
+        File latest = new File(dir, "latest");
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(latest));
+        out.writeLong(1);
+        out.close();
+
+        assertEquals(3, changeLog.append(PolicyChange.REMOVE, "/third.policy", null));
+        assertEquals(3, changeLog.getLatestVersion());
+        List<PolicyChange> changes = changeLog.getChanges(1, 10);
+        assertEquals(3, changes.size());
+        assertEquals("/second.policy", changes.get(1).getPath());
+        assertEquals("/third.policy", changes.get(2).getPath());
+    }
+
+    /**
+     *
+     */
+    private void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (int i = 0; i < children.length; i++) {
+                delete(children[i]);
+            }
+        }
+        file.delete();
+    }
+}
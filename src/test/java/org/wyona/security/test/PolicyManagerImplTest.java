@@ -1,7 +1,16 @@
 package org.wyona.security.test;
 
 import java.io.File;
+import java.io.FileWriter;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
+import org.wyona.security.core.AccessibleSubtrees;
+import org.wyona.security.core.AuthorizedPrincipals;
+import org.wyona.security.core.DecisionTrace;
+import org.wyona.security.core.GroupPolicy;
+import org.wyona.security.core.UsecasePolicy;
+import org.wyona.security.core.api.Policy;
 import org.wyona.security.core.api.PolicyManager;
 import org.wyona.security.core.api.Item;
 import org.wyona.security.core.api.Usecase;
@@ -9,8 +18,15 @@ import org.wyona.security.core.api.User;
 import org.wyona.security.core.api.Identity;
 import org.wyona.security.core.api.IdentityManager;
 import org.wyona.security.impl.PolicyManagerFactoryImplVersion2;
+import org.wyona.security.impl.PolicyManagerImpl;
+import org.wyona.security.impl.PolicyManagerImplVersion2;
+import org.wyona.security.impl.PolicyPathIndex;
+import org.wyona.security.impl.metrics.Histogram;
+import org.wyona.security.impl.metrics.PolicyManagerMetrics;
+import org.wyona.security.impl.metrics.PolicyManagerMetricsImpl;
 //import org.wyona.security.impl.PolicyManagerImpl;
 import org.wyona.security.impl.yarep.YarepIdentityManagerImpl;
+import org.wyona.yarep.core.Node;
 import org.wyona.yarep.core.Repository;
 import org.wyona.yarep.core.RepositoryFactory;
 
@@ -73,6 +89,561 @@ public class PolicyManagerImplTest extends TestCase {
 */
     }
 
+    /**
+     * Test that policies of ancestors are inherited by deep paths
+     */
+    public void testDeepPathAuthorization() throws Exception {
+        Identity alice = new Identity("alice", null, "alice");
+        Identity bob = new Identity("bob", null, "bob");
+
+        assertTrue(policyManager.authorize("/hello/a/b/c/d/e/f/g/world.html", alice, new Usecase("write")));
+        assertFalse(policyManager.authorize("/hello/a/b/c/d/e/f/g/world.html", bob, new Usecase("write")));
+        assertFalse(policyManager.authorize("/hello/a/b/c/d/e/f/g/world.html", alice, new Usecase("view")));
+        assertTrue(policyManager.authorize("/foo/bar/", new Identity(), new Usecase("view")));
+    }
+
+    /**
+     * Test cache of authorization decisions
+     */
+    public void testDecisionCache() throws Exception {
+        PolicyManagerImplVersion2 pm = new PolicyManagerImplVersion2(repoPolicies);
+        pm.setDecisionCacheSize(2);
+        Identity alice = new Identity("alice", new String[] {"editors", "admin"}, "alice");
+
+        assertTrue(pm.authorize("/hello/world.html", alice, new Usecase("view")));
+        assertTrue(pm.authorize("/hello/world.html/", new Identity("alice", new String[] {"admin", "editors"}, "alice"), new Usecase("view")));
+        assertEquals(1, pm.getDecisionCache().getHits());
+        assertEquals(1, pm.getDecisionCache().getMisses());
+
+        assertFalse(pm.authorize("/hello/world.html", alice, new Usecase("delete")));
+        assertTrue(pm.authorize("/hello/world.html", new Identity(), new Usecase("read")));
+        assertEquals(2, pm.getDecisionCache().size());
+    }
+
+    /**
+     * Test authorization of many paths at once
+     */
+    public void testAuthorizeAll() throws Exception {
+        String[] paths = {"/hello/world.html", "/foo/bar.html", "/hello/", "/hello", "/", "/hello/a/b/c.html", "/foo/"};
+        Identity[] identities = {new Identity("alice", null, "alice"), new Identity("bob", new String[] {"editors"}, "bob"), new Identity()};
+        String[] usecases = {"view", "read", "write", "delete"};
+        for (int i = 0; i < identities.length; i++) {
+            for (int k = 0; k < usecases.length; k++) {
+                boolean[] authorized = policyManager.authorizeAll(paths, identities[i], new Usecase(usecases[k]));
+                assertEquals(paths.length, authorized.length);
+                for (int j = 0; j < paths.length; j++) {
+                    assertEquals(paths[j] + ", " + identities[i] + ", " + usecases[k], policyManager.authorize(paths[j], identities[i], new Usecase(usecases[k])), authorized[j]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Test that permitted usecases match individual authorization checks
+     */
+    public void testGetPermittedUsecases() throws Exception {
+        String[] paths = {"/hello/world.html", "/foo/bar.html", "/hello", "/"};
+        Identity[] identities = {new Identity("alice", null, "alice"), new Identity("bob", new String[] {"editors"}, "bob"), new Identity()};
+        String[] usecases = policyManager.getUsecases();
+        for (int i = 0; i < identities.length; i++) {
+            for (int j = 0; j < paths.length; j++) {
+                java.util.List<String> permitted = java.util.Arrays.asList(policyManager.getPermittedUsecases(paths[j], null, identities[i]));
+                for (int k = 0; k < usecases.length; k++) {
+                    assertEquals(paths[j] + ", " + identities[i] + ", " + usecases[k], policyManager.authorize(paths[j], identities[i], new Usecase(usecases[k])), permitted.contains(usecases[k]));
+                }
+            }
+        }
+        assertTrue(java.util.Arrays.asList(policyManager.getPermittedUsecases("/hello/world.html", null, new Identity("alice", null, "alice"))).contains("write"));
+    }
+
+    /**
+     * Test aggregation of policies
+     */
+    public void testAggregatePolicy() throws Exception {
+        Policy aggregated = policyManager.getPolicy("/hello/world.html", true);
+        assertNotNull(aggregated.getUsecasePolicy("view").getGroupPolicy("editors"));
+        assertNotNull(aggregated.getUsecasePolicy("view").getGroupPolicy("admin"));
+        assertNotNull(aggregated.getUsecasePolicy("write"));
+        assertNotNull(aggregated.getUsecasePolicy("delete"));
+        assertNull(policyManager.getPolicy("/", false).getUsecasePolicy("view").getGroupPolicy("editors"));
+
+        // INFO: Modifying an aggregated policy must neither modify memoized nor the original policies
+        aggregated.removeUsecasePolicy("write");
+        aggregated.getUsecasePolicy("view").removeGroupPolicy("editors");
+        Policy again = policyManager.getPolicy("/hello/world.html", true);
+        assertNotSame(aggregated, again);
+        assertNotNull(again.getUsecasePolicy("write"));
+        assertNotNull(again.getUsecasePolicy("view").getGroupPolicy("editors"));
+        assertNull(policyManager.getPolicy("/hello", false).getUsecasePolicy("write"));
+
+        // INFO: Read-only aggregated policies are memoized and shared, hence they cannot be modified
+        PolicyManagerImplVersion2 pm = (PolicyManagerImplVersion2) policyManager;
+        Policy shared = pm.getAggregatedPolicyReadOnly("/hello/world.html");
+        assertSame(shared, pm.getAggregatedPolicyReadOnly("/hello/world.html"));
+        try {
+            shared.removeUsecasePolicy("write");
+            fail("Read-only aggregated policy must not be modifiable");
+        } catch (UnsupportedOperationException e) {
+        }
+        try {
+            shared.getUsecasePolicy("view").getGroupPolicy("editors").setPermission(false);
+            fail("Group policy of read-only aggregated policy must not be modifiable");
+        } catch (UnsupportedOperationException e) {
+        }
+
+        // INFO: Usecase policies which the child policy does not define are shared with the aggregated policy of the parent
+        assertSame(pm.getAggregatedPolicyReadOnly("/").getUsecasePolicy("write"), shared.getUsecasePolicy("write"));
+
+        Policy uncached = org.wyona.security.impl.util.PolicyAggregator.aggregatePolicy("/hello/world.html", policyManager);
+        assertEquals(again.getUsecasePolicies().length, uncached.getUsecasePolicies().length);
+    }
+
+    /**
+     * Test setting a policy, whereas permissions which are false are replaced by the permissions inherited from the parent policies
+     */
+    public void testSetPolicy() throws Exception {
+        String path = "/hello/set-policy-test.html";
+        Policy policy = policyManager.createEmptyPolicy();
+        UsecasePolicy view = new UsecasePolicy("view");
+        view.addIdentity(new Identity(), false);
+        view.addIdentity(new Identity("alice", "alice"), false);
+        view.addIdentity(new Identity("bob", "bob"), false);
+        view.addGroupPolicy(new GroupPolicy("editors", false));
+        policy.addUsecasePolicy(view);
+        UsecasePolicy delete = new UsecasePolicy("delete");
+        delete.addIdentity(new Identity("bob", "bob"), false);
+        for (int i = 0; i < 500; i++) {
+            delete.addIdentity(new Identity("user-" + i, "user-" + i), true);
+        }
+        policy.addUsecasePolicy(delete);
+
+        try {
+            policyManager.setPolicy(path, policy);
+            Policy saved = policyManager.getPolicy(path, false);
+            assertFalse(saved.getUsecasePolicy("view").getIdentityPolicy(new Identity()).getPermission());
+            assertFalse(saved.getUsecasePolicy("view").getIdentityPolicy(new Identity("alice", "alice")).getPermission());
+            assertFalse(saved.getUsecasePolicy("view").getIdentityPolicy(new Identity("bob", "bob")).getPermission());
+            assertTrue(saved.getUsecasePolicy("view").getGroupPolicy("editors").getPermission());
+            assertTrue(saved.getUsecasePolicy("delete").getIdentityPolicy(new Identity("bob", "bob")).getPermission());
+            assertEquals(501, saved.getUsecasePolicy("delete").getIdentityPolicies().length);
+            assertTrue(policyManager.authorize(path, new Identity("user-42", "user-42"), new Usecase("delete")));
+        } finally {
+            policyManager.removePolicy(path);
+        }
+        assertNull(policyManager.getPolicy(path, false));
+    }
+
+    /**
+     * Test that a policy which cannot be written does not modify the existing policy
+     */
+    public void testSetPolicyFailure() throws Exception {
+        String path = "/hello/set-policy-failure.html";
+        Identity alice = new Identity("alice", "alice");
+        Policy policy = policyManager.createEmptyPolicy();
+        UsecasePolicy view = new UsecasePolicy("view");
+        view.addIdentity(alice, true);
+        policy.addUsecasePolicy(view);
+
+        Policy invalid = policyManager.createEmptyPolicy();
+        UsecasePolicy unnamed = new UsecasePolicy(null);
+        unnamed.addIdentity(alice, true);
+        invalid.addUsecasePolicy(unnamed);
+
+        try {
+            policyManager.setPolicy(path, policy);
+            assertTrue(policyManager.authorize(path, alice, new Usecase("view")));
+            try {
+                policyManager.setPolicy(path, invalid);
+                fail("Setting an invalid policy must fail");
+            } catch (UnsupportedOperationException e) {
+                // INFO: Expected
+            }
+            assertTrue(policyManager.getPolicy(path, false).getUsecasePolicy("view").getIdentityPolicy(alice).getPermission());
+            assertTrue(policyManager.authorize(path, alice, new Usecase("view")));
+        } finally {
+            policyManager.removePolicy(path);
+        }
+    }
+
+    /**
+     * Test that permissions of usecases which are not configured are inherited from the parent policies as well
+     */
+    public void testSetPolicyUnconfiguredUsecase() throws Exception {
+        String parentPath = "/set-policy-unconfigured";
+        String path = parentPath + "/page.html";
+        Identity alice = new Identity("alice", "alice");
+        Policy parentPolicy = policyManager.createEmptyPolicy();
+        UsecasePolicy parentUsecase = new UsecasePolicy("unconfigured-usecase");
+        parentUsecase.addIdentity(alice, true);
+        parentPolicy.addUsecasePolicy(parentUsecase);
+
+        policyManager.setPolicy(parentPath, parentPolicy);
+        // INFO: A new policy manager has not registered the usecase yet
+        PolicyManagerImplVersion2 pm = new PolicyManagerImplVersion2(repoPolicies);
+        try {
+            Policy policy = pm.createEmptyPolicy();
+            UsecasePolicy usecase = new UsecasePolicy("unconfigured-usecase");
+            usecase.addIdentity(alice, false);
+            policy.addUsecasePolicy(usecase);
+            pm.setPolicy(path, policy);
+            assertTrue(pm.getPolicy(path, false).getUsecasePolicy("unconfigured-usecase").getIdentityPolicy(alice).getPermission());
+            assertTrue(pm.authorize(path, alice, new Usecase("unconfigured-usecase")));
+        } finally {
+            pm.removePolicy(path);
+            policyManager.removePolicy(parentPath);
+            pm.shutdown();
+        }
+    }
+
+    /**
+     * Test that requests do not register usecases, whereas usecases of policies which are compiled by a request are registered
+     */
+    public void testRequestedUsecasesNotRegistered() throws Exception {
+        PolicyManagerImplVersion2 pm = new PolicyManagerImplVersion2(repoPolicies);
+        try {
+            Identity world = new Identity();
+            // INFO: The usecase "read" is not configured, but contained by the policy of /hello
+            assertEquals(-1, pm.getUsecaseRegistry().getId("read"));
+            assertTrue(pm.authorize("/hello/world.html", world, new Usecase("read")));
+            int size = pm.getUsecaseRegistry().size();
+            for (int i = 0; i < 10; i++) {
+                assertFalse(pm.authorize("/hello/world.html", world, new Usecase("unknown-" + i)));
+                assertFalse(pm.authorizeAsync("/hello/world.html", null, world, new Usecase("unknown-" + i), 10, TimeUnit.SECONDS).get().booleanValue());
+                assertFalse(pm.authorizeAll(new String[] {"/hello/world.html"}, world, new Usecase("unknown-" + i))[0]);
+                assertFalse(pm.explain("/hello/world.html", null, world, new Usecase("unknown-" + i)).isGranted());
+                assertFalse(pm.getAuthorizedPrincipals("/hello/world.html", new Usecase("unknown-" + i)).isWorldGranted());
+            }
+            assertEquals(size, pm.getUsecaseRegistry().size());
+            assertEquals(-1, pm.getUsecaseRegistry().getId("unknown-0"));
+        } finally {
+            pm.shutdown();
+        }
+    }
+
+    /**
+     * Test asynchronous authorization
+     */
+    public void testAuthorizeAsync() throws Exception {
+        PolicyManagerImplVersion2 pm = new PolicyManagerImplVersion2(repoPolicies);
+        Identity alice = new Identity("alice", new String[] {"editors", "admin"}, "alice");
+        Usecase view = new Usecase("view");
+        Usecase delete = new Usecase("delete");
+
+        assertEquals(Boolean.TRUE, pm.authorizeAsync("/hello/world.html", null, alice, view, 10, TimeUnit.SECONDS).get());
+        assertEquals(Boolean.FALSE, pm.authorizeAsync("/hello/world.html", null, alice, delete, 10, TimeUnit.SECONDS).get());
+        // INFO: Policies are compiled now, hence the decision is available immediately
+        Future<Boolean> warm = pm.authorizeAsync("/hello/world.html", null, alice, view, 10, TimeUnit.SECONDS);
+        assertTrue(warm.isDone());
+        assertEquals(Boolean.TRUE, warm.get());
+
+        // INFO: Access is denied if the decision is not available before the deadline
+        PolicyManagerImplVersion2 coldPm = new PolicyManagerImplVersion2(repoPolicies);
+        final java.util.concurrent.CountDownLatch latch = new java.util.concurrent.CountDownLatch(1);
+        java.util.concurrent.ExecutorService blockedExecutor = java.util.concurrent.Executors.newSingleThreadExecutor();
+        blockedExecutor.submit(new java.util.concurrent.Callable<Object>() {
+            public Object call() throws Exception {
+                latch.await();
+                return null;
+            }
+        });
+        coldPm.setExecutor(blockedExecutor);
+        Future<Boolean> expired = coldPm.authorizeAsync("/hello/world.html", null, alice, view, 50, TimeUnit.MILLISECONDS);
+        assertEquals(Boolean.FALSE, expired.get());
+        assertEquals(Boolean.FALSE, expired.get());
+        assertTrue(expired.isDone());
+        latch.countDown();
+        blockedExecutor.shutdown();
+        pm.shutdown();
+        coldPm.shutdown();
+    }
+
+    /**
+     * Test explanation of authorization decisions
+     */
+    public void testExplain() throws Exception {
+        Identity alice = new Identity("alice", new String[] {"editors", "admin"}, "alice");
+        DecisionTrace trace = policyManager.explain("/hello/world.html", null, alice, new Usecase("view"));
+        assertTrue(trace.isGranted());
+        assertFalse(trace.getLevels().get(0).policyExists());
+        assertEquals("/hello", trace.getDecidingLevel().getPath());
+        assertEquals(DecisionTrace.GROUP, trace.getDecidingLevel().getPrincipalType());
+        assertEquals("editors", trace.getDecidingLevel().getPrincipalId());
+
+        Identity carol = new Identity("carol", null, "carol");
+        trace = policyManager.explain("/hello/world.html", null, carol, new Usecase("view"));
+        assertFalse(trace.isGranted());
+        assertEquals(DecisionTrace.DENIED, trace.getDecidingLevel().getDecision());
+        assertNull(trace.getDecidingLevel().getPrincipalType());
+
+        trace = policyManager.explain("/hello", null, new Identity("alice", null, "alice"), new Usecase("delete"));
+        assertFalse(trace.isGranted());
+        assertNull(trace.getDecidingLevel());
+        assertEquals("/", trace.getLevels().get(trace.getLevels().size() - 1).getPath());
+
+        String[] usecases = {"view", "read", "write", "delete"};
+        for (int i = 0; i < usecases.length; i++) {
+            assertEquals(usecases[i], policyManager.authorize("/hello/world.html", alice, new Usecase(usecases[i])), policyManager.explain("/hello/world.html", null, alice, new Usecase(usecases[i])).isGranted());
+        }
+    }
+
+    /**
+     * Test that authorization decisions of compiled policies and cached decisions do not allocate memory
+     */
+    public void testAuthorizeAllocationFree() throws Exception {
+        java.lang.management.ThreadMXBean threadBean = java.lang.management.ManagementFactory.getThreadMXBean();
+        if (!(threadBean instanceof com.sun.management.ThreadMXBean) || !((com.sun.management.ThreadMXBean) threadBean).isThreadAllocatedMemorySupported()) {
+            log.warn("Measuring allocated memory not supported by this JVM, hence test will be skipped.");
+            return;
+        }
+        com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+        allocationBean.setThreadAllocatedMemoryEnabled(true);
+
+        PolicyManagerImplVersion2 pm = new PolicyManagerImplVersion2(repoPolicies);
+        pm.setPolicyRevalidationInterval(60000);
+        Identity alice = new Identity("alice", new String[] {"editors", "admin"}, "alice");
+        Identity bob = new Identity("bob", null, "bob");
+        Usecase view = new Usecase("view");
+        Usecase delete = new Usecase("delete");
+
+        assertEquals(0, getAllocatedBytesPerAuthorization(allocationBean, pm, alice, bob, view, delete));
+        pm.setDecisionCacheSize(100);
+        assertEquals(0, getAllocatedBytesPerAuthorization(allocationBean, pm, alice, bob, view, delete));
+        pm.shutdown();
+    }
+
+    /**
+     * Get number of bytes which are allocated per authorization after warming up
+     */
+    private long getAllocatedBytesPerAuthorization(com.sun.management.ThreadMXBean allocationBean, PolicyManager pm, Identity alice, Identity bob, Usecase view, Usecase delete) throws Exception {
+        int iterations = 10000;
+        // INFO: Warm up, such that policies are compiled and chains and decisions are cached
+        for (int i = 0; i < iterations; i++) {
+            authorize(pm, alice, bob, view, delete);
+        }
+        long threadId = Thread.currentThread().getId();
+        long before = allocationBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < iterations; i++) {
+            authorize(pm, alice, bob, view, delete);
+        }
+        long allocated = allocationBean.getThreadAllocatedBytes(threadId) - before;
+        // INFO: Measuring itself might allocate a few bytes, which are negligible per authorization
+        return allocated / (iterations * 4);
+    }
+
+    /**
+     *
+     */
+    private void authorize(PolicyManager pm, Identity alice, Identity bob, Usecase view, Usecase delete) throws Exception {
+        assertTrue(pm.authorize("/hello/world.html", alice, view));
+        assertFalse(pm.authorize("/hello/world.html/", alice, delete));
+        assertTrue(pm.authorize("/", bob, delete));
+        assertFalse(pm.authorize("/hello", bob, view));
+    }
+
+    /**
+     * Test recording of metrics
+     */
+    public void testMetrics() throws Exception {
+        PolicyManagerImplVersion2 pm = new PolicyManagerImplVersion2(repoPolicies);
+        pm.setDecisionCacheSize(10);
+        PolicyManagerMetricsImpl metrics = new PolicyManagerMetricsImpl();
+        pm.setMetrics(metrics);
+        Identity alice = new Identity("alice", new String[] {"editors", "admin"}, "alice");
+
+        assertTrue(pm.authorize("/hello/world.html", alice, new Usecase("view")));
+        assertTrue(pm.authorize("/hello/world.html", alice, new Usecase("view")));
+        assertFalse(pm.authorize("/hello/world.html", alice, new Usecase("delete")));
+        assertEquals(3, metrics.getAuthorizationCount());
+        assertEquals(2, metrics.getGrantedCount());
+        assertEquals(1, metrics.getDeniedCount());
+        assertEquals(2, metrics.getHistogram("view").getCount());
+        assertEquals(1.0 / 3, metrics.getDecisionCacheHitRatio(), 0.0001);
+        assertEquals(2, metrics.getLevels().getCount());
+        assertTrue(metrics.getLevels().getMax() >= 1);
+        assertTrue(metrics.getPolicyCompilationCount() >= 1);
+
+        // INFO: Usecases which are not registered share one histogram
+        assertFalse(pm.authorize("/hello/world.html", alice, new Usecase("unknown-1")));
+        assertFalse(pm.authorize("/hello/world.html", alice, new Usecase("unknown-2")));
+        assertEquals(2, metrics.getHistogram(PolicyManagerMetrics.OTHER_USECASES).getCount());
+        assertEquals(-1, metrics.getAuthorizationP99MicrosByUsecase().indexOf("unknown"));
+
+        metrics.reset();
+        assertEquals(0, metrics.getAuthorizationCount());
+        pm.shutdown();
+    }
+
+    /**
+     * Test percentiles of histogram
+     */
+    public void testHistogram() throws Exception {
+        Histogram histogram = new Histogram();
+        assertEquals(0, histogram.getPercentile(99));
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000000, histogram.getMax());
+        assertEquals(500500.0, histogram.getMean(), 0.001);
+        long p50 = histogram.getPercentile(50);
+        assertTrue("p50: " + p50, p50 >= 500000 && p50 <= 500000 * 1.0625);
+        long p99 = histogram.getPercentile(99);
+        assertTrue("p99: " + p99, p99 >= 990000 && p99 <= 1000000);
+        assertEquals(1000000, histogram.getPercentile(100));
+    }
+
+    /**
+     * Test resolving the subtrees which an identity may access from the policies below a root path
+     */
+    public void testAccessibleSubtrees() throws Exception {
+        Identity alice = new Identity("alice", "alice");
+        AccessibleSubtrees subtrees = policyManager.getAccessibleSubtrees("/", alice, new Usecase("view"));
+        assertEquals(java.util.Arrays.asList(new String[] {"/"}), subtrees.getGrantedSubtrees());
+        assertEquals(java.util.Arrays.asList(new String[] {"/hello"}), subtrees.getDeniedSubtrees());
+        String[] paths = {"/", "/foo/bar.html", "/hello", "/hello/", "/hello/world.html", "/hello/a/b/c.html", "/hello-world.html"};
+        for (int i = 0; i < paths.length; i++) {
+            assertEquals(paths[i], policyManager.authorize(paths[i], alice, new Usecase("view")), subtrees.isGranted(paths[i]));
+        }
+
+        subtrees = policyManager.getAccessibleSubtrees("/hello/", new Identity(), new Usecase("read"));
+        assertEquals("/hello", subtrees.getRootPath());
+        assertEquals(1, subtrees.getSubtrees().size());
+        assertTrue(subtrees.isGranted("/hello/world.html"));
+        assertFalse(subtrees.isGranted("/foo/bar.html"));
+    }
+
+    /**
+     * Test resolving the principals which are authorized to execute a usecase on a path
+     */
+    public void testAuthorizedPrincipals() throws Exception {
+        AuthorizedPrincipals principals = policyManager.getAuthorizedPrincipals("/hello/world.html", new Usecase("view"));
+        assertEquals(java.util.Arrays.asList(new String[] {"/hello.policy"}), principals.getPolicyPaths());
+        assertFalse(principals.isWorldGranted());
+        assertEquals(new java.util.HashSet<String>(java.util.Arrays.asList(new String[] {"editors", "hello"})), principals.getGrantedGroups());
+        assertEquals(new java.util.HashSet<String>(java.util.Arrays.asList(new String[] {"lenya", "alice"})), principals.getDeniedUsers());
+        assertTrue(principals.getGrantedUsers().isEmpty());
+
+        String[] paths = {"/", "/hello", "/hello/world.html", "/foo/bar.html"};
+        String[] usecases = {"view", "read", "write", "delete"};
+        Identity[] identities = {new Identity("alice", null, "alice"), new Identity("alice", new String[] {"editors"}, "alice"), new Identity("bob", new String[] {"editors"}, "bob"), new Identity("lenya", new String[] {"hello"}, "lenya"), new Identity("carol", new String[] {"admin"}, "carol"), new Identity()};
+        for (int j = 0; j < paths.length; j++) {
+            for (int k = 0; k < usecases.length; k++) {
+                principals = policyManager.getAuthorizedPrincipals(paths[j], new Usecase(usecases[k]));
+                for (int i = 0; i < identities.length; i++) {
+                    String[] groups = identities[i].getGroupnames();
+                    assertEquals(paths[j] + ", " + identities[i] + ", " + usecases[k], policyManager.authorize(paths[j], identities[i], new Usecase(usecases[k])), principals.isGranted(identities[i].getUsername(), groups != null ? java.util.Arrays.asList(groups) : null));
+                }
+            }
+        }
+
+        // INFO: Groups are expanded to their members, including the members of sub-groups
+        principals = new AuthorizedPrincipals("/company", "view");
+        principals.addLevel("/company.policy", true);
+        principals.addEntry(DecisionTrace.USER, "alice", 0, false);
+        principals.addEntry(DecisionTrace.GROUP, "company", 1, true);
+        principals.addEntry(DecisionTrace.WORLD, null, 2, false);
+        IdentityManager identityManager = new YarepIdentityManagerImpl(new RepositoryFactory().newRepository("identities-repository", new File("repository2/repository.xml")), true);
+        java.util.Map<String, Boolean> users = principals.getEffectiveUsers(identityManager.getGroupManager());
+        assertEquals(Boolean.FALSE, users.get("alice"));
+        assertEquals(Boolean.TRUE, users.get("lenya"));
+        assertEquals(2, users.size());
+    }
+
+    /**
+     * Test that the entries of repeated roles of policies version 1 are ordered like authorize() checks them, i.e. one role after the other
+     */
+    public void testAuthorizedPrincipalsRepeatedRole() throws Exception {
+        File tmpDir = File.createTempFile("policies-v1", "");
+        tmpDir.delete();
+        new File(tmpDir, "content").mkdirs();
+        FileWriter writer = new FileWriter(new File(tmpDir, "repository.xml"));
+        writer.write("<?xml version=\"1.0\"?>\n<repository class=\"org.wyona.yarep.impl.repo.vfs.VirtualFileSystemRepository\">\n  <name>Policies version 1</name>\n  <content src=\"content\"/>\n</repository>\n");
+        writer.close();
+        writer = new FileWriter(new File(tmpDir, "content/.policy"));
+        writer.write("<?xml version=\"1.0\"?>\n<policy>\n  <role id=\"view\">\n    <user id=\"carol\" permission=\"false\"/>\n    <group id=\"editors\" permission=\"false\"/>\n  </role>\n  <role id=\"view\">\n    <user id=\"bob\" permission=\"true\"/>\n    <world permission=\"false\"/>\n  </role>\n</policy>\n");
+        writer.close();
+        try {
+            PolicyManager pm = new PolicyManagerImpl(new RepositoryFactory().newRepository("policies-v1-repeated-role", new File(tmpDir, "repository.xml")));
+            AuthorizedPrincipals principals = pm.getAuthorizedPrincipals("/hello.html", new Usecase("view"));
+            Identity[] identities = {new Identity("bob", new String[] {"editors"}, "bob"), new Identity("bob", null, "bob"), new Identity("carol", null, "carol"), new Identity()};
+            for (int i = 0; i < identities.length; i++) {
+                String[] groups = identities[i].getGroupnames();
+                assertEquals(identities[i].toString(), pm.authorize("/hello.html", identities[i], new Usecase("view")), principals.isGranted(identities[i].getUsername(), groups != null ? java.util.Arrays.asList(groups) : null));
+            }
+            assertFalse(principals.isGranted("bob", java.util.Collections.singleton("editors")));
+        } finally {
+            new File(tmpDir, "content/.policy").delete();
+            new File(tmpDir, "content").delete();
+            new File(tmpDir, "repository.xml").delete();
+            tmpDir.delete();
+        }
+    }
+
+    /**
+     * Test that a policy which is added to the policy path index while the repository is scanned is not lost
+     */
+    public void testPolicyIndexAddDuringLoad() throws Exception {
+        final PolicyPathIndex index = new PolicyPathIndex();
+        // INFO: Repository whose scan adds a policy to the index, like a concurrent setPolicy()
+        final Node rootNode = (Node) java.lang.reflect.Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {Node.class}, new java.lang.reflect.InvocationHandler() {
+            public Object invoke(Object proxy, java.lang.reflect.Method method, Object[] args) {
+                if (method.getName().equals("getNodes")) {
+                    index.add("/added.html.policy");
+                    return new Node[0];
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+        Repository repo = (Repository) java.lang.reflect.Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {Repository.class}, new java.lang.reflect.InvocationHandler() {
+            public Object invoke(Object proxy, java.lang.reflect.Method method, Object[] args) {
+                if (method.getName().equals("getRootNode")) {
+                    return rootNode;
+                }
+                if (method.getName().equals("toString")) {
+                    return "Scanning repository";
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+        index.load(repo, null);
+        assertTrue(index.contains("/added.html.policy"));
+        assertEquals("/added.html", index.getNearestAncestorWithPolicy("/added.html/index.html"));
+    }
+
+    /**
+     * Test that the world access index decides like the policies and is updated when a policy is set or removed
+     */
+    public void testWorldIndex() throws Exception {
+        PolicyManagerImplVersion2 pm = new PolicyManagerImplVersion2(repoPolicies);
+        PolicyManagerImplVersion2 indexed = new PolicyManagerImplVersion2(repoPolicies);
+        indexed.setWorldIndexEnabled(true);
+        String[] paths = {"/", "/hello", "/hello/", "/hello/world.html", "/foo/bar.html", "/hello/a/b/c.html"};
+        String[] usecases = {"view", "read", "write", "delete", "unknown-usecase"};
+        for (int i = 0; i < paths.length; i++) {
+            for (int k = 0; k < usecases.length; k++) {
+                assertEquals(paths[i] + " " + usecases[k], pm.authorize(paths[i], new Identity(), new Usecase(usecases[k])), indexed.authorize(paths[i], new Identity(), new Usecase(usecases[k])));
+            }
+        }
+
+        String path = "/hello/world-index-test.html";
+        assertFalse(indexed.authorize(path, new Identity(), new Usecase("view")));
+        Policy policy = indexed.createEmptyPolicy();
+        UsecasePolicy view = new UsecasePolicy("view");
+        view.addIdentity(new Identity(), true);
+        policy.addUsecasePolicy(view);
+        try {
+            indexed.setPolicy(path, policy);
+            assertTrue(indexed.authorize(path, new Identity(), new Usecase("view")));
+            assertTrue(indexed.authorize(path + "/child.html", new Identity(), new Usecase("view")));
+            assertFalse(indexed.authorize("/hello/world.html", new Identity(), new Usecase("view")));
+        } finally {
+            indexed.removePolicy(path);
+        }
+        assertFalse(indexed.authorize(path, new Identity(), new Usecase("view")));
+        pm.shutdown();
+        indexed.shutdown();
+    }
+
     /**
      * Create a DOM Document
      */
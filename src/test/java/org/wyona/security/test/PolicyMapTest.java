@@ -0,0 +1,64 @@
+package org.wyona.security.test;
+
+import java.io.ByteArrayInputStream;
+
+import org.wyona.security.impl.PolicyMap;
+
+import junit.framework.TestCase;
+
+/**
+ * Test for the policy map.
+ */
+public class PolicyMapTest extends TestCase {
+
+    private static final String POLICY_MAP = "<?xml version=\"1.0\"?>" +
+        "<policy-map>" +
+        "<matcher pattern=\"/projects/*/changes/*.html\" path=\"/projects/changes.policy\"/>" +
+        "<matcher pattern=\"/projects/*/changes/*.html?update-result-of-test=*\" path=\"/projects/test-results.policy\"/>" +
+        "<matcher type=\"prefix\" pattern=\"/projects/yanel/\" path=\"/projects/yanel.policy\"/>" +
+        "<matcher type=\"regex\" pattern=\"/users/[^/]+/profile\\.html\" path=\"/users/profile.policy\"/>" +
+        "<matcher pattern=\"*.pdf\" path=\"/pdf.policy\"/>" +
+        "</policy-map>";
+
+    /**
+     * Test matching
+     */
+    public void testGetPolicyPath() throws Exception {
+        PolicyMap policyMap = PolicyMap.read(new ByteArrayInputStream(POLICY_MAP.getBytes("UTF-8")), 0);
+        assertEquals(5, policyMap.size());
+
+        assertEquals("/projects/changes.policy", policyMap.getPolicyPath("/projects/yanel/changes/c-c172df5f.html"));
+        assertEquals("/projects/test-results.policy", policyMap.getPolicyPath("/projects/yanel/changes/c-c172df5f.html?update-result-of-test=5f119d82"));
+        assertEquals("/projects/yanel.policy", policyMap.getPolicyPath("/projects/yanel/index.html"));
+        assertEquals("/users/profile.policy", policyMap.getPolicyPath("/users/alice/profile.html"));
+        assertNull(policyMap.getPolicyPath("/users/alice/settings/profile.html"));
+        assertEquals("/pdf.policy", policyMap.getPolicyPath("/projects/lenya/manual.pdf"));
+        assertNull(policyMap.getPolicyPath("/projects/lenya/index.html"));
+
+        // INFO: Memoized results
+        assertEquals("/projects/yanel.policy", policyMap.getPolicyPath("/projects/yanel/index.html"));
+        assertNull(policyMap.getPolicyPath("/projects/lenya/index.html"));
+    }
+
+    /**
+     * Test that the first matcher in document order wins
+     */
+    public void testDocumentOrder() throws Exception {
+        PolicyMap policyMap = PolicyMap.read(new ByteArrayInputStream(POLICY_MAP.getBytes("UTF-8")), 0);
+        assertEquals("/projects/changes.policy", policyMap.getPolicyPath("/projects/yanel/changes/manual.html"));
+        assertEquals("/projects/yanel.policy", policyMap.getPolicyPath("/projects/yanel/manual.pdf"));
+    }
+
+    /**
+     * Test that a matcher with an invalid regular expression is ignored
+     */
+    public void testInvalidRegex() throws Exception {
+        String map = "<?xml version=\"1.0\"?><policy-map>" +
+            "<matcher type=\"regex\" pattern=\"/users/[^/+/profile\\.html\" path=\"/users/profile.policy\"/>" +
+            "<matcher type=\"prefix\" pattern=\"/users/\" path=\"/users.policy\"/>" +
+            "</policy-map>";
+        PolicyMap policyMap = PolicyMap.read(new ByteArrayInputStream(map.getBytes("UTF-8")), 0);
+        assertEquals(1, policyMap.size());
+        assertEquals("/users.policy", policyMap.getPolicyPath("/users/alice/profile.html"));
+    }
+}
@@ -0,0 +1,95 @@
+package org.wyona.security.test;
+
+import java.io.File;
+import java.io.FileWriter;
+
+import org.wyona.security.core.api.Identity;
+import org.wyona.security.core.api.PolicyManager;
+import org.wyona.security.core.api.Usecase;
+import org.wyona.security.impl.PolicyManagerImplSnapshot;
+import org.wyona.security.impl.PolicyManagerImplVersion2;
+import org.wyona.security.impl.PolicySnapshotCompiler;
+import org.wyona.yarep.core.Repository;
+import org.wyona.yarep.core.RepositoryFactory;
+
+import org.apache.avalon.framework.configuration.ConfigurationException;
+
+import junit.framework.TestCase;
+
+/**
+ * Test for the policy snapshot.
+ */
+public class PolicySnapshotTest extends TestCase {
+
+    private Repository repoPolicies;
+    private File snapshotFile;
+
+    /**
+     *
+     */
+    public void setUp() throws Exception {
+        repoPolicies = new RepositoryFactory().newRepository("policies-v2-repository", new File("repository-policies-version2/repository.xml"));
+        snapshotFile = File.createTempFile("policies", ".snapshot");
+        PolicySnapshotCompiler.compile(repoPolicies, snapshotFile);
+    }
+
+    /**
+     *
+     */
+    public void tearDown() throws Exception {
+        snapshotFile.delete();
+    }
+
+    /**
+     * Test that the snapshot decides like the policy manager which reads the policies from the repository
+     */
+    public void testAuthorization() throws Exception {
+        PolicyManager snapshotPolicyManager = new PolicyManagerImplSnapshot(snapshotFile);
+        PolicyManagerImplVersion2 policyManager = new PolicyManagerImplVersion2(repoPolicies);
+        policyManager.setPolicyMapReloadInterval(0);
+
+        String[] paths = {"/", "/hello", "/hello/", "/hello/world.html", "/hello/a/b/c.html", "/foo/bar.html"};
+        Identity[] identities = {new Identity("alice", null, "alice"), new Identity("bob", new String[] {"editors"}, "bob"), new Identity("lenya", new String[] {"hello"}, "lenya"), new Identity()};
+        String[] usecases = {"view", "read", "write", "delete", "no-such-usecase"};
+        for (int i = 0; i < identities.length; i++) {
+            for (int j = 0; j < paths.length; j++) {
+                for (int k = 0; k < usecases.length; k++) {
+                    assertEquals(paths[j] + ", " + identities[i] + ", " + usecases[k], policyManager.authorize(paths[j], identities[i], new Usecase(usecases[k])), snapshotPolicyManager.authorize(paths[j], identities[i], new Usecase(usecases[k])));
+                }
+                assertEquals(java.util.Arrays.asList(policyManager.getPermittedUsecases(paths[j], null, identities[i])), java.util.Arrays.asList(snapshotPolicyManager.getPermittedUsecases(paths[j], null, identities[i])));
+                if (i == 0) {
+                    assertEquals(policyManager.getAuthorizedPrincipals(paths[j], new Usecase("view")).toString(), snapshotPolicyManager.getAuthorizedPrincipals(paths[j], new Usecase("view")).toString());
+                }
+            }
+            assertEquals(policyManager.getAccessibleSubtrees("/", identities[i], new Usecase("view")).getSubtrees().toString(), snapshotPolicyManager.getAccessibleSubtrees("/", identities[i], new Usecase("view")).getSubtrees().toString());
+        }
+        assertEquals(java.util.Arrays.asList(policyManager.getUsecases()), java.util.Arrays.asList(snapshotPolicyManager.getUsecases()));
+    }
+
+    /**
+     * Test that policies with IP ranges are refused, because snapshots would ignore them
+     */
+    public void testIPRangesRefused() throws Exception {
+        File tmpDir = File.createTempFile("snapshot", "");
+        tmpDir.delete();
+        new File(tmpDir, "content").mkdirs();
+        FileWriter writer = new FileWriter(new File(tmpDir, "repository.xml"));
+        writer.write("<?xml version=\"1.0\"?>\n<repository class=\"org.wyona.yarep.impl.repo.vfs.VirtualFileSystemRepository\">\n  <name>IP ranges</name>\n  <content src=\"content\"/>\n</repository>\n");
+        writer.close();
+        writer = new FileWriter(new File(tmpDir, "content/.policy"));
+        writer.write("<?xml version=\"1.0\"?>\n<policy xmlns=\"http://www.wyona.org/security/1.0\">\n  <usecase id=\"view\">\n    <iprange id=\"10.0.0.0/8\" permission=\"false\"/>\n    <world permission=\"true\"/>\n  </usecase>\n</policy>\n");
+        writer.close();
+        File file = new File(tmpDir, "policies.snapshot");
+        try {
+            PolicySnapshotCompiler.compile(new RepositoryFactory().newRepository("policies-ipranges", new File(tmpDir, "repository.xml")), file);
+            fail("Policy with IP ranges has been compiled into snapshot");
+        } catch (ConfigurationException e) {
+            assertFalse(file.exists());
+        } finally {
+            new File(tmpDir, "content/.policy").delete();
+            new File(tmpDir, "content").delete();
+            new File(tmpDir, "repository.xml").delete();
+            tmpDir.delete();
+        }
+    }
+}
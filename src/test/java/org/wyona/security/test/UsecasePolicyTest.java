@@ -2,6 +2,7 @@ package org.wyona.security.test;
 
 import java.io.File;
 
+import org.wyona.security.core.ImmutableUsecasePolicy;
 import org.wyona.security.core.UsecasePolicy;
 import org.wyona.security.core.GroupPolicy;
 import org.wyona.security.core.api.Group;
@@ -153,4 +154,46 @@ public class UsecasePolicyTest extends TestCase {
         assertEquals(3, up1.getGroupPolicies().length);
         assertEquals(2, up1.getIdentityPolicies().length);
     }
+
+    /**
+     * Test merge of immutable usecase policies
+     */
+    public void testMergeImmutableUsecasePolicies() throws Exception {
+        String usecaseName = "read";
+
+        UsecasePolicy up1 = new UsecasePolicy(usecaseName);
+        up1.addGroupPolicy(new GroupPolicy("editors", true));
+        up1.addIdentity(new Identity("alice", "alice@foo.bar"), true);
+        up1.addGroupPolicy(new GroupPolicy("reviewers", true));
+        ImmutableUsecasePolicy immutable1 = ImmutableUsecasePolicy.copyOf(up1);
+
+        UsecasePolicy up2 = new UsecasePolicy(usecaseName);
+        up2.addGroupPolicy(new GroupPolicy("administrators", true));
+        up2.addGroupPolicy(new GroupPolicy("reviewers", false));
+        up2.addIdentity(new Identity("bob", "bob@foo.bar"), true);
+        up2.addIdentity(new Identity("alice", "alice@foo.bar"), false);
+        up2.addIdentity(new Identity(), false);
+
+        ImmutableUsecasePolicy merged = immutable1.mergedWith(up2);
+        up1.merge(up2);
+        assertEquals(up1.getItemPolicies().length, merged.getItemPolicies().length);
+        for (int i = 0; i < up1.getItemPolicies().length; i++) {
+            assertEquals(up1.getItemPolicies()[i].getId(), merged.getItemPolicies()[i].getId());
+            assertEquals(up1.getItemPolicies()[i].getPermission(), merged.getItemPolicies()[i].getPermission());
+        }
+        assertTrue(merged.getIdentityPolicy(new Identity("alice", "alice@foo.bar")).getPermission());
+        assertFalse(merged.getIdentityPolicy(new Identity()).getPermission());
+        assertFalse(merged.getGroupPolicy("reviewers") == null);
+        assertTrue(merged.getGroupPolicy("reviewers").getPermission());
+
+        // INFO: Neither of both usecase policies is modified and item policies are shared
+        assertEquals(3, immutable1.getItemPolicies().length);
+        assertSame(immutable1.getGroupPolicy("editors"), merged.getGroupPolicy("editors"));
+        assertSame(immutable1, immutable1.mergedWith(immutable1));
+        try {
+            merged.addGroupPolicy(new GroupPolicy("guests", true));
+            fail("Immutable usecase policy must not be modifiable");
+        } catch (UnsupportedOperationException e) {
+        }
+    }
 }
@@ -0,0 +1,46 @@
+package org.wyona.security.test;
+
+import java.io.ByteArrayInputStream;
+
+import org.wyona.security.impl.UsecaseRegistry;
+
+import junit.framework.TestCase;
+
+/**
+ * Test for the usecase registry.
+ */
+public class UsecaseRegistryTest extends TestCase {
+
+    private static final String USECASES = "<?xml version=\"1.0\"?>" +
+        "<usecases xmlns=\"http://www.wyona.org/security/1.0\">" +
+        "<usecase id=\"view\"><label lang=\"en\">View/Read</label><label lang=\"de\">Inhalt lesen</label></usecase>" +
+        "<usecase id=\"workflow.approve\"/>" +
+        "</usecases>";
+
+    /**
+     * Test reading configured usecases
+     */
+    public void testRead() throws Exception {
+        UsecaseRegistry usecaseRegistry = UsecaseRegistry.read(new ByteArrayInputStream(USECASES.getBytes("UTF-8")));
+        assertEquals(2, usecaseRegistry.getNumberOfUsecases());
+        assertEquals(0, usecaseRegistry.getId("view"));
+        assertEquals(1, usecaseRegistry.getId("workflow.approve"));
+        assertEquals("Inhalt lesen", usecaseRegistry.getLabel("view", "de"));
+        assertEquals("View/Read", usecaseRegistry.getLabel("view", "fr"));
+        assertNull(usecaseRegistry.getLabel("workflow.approve", "en"));
+    }
+
+    /**
+     * Test that usecases which are not configured get the next free ID
+     */
+    public void testIntern() throws Exception {
+        UsecaseRegistry usecaseRegistry = UsecaseRegistry.createDefault();
+        int numberOfUsecases = usecaseRegistry.getNumberOfUsecases();
+        assertEquals(-1, usecaseRegistry.getId("read"));
+        assertEquals(numberOfUsecases, usecaseRegistry.intern("read"));
+        assertEquals(numberOfUsecases, usecaseRegistry.intern("read"));
+        assertEquals("read", usecaseRegistry.getName(numberOfUsecases));
+        assertEquals(numberOfUsecases, usecaseRegistry.getUsecases().length);
+        assertEquals(numberOfUsecases + 1, usecaseRegistry.size());
+    }
+}